@@ -117,6 +117,10 @@ public class MmsHttpClient {
                 + ", PDU size=" + (pdu != null ? pdu.length : 0));
         checkMethod(method);
         HttpURLConnection connection = null;
+        // Only drop the connection on failure. After a fully read response, closing the input
+        // stream returns the connection to the pool so that the following requests of the same
+        // batch to the same MMSC can reuse it (HTTP keep-alive).
+        boolean keepAlive = false;
         try {
             Proxy proxy = Proxy.NO_PROXY;
             if (isProxySet) {
@@ -202,6 +206,7 @@ public class MmsHttpClient {
             final byte[] responseBody = byteOut.toByteArray();
             Log.d(MmsService.TAG, "HTTP: response size="
                     + (responseBody != null ? responseBody.length : 0));
+            keepAlive = true;
             return responseBody;
         } catch (MalformedURLException e) {
             final String redactedUrl = Utils.redactUrlForNonVerbose(urlString);
@@ -215,7 +220,7 @@ public class MmsHttpClient {
             Log.e(MmsService.TAG, "HTTP: IO failure", e);
             throw new MmsHttpException(0/*statusCode*/, e);
         } finally {
-            if (connection != null) {
+            if (connection != null && !keepAlive) {
                 connection.disconnect();
             }
         }
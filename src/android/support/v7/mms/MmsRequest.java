@@ -96,6 +96,8 @@ abstract class MmsRequest implements Parcelable {
     protected final PendingIntent mPendingIntent;
     // Thread pool for transferring PDU with MMS apps
     protected final ExecutorService mPduTransferExecutor = Executors.newCachedThreadPool();
+    // Number of bytes sent and received over HTTP by the last successful execution
+    private volatile long mTransferredBytes;
 
     protected MmsRequest(final String locationUrl, final Uri pduUri,
             final PendingIntent pendingIntent) {
@@ -104,6 +106,42 @@ abstract class MmsRequest implements Parcelable {
         mPendingIntent = pendingIntent;
     }
 
+    /**
+     * Get the size of the PDU this request uploads
+     *
+     * @return the request PDU size in bytes, 0 if nothing is uploaded
+     */
+    protected int getRequestPduSize() {
+        return 0;
+    }
+
+    /**
+     * Get the number of bytes transferred by the last successful execution
+     *
+     * @return the sum of the uploaded and downloaded PDU sizes in bytes
+     */
+    long getTransferredBytes() {
+        return mTransferredBytes;
+    }
+
+    /**
+     * Get the key to group requests by MMSC host for bounding per-host parallelism.
+     * Requests without a location URL go to the MMSC of the APN.
+     *
+     * @param apnMmscHost the MMSC host of the APN of the MMS network, or an empty string if it
+     *        is not known
+     * @return the host of the location URL, or else the APN MMSC host
+     */
+    String getHostKey(final String apnMmscHost) {
+        if (!TextUtils.isEmpty(mLocationUrl)) {
+            final String host = Uri.parse(mLocationUrl).getHost();
+            if (host != null) {
+                return host;
+            }
+        }
+        return apnMmscHost;
+    }
+
     /**
      * Run the MMS request.
      *
@@ -165,6 +203,8 @@ abstract class MmsRequest implements Parcelable {
                         }
                         // Notify APN loader this is a valid APN
                         apn.setSuccess();
+                        mTransferredBytes = getRequestPduSize()
+                                + (response != null ? response.length : 0);
                         result = Activity.RESULT_OK;
                         break;
                     } catch (MmsHttpException e) {
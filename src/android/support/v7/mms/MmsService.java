@@ -25,8 +25,6 @@ import android.os.Process;
 import android.telephony.SmsManager;
 import android.util.Log;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 
 /**
@@ -37,6 +35,8 @@ public class MmsService extends Service {
 
     //The default number of threads allowed to run MMS requests
     private static final int DEFAULT_THREAD_POOL_SIZE = 4;
+    // The default number of requests allowed to run against the same MMSC host at once
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 2;
     // Delay before stopping the service
     private static final int SERVICE_STOP_DELAY_MILLIS = 2000;
 
@@ -160,10 +160,9 @@ public class MmsService extends Service {
         return pid == getMyPid();
     }
 
-    // Request execution thread pools. One thread pool for sending and one for downloading.
-    // The size of the thread pool controls the parallelism of request execution.
-    // See {@link setThreadPoolSize}
-    private final ExecutorService[] mExecutors = new ExecutorService[2];
+    // Request scheduler. Sends and downloads queued together share one MMS network
+    // acquisition. The size of its thread pool controls the parallelism of request execution.
+    private MmsTransferScheduler mScheduler;
 
     // Active request count
     private int mActiveRequestCount;
@@ -183,11 +182,10 @@ public class MmsService extends Service {
 
         ensureLoaders(this);
 
-        for (int i = 0; i < mExecutors.length; i++) {
-            mExecutors[i] = Executors.newFixedThreadPool(sThreadPoolSize);
-        }
-
         mNetworkManager = new MmsNetworkManager(this);
+        // Keep the overall parallelism of the former separate send and download pools
+        mScheduler = new MmsTransferScheduler(mNetworkManager, getApnSettingsLoader(),
+                sThreadPoolSize * 2, DEFAULT_MAX_REQUESTS_PER_HOST);
 
         synchronized (this) {
             mActiveRequestCount = 0;
@@ -199,9 +197,7 @@ public class MmsService extends Service {
     public void onDestroy() {
         super.onDestroy();
 
-        for (ExecutorService executor : mExecutors) {
-            executor.shutdown();
-        }
+        mScheduler.shutdown();
     }
 
     @Override
@@ -222,18 +218,31 @@ public class MmsService extends Service {
                 final MmsRequest request = intent.getParcelableExtra(EXTRA_REQUEST);
                 if (request != null) {
                     try {
-                        retainService(request, () -> {
-                            try {
-                                request.execute(
-                                        MmsService.this,
-                                        mNetworkManager,
-                                        getApnSettingsLoader(),
-                                        getCarrierConfigValuesLoader(),
-                                        getUserAgentInfoLoader());
-                            } catch (Exception e) {
-                                Log.w(TAG, "Unexpected execution failure", e);
-                            } finally {
-                                releaseService();
+                        retainService(request, new MmsTransferScheduler.Transfer() {
+                            @Override
+                            public void run(final MmsRequest r) {
+                                try {
+                                    r.execute(
+                                            MmsService.this,
+                                            mNetworkManager,
+                                            getApnSettingsLoader(),
+                                            getCarrierConfigValuesLoader(),
+                                            getUserAgentInfoLoader());
+                                } catch (Exception e) {
+                                    Log.w(TAG, "Unexpected execution failure", e);
+                                } finally {
+                                    releaseService();
+                                }
+                            }
+
+                            @Override
+                            public void fail(final MmsRequest r, final int result) {
+                                try {
+                                    r.returnResult(MmsService.this, result, null/*response*/,
+                                            0/*httpStatusCode*/);
+                                } finally {
+                                    releaseService();
+                                }
                             }
                         });
                         scheduled = true;
@@ -262,15 +271,15 @@ public class MmsService extends Service {
     }
 
     /**
-     * Retain the service for executing the request in service thread pool
+     * Retain the service for executing the request in the request scheduler
      *
      * @param request The request to execute
-     * @param runnable The runnable to run the request in thread pool
+     * @param transfer The work to run the request in the scheduler
      */
-    private void retainService(final MmsRequest request, final Runnable runnable) {
-        final ExecutorService executor = getRequestExecutor(request);
+    private void retainService(final MmsRequest request,
+            final MmsTransferScheduler.Transfer transfer) {
         synchronized (this) {
-            executor.execute(runnable);
+            mScheduler.schedule(request, transfer);
             mActiveRequestCount++;
         }
     }
@@ -336,16 +345,6 @@ public class MmsService extends Service {
         }
     }
 
-    private ExecutorService getRequestExecutor(final MmsRequest request) {
-        if (request instanceof SendRequest) {
-            // Send
-            return mExecutors[0];
-        } else {
-            // Download
-            return mExecutors[1];
-        }
-    }
-
     @Override
     public IBinder onBind(Intent intent) {
         return null;
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.mms;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.telephony.SmsManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Schedules MMS requests in batches over a single MMS network acquisition.
+ *
+ * The first request queued while the scheduler is idle opens a batch: the MMS network is
+ * acquired once on behalf of the whole batch, then all queued sends and downloads are drained
+ * over it, with at most a fixed number of requests in flight to the same MMSC host. The
+ * network is released once the queue is empty. Requests still acquire and release the network
+ * themselves, but since the batch holds a reference this is only a cheap ref count change.
+ * If the batch fails to acquire the network, all the requests queued in it fail at once rather
+ * than each trying again.
+ */
+class MmsTransferScheduler {
+    /**
+     * A unit of work scheduled for a request
+     */
+    interface Transfer {
+        /**
+         * Run the request. Called on a scheduler thread.
+         *
+         * @param request the request to run
+         */
+        void run(MmsRequest request);
+
+        /**
+         * Fail the request without running it. Called on a scheduler thread.
+         *
+         * @param request the request to fail
+         * @param result the SmsManager MMS error code to report
+         */
+        void fail(MmsRequest request, int result);
+    }
+
+    private final MmsNetworkManager mNetworkManager;
+    private final ApnSettingsLoader mApnSettingsLoader;
+    private final ExecutorService mExecutor;
+    private final int mMaxRequestsPerHost;
+
+    // Requests waiting to be dispatched, in arrival order
+    private final ArrayDeque<PendingTransfer> mPending = new ArrayDeque<>();
+    // Number of requests in flight per MMSC host
+    private final Map<String, Integer> mInFlightPerHost = new HashMap<>();
+    // Number of requests in flight
+    private int mInFlightCount;
+    // True between the start of a batch and the release of its network
+    private boolean mBatchOpen;
+    // True while the batch network acquisition is in progress
+    private boolean mAcquiring;
+    // True if the batch successfully acquired the network and must release it
+    private boolean mNetworkHeld;
+    // True once the owning service is going away
+    private boolean mShutdown;
+    // MMSC host of the APN of the batch network, the host of requests without a location URL
+    private String mApnMmscHost = "";
+
+    // Stats of the current batch
+    private long mBatchStartMs;
+    private long mNetworkAcquiredMs;
+    private int mBatchRequestCount;
+    private long mBatchBytes;
+
+    /**
+     * Constructor
+     *
+     * @param networkManager the MMS network manager shared by all requests
+     * @param apnSettingsLoader the APN loader, to find the MMSC host of the batch network
+     * @param threadPoolSize the max number of requests running at the same time
+     * @param maxRequestsPerHost the max number of requests running against the same host
+     */
+    MmsTransferScheduler(final MmsNetworkManager networkManager,
+            final ApnSettingsLoader apnSettingsLoader, final int threadPoolSize,
+            final int maxRequestsPerHost) {
+        mNetworkManager = networkManager;
+        mApnSettingsLoader = apnSettingsLoader;
+        // One extra thread for acquiring the batch network
+        mExecutor = Executors.newFixedThreadPool(threadPoolSize + 1);
+        mMaxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * Queue a request for execution in the current batch, opening one if needed
+     *
+     * @param request the request to queue
+     * @param transfer the work to run for the request
+     * @throws RejectedExecutionException if the scheduler has been shut down
+     */
+    void schedule(final MmsRequest request, final Transfer transfer) {
+        synchronized (this) {
+            if (mShutdown) {
+                throw new RejectedExecutionException("Scheduler shut down");
+            }
+            mPending.add(new PendingTransfer(request, transfer));
+            mBatchRequestCount++;
+            if (!mBatchOpen) {
+                openBatchLocked();
+            } else {
+                dispatchLocked();
+            }
+        }
+    }
+
+    /**
+     * Stop accepting new requests. Requests already queued are still executed.
+     */
+    void shutdown() {
+        synchronized (this) {
+            mShutdown = true;
+            if (!mBatchOpen) {
+                mExecutor.shutdown();
+            }
+        }
+    }
+
+    private void openBatchLocked() {
+        mBatchOpen = true;
+        mAcquiring = true;
+        mNetworkHeld = false;
+        mBatchStartMs = SystemClock.elapsedRealtime();
+        mNetworkAcquiredMs = mBatchStartMs;
+        mBatchBytes = 0;
+        mExecutor.execute(this::acquireBatchNetwork);
+    }
+
+    private void acquireBatchNetwork() {
+        boolean acquired = false;
+        String apnMmscHost = "";
+        try {
+            mNetworkManager.acquireNetwork();
+            acquired = true;
+            apnMmscHost = getApnMmscHost();
+        } catch (MmsNetworkException e) {
+            Log.w(MmsService.TAG, "Failed to acquire MMS network for batch", e);
+        } catch (Exception e) {
+            Log.w(MmsService.TAG, "Unexpected failure acquiring MMS network for batch", e);
+        }
+        final List<PendingTransfer> failed = new ArrayList<>();
+        synchronized (this) {
+            mAcquiring = false;
+            mNetworkHeld = acquired;
+            mApnMmscHost = apnMmscHost;
+            mNetworkAcquiredMs = SystemClock.elapsedRealtime();
+            if (acquired) {
+                dispatchLocked();
+            } else {
+                // Nothing was dispatched before the acquisition, so this is the whole batch
+                failed.addAll(mPending);
+                mPending.clear();
+            }
+            maybeCloseBatchLocked();
+        }
+        for (final PendingTransfer pending : failed) {
+            pending.mTransfer.fail(pending.mRequest, SmsManager.MMS_ERROR_UNABLE_CONNECT_MMS);
+        }
+    }
+
+    /**
+     * Get the MMSC host of the APN of the acquired MMS network
+     *
+     * @return the host, or an empty string if it can't be found
+     */
+    private String getApnMmscHost() {
+        final List<ApnSettingsLoader.Apn> apns =
+                mApnSettingsLoader.get(mNetworkManager.getApnName());
+        if (apns != null && apns.size() > 0 && !TextUtils.isEmpty(apns.get(0).getMmsc())) {
+            final String host = Uri.parse(apns.get(0).getMmsc()).getHost();
+            if (host != null) {
+                return host;
+            }
+        }
+        return "";
+    }
+
+    private void dispatchLocked() {
+        if (mAcquiring) {
+            return;
+        }
+        final Iterator<PendingTransfer> iterator = mPending.iterator();
+        while (iterator.hasNext()) {
+            final PendingTransfer pending = iterator.next();
+            final String hostKey = pending.mRequest.getHostKey(mApnMmscHost);
+            final int inFlight = getInFlightLocked(hostKey);
+            if (inFlight >= mMaxRequestsPerHost) {
+                continue;
+            }
+            iterator.remove();
+            pending.mHostKey = hostKey;
+            mInFlightPerHost.put(pending.mHostKey, inFlight + 1);
+            mInFlightCount++;
+            mExecutor.execute(() -> runTransfer(pending));
+        }
+    }
+
+    private void runTransfer(final PendingTransfer pending) {
+        try {
+            pending.mTransfer.run(pending.mRequest);
+        } finally {
+            synchronized (this) {
+                mInFlightCount--;
+                final int inFlight = getInFlightLocked(pending.mHostKey) - 1;
+                if (inFlight > 0) {
+                    mInFlightPerHost.put(pending.mHostKey, inFlight);
+                } else {
+                    mInFlightPerHost.remove(pending.mHostKey);
+                }
+                mBatchBytes += pending.mRequest.getTransferredBytes();
+                dispatchLocked();
+                maybeCloseBatchLocked();
+            }
+        }
+    }
+
+    private int getInFlightLocked(final String hostKey) {
+        final Integer inFlight = mInFlightPerHost.get(hostKey);
+        return inFlight != null ? inFlight : 0;
+    }
+
+    private void maybeCloseBatchLocked() {
+        if (!mBatchOpen || mAcquiring || mInFlightCount > 0 || !mPending.isEmpty()) {
+            return;
+        }
+        logBatchStatsLocked();
+        if (mNetworkHeld) {
+            mNetworkManager.releaseNetwork();
+            mNetworkHeld = false;
+        }
+        mBatchOpen = false;
+        mBatchRequestCount = 0;
+        if (mShutdown) {
+            mExecutor.shutdown();
+        }
+    }
+
+    private void logBatchStatsLocked() {
+        final long nowMs = SystemClock.elapsedRealtime();
+        final long batchMs = nowMs - mBatchStartMs;
+        final long holdMs = nowMs - mNetworkAcquiredMs;
+        final long bytesPerSecond = holdMs > 0 ? mBatchBytes * 1000 / holdMs : 0;
+        Log.i(MmsService.TAG, "MMS batch done: requests=" + mBatchRequestCount
+                + ", networkAcquired=" + mNetworkHeld
+                + ", acquireMs=" + (mNetworkAcquiredMs - mBatchStartMs)
+                + ", networkHoldMs=" + holdMs
+                + ", totalMs=" + batchMs
+                + ", bytes=" + mBatchBytes
+                + ", bytesPerSecond=" + bytesPerSecond);
+    }
+
+    private static class PendingTransfer {
+        final MmsRequest mRequest;
+        final Transfer mTransfer;
+        // Set when dispatched, as the APN MMSC host is only known once the network is up
+        String mHostKey;
+
+        PendingTransfer(final MmsRequest request, final Transfer transfer) {
+            mRequest = request;
+            mTransfer = transfer;
+        }
+    }
+}
@@ -83,6 +83,11 @@ class SendRequest extends MmsRequest {
                 mmsConfig, userAgent, uaProfUrl);
     }
 
+    @Override
+    protected int getRequestPduSize() {
+        return mPduData != null ? mPduData.length : 0;
+    }
+
     @Override
     protected String getHttpRequestUrl(final ApnSettingsLoader.Apn apn) {
         return !TextUtils.isEmpty(mLocationUrl) ? mLocationUrl : apn.getMmsc();
@@ -22,6 +22,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Configuration;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.support.v7.mms.CarrierConfigValuesLoader;
@@ -30,7 +31,7 @@ import android.telephony.CarrierConfigManager;
 
 import androidx.annotation.NonNull;
 
-import com.android.messaging.datamodel.DataModel;
+import com.android.messaging.datamodel.action.FixupMessageStatusOnStartupAction;
 import com.android.messaging.receiver.SmsReceiver;
 import com.android.messaging.sms.ApnDatabase;
 import com.android.messaging.sms.BugleApnSettingsLoader;
@@ -48,9 +49,17 @@ import java.lang.Thread.UncaughtExceptionHandler;
 
 /**
  * The application object
+ *
+ * Startup is staged: only what the first frame needs runs synchronously, the rest of the
+ * initialization waits for the main thread to be idle, and the services of the factory are
+ * created on first use. Each stage is a trace section. Staging can be turned off to compare
+ * startup times with:
+ *  adb shell setprop log.tag.MessagingAppEager DEBUG
+ * (see tools/coldstart).
  */
 public class BugleApplication extends Application implements UncaughtExceptionHandler {
     private static final String TAG = LogUtil.BUGLE_TAG;
+    private static final String EAGER_STARTUP_TAG = "MessagingAppEager";
 
     private UncaughtExceptionHandler sSystemUncaughtExceptionHandler;
 
@@ -79,26 +88,49 @@ public class BugleApplication extends Application implements UncaughtExceptionHa
     public void initializeSync(final Factory factory) {
         Trace.beginSection("app.initializeSync");
         final Context context = factory.getApplicationContext();
-        final DataModel dataModel = factory.getDataModel();
-        final CarrierConfigValuesLoader carrierConfigValuesLoader =
-                factory.getCarrierConfigValuesLoader();
 
         maybeStartProfiling();
 
-        BugleApplication.updateAppConfig(context);
-
         // Initialize MMS lib
-        initMmsLib(context, carrierConfigValuesLoader);
+        initMmsLib(context, factory);
         // Initialize APN database
         ApnDatabase.initializeAppContext(context);
-        // Fixup messages in flight if we crashed and send any pending
-        dataModel.onApplicationCreated();
+        // Fixup messages in flight if we crashed. The data model is created when it runs.
+        FixupMessageStatusOnStartupAction.fixupMessageStatus();
+
+        if (isStagedStartupEnabled()) {
+            Looper.getMainLooper().getQueue().addIdleHandler(() -> {
+                initializeIdle(factory);
+                return false;
+            });
+        } else {
+            initializeIdle(factory);
+        }
+        Trace.endSection();
+    }
+
+    // Called from initializeSync(), once the main thread is idle with staged startup
+    private static void initializeIdle(final Factory factory) {
+        Trace.beginSection("app.initializeIdle");
+        final Context context = factory.getApplicationContext();
+
+        BugleApplication.updateAppConfig(context);
+        // Send any pending messages and start syncing
+        factory.getDataModel().onApplicationStarted();
         // Register carrier config change receiver
         registerCarrierConfigChangeReceiver(context);
 
         Trace.endSection();
     }
 
+    /**
+     * @return true unless startup was set to initialize everything synchronously
+     */
+    public static boolean isStagedStartupEnabled() {
+        // Use android.util.Log as Gservices are not loaded yet
+        return !android.util.Log.isLoggable(EAGER_STARTUP_TAG, android.util.Log.DEBUG);
+    }
+
     private static void registerCarrierConfigChangeReceiver(final Context context) {
         context.registerReceiver(new BroadcastReceiver() {
             @Override
@@ -110,10 +142,15 @@ public class BugleApplication extends Application implements UncaughtExceptionHa
         Context.RECEIVER_EXPORTED/*UNAUDITED*/);
     }
 
-    private static void initMmsLib(final Context context,
-            final CarrierConfigValuesLoader carrierConfigValuesLoader) {
+    private static void initMmsLib(final Context context, final Factory factory) {
         MmsManager.setApnSettingsLoader(new BugleApnSettingsLoader(context));
-        MmsManager.setCarrierConfigValuesLoader(carrierConfigValuesLoader);
+        // The carrier config loader is only created when the MMS lib first needs it
+        MmsManager.setCarrierConfigValuesLoader(new CarrierConfigValuesLoader() {
+            @Override
+            public Bundle get(final int subId) {
+                return factory.getCarrierConfigValuesLoader().get(subId);
+            }
+        });
         MmsManager.setUserAgentInfoLoader(new BugleUserAgentInfoLoader(context));
     }
 
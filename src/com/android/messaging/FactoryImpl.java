@@ -42,23 +42,30 @@ import com.android.messaging.util.MediaUtil;
 import com.android.messaging.util.MediaUtilImpl;
 import com.android.messaging.util.OsUtil;
 import com.android.messaging.util.PhoneUtils;
+import com.android.messaging.util.Trace;
 
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The factory of the application. With staged startup (see {@link BugleApplication}), the
+ * services the first frame doesn't need are only created on first use.
+ */
 class FactoryImpl extends Factory {
     private BugleApplication mApplication;
-    private DataModel mDataModel;
     private BugleApplicationPrefs mBugleApplicationPrefs;
     private BugleWidgetPrefs mBugleWidgetPrefs;
     private Context mApplicationContext;
     private UIIntents mUIIntents;
     private MemoryCacheManager mMemoryCacheManager;
-    private MediaResourceManager mMediaResourceManager;
-    private MediaCacheManager mMediaCacheManager;
     private ContactContentObserver mContactContentObserver;
     private MediaUtil mMediaUtil;
     private SparseArray<BugleSubscriptionPrefs> mSubscriptionPrefs;
-    private BugleCarrierConfigValuesLoader mCarrierConfigValuesLoader;
+
+    // Created on first use
+    private volatile DataModel mDataModel;
+    private volatile MediaResourceManager mMediaResourceManager;
+    private volatile MediaCacheManager mMediaCacheManager;
+    private volatile BugleCarrierConfigValuesLoader mCarrierConfigValuesLoader;
 
     // Cached subId->instance for L_MR1 and beyond
     private static final ConcurrentHashMap<Integer, PhoneUtils> sPhoneUtilsInstanceCacheLMR1 =
@@ -79,19 +86,23 @@ class FactoryImpl extends Factory {
 
         // At this point Factory is published. Services can now get initialized and depend on
         // Factory.get().
+        Trace.beginSection("app.registerFactory");
         factory.mApplication = application;
         factory.mApplicationContext = applicationContext;
         factory.mMemoryCacheManager = new MemoryCacheManager();
-        factory.mMediaCacheManager = new BugleMediaCacheManager();
-        factory.mMediaResourceManager = new MediaResourceManager();
         factory.mBugleApplicationPrefs = new BugleApplicationPrefs(applicationContext);
-        factory.mDataModel = new DataModelImpl(applicationContext);
         factory.mBugleWidgetPrefs = new BugleWidgetPrefs(applicationContext);
         factory.mUIIntents = new UIIntentsImpl();
         factory.mContactContentObserver = new ContactContentObserver();
         factory.mMediaUtil = new MediaUtilImpl();
         factory.mSubscriptionPrefs = new SparseArray<>();
-        factory.mCarrierConfigValuesLoader = new BugleCarrierConfigValuesLoader(applicationContext);
+        if (!BugleApplication.isStagedStartupEnabled()) {
+            factory.getMediaCacheManager();
+            factory.getMediaResourceManager();
+            factory.getDataModel();
+            factory.getCarrierConfigValuesLoader();
+        }
+        Trace.endSection();
 
         if (OsUtil.hasRequiredPermissions()) {
             factory.onRequiredPermissionsAcquired();
@@ -123,7 +134,18 @@ class FactoryImpl extends Factory {
 
     @Override
     public DataModel getDataModel() {
-        return mDataModel;
+        DataModel dataModel = mDataModel;
+        if (dataModel == null) {
+            synchronized (this) {
+                if ((dataModel = mDataModel) == null) {
+                    Trace.beginSection("app.createDataModel");
+                    dataModel = new DataModelImpl(mApplicationContext);
+                    mDataModel = dataModel;
+                    Trace.endSection();
+                }
+            }
+        }
+        return dataModel;
     }
 
     @Override
@@ -163,12 +185,30 @@ class FactoryImpl extends Factory {
 
     @Override
     public MediaResourceManager getMediaResourceManager() {
-        return mMediaResourceManager;
+        MediaResourceManager mediaResourceManager = mMediaResourceManager;
+        if (mediaResourceManager == null) {
+            synchronized (this) {
+                if ((mediaResourceManager = mMediaResourceManager) == null) {
+                    mediaResourceManager = new MediaResourceManager();
+                    mMediaResourceManager = mediaResourceManager;
+                }
+            }
+        }
+        return mediaResourceManager;
     }
 
     @Override
     public MediaCacheManager getMediaCacheManager() {
-        return mMediaCacheManager;
+        MediaCacheManager mediaCacheManager = mMediaCacheManager;
+        if (mediaCacheManager == null) {
+            synchronized (this) {
+                if ((mediaCacheManager = mMediaCacheManager) == null) {
+                    mediaCacheManager = new BugleMediaCacheManager();
+                    mMediaCacheManager = mediaCacheManager;
+                }
+            }
+        }
+        return mediaCacheManager;
     }
 
     @Override
@@ -209,6 +249,15 @@ class FactoryImpl extends Factory {
 
     @Override
     public BugleCarrierConfigValuesLoader getCarrierConfigValuesLoader() {
-        return mCarrierConfigValuesLoader;
+        BugleCarrierConfigValuesLoader loader = mCarrierConfigValuesLoader;
+        if (loader == null) {
+            synchronized (this) {
+                if ((loader = mCarrierConfigValuesLoader) == null) {
+                    loader = new BugleCarrierConfigValuesLoader(mApplicationContext);
+                    mCarrierConfigValuesLoader = loader;
+                }
+            }
+        }
+        return loader;
     }
 }
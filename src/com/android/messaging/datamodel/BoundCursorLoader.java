@@ -17,16 +17,28 @@
 package com.android.messaging.datamodel;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.net.Uri;
 
 import androidx.loader.content.CursorLoader;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Extension to basic cursor loader that has an attached binding id
  */
 public class BoundCursorLoader extends CursorLoader {
+    // Number of queries run by all the loaders, to measure the effect of change notifications
+    private static final AtomicLong sLoadCount = new AtomicLong();
+
     private final String mBindingId;
 
+    private boolean mDiffUpdates;
+    private boolean mReversed;
+    private boolean mNeighborsAffectRows;
+    // Snapshot of the last loaded cursor, which the next one is diffed against
+    private volatile DiffingCursor.Snapshot mLastSnapshot;
+
     /**
      * Create cursor loader for associated binding id
      */
@@ -43,4 +55,51 @@ public class BoundCursorLoader extends CursorLoader {
     public String getBindingId() {
         return mBindingId;
     }
+
+    /**
+     * Deliver {@link DiffingCursor}s, carrying the item level changes from the previously loaded
+     * cursor
+     * @param reversed true if the rows are displayed last to first
+     * @param neighborsAffectRows true if rows are displayed differently depending on their
+     *        adjacent rows, so that they are rebound when their neighbors change
+     */
+    public void enableDiffUpdates(final boolean reversed, final boolean neighborsAffectRows) {
+        mDiffUpdates = true;
+        mReversed = reversed;
+        mNeighborsAffectRows = neighborsAffectRows;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        final Cursor cursor = queryInBackground();
+        if (!mDiffUpdates || cursor == null) {
+            return cursor;
+        }
+        final DiffingCursor.Snapshot snapshot =
+                DiffingCursor.Snapshot.create(cursor, mReversed, mNeighborsAffectRows);
+        if (snapshot == null) {
+            // Too many rows to diff, the next cursor won't be diffed against this one either
+            mLastSnapshot = null;
+            return cursor;
+        }
+        final DiffingCursor diffingCursor = new DiffingCursor(cursor, snapshot, mLastSnapshot);
+        mLastSnapshot = snapshot;
+        return diffingCursor;
+    }
+
+    /**
+     * Query the rows, on the loader thread. Subclasses may return a cursor queried earlier
+     * instead, with a {@link ForceLoadContentObserver} registered to reload on changes.
+     */
+    protected Cursor queryInBackground() {
+        sLoadCount.incrementAndGet();
+        return super.loadInBackground();
+    }
+
+    /**
+     * @return the number of queries run by all the loaders of this process
+     */
+    static long getLoadCount() {
+        return sLoadCount.get();
+    }
 }
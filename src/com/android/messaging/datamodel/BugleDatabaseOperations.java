@@ -432,10 +432,26 @@ public class BugleDatabaseOperations {
     public static boolean deleteConversation(final DatabaseWrapper dbWrapper,
             final String conversationId, final long cutoffTimestamp) {
         Assert.isNotMainThread();
+        final List<Uri> scratchUris = new ArrayList<>();
         dbWrapper.beginTransaction();
         boolean conversationDeleted = false;
         boolean conversationMessagesDeleted = false;
         try {
+            // Delete the bulk of the messages in batches first, so that other threads get the
+            // database between batches. The transaction is only yielded while messages are left,
+            // so the conversation row below is deleted in the same commit as its last message.
+            if (cutoffTimestamp == Long.MAX_VALUE) {
+                BulkDeleter.get().deleteConversationMessages(dbWrapper, conversationId,
+                        MessageColumns.CONVERSATION_ID + "=?", new String[] { conversationId },
+                        scratchUris);
+            } else {
+                BulkDeleter.get().deleteConversationMessages(dbWrapper, conversationId,
+                        MessageColumns.CONVERSATION_ID + "=? AND "
+                                + MessageColumns.RECEIVED_TIMESTAMP + "<=?",
+                        new String[] { conversationId, Long.toString(cutoffTimestamp) },
+                        scratchUris);
+            }
+
             // Delete existing messages
             if (cutoffTimestamp == Long.MAX_VALUE) {
                 // Delete parts and messages
@@ -489,6 +505,7 @@ public class BugleDatabaseOperations {
         } finally {
             dbWrapper.endTransaction();
         }
+        BulkDeleter.deleteScratchFiles(scratchUris);
         return conversationDeleted;
     }
 
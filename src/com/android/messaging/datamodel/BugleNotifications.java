@@ -50,8 +50,10 @@ import com.android.messaging.Factory;
 import com.android.messaging.R;
 import com.android.messaging.datamodel.MessageNotificationState.BundledMessageNotificationState;
 import com.android.messaging.datamodel.MessageNotificationState.ConversationLineInfo;
+import com.android.messaging.datamodel.MessageNotificationState.MessageLineInfo;
 import com.android.messaging.datamodel.MessageNotificationState.MultiConversationNotificationState;
 import com.android.messaging.datamodel.MessageNotificationState.MultiMessageNotificationState;
+import com.android.messaging.datamodel.MessageNotificationState.NotificationLineInfo;
 import com.android.messaging.datamodel.action.MarkAsReadAction;
 import com.android.messaging.datamodel.action.MarkAsSeenAction;
 import com.android.messaging.datamodel.action.RedownloadMmsAction;
@@ -79,10 +81,12 @@ import com.android.messaging.util.PendingIntentConstants;
 import com.android.messaging.util.ThreadUtil;
 import com.android.messaging.util.UriUtil;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -116,6 +120,10 @@ public class BugleNotifications {
 
     private static final Set<NotificationState> sPendingNotifications = new HashSet<>();
 
+    // Content signatures of the posted notification group children by conversation id, so that
+    // the children whose lines did not change are not rebuilt on every update
+    private static final Map<String, String> sPostedChildSignatures = new HashMap<>();
+
     private static int sWearableImageWidth;
     private static int sWearableImageHeight;
     private static int sIconWidth;
@@ -234,6 +242,13 @@ public class BugleNotifications {
         // createMessageNotification). We need to do bookkeeping to track the current set of
         // notification group children, including removing them when we cancel notifications).
         if (type == PendingIntentConstants.SMS_NOTIFICATION_ID) {
+            synchronized (sPostedChildSignatures) {
+                if (conversationId != null) {
+                    sPostedChildSignatures.remove(conversationId);
+                } else {
+                    sPostedChildSignatures.clear();
+                }
+            }
             final Context context = Factory.get().getApplicationContext();
             final ConversationIdSet groupChildIds = getGroupChildIds(context);
 
@@ -564,14 +579,29 @@ public class BugleNotifications {
             cancelStaleGroupChildren(oldGroupChildIds, state);
         }
 
-        // Send per-conversation notifications (if there are multiple conversations).
+        // Send per-conversation notifications (if there are multiple conversations). Children
+        // which are already posted with the same lines are left alone.
         final ConversationIdSet groupChildIds = new ConversationIdSet();
         if (state instanceof MultiConversationNotificationState) {
-            for (final NotificationState child :
+            for (final MessageNotificationState child :
                 ((MultiConversationNotificationState) state).mChildren) {
-                processAndSend(child, true /* silent */, softSound);
-                if (child.mConversationIds != null) {
-                    groupChildIds.add(child.mConversationIds.first());
+                final String childConversationId = child.mConversationIds != null
+                        ? child.mConversationIds.first() : null;
+                final String signature = getChildSignature(child);
+                final boolean changed;
+                synchronized (sPostedChildSignatures) {
+                    changed = childConversationId == null || oldGroupChildIds == null
+                            || !oldGroupChildIds.contains(childConversationId)
+                            || !signature.equals(sPostedChildSignatures.get(childConversationId));
+                    if (childConversationId != null) {
+                        sPostedChildSignatures.put(childConversationId, signature);
+                    }
+                }
+                if (changed) {
+                    processAndSend(child, true /* silent */, softSound);
+                }
+                if (childConversationId != null) {
+                    groupChildIds.add(childConversationId);
                 }
             }
         }
@@ -580,6 +610,36 @@ public class BugleNotifications {
         writeGroupChildIds(context, groupChildIds);
     }
 
+    /**
+     * @return a signature of what a notification group child shows, which changes whenever its
+     *         lines (including the text, attachment and status of their messages, e.g. once a
+     *         manually downloaded MMS arrives under the same message id), message count or
+     *         position in the group change
+     */
+    private static String getChildSignature(final MessageNotificationState child) {
+        final StringBuilder signature = new StringBuilder();
+        if (child instanceof BundledMessageNotificationState) {
+            signature.append(((BundledMessageNotificationState) child).mGroupOrder);
+        }
+        for (final ConversationLineInfo convInfo : child.mConvList.mConvInfos) {
+            signature.append('|').append(convInfo.mGroupConversationName)
+                    .append('|').append(convInfo.mTotalMessageCount);
+            for (final NotificationLineInfo lineInfo : convInfo.mLineInfos) {
+                if (lineInfo instanceof MessageLineInfo) {
+                    final MessageLineInfo messageLineInfo = (MessageLineInfo) lineInfo;
+                    signature.append('|').append(messageLineInfo.mMessageId)
+                            .append(':').append(messageLineInfo.mStatus)
+                            .append(':').append(messageLineInfo.mIsManualDownloadNeeded)
+                            .append(':').append(messageLineInfo.mAuthorFullName)
+                            .append(':').append(messageLineInfo.mText)
+                            .append(':').append(messageLineInfo.mAttachmentUri)
+                            .append(':').append(messageLineInfo.mAttachmentType);
+                }
+            }
+        }
+        return signature.toString();
+    }
+
     private static void updateBuilderAudioVibrate(final NotificationState state,
             final NotificationCompat.Builder notifBuilder, final boolean silent,
             final String conversationId) {
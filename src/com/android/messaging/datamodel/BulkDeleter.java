@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.android.messaging.Factory;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
+import com.android.messaging.datamodel.DatabaseHelper.PartColumns;
+import com.android.messaging.sms.MmsUtils;
+import com.android.messaging.util.Assert;
+import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
+import com.android.messaging.util.LatencyHistogram;
+import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.SafeAsyncTask;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deletes the messages (and their parts) of a conversation in bounded batches.
+ *
+ * Each batch deletes at most {@link #MAX_MESSAGES_PER_BATCH} messages. The batches run in the
+ * caller's transaction, which is yielded between batches so that other threads waiting for the
+ * database are not held back until the whole delete completes. The transaction is only yielded
+ * while the conversation still has messages, so that the caller can delete the conversation row
+ * before a conversation without messages is ever committed (see b/20262204). Deletes can be
+ * paused, in which case the batches deleted so far are committed at the same point and the next
+ * one waits for {@link #resume}. Media staged in our scratch space by the deleted parts is
+ * deleted in parallel on the thread pool once the caller has committed.
+ *
+ * The number of rows deleted per second and the time the database is held between yields are
+ * logged after each delete and dumped by {@link MessagingContentProvider#dump}.
+ */
+public final class BulkDeleter {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    // Bounded by the max number of SQLite host parameters (999)
+    private static final int MAX_MESSAGES_PER_BATCH = 500;
+    // Number of scratch files deleted by each thread pool task
+    private static final int MAX_FILES_PER_TASK = 32;
+
+    private static final String[] ID_PROJECTION = new String[] { MessageColumns._ID };
+    private static final String[] PART_URI_PROJECTION = new String[] { PartColumns.CONTENT_URI };
+
+    private static BulkDeleter sInstance;
+
+    // Number of outstanding pause() calls
+    private int mPauseCount;
+
+    private final LatencyHistogram mHoldTimes = new LatencyHistogram();
+    private long mDeletedCount;
+    private long mDeleteTimeMs;
+
+    public static synchronized BulkDeleter get() {
+        if (sInstance == null) {
+            sInstance = new BulkDeleter();
+        }
+        return sInstance;
+    }
+
+    private BulkDeleter() {
+    }
+
+    /**
+     * Pause the deletes in progress after their current batch, until {@link #resume} is called
+     * as many times as this
+     */
+    public synchronized void pause() {
+        mPauseCount++;
+    }
+
+    public synchronized void resume() {
+        Assert.isTrue(mPauseCount > 0);
+        if (--mPauseCount == 0) {
+            notifyAll();
+        }
+    }
+
+    private synchronized boolean isPaused() {
+        return mPauseCount > 0;
+    }
+
+    /**
+     * Block the calling thread while deletes are paused
+     */
+    @DoesNotRunOnMainThread
+    public synchronized void waitWhilePaused() {
+        Assert.isNotMainThread();
+        while (mPauseCount > 0) {
+            try {
+                wait();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Delete the messages of the conversation matching the selection, together with their parts.
+     * Must be called in a transaction that is not nested, which is yielded between batches while
+     * the conversation still has messages, and committed and released while deletes are paused.
+     *
+     * @param scratchUris receives the scratch space uris of the deleted parts, to be deleted with
+     *        {@link #deleteScratchFiles} once the transaction is committed
+     * @return the number of messages deleted
+     */
+    @DoesNotRunOnMainThread
+    public int deleteConversationMessages(final DatabaseWrapper dbWrapper,
+            final String conversationId, final String selection, final String[] selectionArgs,
+            final List<Uri> scratchUris) {
+        Assert.isNotMainThread();
+        Assert.isTrue(dbWrapper.getDatabase().inTransaction());
+        final long startMs = SystemClock.elapsedRealtime();
+        final int scratchCountBefore = scratchUris.size();
+        final LatencyHistogram holdTimes = new LatencyHistogram();
+        long holdStartMs = startMs;
+        int deleted = 0;
+        while (true) {
+            final int count = deleteBatch(dbWrapper, selection, selectionArgs, scratchUris);
+            deleted += count;
+            if (count < MAX_MESSAGES_PER_BATCH) {
+                break;
+            }
+            // Never commit the conversation without any message left
+            final long remaining = dbWrapper.queryNumEntries(DatabaseHelper.MESSAGES_TABLE,
+                    MessageColumns.CONVERSATION_ID + "=?", new String[] { conversationId });
+            if (remaining > 0 && isPaused()) {
+                // Commit what we have and release the database while paused
+                recordHoldTime(holdTimes, SystemClock.elapsedRealtime() - holdStartMs);
+                dbWrapper.setTransactionSuccessful();
+                dbWrapper.endTransaction();
+                try {
+                    waitWhilePaused();
+                } finally {
+                    dbWrapper.beginTransaction();
+                }
+                holdStartMs = SystemClock.elapsedRealtime();
+            } else if (remaining > 0 && dbWrapper.yieldTransaction()) {
+                final long nowMs = SystemClock.elapsedRealtime();
+                recordHoldTime(holdTimes, nowMs - holdStartMs);
+                holdStartMs = nowMs;
+            }
+        }
+        final long nowMs = SystemClock.elapsedRealtime();
+        recordHoldTime(holdTimes, nowMs - holdStartMs);
+
+        final long elapsedMs = nowMs - startMs;
+        synchronized (this) {
+            mDeletedCount += deleted;
+            mDeleteTimeMs += elapsedMs;
+        }
+        LogUtil.i(TAG, "BulkDeleter: deleted " + deleted + " messages with "
+                + (scratchUris.size() - scratchCountBefore) + " scratch files in " + elapsedMs
+                + "ms (" + getRowsPerSecond(deleted, elapsedMs) + " rows/sec), lock held (ms) "
+                + holdTimes.getSummary());
+        return deleted;
+    }
+
+    /**
+     * Delete the next batch of messages matching the selection
+     *
+     * @param scratchUris receives the scratch space uris of the deleted parts
+     * @return the number of messages deleted
+     */
+    private int deleteBatch(final DatabaseWrapper dbWrapper, final String selection,
+            final String[] selectionArgs, final List<Uri> scratchUris) {
+        final List<String> ids = new ArrayList<>(MAX_MESSAGES_PER_BATCH);
+        try (Cursor cursor = dbWrapper.query(DatabaseHelper.MESSAGES_TABLE, ID_PROJECTION,
+                selection, selectionArgs, null, null, null,
+                Integer.toString(MAX_MESSAGES_PER_BATCH))) {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        final String[] idArgs = ids.toArray(new String[ids.size()]);
+        final String idSelection = MmsUtils.getSqlInOperand(idArgs.length);
+        try (Cursor cursor = dbWrapper.query(DatabaseHelper.PARTS_TABLE, PART_URI_PROJECTION,
+                PartColumns.MESSAGE_ID + " IN " + idSelection + " AND "
+                        + PartColumns.CONTENT_URI + " IS NOT NULL", idArgs,
+                null, null, null)) {
+            while (cursor.moveToNext()) {
+                final Uri uri = Uri.parse(cursor.getString(0));
+                if (MediaScratchFileProvider.isMediaScratchSpaceUri(uri)) {
+                    scratchUris.add(uri);
+                }
+            }
+        }
+        // Parts are deleted by the cascade
+        final int count = dbWrapper.delete(DatabaseHelper.MESSAGES_TABLE,
+                MessageColumns._ID + " IN " + idSelection, idArgs);
+        return count;
+    }
+
+    private void recordHoldTime(final LatencyHistogram holdTimes, final long holdMs) {
+        holdTimes.record(holdMs);
+        mHoldTimes.record(holdMs);
+    }
+
+    /**
+     * Delete the scratch files of the deleted parts in parallel on the thread pool
+     */
+    public static void deleteScratchFiles(final List<Uri> uris) {
+        final ContentResolver resolver =
+                Factory.get().getApplicationContext().getContentResolver();
+        for (int start = 0; start < uris.size(); start += MAX_FILES_PER_TASK) {
+            final List<Uri> taskUris = new ArrayList<>(
+                    uris.subList(start, Math.min(start + MAX_FILES_PER_TASK, uris.size())));
+            SafeAsyncTask.executeOnThreadPool(new Runnable() {
+                @Override
+                public void run() {
+                    for (final Uri uri : taskUris) {
+                        resolver.delete(uri, null, null);
+                    }
+                }
+            });
+        }
+    }
+
+    private static long getRowsPerSecond(final long rows, final long elapsedMs) {
+        return rows * 1000 / Math.max(1, elapsedMs);
+    }
+
+    /**
+     * Print the total number of messages deleted, the delete rate and the lock hold times
+     */
+    synchronized void dump(final PrintWriter writer) {
+        writer.println("Bulk deletes: messages=" + mDeletedCount + " ("
+                + getRowsPerSecond(mDeletedCount, mDeleteTimeMs) + " rows/sec)"
+                + " lock held (ms) " + mHoldTimes.getSummary());
+    }
+}
@@ -0,0 +1,684 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+
+import com.android.messaging.Factory;
+import com.android.messaging.datamodel.MemoryCacheManager.MemoryCache;
+import com.android.messaging.sms.MmsUtils;
+import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
+import com.android.messaging.util.ContactUtil;
+import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.PhoneUtils;
+import com.android.messaging.util.SafeAsyncTask;
+import com.android.messaging.util.ThreadUtil;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index of the phone numbers and email addresses of the contacts, used to answer the
+ * recipient auto-complete without querying the contacts provider on every keystroke.
+ *
+ * The index maps the words of the contact names and the destinations to their phone and email
+ * rows, so that filtering is a prefix search in sorted maps. The entries also keep their rank in
+ * the provider's sort order, so only the ranks of the matches need sorting before the first
+ * ones are returned.
+ *
+ * The index is built on the thread pool the first time it is needed, then kept up to date from
+ * a content observer on the contacts: only the contacts updated or deleted since the last
+ * update are queried again. Until it is built, {@link #filterDestination} returns null and
+ * callers query the provider as before. The index is dropped when memory is low and rebuilt on
+ * the next use.
+ */
+public class ContactSearchIndex implements MemoryCache {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    // Delay before updating the index, as contact syncs notify many changes in a row
+    private static final long UPDATE_DELAY_MS = 2000;
+    // Above this many changed contacts, the index is built again from scratch
+    private static final int MAX_CONTACTS_PER_UPDATE = 1000;
+    // Only the first matches in sort order are returned, as the drop down shows a few of them
+    private static final int MAX_RESULTS = 100;
+
+    private static final Pattern NON_WORD_CHARS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{Mn}+");
+
+    private static final String[] CONTACT_ID_PROJECTION = new String[] { Contacts._ID };
+    private static final String[] DELETED_CONTACT_ID_PROJECTION =
+            new String[] { DeletedContacts.CONTACT_ID };
+
+    /**
+     * A phone or email row of a contact
+     */
+    private static class Entry {
+        final Object[] mRow;
+        final boolean mIsEmail;
+        final long mContactId;
+        final CollationKey mSortKey;
+        // Normalized words of the display name
+        final String[] mNameWords;
+        // Normalized forms of the destination that queries are matched against
+        final String[] mDestinationTokens;
+        // Position in the sorted entries and stamp of the last query that matched the entry,
+        // guarded by the index
+        int mRank;
+        int mQueryStamp;
+
+        Entry(final Cursor cursor, final boolean isEmail, final Collator collator) {
+            mRow = new Object[] {
+                cursor.getLong(ContactUtil.INDEX_CONTACT_ID),
+                cursor.getString(ContactUtil.INDEX_DISPLAY_NAME),
+                cursor.getString(ContactUtil.INDEX_PHOTO_URI),
+                cursor.getString(ContactUtil.INDEX_PHONE_EMAIL),
+                cursor.getInt(ContactUtil.INDEX_PHONE_EMAIL_TYPE),
+                cursor.getString(ContactUtil.INDEX_PHONE_EMAIL_LABEL),
+                cursor.getString(ContactUtil.INDEX_LOOKUP_KEY),
+                cursor.getLong(ContactUtil.INDEX_DATA_ID),
+                cursor.getString(ContactUtil.INDEX_SORT_KEY),
+            };
+            mIsEmail = isEmail;
+            mContactId = cursor.getLong(ContactUtil.INDEX_CONTACT_ID);
+            final String sortKey = cursor.getString(ContactUtil.INDEX_SORT_KEY);
+            mSortKey = collator.getCollationKey(sortKey == null ? "" : sortKey);
+            mNameWords = getWords(cursor.getString(ContactUtil.INDEX_DISPLAY_NAME));
+            mDestinationTokens = getDestinationTokens(
+                    cursor.getString(ContactUtil.INDEX_PHONE_EMAIL), isEmail);
+        }
+
+        /**
+         * @return true if each query word is the start of a word of the name
+         */
+        boolean nameMatches(final String[] queryWords) {
+            for (final String queryWord : queryWords) {
+                boolean found = false;
+                for (final String nameWord : mNameWords) {
+                    if (nameWord.startsWith(queryWord)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Sorts the entries like the provider sorts its filter results
+    private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry lhs, final Entry rhs) {
+            final int sortKeyCompare = lhs.mSortKey.compareTo(rhs.mSortKey);
+            if (sortKeyCompare != 0) {
+                return sortKeyCompare;
+            }
+            return Long.compare(lhs.mContactId, rhs.mContactId);
+        }
+    };
+
+    private static ContactSearchIndex sInstance;
+
+    // Guarded by this. Null while the index is not built.
+    private TreeMap<String, List<Entry>> mNameIndex;
+    private TreeMap<String, List<Entry>> mDestinationIndex;
+    private Map<Long, List<Entry>> mContactEntries;
+    // All the entries, in sort order
+    private ArrayList<Entry> mEntries;
+    private int mQueryStamp;
+    // Time of the last build or update, in the clock of the contacts provider
+    private long mLastUpdateTimeMs;
+    private boolean mBuildScheduled;
+    private boolean mUpdateScheduled;
+    private ContentObserver mObserver;
+
+    public static synchronized ContactSearchIndex get() {
+        if (sInstance == null) {
+            sInstance = new ContactSearchIndex();
+            MemoryCacheManager.get().registerMemoryCache(sInstance);
+        }
+        return sInstance;
+    }
+
+    private ContactSearchIndex() {
+    }
+
+    /**
+     * Build the index in the background, unless it is already built or being built
+     */
+    public synchronized void ensureBuilt() {
+        if (mNameIndex != null || mBuildScheduled || !ContactUtil.hasReadContactsPermission()) {
+            return;
+        }
+        mBuildScheduled = true;
+        if (mObserver == null) {
+            mObserver = new ContentObserver(ThreadUtil.getMainThreadHandler()) {
+                @Override
+                public void onChange(final boolean selfChange) {
+                    scheduleUpdate();
+                }
+            };
+            getContentResolver().registerContentObserver(ContactsContract.AUTHORITY_URI,
+                    true /* notifyForDescendants */, mObserver);
+        }
+        SafeAsyncTask.executeOnThreadPool(new Runnable() {
+            @Override
+            public void run() {
+                build();
+            }
+        });
+    }
+
+    @Override
+    public synchronized void reclaim() {
+        mNameIndex = null;
+        mDestinationIndex = null;
+        mContactEntries = null;
+        mEntries = null;
+        if (mObserver != null) {
+            getContentResolver().unregisterContentObserver(mObserver);
+            mObserver = null;
+        }
+    }
+
+    /**
+     * Get the phones (or the emails, if the query looks like one) whose contact name or
+     * destination starts with the query, like {@link ContactUtil#filterDestination}
+     *
+     * @return a cursor with the {@link ContactUtil.PhoneQuery} columns of up to
+     *         {@link #MAX_RESULTS} matches sorted by contact, or null if the index is not built
+     */
+    public Cursor filterDestination(final String query) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        final boolean emails = query.contains("@");
+        final String[] queryWords = getWords(query);
+        final String destinationToken = getQueryDestinationToken(query, emails);
+        final List<Entry> matches = new ArrayList<>();
+        synchronized (this) {
+            if (mNameIndex == null) {
+                ensureBuilt();
+                return null;
+            }
+            if (destinationToken == null && queryWords.length == 1
+                    && queryWords[0].length() == 1) {
+                // Most entries match a single letter, so going through them in sort order
+                // finds the first matches sooner than sorting all the matches
+                for (final Entry entry : mEntries) {
+                    if (entry.mIsEmail == emails && entry.nameMatches(queryWords)) {
+                        matches.add(entry);
+                        if (matches.size() == MAX_RESULTS) {
+                            break;
+                        }
+                    }
+                }
+            } else {
+                final int stamp = ++mQueryStamp;
+                int[] ranks = new int[MAX_RESULTS];
+                int count = 0;
+                if (queryWords.length > 0) {
+                    for (final List<Entry> entries : getPrefixRange(mNameIndex, queryWords[0])) {
+                        for (final Entry entry : entries) {
+                            if (entry.mQueryStamp != stamp && entry.mIsEmail == emails
+                                    && entry.nameMatches(queryWords)) {
+                                entry.mQueryStamp = stamp;
+                                ranks = add(ranks, count++, entry.mRank);
+                            }
+                        }
+                    }
+                }
+                if (destinationToken != null) {
+                    for (final List<Entry> entries :
+                            getPrefixRange(mDestinationIndex, destinationToken)) {
+                        for (final Entry entry : entries) {
+                            if (entry.mQueryStamp != stamp && entry.mIsEmail == emails) {
+                                entry.mQueryStamp = stamp;
+                                ranks = add(ranks, count++, entry.mRank);
+                            }
+                        }
+                    }
+                }
+                Arrays.sort(ranks, 0, count);
+                for (int i = 0; i < Math.min(count, MAX_RESULTS); i++) {
+                    matches.add(mEntries.get(ranks[i]));
+                }
+            }
+        }
+        final MatrixCursor cursor =
+                new MatrixCursor(ContactUtil.PhoneQuery.PROJECTION, matches.size());
+        for (final Entry entry : matches) {
+            cursor.addRow(entry.mRow);
+        }
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "ContactSearchIndex: " + matches.size() + " matches in "
+                    + (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000 + "us");
+        }
+        return cursor;
+    }
+
+    private static int[] add(int[] values, final int index, final int value) {
+        if (index == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[index] = value;
+        return values;
+    }
+
+    private static Iterable<List<Entry>> getPrefixRange(final TreeMap<String, List<Entry>> index,
+            final String prefix) {
+        final NavigableMap<String, List<Entry>> range =
+                index.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        return range.values();
+    }
+
+    private void scheduleUpdate() {
+        synchronized (this) {
+            if (mObserver == null || mUpdateScheduled) {
+                return;
+            }
+            mUpdateScheduled = true;
+        }
+        ThreadUtil.getMainThreadHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                SafeAsyncTask.executeOnThreadPool(new Runnable() {
+                    @Override
+                    public void run() {
+                        update();
+                    }
+                });
+            }
+        }, UPDATE_DELAY_MS);
+    }
+
+    @DoesNotRunOnMainThread
+    private void build() {
+        final long startMs = SystemClock.elapsedRealtime();
+        final long updateTimeMs = System.currentTimeMillis();
+        final Collator collator = getCollator();
+        final TreeMap<String, List<Entry>> nameIndex = new TreeMap<>();
+        final TreeMap<String, List<Entry>> destinationIndex = new TreeMap<>();
+        final Map<Long, List<Entry>> contactEntries = new HashMap<>();
+        int count = 0;
+        try {
+            count += addEntries(Phone.CONTENT_URI, null, null, false /* isEmail */, collator,
+                    nameIndex, destinationIndex, contactEntries);
+            count += addEntries(Email.CONTENT_URI, null, null, true /* isEmail */, collator,
+                    nameIndex, destinationIndex, contactEntries);
+        } catch (final RuntimeException e) {
+            LogUtil.w(TAG, "ContactSearchIndex: failed to build", e);
+            synchronized (this) {
+                mBuildScheduled = false;
+            }
+            return;
+        }
+        final ArrayList<Entry> entries = getSortedEntries(contactEntries, count);
+        synchronized (this) {
+            mBuildScheduled = false;
+            if (mObserver == null) {
+                // Reclaimed meanwhile
+                return;
+            }
+            mNameIndex = nameIndex;
+            mDestinationIndex = destinationIndex;
+            mContactEntries = contactEntries;
+            mEntries = entries;
+            updateRanks();
+            mLastUpdateTimeMs = updateTimeMs;
+        }
+        LogUtil.i(TAG, "ContactSearchIndex: indexed " + count + " destinations of "
+                + contactEntries.size() + " contacts in "
+                + (SystemClock.elapsedRealtime() - startMs) + "ms");
+    }
+
+    /**
+     * Build an index of the given rows rather than of the contacts, which isn't kept up to date
+     *
+     * @param phones the phone rows, with the {@link ContactUtil.PhoneQuery} columns
+     * @param emails the email rows, with the {@link ContactUtil.EmailQuery} columns
+     */
+    @VisibleForTesting
+    static ContactSearchIndex createForTesting(final Cursor phones, final Cursor emails) {
+        final Collator collator = getCollator();
+        final TreeMap<String, List<Entry>> nameIndex = new TreeMap<>();
+        final TreeMap<String, List<Entry>> destinationIndex = new TreeMap<>();
+        final Map<Long, List<Entry>> contactEntries = new HashMap<>();
+        int count = addEntries(phones, false /* isEmail */, collator, nameIndex,
+                destinationIndex, contactEntries);
+        count += addEntries(emails, true /* isEmail */, collator, nameIndex, destinationIndex,
+                contactEntries);
+        final ContactSearchIndex index = new ContactSearchIndex();
+        synchronized (index) {
+            index.mNameIndex = nameIndex;
+            index.mDestinationIndex = destinationIndex;
+            index.mContactEntries = contactEntries;
+            index.mEntries = getSortedEntries(contactEntries, count);
+            index.updateRanks();
+        }
+        return index;
+    }
+
+    /**
+     * @return all the entries of the contacts, in sort order
+     */
+    private static ArrayList<Entry> getSortedEntries(final Map<Long, List<Entry>> contactEntries,
+            final int count) {
+        final ArrayList<Entry> entries = new ArrayList<>(count);
+        for (final List<Entry> contact : contactEntries.values()) {
+            entries.addAll(contact);
+        }
+        Collections.sort(entries, ENTRY_COMPARATOR);
+        return entries;
+    }
+
+    /**
+     * Update the entries of the contacts changed or deleted since the last update
+     */
+    @DoesNotRunOnMainThread
+    private void update() {
+        final long sinceMs;
+        synchronized (this) {
+            mUpdateScheduled = false;
+            if (mNameIndex == null) {
+                if (mBuildScheduled) {
+                    // Changed while building, the build may have missed the change
+                    scheduleUpdate();
+                }
+                return;
+            }
+            sinceMs = mLastUpdateTimeMs;
+        }
+        final long startMs = SystemClock.elapsedRealtime();
+        final long updateTimeMs = System.currentTimeMillis();
+        final String since = Long.toString(sinceMs);
+        final Set<Long> changedIds = new HashSet<>();
+        final Set<Long> deletedIds = new HashSet<>();
+        final Collator collator = getCollator();
+        final TreeMap<String, List<Entry>> nameIndex = new TreeMap<>();
+        final TreeMap<String, List<Entry>> destinationIndex = new TreeMap<>();
+        final Map<Long, List<Entry>> contactEntries = new HashMap<>();
+        try {
+            queryIds(Contacts.CONTENT_URI, CONTACT_ID_PROJECTION,
+                    Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + ">?", since, changedIds);
+            queryIds(DeletedContacts.CONTENT_URI, DELETED_CONTACT_ID_PROJECTION,
+                    DeletedContacts.CONTACT_DELETED_TIMESTAMP + ">?", since, deletedIds);
+            if (changedIds.size() + deletedIds.size() > MAX_CONTACTS_PER_UPDATE) {
+                build();
+                return;
+            }
+            // Query the new rows of the changed contacts, then swap them in at once
+            final List<Long> ids = new ArrayList<>(changedIds);
+            for (int start = 0; start < ids.size(); start += MmsUtils.MAX_IDS_PER_QUERY) {
+                final List<Long> chunk =
+                        ids.subList(start, Math.min(start + MmsUtils.MAX_IDS_PER_QUERY,
+                                ids.size()));
+                final String selection = ContactsContract.Data.CONTACT_ID + " IN ("
+                        + TextUtils.join(",", chunk) + ")";
+                addEntries(Phone.CONTENT_URI, selection, null, false /* isEmail */, collator,
+                        nameIndex, destinationIndex, contactEntries);
+                addEntries(Email.CONTENT_URI, selection, null, true /* isEmail */, collator,
+                        nameIndex, destinationIndex, contactEntries);
+            }
+        } catch (final RuntimeException e) {
+            LogUtil.w(TAG, "ContactSearchIndex: failed to update", e);
+            return;
+        }
+        synchronized (this) {
+            if (mNameIndex == null) {
+                return;
+            }
+            deletedIds.addAll(changedIds);
+            final Set<Entry> removed = new HashSet<>();
+            for (final Long contactId : deletedIds) {
+                final List<Entry> entries = mContactEntries.remove(contactId);
+                if (entries != null) {
+                    for (final Entry entry : entries) {
+                        removeEntry(entry, mNameIndex, mDestinationIndex);
+                    }
+                    removed.addAll(entries);
+                }
+            }
+            mEntries.removeAll(removed);
+            for (final List<Entry> entries : contactEntries.values()) {
+                for (final Entry entry : entries) {
+                    addEntry(entry, mNameIndex, mDestinationIndex, mContactEntries);
+                    final int index = Collections.binarySearch(mEntries, entry, ENTRY_COMPARATOR);
+                    mEntries.add(index < 0 ? -index - 1 : index, entry);
+                }
+            }
+            updateRanks();
+            mLastUpdateTimeMs = updateTimeMs;
+        }
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "ContactSearchIndex: updated " + changedIds.size() + " contacts, "
+                    + "deleted " + deletedIds.size() + " in "
+                    + (SystemClock.elapsedRealtime() - startMs) + "ms");
+        }
+    }
+
+    // Called with the lock held
+    private void updateRanks() {
+        for (int i = 0; i < mEntries.size(); i++) {
+            mEntries.get(i).mRank = i;
+        }
+    }
+
+    private static void queryIds(final Uri uri, final String[] projection,
+            final String selection, final String arg, final Set<Long> ids) {
+        try (Cursor cursor = getContentResolver().query(uri, projection, selection,
+                new String[] { arg }, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        }
+    }
+
+    /**
+     * Query the phone or email rows and add them to the index
+     *
+     * @return the number of rows added
+     */
+    private static int addEntries(final Uri uri, final String selection,
+            final String[] selectionArgs, final boolean isEmail, final Collator collator,
+            final TreeMap<String, List<Entry>> nameIndex,
+            final TreeMap<String, List<Entry>> destinationIndex,
+            final Map<Long, List<Entry>> contactEntries) {
+        // The email projection has the same columns in the same order
+        final String[] projection =
+                isEmail ? ContactUtil.EmailQuery.PROJECTION : ContactUtil.PhoneQuery.PROJECTION;
+        try (Cursor cursor = getContentResolver().query(uri, projection, selection,
+                selectionArgs, null)) {
+            return addEntries(cursor, isEmail, collator, nameIndex, destinationIndex,
+                    contactEntries);
+        }
+    }
+
+    /**
+     * Add the phone or email rows of the cursor to the index
+     *
+     * @return the number of rows added
+     */
+    private static int addEntries(final Cursor cursor, final boolean isEmail,
+            final Collator collator, final TreeMap<String, List<Entry>> nameIndex,
+            final TreeMap<String, List<Entry>> destinationIndex,
+            final Map<Long, List<Entry>> contactEntries) {
+        int count = 0;
+        while (cursor != null && cursor.moveToNext()) {
+            if (TextUtils.isEmpty(cursor.getString(ContactUtil.INDEX_PHONE_EMAIL))) {
+                continue;
+            }
+            addEntry(new Entry(cursor, isEmail, collator), nameIndex, destinationIndex,
+                    contactEntries);
+            count++;
+        }
+        return count;
+    }
+
+    private static void addEntry(final Entry entry, final TreeMap<String, List<Entry>> nameIndex,
+            final TreeMap<String, List<Entry>> destinationIndex,
+            final Map<Long, List<Entry>> contactEntries) {
+        for (final String word : entry.mNameWords) {
+            addToken(nameIndex, word, entry);
+        }
+        for (final String token : entry.mDestinationTokens) {
+            addToken(destinationIndex, token, entry);
+        }
+        List<Entry> entries = contactEntries.get(entry.mContactId);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            contactEntries.put(entry.mContactId, entries);
+        }
+        entries.add(entry);
+    }
+
+    private static void addToken(final TreeMap<String, List<Entry>> index, final String token,
+            final Entry entry) {
+        List<Entry> entries = index.get(token);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            index.put(token, entries);
+        }
+        if (!entries.contains(entry)) {
+            entries.add(entry);
+        }
+    }
+
+    private static void removeEntry(final Entry entry,
+            final TreeMap<String, List<Entry>> nameIndex,
+            final TreeMap<String, List<Entry>> destinationIndex) {
+        for (final String word : entry.mNameWords) {
+            removeToken(nameIndex, word, entry);
+        }
+        for (final String token : entry.mDestinationTokens) {
+            removeToken(destinationIndex, token, entry);
+        }
+    }
+
+    private static void removeToken(final TreeMap<String, List<Entry>> index,
+            final String token, final Entry entry) {
+        final List<Entry> entries = index.get(token);
+        if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+            index.remove(token);
+        }
+    }
+
+    /**
+     * @return the lower case words of the text, without accents
+     */
+    private static String[] getWords(final String text) {
+        if (TextUtils.isEmpty(text)) {
+            return new String[0];
+        }
+        final String normalized = COMBINING_MARKS.matcher(
+                Normalizer.normalize(text.toLowerCase(Locale.getDefault()),
+                        Normalizer.Form.NFD)).replaceAll("");
+        final List<String> words = new ArrayList<>(
+                Arrays.asList(NON_WORD_CHARS.split(normalized)));
+        words.remove("");
+        return words.toArray(new String[words.size()]);
+    }
+
+    /**
+     * @return the forms of the destination matched against queries: the lower case address of
+     *         an email, or the digits of a phone number as entered and in E.164 form
+     */
+    private static String[] getDestinationTokens(final String destination,
+            final boolean isEmail) {
+        if (isEmail) {
+            return new String[] { destination.toLowerCase(Locale.getDefault()) };
+        }
+        final String digits = getDigits(destination);
+        final String canonical =
+                getDigits(PhoneUtils.getDefault().getCanonicalBySystemLocale(destination));
+        if (TextUtils.isEmpty(canonical) || canonical.equals(digits)) {
+            return TextUtils.isEmpty(digits) ? new String[0] : new String[] { digits };
+        }
+        return TextUtils.isEmpty(digits)
+                ? new String[] { canonical } : new String[] { digits, canonical };
+    }
+
+    /**
+     * @return the token the destinations are matched against, or null if the query can't match
+     *         a destination
+     */
+    private static String getQueryDestinationToken(final String query, final boolean isEmail) {
+        if (isEmail) {
+            return query.trim().toLowerCase(Locale.getDefault());
+        }
+        for (int i = 0; i < query.length(); i++) {
+            final char c = query.charAt(i);
+            if (!PhoneNumberUtils.isReallyDialable(c) && !Character.isWhitespace(c)
+                    && c != '-' && c != '(' && c != ')' && c != '.') {
+                return null;
+            }
+        }
+        final String digits = getDigits(query);
+        return TextUtils.isEmpty(digits) ? null : digits;
+    }
+
+    private static String getDigits(final String text) {
+        if (text == null) {
+            return null;
+        }
+        final StringBuilder digits = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+
+    private static Collator getCollator() {
+        final Collator collator = Collator.getInstance(Locale.getDefault());
+        collator.setStrength(Collator.PRIMARY);
+        return collator;
+    }
+
+    private static ContentResolver getContentResolver() {
+        return Factory.get().getApplicationContext().getContentResolver();
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.android.messaging.Factory;
+import com.android.messaging.util.LogUtil;
+import com.android.messaging.widget.BugleWidgetProvider;
+import com.android.messaging.widget.WidgetConversationProvider;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Batches the change notifications of {@link MessagingContentProvider} and the widget updates.
+ *
+ * Changes are delivered at most once per {@link #WINDOW_MS} window, so that the cursor loaders
+ * watching them re-query once per batch of writes rather than once per write. A pending uri
+ * makes pending notifications of its descendants redundant, since observers of a uri are also
+ * notified of changes to its ancestors. While a database transaction is open notifications are
+ * held back, as observers would re-query data that is about to change again, but never longer
+ * than {@link #MAX_DELAY_MS}.
+ */
+class ContentChangeCoalescer {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    // Time window over which changes are batched
+    private static final long WINDOW_MS = 100;
+    // Max time a change is held back by open transactions
+    private static final long MAX_DELAY_MS = 1000;
+
+    private static ContentChangeCoalescer sInstance;
+
+    private final Handler mHandler;
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private final Set<Uri> mPendingUris = new LinkedHashSet<>();
+    private boolean mConversationListWidgetPending;
+    // Conversations whose widgets need an update, null meaning all of them
+    private Set<String> mPendingWidgetConversationIds = new HashSet<>();
+    private long mFirstPendingMs;
+    private boolean mFlushScheduled;
+    // Number of threads in a database transaction
+    private int mOpenTransactionCount;
+
+    private long mRequestedCount;
+    private long mDeliveredCount;
+
+    static synchronized ContentChangeCoalescer get() {
+        if (sInstance == null) {
+            sInstance = new ContentChangeCoalescer();
+        }
+        return sInstance;
+    }
+
+    private ContentChangeCoalescer() {
+        final HandlerThread thread = new HandlerThread("ContentChangeCoalescer");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Queue a change notification of the uri and its descendants
+     */
+    synchronized void notifyChange(final Uri uri) {
+        mRequestedCount++;
+        final Iterator<Uri> iterator = mPendingUris.iterator();
+        while (iterator.hasNext()) {
+            final Uri pendingUri = iterator.next();
+            if (isAncestorOrSelf(pendingUri, uri)) {
+                // Already covered
+                return;
+            }
+            if (isAncestorOrSelf(uri, pendingUri)) {
+                iterator.remove();
+            }
+        }
+        mPendingUris.add(uri);
+        onPendingLocked();
+    }
+
+    /**
+     * Queue an update of the conversation list widgets
+     */
+    synchronized void notifyConversationListWidget() {
+        mRequestedCount++;
+        mConversationListWidgetPending = true;
+        onPendingLocked();
+    }
+
+    /**
+     * Queue an update of the widgets of a conversation
+     * @param conversationId the conversation, or null for all the conversation widgets
+     */
+    synchronized void notifyConversationWidget(final String conversationId) {
+        mRequestedCount++;
+        if (conversationId == null) {
+            mPendingWidgetConversationIds = null;
+        } else if (mPendingWidgetConversationIds != null) {
+            mPendingWidgetConversationIds.add(conversationId);
+        }
+        onPendingLocked();
+    }
+
+    /**
+     * Called when a thread opens its outermost database transaction
+     */
+    synchronized void onTransactionStarted() {
+        mOpenTransactionCount++;
+    }
+
+    /**
+     * Called when a thread closes its outermost database transaction
+     */
+    synchronized void onTransactionEnded() {
+        mOpenTransactionCount--;
+    }
+
+    /**
+     * Print how many change notifications were requested and delivered
+     */
+    synchronized void dump(final PrintWriter writer) {
+        writer.println("Change notifications: requested=" + mRequestedCount
+                + " delivered=" + mDeliveredCount
+                + " cursor loads=" + BoundCursorLoader.getLoadCount());
+    }
+
+    private boolean hasPendingLocked() {
+        return !mPendingUris.isEmpty() || mConversationListWidgetPending
+                || mPendingWidgetConversationIds == null
+                || !mPendingWidgetConversationIds.isEmpty();
+    }
+
+    private void onPendingLocked() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mFirstPendingMs = SystemClock.elapsedRealtime();
+            mHandler.postDelayed(mFlushRunnable, WINDOW_MS);
+        }
+    }
+
+    private void flush() {
+        final List<Uri> uris;
+        final boolean conversationListWidget;
+        final Set<String> widgetConversationIds;
+        synchronized (this) {
+            if (mOpenTransactionCount > 0
+                    && SystemClock.elapsedRealtime() - mFirstPendingMs < MAX_DELAY_MS) {
+                mHandler.postDelayed(mFlushRunnable, WINDOW_MS);
+                return;
+            }
+            mFlushScheduled = false;
+            if (!hasPendingLocked()) {
+                return;
+            }
+            uris = new ArrayList<>(mPendingUris);
+            mPendingUris.clear();
+            conversationListWidget = mConversationListWidgetPending;
+            mConversationListWidgetPending = false;
+            widgetConversationIds = mPendingWidgetConversationIds;
+            mPendingWidgetConversationIds = new HashSet<>();
+            mDeliveredCount += uris.size() + (conversationListWidget ? 1 : 0)
+                    + (widgetConversationIds == null ? 1 : widgetConversationIds.size());
+            if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                LogUtil.v(TAG, "ContentChangeCoalescer: requested=" + mRequestedCount
+                        + " delivered=" + mDeliveredCount
+                        + " cursor loads=" + BoundCursorLoader.getLoadCount());
+            }
+        }
+        final Context context = Factory.get().getApplicationContext();
+        final ContentResolver cr = context.getContentResolver();
+        for (final Uri uri : uris) {
+            cr.notifyChange(uri, null);
+        }
+        if (conversationListWidget) {
+            BugleWidgetProvider.notifyConversationListChanged(context);
+        }
+        if (widgetConversationIds == null) {
+            WidgetConversationProvider.notifyMessagesChanged(context, null /*conversationId*/);
+        } else {
+            for (final String conversationId : widgetConversationIds) {
+                WidgetConversationProvider.notifyMessagesChanged(context, conversationId);
+            }
+        }
+    }
+
+    /**
+     * @return true if the change notifications of the ancestor also reach observers of the uri
+     */
+    private static boolean isAncestorOrSelf(final Uri ancestor, final Uri uri) {
+        if (!TextUtils.equals(ancestor.getScheme(), uri.getScheme())
+                || !TextUtils.equals(ancestor.getAuthority(), uri.getAuthority())) {
+            return false;
+        }
+        final List<String> ancestorSegments = ancestor.getPathSegments();
+        final List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() <= segments.size()
+                && ancestorSegments.equals(segments.subList(0, ancestorSegments.size()));
+    }
+}
@@ -148,7 +148,11 @@ public abstract class DataModel {
                 || isFocusedConversation(conversationId);
     }
 
-    public abstract void onApplicationCreated();
+    /**
+     * Called once the main thread is first idle after the application is created with staged
+     * startup, to start the background work
+     */
+    public abstract void onApplicationStarted();
 
     public abstract SyncManager getSyncManager();
 }
@@ -23,6 +23,7 @@ import android.telephony.SubscriptionManager;
 
 import com.android.messaging.datamodel.action.ActionService;
 import com.android.messaging.datamodel.action.BackgroundWorker;
+import com.android.messaging.datamodel.action.DatabaseMaintenanceJobService;
 import com.android.messaging.datamodel.action.FixupMessageStatusOnStartupAction;
 import com.android.messaging.datamodel.action.ProcessPendingMessagesAction;
 import com.android.messaging.datamodel.data.BlockedParticipantsData;
@@ -210,12 +211,12 @@ public class DataModelImpl extends DataModel {
     }
 
     @Override
-    public void onApplicationCreated() {
+    public void onApplicationStarted() {
         createConnectivityUtilForEachActiveSubscription();
 
-        FixupMessageStatusOnStartupAction.fixupMessageStatus();
         ProcessPendingMessagesAction.processFirstPendingMessage();
         SyncManager.immediateSync();
+        DatabaseMaintenanceJobService.schedule(mContext);
 
         // Start listening for subscription change events for refreshing any data associated
         // with subscriptions.
@@ -30,6 +30,7 @@ import com.android.messaging.datamodel.data.ParticipantData;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
 import com.android.messaging.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
 
 /**
  * Allows access to the SQL database.  This is package private.
@@ -187,6 +188,12 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + " ON " +  CONVERSATIONS_TABLE
             + "(" + ConversationColumns.SORT_TIMESTAMP + ")";
 
+    // Looks up the conversations of a latest message, e.g. when its sender is renamed
+    static final String CONVERSATIONS_TABLE_LATEST_MESSAGE_ID_INDEX_SQL =
+            "CREATE INDEX index_" + CONVERSATIONS_TABLE + "_"
+            + ConversationColumns.LATEST_MESSAGE_ID + " ON " + CONVERSATIONS_TABLE
+            + "(" + ConversationColumns.LATEST_MESSAGE_ID + ")";
+
     // Messages table schema
     public static class MessageColumns implements BaseColumns {
         /* conversation id that this message belongs to */
@@ -525,6 +532,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         CONVERSATIONS_TABLE_SMS_THREAD_ID_INDEX_SQL,
         CONVERSATIONS_TABLE_ARCHIVE_STATUS_INDEX_SQL,
         CONVERSATIONS_TABLE_SORT_TIMESTAMP_INDEX_SQL,
+        CONVERSATIONS_TABLE_LATEST_MESSAGE_ID_INDEX_SQL,
         MESSAGES_TABLE_SORT_INDEX_SQL,
         MESSAGES_TABLE_STATUS_SEEN_INDEX_SQL,
         PARTS_TABLE_MESSAGE_INDEX_SQL,
@@ -755,6 +763,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     private static void createDatabase(final SQLiteDatabase db) {
+        createSchema(db);
+
+        DataModel.get().onCreateTables(db);
+    }
+
+    /**
+     * Create the tables, indices, views and triggers, and the default self participant, without
+     * notifying the data model
+     */
+    @VisibleForTesting
+    static void createSchema(final SQLiteDatabase db) {
         for (final String sql : CREATE_TABLE_SQLS) {
             db.execSQL(sql);
         }
@@ -767,18 +786,25 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             db.execSQL(sql);
         }
 
+        // Filled from the conversation list view
+        for (final String sql : ConversationListItemData.getConversationListTableSqls()) {
+            db.execSQL(sql);
+        }
+
         for (final String sql : CREATE_TRIGGER_SQLS) {
             db.execSQL(sql);
         }
 
+        for (final String sql : ConversationListItemData.getConversationListTriggerSqls()) {
+            db.execSQL(sql);
+        }
+
         // Enable foreign key constraints
         db.execSQL("PRAGMA foreign_keys=ON;");
 
         // Add the default self participant. The default self will be assigned a proper slot id
         // during participant refresh.
         db.execSQL(getCreateSelfParticipantSql(ParticipantData.DEFAULT_SELF_SUB_ID));
-
-        DataModel.get().onCreateTables(db);
     }
 
     @Override
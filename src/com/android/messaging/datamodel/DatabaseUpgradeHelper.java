@@ -19,6 +19,7 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 
 import com.android.messaging.Factory;
+import com.android.messaging.datamodel.data.ConversationListItemData;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.LogUtil;
 
@@ -48,6 +49,12 @@ public class DatabaseUpgradeHelper {
         if (currentVersion < 2) {
             currentVersion = upgradeToVersion2(db);
         }
+        if (currentVersion < 3) {
+            currentVersion = upgradeToVersion3(db);
+        }
+        if (currentVersion < 4) {
+            currentVersion = upgradeToVersion4(db);
+        }
         // Rebuild all the views
         final Context context = Factory.get().getApplicationContext();
         DatabaseHelper.dropAllViews(db);
@@ -63,6 +70,26 @@ public class DatabaseUpgradeHelper {
         return 2;
     }
 
+    private int upgradeToVersion3(final SQLiteDatabase db) {
+        // Materialize the conversation list view, filling the table from the existing view
+        for (final String sql : ConversationListItemData.getConversationListTableSqls()) {
+            db.execSQL(sql);
+        }
+        for (final String sql : ConversationListItemData.getConversationListTriggerSqls()) {
+            db.execSQL(sql);
+        }
+        LogUtil.i(TAG, "Ugraded database to version 3");
+        return 3;
+    }
+
+    private int upgradeToVersion4(final SQLiteDatabase db) {
+        // Index the latest message of the conversations, joined by the conversation list
+        // participant trigger
+        db.execSQL(DatabaseHelper.CONVERSATIONS_TABLE_LATEST_MESSAGE_ID_INDEX_SQL);
+        LogUtil.i(TAG, "Ugraded database to version 4");
+        return 4;
+    }
+
     /**
      * Checks db version correctness at the end of each milestone release. If target database
      * version lies beyond the version range that the current release may handle, we snap the
@@ -105,7 +105,12 @@ public class DatabaseWrapper {
         // push the current time onto the transaction stack
         final TransactionData f = new TransactionData();
         f.time = t1;
-        sTransactionDepth.get().push(f);
+        final Stack<TransactionData> transactions = sTransactionDepth.get();
+        if (transactions.isEmpty()) {
+            // Hold back change notifications until the data is consistent
+            ContentChangeCoalescer.get().onTransactionStarted();
+        }
+        transactions.push(f);
 
         mDatabase.beginTransaction();
     }
@@ -119,7 +124,8 @@ public class DatabaseWrapper {
     public void endTransaction() {
         long t1 = 0;
         long transactionStartTime = 0;
-        final TransactionData f = sTransactionDepth.get().pop();
+        final Stack<TransactionData> transactions = sTransactionDepth.get();
+        final TransactionData f = transactions.pop();
         if (f.transactionSuccessful == false) {
             LogUtil.w(TAG, "endTransaction without setting successful");
             for (final StackTraceElement st : (new Exception()).getStackTrace()) {
@@ -135,6 +141,10 @@ public class DatabaseWrapper {
         } catch (SQLiteFullException ex) {
             LogUtil.e(TAG, "Database full, unable to endTransaction", ex);
             UiUtils.showToastAtBottom(R.string.db_full);
+        } finally {
+            if (transactions.isEmpty()) {
+                ContentChangeCoalescer.get().onTransactionEnded();
+            }
         }
         if (mLog) {
             printTiming(t1, String.format(Locale.US,
@@ -143,7 +153,12 @@ public class DatabaseWrapper {
         }
     }
 
-    public void yieldTransaction() {
+    /**
+     * Commit the current transaction and start a new one if another thread is waiting for the
+     * database
+     * @return true if the transaction was yielded
+     */
+    public boolean yieldTransaction() {
         long yieldStartTime = 0;
         if (mLog) {
             yieldStartTime = System.currentTimeMillis();
@@ -152,6 +167,7 @@ public class DatabaseWrapper {
         if (wasYielded && mLog) {
             printTiming(yieldStartTime, "yieldTransaction");
         }
+        return wasYielded;
     }
 
     public void insertWithOnConflict(final String searchTable, final String nullColumnHack,
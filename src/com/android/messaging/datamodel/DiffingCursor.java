@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.Arrays;
+
+/**
+ * Cursor delivered by a {@link BoundCursorLoader} with diff updates enabled. Along with the rows
+ * it carries a snapshot of their ids and content hashes, and the item level differences from
+ * the previously loaded cursor, both computed on the loader thread. This lets
+ * {@link com.android.messaging.ui.CursorRecyclerAdapter} notify inserts, removes, moves and
+ * changes rather than rebinding every visible row.
+ *
+ * The snapshot reads every column of every row, so cursors of more than
+ * {@link #MAX_DIFFED_ROWS} rows are not diffed, and their adapter rebinds the visible rows.
+ */
+public class DiffingCursor extends CursorWrapper {
+    // Past this many rows, hashing the rows and diffing them costs more than a full rebind
+    private static final int MAX_DIFFED_ROWS = 1000;
+
+    /**
+     * Ids and content hashes of the rows of a cursor, in display order
+     */
+    static class Snapshot {
+        private final long[] mIds;
+        private final long[] mHashes;
+
+        private Snapshot(final long[] ids, final long[] hashes) {
+            mIds = ids;
+            mHashes = hashes;
+        }
+
+        /**
+         * @param reversed true if the rows are displayed last to first
+         * @param neighborsAffectRows true if rows are displayed differently depending on their
+         *        adjacent rows, in which case a row also counts as changed when its neighbors do
+         * @return the snapshot, or null if the cursor has too many rows to be diffed
+         */
+        static Snapshot create(final Cursor cursor, final boolean reversed,
+                final boolean neighborsAffectRows) {
+            final int count = cursor.getCount();
+            if (count > MAX_DIFFED_ROWS) {
+                return null;
+            }
+            final int idColumn = cursor.getColumnIndexOrThrow("_id");
+            final long[] ids = new long[count];
+            final long[] hashes = new long[count];
+            final int position = cursor.getPosition();
+            for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+                final int index = reversed ? count - 1 - i : i;
+                ids[index] = cursor.getLong(idColumn);
+                hashes[index] = getRowHash(cursor);
+            }
+            cursor.moveToPosition(position);
+            if (!neighborsAffectRows) {
+                return new Snapshot(ids, hashes);
+            }
+            final long[] clusterHashes = new long[count];
+            for (int i = 0; i < count; i++) {
+                final long previous = i > 0 ? hashes[i - 1] : 0;
+                final long next = i < count - 1 ? hashes[i + 1] : 0;
+                clusterHashes[i] = (hashes[i] * 31 + previous) * 31 + next;
+            }
+            return new Snapshot(ids, clusterHashes);
+        }
+
+        private static long getRowHash(final Cursor cursor) {
+            long hash = 1;
+            for (int column = 0; column < cursor.getColumnCount(); column++) {
+                final long value;
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        value = cursor.getLong(column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        value = Double.doubleToLongBits(cursor.getDouble(column));
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        value = cursor.getString(column).hashCode();
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        value = Arrays.hashCode(cursor.getBlob(column));
+                        break;
+                    default:
+                        value = 0;
+                        break;
+                }
+                hash = hash * 31 + value;
+            }
+            return hash;
+        }
+
+        /**
+         * @return the item level differences to turn the previous snapshot into this one
+         */
+        DiffUtil.DiffResult diffFrom(final Snapshot previous) {
+            return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return previous.mIds.length;
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return mIds.length;
+                }
+
+                @Override
+                public boolean areItemsTheSame(final int oldPosition, final int newPosition) {
+                    return previous.mIds[oldPosition] == mIds[newPosition];
+                }
+
+                @Override
+                public boolean areContentsTheSame(final int oldPosition, final int newPosition) {
+                    return previous.mHashes[oldPosition] == mHashes[newPosition];
+                }
+            }, true /* detectMoves */);
+        }
+    }
+
+    private final Snapshot mSnapshot;
+    private final Snapshot mDiffBase;
+    private final DiffUtil.DiffResult mDiff;
+
+    DiffingCursor(final Cursor cursor, final Snapshot snapshot, final Snapshot diffBase) {
+        super(cursor);
+        mSnapshot = snapshot;
+        mDiffBase = diffBase;
+        mDiff = diffBase == null ? null : snapshot.diffFrom(diffBase);
+    }
+
+    /**
+     * @return the differences from the rows of {@code previous}, or null if they were not
+     *         computed against it
+     */
+    public DiffUtil.DiffResult getDiffFrom(final DiffingCursor previous) {
+        return previous != null && previous.mSnapshot == mDiffBase ? mDiff : null;
+    }
+
+    /**
+     * @return the diffing cursor wrapped (possibly several levels deep) by the cursor, or null
+     */
+    public static DiffingCursor find(Cursor cursor) {
+        while (cursor instanceof CursorWrapper) {
+            if (cursor instanceof DiffingCursor) {
+                return (DiffingCursor) cursor;
+            }
+            cursor = ((CursorWrapper) cursor).getWrappedCursor();
+        }
+        return null;
+    }
+}
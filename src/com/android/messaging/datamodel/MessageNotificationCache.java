@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.net.Uri;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory model of the unseen messages shown in message notifications, kept up to date
+ * incrementally by {@link MessageNotificationState}.
+ *
+ * Each notification update only queries the ids of the unseen messages and loads the full rows
+ * (parts and sender) of the ones not cached yet. Messages that are no longer unseen (seen, read
+ * or deleted) are dropped from the cache by {@link #retainMessages}. Conversation metadata and
+ * the first names of their participants are cached per conversation, and invalidated through
+ * {@link MessagingContentProvider} when they change.
+ */
+class MessageNotificationCache {
+    /**
+     * Notification data of a single unseen message
+     */
+    static class CachedMessage {
+        final String mConversationId;
+        final int mStatus;
+        final long mReceivedTimestamp;
+        final String mSenderFullName;
+        final String mSenderFirstName;
+        // Message text, with the subject and manual download text already applied
+        final CharSequence mText;
+        final Uri mAttachmentUri;
+        final String mAttachmentType;
+        final boolean mIsManualDownloadNeeded;
+        final Uri mAvatarUri;
+        final Uri mContactUri;
+
+        CachedMessage(final String conversationId, final int status,
+                final long receivedTimestamp, final String senderFullName,
+                final String senderFirstName, final CharSequence text, final Uri attachmentUri,
+                final String attachmentType, final boolean isManualDownloadNeeded,
+                final Uri avatarUri, final Uri contactUri) {
+            mConversationId = conversationId;
+            mStatus = status;
+            mReceivedTimestamp = receivedTimestamp;
+            mSenderFullName = senderFullName;
+            mSenderFirstName = senderFirstName;
+            mText = text;
+            mAttachmentUri = attachmentUri;
+            mAttachmentType = attachmentType;
+            mIsManualDownloadNeeded = isManualDownloadNeeded;
+            mAvatarUri = avatarUri;
+            mContactUri = contactUri;
+        }
+    }
+
+    /**
+     * Notification data of a conversation with unseen messages
+     */
+    static class CachedConversation {
+        final boolean mIsGroup;
+        final String mName;
+        final boolean mIncludeEmailAddress;
+        final String mSelfId;
+        final int mSubId;
+        final int mParticipantCount;
+        // Number of participants with each first name, only for 1:1 conversations
+        final HashMap<String, Integer> mFirstNames;
+
+        CachedConversation(final boolean isGroup, final String name,
+                final boolean includeEmailAddress, final String selfId, final int subId,
+                final int participantCount, final HashMap<String, Integer> firstNames) {
+            mIsGroup = isGroup;
+            mName = name;
+            mIncludeEmailAddress = includeEmailAddress;
+            mSelfId = selfId;
+            mSubId = subId;
+            mParticipantCount = participantCount;
+            mFirstNames = firstNames;
+        }
+    }
+
+    private static final MessageNotificationCache sInstance = new MessageNotificationCache();
+
+    // Cached messages by message id
+    private final Map<String, CachedMessage> mMessages = new HashMap<>();
+    // Cached conversations by conversation id
+    private final Map<String, CachedConversation> mConversations = new HashMap<>();
+    // Bumped by every invalidation, so that data loaded before it is not cached
+    private int mGeneration;
+
+    static MessageNotificationCache get() {
+        return sInstance;
+    }
+
+    /**
+     * @return the current generation, to pass when caching data loaded after this call
+     */
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return the cached message, or null if not cached or cached with a different status
+     */
+    synchronized CachedMessage getMessage(final String messageId, final int status) {
+        final CachedMessage message = mMessages.get(messageId);
+        return message != null && message.mStatus == status ? message : null;
+    }
+
+    synchronized void putMessages(final Map<String, CachedMessage> messages,
+            final int generation) {
+        if (generation == mGeneration) {
+            mMessages.putAll(messages);
+        }
+    }
+
+    /**
+     * Drop the messages that are no longer shown in notifications
+     */
+    synchronized void retainMessages(final Set<String> messageIds) {
+        mMessages.keySet().retainAll(messageIds);
+    }
+
+    synchronized CachedConversation getConversation(final String conversationId) {
+        return mConversations.get(conversationId);
+    }
+
+    synchronized void putConversation(final String conversationId,
+            final CachedConversation conversation, final int generation) {
+        if (generation == mGeneration) {
+            mConversations.put(conversationId, conversation);
+        }
+    }
+
+    /**
+     * Drop the cached metadata of a conversation
+     */
+    synchronized void invalidateConversation(final String conversationId) {
+        mGeneration++;
+        mConversations.remove(conversationId);
+    }
+
+    /**
+     * Drop the cached metadata and messages of a conversation, whose participants (and so the
+     * names of the message senders) changed
+     */
+    synchronized void invalidateParticipants(final String conversationId) {
+        invalidateConversation(conversationId);
+        final Iterator<CachedMessage> iterator = mMessages.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().mConversationId.equals(conversationId)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mConversations.clear();
+        mMessages.clear();
+    }
+}
@@ -40,6 +40,9 @@ import androidx.core.app.NotificationManagerCompat;
 
 import com.android.messaging.Factory;
 import com.android.messaging.R;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
+import com.android.messaging.datamodel.MessageNotificationCache.CachedConversation;
+import com.android.messaging.datamodel.MessageNotificationCache.CachedMessage;
 import com.android.messaging.datamodel.data.ConversationListItemData;
 import com.android.messaging.datamodel.data.ConversationMessageData;
 import com.android.messaging.datamodel.data.ConversationParticipantsData;
@@ -91,6 +94,8 @@ public abstract class MessageNotificationState extends NotificationState {
     private static final int MAX_MESSAGES_IN_WEARABLE_PAGE = 20;
 
     private static final int MAX_CHARACTERS_IN_GROUP_NAME = 30;
+    // Max number of message ids in a single IN (...) clause
+    private static final int MAX_MESSAGES_PER_QUERY = 500;
 
     private static final int REPLY_INTENT_REQUEST_CODE_OFFSET = 0;
     private static final int NUM_EXTRA_REQUEST_CODES_NEEDED = 1;
@@ -151,11 +156,12 @@ public abstract class MessageNotificationState extends NotificationState {
         final String mAuthorFirstName;
         final boolean mIsManualDownloadNeeded;
         final String mMessageId;
+        final int mStatus;
 
         MessageLineInfo(final boolean isGroup, final String authorFullName,
                 final String authorFirstName, final CharSequence text, final Uri attachmentUrl,
                 final String attachmentType, final boolean isManualDownloadNeeded,
-                final String messageId) {
+                final String messageId, final int status) {
             super(BugleNotifications.LOCAL_SMS_NOTIFICATION);
             mAuthorFullName = authorFullName;
             mAuthorFirstName = authorFirstName;
@@ -164,6 +170,7 @@ public abstract class MessageNotificationState extends NotificationState {
             mAttachmentType = attachmentType;
             mIsManualDownloadNeeded = isManualDownloadNeeded;
             mMessageId = messageId;
+            mStatus = status;
         }
     }
 
@@ -798,6 +805,10 @@ public abstract class MessageNotificationState extends NotificationState {
 
     /**
      * Performs a query on the database.
+     *
+     * Only the ids of the unseen messages are queried on each call. The full rows of the messages
+     * shown in the notification are loaded once and then served by
+     * {@link MessageNotificationCache}, so each new message only costs loading that message.
      */
     private static ConversationInfoList createConversationInfoList() {
         // Map key is conversation id. We use LinkedHashMap to ensure that entries are iterated in
@@ -806,39 +817,151 @@ public abstract class MessageNotificationState extends NotificationState {
         final Map<String, ConversationLineInfo> convLineInfos = new LinkedHashMap<>();
         int messageCount = 0;
 
-        Cursor convMessageCursor = null;
-        try {
-            final Context context = Factory.get().getApplicationContext();
-            final DatabaseWrapper db = DataModel.get().getDatabase();
-
-            convMessageCursor = db.rawQuery(
-                    ConversationMessageData.getNotificationQuerySql(),
-                    null);
+        final Context context = Factory.get().getApplicationContext();
+        final DatabaseWrapper db = DataModel.get().getDatabase();
+        final MessageNotificationCache cache = MessageNotificationCache.get();
+        final int generation = cache.getGeneration();
+        final int maxMessages = getMaxMessagesInConversationNotification();
+
+        // Unseen messages from newest to oldest, as {id, conversation id, status}
+        final List<String[]> unseenMessages = new ArrayList<>();
+        // Messages which are shown as notification lines, and those which aren't cached yet
+        final HashSet<String> shownMessageIds = new HashSet<>();
+        final List<String> missingMessageIds = new ArrayList<>();
+        try (Cursor cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
+                new String[] { MessageColumns._ID, MessageColumns.CONVERSATION_ID,
+                        MessageColumns.STATUS },
+                ConversationMessageData.getNotificationSelection(),
+                null /*selectionArgs*/,
+                null /*groupBy*/,
+                null /*having*/,
+                MessageColumns.RECEIVED_TIMESTAMP + " DESC")) {
+            final HashMap<String, Integer> convMessageCounts = new HashMap<>();
+            while (cursor.moveToNext()) {
+                final String messageId = cursor.getString(0);
+                final String convId = cursor.getString(1);
+                final int status = cursor.getInt(2);
+                final Integer convMessageCount = convMessageCounts.get(convId);
+                final int count = convMessageCount == null ? 0 : convMessageCount;
+                if (count < maxMessages) {
+                    shownMessageIds.add(messageId);
+                    if (cache.getMessage(messageId, status) == null) {
+                        missingMessageIds.add(messageId);
+                    }
+                }
+                convMessageCounts.put(convId, count + 1);
+                unseenMessages.add(new String[] { messageId, convId, Integer.toString(status) });
+            }
+        }
+        if (unseenMessages.isEmpty()) {
+            cache.retainMessages(shownMessageIds);
+            return null;
+        }
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "MessageNotificationState: Found " + unseenMessages.size()
+                    + " unseen message notifications, loading " + missingMessageIds.size());
+        }
 
-            if (convMessageCursor != null && convMessageCursor.moveToFirst()) {
-                if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                    LogUtil.v(TAG, "MessageNotificationState: Found unseen message notifications.");
+        final Map<String, CachedMessage> loadedMessages = loadMessages(db, missingMessageIds);
+        cache.putMessages(loadedMessages, generation);
+        cache.retainMessages(shownMessageIds);
+
+        final Map<String, CachedConversation> convs = new HashMap<>();
+        for (final String[] unseenMessage : unseenMessages) {
+            final String messageId = unseenMessage[0];
+            final String convId = unseenMessage[1];
+            CachedMessage message = loadedMessages.get(messageId);
+            if (message == null && shownMessageIds.contains(messageId)) {
+                message = cache.getMessage(messageId, Integer.parseInt(unseenMessage[2]));
+                if (message == null) {
+                    // Deleted or changed since the ids were queried, the next update will catch up
+                    continue;
+                }
+            }
+            ConversationLineInfo currConvInfo = convLineInfos.get(convId);
+            if (currConvInfo == null) {
+                if (message == null) {
+                    continue;
                 }
-                final ConversationMessageData convMessageData =
-                        new ConversationMessageData();
+                final CachedConversation conv = getConversation(db, cache, convId, generation);
+                convs.put(convId, conv);
+                currConvInfo = new ConversationLineInfo(convId,
+                        conv.mIsGroup,
+                        conv.mName,
+                        conv.mIncludeEmailAddress,
+                        message.mReceivedTimestamp,
+                        conv.mSelfId,
+                        message.mAvatarUri,
+                        message.mContactUri,
+                        conv.mSubId,
+                        conv.mParticipantCount);
+                convLineInfos.put(convId, currConvInfo);
+            }
+            // Prepare the message line
+            if (currConvInfo.mTotalMessageCount < maxMessages) {
+                if (message == null) {
+                    continue;
+                }
+                final CachedConversation conv = convs.get(convId);
+                String authorFullName = message.mSenderFullName;
+                String authorFirstName = message.mSenderFirstName;
+                if (currConvInfo.mIsGroup) {
+                    if (authorFirstName == null) {
+                        // authorFullName might be null as well. In that case, we won't
+                        // show an author. That is better than showing all the group
+                        // names again on the 2nd line.
+                        authorFirstName = authorFullName;
+                    }
+                } else {
+                    if (conv.mFirstNames != null) {
+                        final Integer count = conv.mFirstNames.get(authorFirstName);
+                        if (count != null && count > 1) {
+                            authorFirstName = authorFullName;
+                        }
+                    }
 
-                HashMap<String, Integer> firstNames = null;
-                String conversationIdForFirstNames = null;
-                String groupConversationName = null;
-                final int maxMessages = getMaxMessagesInConversationNotification();
+                    if (authorFullName == null) {
+                        authorFullName = conv.mName;
+                    }
+                    if (authorFirstName == null) {
+                        authorFirstName = conv.mName;
+                    }
+                }
+                currConvInfo.mLineInfos.add(new MessageLineInfo(currConvInfo.mIsGroup,
+                        authorFullName, authorFirstName, message.mText,
+                        message.mAttachmentUri, message.mAttachmentType,
+                        message.mIsManualDownloadNeeded, messageId, message.mStatus));
+            }
+            messageCount++;
+            currConvInfo.mTotalMessageCount++;
+        }
+        if (convLineInfos.isEmpty()) {
+            return null;
+        } else {
+            return new ConversationInfoList(messageCount,
+                    Lists.newLinkedList(convLineInfos.values()));
+        }
+    }
 
-                do {
+    /**
+     * Loads the notification data of the given unseen messages.
+     * @return the loaded messages by message id
+     */
+    private static Map<String, CachedMessage> loadMessages(final DatabaseWrapper db,
+            final List<String> messageIds) {
+        final Map<String, CachedMessage> messages = new HashMap<>();
+        final Context context = Factory.get().getApplicationContext();
+        final ConversationMessageData convMessageData = new ConversationMessageData();
+        for (int start = 0; start < messageIds.size(); start += MAX_MESSAGES_PER_QUERY) {
+            final List<String> chunk = messageIds.subList(start,
+                    Math.min(messageIds.size(), start + MAX_MESSAGES_PER_QUERY));
+            try (Cursor convMessageCursor = db.rawQuery(
+                    ConversationMessageData.getNotificationQuerySql(chunk.size()),
+                    chunk.toArray(new String[chunk.size()]))) {
+                while (convMessageCursor.moveToNext()) {
                     convMessageData.bind(convMessageCursor);
 
-                    // First figure out if this is a valid message.
-                    String authorFullName = convMessageData.getSenderFullName();
-                    String authorFirstName = convMessageData.getSenderFirstName();
-                    final String messageText = convMessageData.getText();
-
-                    final String convId = convMessageData.getConversationId();
-                    final String messageId = convMessageData.getMessageId();
-
-                    CharSequence text = messageText;
+                    CharSequence text = convMessageData.getText();
                     final boolean isManualDownloadNeeded = convMessageData.getIsMmsNotification();
                     if (isManualDownloadNeeded) {
                         // Don't try and convert the text from html if it's sms and not a sms push
@@ -848,110 +971,82 @@ public abstract class MessageNotificationState extends NotificationState {
                         text = context.getResources().getString(
                                 R.string.message_title_manual_download);
                     }
-                    ConversationLineInfo currConvInfo = convLineInfos.get(convId);
-                    if (currConvInfo == null) {
-                        final ConversationListItemData convData =
-                                ConversationListItemData.getExistingConversation(db, convId);
-                        final int subId = BugleDatabaseOperations.getSelfSubscriptionId(db,
-                                convData.getSelfId());
-                        groupConversationName = convData.getName();
-                        final Uri avatarUri = AvatarUriUtil.createAvatarUri(
-                                convMessageData.getSenderProfilePhotoUri(),
-                                convMessageData.getSenderFullName(),
-                                convMessageData.getSenderNormalizedDestination(),
-                                convMessageData.getSenderContactLookupKey());
-                        currConvInfo = new ConversationLineInfo(convId,
-                                convData.getIsGroup(),
-                                groupConversationName,
-                                convData.getIncludeEmailAddress(),
-                                convMessageData.getReceivedTimeStamp(),
-                                convData.getSelfId(),
-                                avatarUri,
-                                convMessageData.getSenderContactLookupUri(),
-                                subId,
-                                convData.getParticipantCount());
-                        convLineInfos.put(convId, currConvInfo);
-                    }
-                    // Prepare the message line
-                    if (currConvInfo.mTotalMessageCount < maxMessages) {
-                        if (currConvInfo.mIsGroup) {
-                            if (authorFirstName == null) {
-                                // authorFullName might be null as well. In that case, we won't
-                                // show an author. That is better than showing all the group
-                                // names again on the 2nd line.
-                                authorFirstName = authorFullName;
-                            }
-                        } else {
-                            // don't recompute this if we don't need to
-                            if (!TextUtils.equals(conversationIdForFirstNames, convId)) {
-                                firstNames = scanFirstNames(convId);
-                                conversationIdForFirstNames = convId;
-                            }
-                            if (firstNames != null) {
-                                final Integer count = firstNames.get(authorFirstName);
-                                if (count != null && count > 1) {
-                                    authorFirstName = authorFullName;
-                                }
-                            }
-
-                            if (authorFullName == null) {
-                                authorFullName = groupConversationName;
-                            }
-                            if (authorFirstName == null) {
-                                authorFirstName = groupConversationName;
-                            }
-                        }
-                        final String subjectText = MmsUtils.cleanseMmsSubject(
-                                context.getResources(),
-                                convMessageData.getMmsSubject());
-                        if (!TextUtils.isEmpty(subjectText)) {
-                            final String subjectLabel =
-                                    context.getString(R.string.subject_label);
-                            final SpannableStringBuilder spanBuilder =
-                                    new SpannableStringBuilder();
-
-                            spanBuilder.append(context.getString(R.string.notification_subject,
-                                    subjectLabel, subjectText));
-                            spanBuilder.setSpan(new TextAppearanceSpan(
-                                    context, R.style.NotificationSubjectText), 0,
-                                    subjectLabel.length(),
-                                    Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                            if (!TextUtils.isEmpty(text)) {
-                                // Now add the actual message text below the subject header.
-                                spanBuilder.append(System.getProperty("line.separator") + text);
-                            }
-                            text = spanBuilder;
+                    final String subjectText = MmsUtils.cleanseMmsSubject(
+                            context.getResources(),
+                            convMessageData.getMmsSubject());
+                    if (!TextUtils.isEmpty(subjectText)) {
+                        final String subjectLabel =
+                                context.getString(R.string.subject_label);
+                        final SpannableStringBuilder spanBuilder =
+                                new SpannableStringBuilder();
+
+                        spanBuilder.append(context.getString(R.string.notification_subject,
+                                subjectLabel, subjectText));
+                        spanBuilder.setSpan(new TextAppearanceSpan(
+                                context, R.style.NotificationSubjectText), 0,
+                                subjectLabel.length(),
+                                Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                        if (!TextUtils.isEmpty(text)) {
+                            // Now add the actual message text below the subject header.
+                            spanBuilder.append(System.getProperty("line.separator") + text);
                         }
-                        // If we've got attachments, find the best one. If one of the messages is
-                        // a photo, save the url so we'll display a big picture notification.
-                        // Otherwise, show the first one we find.
-                        Uri attachmentUri = null;
-                        String attachmentType = null;
-                        final MessagePartData messagePartData =
-                                getMostInterestingAttachment(convMessageData);
-                        if (messagePartData != null) {
-                            attachmentUri = messagePartData.getContentUri();
-                            attachmentType = messagePartData.getContentType();
-                        }
-                        currConvInfo.mLineInfos.add(new MessageLineInfo(currConvInfo.mIsGroup,
-                                authorFullName, authorFirstName, text,
-                                attachmentUri, attachmentType, isManualDownloadNeeded, messageId));
+                        text = spanBuilder;
                     }
-                    messageCount++;
-                    currConvInfo.mTotalMessageCount++;
-                } while (convMessageCursor.moveToNext());
-            }
-        } finally {
-            if (convMessageCursor != null) {
-                convMessageCursor.close();
+                    // If we've got attachments, find the best one. If one of the messages is
+                    // a photo, save the url so we'll display a big picture notification.
+                    // Otherwise, show the first one we find.
+                    Uri attachmentUri = null;
+                    String attachmentType = null;
+                    final MessagePartData messagePartData =
+                            getMostInterestingAttachment(convMessageData);
+                    if (messagePartData != null) {
+                        attachmentUri = messagePartData.getContentUri();
+                        attachmentType = messagePartData.getContentType();
+                    }
+                    final Uri avatarUri = AvatarUriUtil.createAvatarUri(
+                            convMessageData.getSenderProfilePhotoUri(),
+                            convMessageData.getSenderFullName(),
+                            convMessageData.getSenderNormalizedDestination(),
+                            convMessageData.getSenderContactLookupKey());
+                    messages.put(convMessageData.getMessageId(), new CachedMessage(
+                            convMessageData.getConversationId(),
+                            convMessageData.getStatus(),
+                            convMessageData.getReceivedTimeStamp(),
+                            convMessageData.getSenderFullName(),
+                            convMessageData.getSenderFirstName(),
+                            text,
+                            attachmentUri,
+                            attachmentType,
+                            isManualDownloadNeeded,
+                            avatarUri,
+                            convMessageData.getSenderContactLookupUri()));
+                }
             }
         }
-        if (convLineInfos.isEmpty()) {
-            return null;
-        } else {
-            return new ConversationInfoList(messageCount,
-                    Lists.newLinkedList(convLineInfos.values()));
+        return messages;
+    }
+
+    /**
+     * @return the notification data of the conversation, from the cache if possible
+     */
+    private static CachedConversation getConversation(final DatabaseWrapper db,
+            final MessageNotificationCache cache, final String convId, final int generation) {
+        CachedConversation conv = cache.getConversation(convId);
+        if (conv == null) {
+            final ConversationListItemData convData =
+                    ConversationListItemData.getExistingConversation(db, convId);
+            final int subId = BugleDatabaseOperations.getSelfSubscriptionId(db,
+                    convData.getSelfId());
+            conv = new CachedConversation(convData.getIsGroup(),
+                    convData.getName(),
+                    convData.getIncludeEmailAddress(),
+                    convData.getSelfId(),
+                    subId,
+                    convData.getParticipantCount(),
+                    convData.getIsGroup() ? null : scanFirstNames(convId));
+            cache.putConversation(convId, conv, generation);
         }
+        return conv;
     }
 
     /**
@@ -21,6 +21,7 @@ import android.telephony.SmsMessage;
 import com.android.messaging.sms.MmsConfig;
 
 public class MessageTextStats {
+    private final SmsSegmentCounter mSegmentCounter = new SmsSegmentCounter();
     private boolean mMessageLengthRequiresMms;
     private int mMessageCount;
     private int mCodePointsRemainingInCurrentMessage;
@@ -41,8 +42,16 @@ public class MessageTextStats {
         return mMessageLengthRequiresMms;
     }
 
+    /**
+     * Report an edit of the message text, as in {@link android.text.TextWatcher#onTextChanged},
+     * so that the next update of the stats only counts the edited characters
+     */
+    public void onMessageTextEdited(final int start, final int before, final int count) {
+        mSegmentCounter.setEdit(start, before, count);
+    }
+
     public void updateMessageTextStats(final int selfSubId, final String messageText) {
-        final int[] params = SmsMessage.calculateLength(messageText, false);
+        final int[] params = mSegmentCounter.calculateLength(messageText);
         /* SmsMessage.calculateLength returns an int[4] with:
          *   int[0] being the number of SMS's required,
          *   int[1] the number of code points used,
@@ -16,19 +16,17 @@
 package com.android.messaging.datamodel;
 
 import android.content.ContentProvider;
-import android.content.ContentResolver;
 import android.content.ContentValues;
-import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 
-import com.android.messaging.Factory;
 import com.android.messaging.datamodel.DatabaseHelper.ConversationColumns;
 import com.android.messaging.datamodel.DatabaseHelper.ConversationParticipantsColumns;
 import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
@@ -38,8 +36,6 @@ import com.android.messaging.datamodel.data.MessageData;
 import com.android.messaging.datamodel.data.ParticipantData;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.PhoneUtils;
-import com.android.messaging.widget.BugleWidgetProvider;
-import com.android.messaging.widget.WidgetConversationProvider;
 import com.google.common.annotations.VisibleForTesting;
 
 import java.io.FileDescriptor;
@@ -61,6 +57,8 @@ public class MessagingContentProvider extends ContentProvider {
     private static final String CONVERSATIONS_QUERY = "conversations";
 
     public static final Uri CONVERSATIONS_URI = Uri.parse(CONTENT_AUTHORITY + CONVERSATIONS_QUERY);
+    // Optional max number of conversations returned by a conversations query
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
     static final Uri PARTS_URI = Uri.parse(CONTENT_AUTHORITY + DatabaseHelper.PARTS_TABLE);
 
     // Messages query
@@ -103,15 +101,15 @@ public class MessagingContentProvider extends ContentProvider {
      */
     public static void notifyEverythingChanged() {
         final Uri uri = Uri.parse(CONTENT_AUTHORITY);
-        final Context context = Factory.get().getApplicationContext();
-        final ContentResolver cr = context.getContentResolver();
-        cr.notifyChange(uri, null);
+        final ContentChangeCoalescer coalescer = ContentChangeCoalescer.get();
+        coalescer.notifyChange(uri);
+        MessageNotificationCache.get().invalidateAll();
 
         // Notify any conversations widgets the conversation list has changed.
-        BugleWidgetProvider.notifyConversationListChanged(context);
+        coalescer.notifyConversationListWidget();
 
         // Notify all conversation widgets to update.
-        WidgetConversationProvider.notifyMessagesChanged(context, null /*conversationId*/);
+        coalescer.notifyConversationWidget(null /*conversationId*/);
     }
 
     /**
@@ -125,18 +123,17 @@ public class MessagingContentProvider extends ContentProvider {
 
     public static void notifyParticipantsChanged(final String conversationId) {
         final Uri uri = buildConversationParticipantsUri(conversationId);
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(uri, null);
+        ContentChangeCoalescer.get().notifyChange(uri);
+        MessageNotificationCache.get().invalidateParticipants(conversationId);
     }
 
     public static void notifyAllMessagesChanged() {
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(CONVERSATION_MESSAGES_URI, null);
+        ContentChangeCoalescer.get().notifyChange(CONVERSATION_MESSAGES_URI);
     }
 
     public static void notifyAllParticipantsChanged() {
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(CONVERSATION_PARTICIPANTS_URI, null);
+        ContentChangeCoalescer.get().notifyChange(CONVERSATION_PARTICIPANTS_URI);
+        MessageNotificationCache.get().invalidateAll();
     }
 
     // Default value for unknown dimension of image
@@ -179,13 +176,12 @@ public class MessagingContentProvider extends ContentProvider {
 
     public static void notifyMessagesChanged(final String conversationId) {
         final Uri uri = buildConversationMessagesUri(conversationId);
-        final Context context = Factory.get().getApplicationContext();
-        final ContentResolver cr = context.getContentResolver();
-        cr.notifyChange(uri, null);
+        final ContentChangeCoalescer coalescer = ContentChangeCoalescer.get();
+        coalescer.notifyChange(uri);
         notifyConversationListChanged();
 
         // Notify the widget the messages changed
-        WidgetConversationProvider.notifyMessagesChanged(context, conversationId);
+        coalescer.notifyConversationWidget(conversationId);
     }
 
     /**
@@ -199,23 +195,21 @@ public class MessagingContentProvider extends ContentProvider {
 
     public static void notifyConversationMetadataChanged(final String conversationId) {
         final Uri uri = buildConversationMetadataUri(conversationId);
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(uri, null);
+        ContentChangeCoalescer.get().notifyChange(uri);
+        MessageNotificationCache.get().invalidateConversation(conversationId);
         notifyConversationListChanged();
     }
 
     public static void notifyPartsChanged() {
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(PARTS_URI, null);
+        ContentChangeCoalescer.get().notifyChange(PARTS_URI);
     }
 
     public static void notifyConversationListChanged() {
-        final Context context = Factory.get().getApplicationContext();
-        final ContentResolver cr = context.getContentResolver();
-        cr.notifyChange(CONVERSATIONS_URI, null);
+        final ContentChangeCoalescer coalescer = ContentChangeCoalescer.get();
+        coalescer.notifyChange(CONVERSATIONS_URI);
 
         // Notify the widget the conversation list changed
-        BugleWidgetProvider.notifyConversationListChanged(context);
+        coalescer.notifyConversationListWidget();
     }
 
     /**
@@ -261,12 +255,20 @@ public class MessagingContentProvider extends ContentProvider {
         String limit = null;
         switch (match) {
             case CONVERSATIONS_QUERY_CODE:
-                queryBuilder.setTables(ConversationListItemData.getConversationListView());
+                queryBuilder.setTables(ConversationListItemData.getConversationListTable());
                 // Hide empty conversations (ones with 0 sort_timestamp)
                 queryBuilder.appendWhere(ConversationColumns.SORT_TIMESTAMP + " > 0 ");
+                final String limitParameter = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+                if (limitParameter != null) {
+                    try {
+                        limit = Integer.toString(Integer.parseInt(limitParameter));
+                    } catch (final NumberFormatException e) {
+                        throw new IllegalArgumentException("Malformed URI " + uri);
+                    }
+                }
                 break;
             case CONVERSATION_QUERY_CODE:
-                queryBuilder.setTables(ConversationListItemData.getConversationListView());
+                queryBuilder.setTables(ConversationListItemData.getConversationListTable());
                 if (uri.getPathSegments().size() == 2) {
                     queryBuilder.appendWhere(ConversationColumns._ID + "=?");
                     // Get the conversation id from the uri
@@ -353,8 +355,16 @@ public class MessagingContentProvider extends ContentProvider {
             }
         }
 
+        final long startMs = SystemClock.elapsedRealtime();
         final Cursor cursor = getDatabaseWrapper().query(queryBuilder, projection, selection,
                 queryArgs, groupBy, null, sortOrder, limit);
+        if (match == CONVERSATIONS_QUERY_CODE
+                && LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            // Counting runs the query
+            final int count = cursor.getCount();
+            LogUtil.v(TAG, "Conversation list query returned " + count
+                    + " rows in " + (SystemClock.elapsedRealtime() - startMs) + "ms");
+        }
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
@@ -442,6 +452,8 @@ public class MessagingContentProvider extends ContentProvider {
             defaultSmsApp = "None";
         }
         writer.println("Default SMS app: " + defaultSmsApp);
+        ContentChangeCoalescer.get().dump(writer);
+        BulkDeleter.get().dump(writer);
     }
 
     @Override
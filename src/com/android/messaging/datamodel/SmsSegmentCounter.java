@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.telephony.SmsMessage;
+import android.util.SparseIntArray;
+
+import com.android.messaging.util.LogUtil;
+
+import java.text.BreakIterator;
+import java.util.Arrays;
+
+/**
+ * Counts the SMS segments needed to send a text as it is edited, in time proportional to the
+ * size of each edit rather than to the length of the text.
+ *
+ * The counter tracks the number of septets of the text's characters in the GSM 7 bit default
+ * alphabet and the number of characters outside of it, which decide between GSM 7 bit and UCS-2
+ * encodings. It gives the same results as {@link SmsMessage#calculateLength} as long as the
+ * platform counts with the default alphabet only (no national language tables, no forced 7 bit
+ * translation), which is checked once per process.
+ *
+ * The segments of multi segment UCS-2 texts end on character boundaries, as the platform splits
+ * them. The ends of the segments before the edit are kept, and only the following segments are
+ * split again. This is also checked against the platform once per process, and left to the
+ * platform if it splits differently (e.g. without EMS support).
+ */
+public class SmsSegmentCounter {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    // GSM 7 bit default alphabet (3GPP TS 23.038), in septet order, with the escape position
+    // mapped to \uffff as the platform does
+    private static final String GSM_BASIC_CHARS =
+            "@\u00a3$\u00a5\u00e8\u00e9\u00f9\u00ec\u00f2\u00c7\n\u00d8\u00f8\r\u00c5\u00e5"
+            + "\u0394_\u03a6\u0393\u039b\u03a9\u03a0\u03a8\u03a3\u0398\u039e"
+            + "\uffff\u00c6\u00e6\u00df\u00c9"
+            + " !\"#\u00a4%&'()*+,-./0123456789:;<=>?"
+            + "\u00a1ABCDEFGHIJKLMNOPQRSTUVWXYZ\u00c4\u00d6\u00d1\u00dc\u00a7"
+            + "\u00bfabcdefghijklmnopqrstuvwxyz\u00e4\u00f6\u00f1\u00fc\u00e0";
+    // Characters of the default extension table, sent as an escape and a septet
+    private static final String GSM_EXTENSION_CHARS = "\f^{}\\[~]|\u20ac";
+    // Counted as a single septet by the platform
+    private static final char GSM_EXTENDED_ESCAPE = '\u001b';
+
+    // Number of septets of each GSM character
+    private static final SparseIntArray sSeptetCounts = new SparseIntArray();
+
+    static {
+        for (int i = 0; i < GSM_BASIC_CHARS.length(); i++) {
+            sSeptetCounts.put(GSM_BASIC_CHARS.charAt(i), 1);
+        }
+        for (int i = 0; i < GSM_EXTENSION_CHARS.length(); i++) {
+            sSeptetCounts.put(GSM_EXTENSION_CHARS.charAt(i), 2);
+        }
+        sSeptetCounts.put(GSM_EXTENDED_ESCAPE, 1);
+    }
+
+    // Texts covering each kind of character and encoding the counter handles
+    private static final String[] PLATFORM_CHECK_TEXTS = new String[] {
+        "",
+        "Hello @\u00a3$\u00a5\u00e8\u00e9\u00f9\u00ec\u00f2\u00c7\u00e0\u00bf\n",
+        GSM_EXTENSION_CHARS,
+        repeat('a', SmsMessage.MAX_USER_DATA_SEPTETS),
+        repeat('a', SmsMessage.MAX_USER_DATA_SEPTETS + 1),
+        repeat('\u20ac', SmsMessage.MAX_USER_DATA_SEPTETS / 2 + 1),
+        repeat('b', SmsMessage.MAX_USER_DATA_SEPTETS_WITH_HEADER * 3 + 1),
+        // Characters only found in national language tables, or translated when forcing 7 bit
+        "\u00e7", "\u015f", "\u00e1", "\u0430", "\u0915",
+        "\u4f60\u597d", "\ud83d\ude00",
+        repeat('\u0436', SmsMessage.MAX_USER_DATA_BYTES / 2),
+    };
+
+    // Multi segment UCS-2 texts, with characters across the end of the first segment
+    private static final String[] PLATFORM_CHECK_MULTIPART_UCS2_TEXTS = new String[] {
+        repeat('\u0436', SmsMessage.MAX_USER_DATA_BYTES / 2 + 1),
+        repeat('\u0436', SmsMessage.MAX_USER_DATA_BYTES_WITH_HEADER * 2),
+        // Surrogate pair
+        repeat('\u0436', SmsMessage.MAX_USER_DATA_BYTES_WITH_HEADER / 2 - 1)
+                + "\ud83d\ude00\u0436",
+        // Combining mark
+        repeat('\u0436', SmsMessage.MAX_USER_DATA_BYTES_WITH_HEADER / 2) + "\u0301\u0436",
+        // Pairs of regional indicators (flags)
+        repeat('\u0436', SmsMessage.MAX_USER_DATA_BYTES_WITH_HEADER / 2 - 3)
+                + "\ud83c\uddeb\ud83c\uddf7\ud83c\udde9\ud83c\uddea\u0436",
+    };
+
+    // Whether the platform counts the same way, null until checked
+    private static Boolean sMatchesPlatform;
+    // Whether the platform splits multi segment UCS-2 texts the same way
+    private static boolean sMultipartUcs2MatchesPlatform;
+
+    // Text last counted
+    private String mText = "";
+    // Septets of the GSM characters of the text
+    private int mSeptetCount;
+    // Number of characters of the text outside of the GSM alphabet
+    private int mNonGsmCount;
+
+    // Edit of the text reported since it was last counted, if any
+    private boolean mHasEdit;
+    private int mEditStart;
+    private int mEditBefore;
+    private int mEditCount;
+
+    // Length last returned, for the text last counted
+    private int[] mLength;
+
+    // Ends of the segments of the text last counted, if it is a multi segment UCS-2 text
+    private int[] mSegmentEnds = new int[4];
+    private int mSegmentCount;
+    private BreakIterator mBreakIterator;
+
+    /**
+     * Report that {@code before} characters of the last counted text at {@code start} are being
+     * replaced by {@code count} characters, as in {@link android.text.TextWatcher#onTextChanged}.
+     * The next count then only looks at the replaced characters.
+     */
+    public void setEdit(final int start, final int before, final int count) {
+        mHasEdit = true;
+        mEditStart = start;
+        mEditBefore = before;
+        mEditCount = count;
+    }
+
+    /**
+     * Count the text, which is the last counted text with the reported edit if any. The text
+     * isn't counted again if no edit was reported and it is unchanged, e.g. when the subject is
+     * edited rather than the text.
+     *
+     * @return the same array as {@link SmsMessage#calculateLength(CharSequence, boolean)}
+     */
+    public int[] calculateLength(final String text) {
+        if (!mHasEdit && mLength != null && text.equals(mText)) {
+            return mLength.clone();
+        }
+        final int editStart;
+        if (mHasEdit && mEditStart >= 0 && mEditStart + mEditBefore <= mText.length()
+                && mText.length() - mEditBefore + mEditCount == text.length()) {
+            count(mText, mEditStart, mEditStart + mEditBefore, -1);
+            count(text, mEditStart, mEditStart + mEditCount, 1);
+            editStart = mEditStart;
+        } else {
+            mSeptetCount = 0;
+            mNonGsmCount = 0;
+            count(text, 0, text.length(), 1);
+            editStart = 0;
+        }
+        mText = text;
+        mHasEdit = false;
+
+        final int[] length;
+        if (!matchesPlatform()) {
+            length = SmsMessage.calculateLength(text, false);
+        } else if (mNonGsmCount == 0) {
+            length = getGsmLength(mSeptetCount);
+        } else if (text.length() * 2 <= SmsMessage.MAX_USER_DATA_BYTES) {
+            length = getUcs2Length(text.length());
+        } else if (sMultipartUcs2MatchesPlatform) {
+            length = getMultipartUcs2Length(text, editStart);
+        } else {
+            length = SmsMessage.calculateLength(text, false);
+        }
+        if (length[0] <= 1 || length[3] != SmsMessage.ENCODING_16BIT
+                || !sMultipartUcs2MatchesPlatform) {
+            // The next multi segment UCS-2 text is split from its start
+            mSegmentCount = 0;
+        }
+        mLength = length;
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            final int[] expected = SmsMessage.calculateLength(text, false);
+            if (!Arrays.equals(expected, length)) {
+                LogUtil.w(TAG, "SmsSegmentCounter: counted " + Arrays.toString(length)
+                        + " instead of " + Arrays.toString(expected));
+            }
+        }
+        return length.clone();
+    }
+
+    /**
+     * Split the text in segments as the platform does, from the last segment of the previously
+     * counted text ending before the edit
+     */
+    private int[] getMultipartUcs2Length(final String text, final int editStart) {
+        // Segments ending before the edit end on the same boundaries, as these only depend on
+        // the characters up to the end of the segment
+        while (mSegmentCount > 0 && mSegmentEnds[mSegmentCount - 1] >= editStart) {
+            mSegmentCount--;
+        }
+        if (mBreakIterator == null) {
+            mBreakIterator = BreakIterator.getCharacterInstance();
+        }
+        mBreakIterator.setText(text);
+        int position = mSegmentCount > 0 ? mSegmentEnds[mSegmentCount - 1] : 0;
+        int remaining = 0;
+        while (position < text.length()) {
+            final int nextPosition = getSegmentEnd(text, position);
+            if (nextPosition == text.length()) {
+                remaining = position + SmsMessage.MAX_USER_DATA_BYTES_WITH_HEADER / 2
+                        - text.length();
+            }
+            if (mSegmentCount == mSegmentEnds.length) {
+                mSegmentEnds = Arrays.copyOf(mSegmentEnds, mSegmentCount * 2);
+            }
+            mSegmentEnds[mSegmentCount++] = nextPosition;
+            position = nextPosition;
+        }
+        return new int[] {
+            mSegmentCount, text.length(), remaining, SmsMessage.ENCODING_16BIT
+        };
+    }
+
+    /**
+     * @return the end of the UCS-2 segment starting at the position, on a character boundary
+     *         if there is one in the segment, as in SmsMessageBase#findNextUnicodePosition
+     */
+    private int getSegmentEnd(final String text, final int position) {
+        int nextPosition = Math.min(position + SmsMessage.MAX_USER_DATA_BYTES_WITH_HEADER / 2,
+                text.length());
+        if (nextPosition < text.length() && !mBreakIterator.isBoundary(nextPosition)) {
+            int breakPosition = mBreakIterator.preceding(nextPosition);
+            while (breakPosition + 4 <= nextPosition
+                    && isRegionalIndicator(text.codePointAt(breakPosition))
+                    && isRegionalIndicator(text.codePointAt(breakPosition + 2))) {
+                // Skip over flags (pairs of regional indicators)
+                breakPosition += 4;
+            }
+            if (breakPosition > position) {
+                nextPosition = breakPosition;
+            } else if (Character.isHighSurrogate(text.charAt(nextPosition - 1))) {
+                // No character boundary in the segment, at least end on a code point
+                nextPosition--;
+            }
+        }
+        return nextPosition;
+    }
+
+    private static boolean isRegionalIndicator(final int codePoint) {
+        return codePoint >= 0x1f1e6 && codePoint <= 0x1f1ff;
+    }
+
+    /**
+     * Add ({@code sign} 1) or remove ({@code sign} -1) the characters of the text between start
+     * and end from the counts
+     */
+    private void count(final String text, final int start, final int end, final int sign) {
+        for (int i = start; i < end; i++) {
+            final int septets = sSeptetCounts.get(text.charAt(i));
+            if (septets == 0) {
+                mNonGsmCount += sign;
+            } else {
+                mSeptetCount += sign * septets;
+            }
+        }
+    }
+
+    private static int[] getGsmLength(final int septets) {
+        final int messageCount;
+        final int remaining;
+        if (septets > SmsMessage.MAX_USER_DATA_SEPTETS) {
+            messageCount = (septets + SmsMessage.MAX_USER_DATA_SEPTETS_WITH_HEADER - 1)
+                    / SmsMessage.MAX_USER_DATA_SEPTETS_WITH_HEADER;
+            remaining = messageCount * SmsMessage.MAX_USER_DATA_SEPTETS_WITH_HEADER - septets;
+        } else {
+            messageCount = 1;
+            remaining = SmsMessage.MAX_USER_DATA_SEPTETS - septets;
+        }
+        return new int[] { messageCount, septets, remaining, SmsMessage.ENCODING_7BIT };
+    }
+
+    // Single segment UCS-2 texts only
+    private static int[] getUcs2Length(final int length) {
+        return new int[] {
+            1, length, (SmsMessage.MAX_USER_DATA_BYTES - length * 2) / 2,
+            SmsMessage.ENCODING_16BIT
+        };
+    }
+
+    /**
+     * Check that the platform counts the sample texts like this counter does, in which case it
+     * can be used for the texts it handles
+     */
+    private static synchronized boolean matchesPlatform() {
+        if (sMatchesPlatform == null) {
+            sMatchesPlatform = true;
+            final SmsSegmentCounter counter = new SmsSegmentCounter();
+            for (final String text : PLATFORM_CHECK_TEXTS) {
+                counter.mSeptetCount = 0;
+                counter.mNonGsmCount = 0;
+                counter.count(text, 0, text.length(), 1);
+                final int[] expected = SmsMessage.calculateLength(text, false);
+                final int[] actual = counter.mNonGsmCount == 0
+                        ? getGsmLength(counter.mSeptetCount)
+                        : getUcs2Length(text.length());
+                if (!Arrays.equals(expected, actual)) {
+                    LogUtil.i(TAG, "SmsSegmentCounter: platform counts differently ("
+                            + Arrays.toString(expected) + " vs " + Arrays.toString(actual)
+                            + "), not counting incrementally");
+                    sMatchesPlatform = false;
+                    break;
+                }
+            }
+            sMultipartUcs2MatchesPlatform = sMatchesPlatform;
+            for (final String text : PLATFORM_CHECK_MULTIPART_UCS2_TEXTS) {
+                if (!sMultipartUcs2MatchesPlatform) {
+                    break;
+                }
+                counter.mSegmentCount = 0;
+                final int[] expected = SmsMessage.calculateLength(text, false);
+                final int[] actual = counter.getMultipartUcs2Length(text, 0);
+                if (!Arrays.equals(expected, actual)) {
+                    LogUtil.i(TAG, "SmsSegmentCounter: platform splits UCS-2 differently ("
+                            + Arrays.toString(expected) + " vs " + Arrays.toString(actual)
+                            + "), not counting multi segment UCS-2 texts");
+                    sMultipartUcs2MatchesPlatform = false;
+                }
+            }
+        }
+        return sMatchesPlatform;
+    }
+
+    private static String repeat(final char c, final int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -19,6 +19,7 @@ package com.android.messaging.datamodel.action;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.android.messaging.datamodel.DataModel;
@@ -26,6 +27,7 @@ import com.android.messaging.datamodel.action.ActionMonitor.ActionCompletedListe
 import com.android.messaging.datamodel.action.ActionMonitor.ActionExecutedListener;
 import com.android.messaging.util.LogUtil;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -47,6 +49,11 @@ public abstract class Action implements Parcelable {
     // This does not get written to the parcel
     private final List<Action> mBackgroundActions = new LinkedList<>();
 
+    // Stage timestamps for ActionTracer, not written to the parcel either
+    private long mStartTimeMs;
+    private long mExecuteStartTimeMs;
+    private long mBackgroundStartTimeMs;
+
     /**
      * Process the action locally - runs on action service thread.
      * TODO: Currently, there is no way for this method to indicate failure
@@ -86,7 +93,8 @@ public abstract class Action implements Parcelable {
      * Send queued actions to the background worker provided
      */
     public void sendBackgroundActions(final BackgroundWorker worker) {
-        worker.queueBackgroundWork(mBackgroundActions);
+        // The worker may still be reading the list it was given once it is cleared here
+        worker.queueBackgroundWork(new ArrayList<>(mBackgroundActions));
         mBackgroundActions.clear();
     }
 
@@ -117,6 +125,42 @@ public abstract class Action implements Parcelable {
         return null;
     }
 
+    /**
+     * Key of the lane the action runs in. Actions with the same key run one at a time in the
+     * order they were started; actions with different keys may run concurrently. The default
+     * null key makes the action a barrier that runs alone, which is what global actions (sync,
+     * participant refresh...) need. Must only depend on the action parameters.
+     */
+    protected String getLaneKey() {
+        return null;
+    }
+
+    /**
+     * Helper for derived classes that only touch a single conversation
+     * @return lane key for the conversation, or null (barrier) if the conversation is unknown
+     */
+    protected static String getConversationLaneKey(final String conversationId) {
+        return TextUtils.isEmpty(conversationId) ? null : "conversation:" + conversationId;
+    }
+
+    /**
+     * Key of the queued actions this action can be folded into. When an action is started while
+     * a queued (not yet executing) action of the same class has the same key, it is merged into
+     * the queued one with {@link #coalesce} rather than executed on its own. The default null key
+     * never coalesces. Actions with a monitor are never coalesced.
+     */
+    protected String getCoalesceKey() {
+        return null;
+    }
+
+    /**
+     * Merge a later started action with the same coalesce key into this queued action. Must not
+     * change the lane key of this action.
+     * @param later the action that will not be executed
+     */
+    protected void coalesce(final Action later) {
+    }
+
     /**
      * Constructor
      */
@@ -159,6 +203,7 @@ public abstract class Action implements Parcelable {
      * Called when action queues ActionService intent
      */
     protected final void markStart() {
+        mStartTimeMs = SystemClock.elapsedRealtime();
         ActionMonitor.setState(this, ActionMonitor.STATE_CREATED,
                 ActionMonitor.STATE_QUEUED);
     }
@@ -167,6 +212,11 @@ public abstract class Action implements Parcelable {
      * Mark the beginning of local action execution
      */
     protected final void markBeginExecute() {
+        mExecuteStartTimeMs = SystemClock.elapsedRealtime();
+        if (mStartTimeMs > 0) {
+            ActionTracer.record(this, ActionTracer.STAGE_QUEUE_WAIT,
+                    mExecuteStartTimeMs - mStartTimeMs);
+        }
         ActionMonitor.setState(this, ActionMonitor.STATE_QUEUED,
                 ActionMonitor.STATE_EXECUTING);
     }
@@ -176,12 +226,15 @@ public abstract class Action implements Parcelable {
      * background actions
      */
     protected final void markEndExecute(final Object result) {
+        ActionTracer.record(this, ActionTracer.STAGE_EXECUTE,
+                SystemClock.elapsedRealtime() - mExecuteStartTimeMs);
         final boolean hasBackgroundActions = hasBackgroundActions();
         ActionMonitor.setExecutedState(this, ActionMonitor.STATE_EXECUTING,
                 hasBackgroundActions, result);
         if (!hasBackgroundActions) {
             ActionMonitor.setCompleteState(this, ActionMonitor.STATE_EXECUTING,
                     result, true);
+            recordCompletion();
         }
     }
 
@@ -189,6 +242,7 @@ public abstract class Action implements Parcelable {
      * Update action state to indicate that the background worker is starting
      */
     protected final void markBackgroundWorkStarting() {
+        mBackgroundStartTimeMs = SystemClock.elapsedRealtime();
         ActionMonitor.setState(this,
                 ActionMonitor.STATE_BACKGROUND_ACTIONS_QUEUED,
                 ActionMonitor.STATE_EXECUTING_BACKGROUND_ACTION);
@@ -199,6 +253,8 @@ public abstract class Action implements Parcelable {
      * (or failure) to the Action service
      */
     protected final void markBackgroundCompletionQueued() {
+        ActionTracer.record(this, ActionTracer.STAGE_BACKGROUND,
+                SystemClock.elapsedRealtime() - mBackgroundStartTimeMs);
         ActionMonitor.setState(this,
                 ActionMonitor.STATE_EXECUTING_BACKGROUND_ACTION,
                 ActionMonitor.STATE_BACKGROUND_COMPLETION_QUEUED);
@@ -224,6 +280,7 @@ public abstract class Action implements Parcelable {
         final Object result = processBackgroundResponse(response);
         ActionMonitor.setCompleteState(this,
                 ActionMonitor.STATE_PROCESSING_BACKGROUND_RESPONSE, result, true);
+        recordCompletion();
     }
 
     /**
@@ -233,6 +290,15 @@ public abstract class Action implements Parcelable {
         final Object result = processBackgroundFailure();
         ActionMonitor.setCompleteState(this, ActionMonitor.STATE_UNDEFINED,
                 result, false);
+        recordCompletion();
+    }
+
+    private void recordCompletion() {
+        // Actions parceled through an alarm or a pending intent don't have a start time
+        if (mStartTimeMs > 0) {
+            ActionTracer.record(this, ActionTracer.STAGE_COMPLETION,
+                    SystemClock.elapsedRealtime() - mStartTimeMs);
+        }
     }
 
     private static final Object sLock = new Object();
@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import com.android.messaging.Factory;
+import com.android.messaging.util.LogUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs action work on a bounded pool with keyed ordering lanes.
+ *
+ * Work with the same lane key (see {@link Action#getLaneKey}) runs one at a time in the order it
+ * was queued, work with different lane keys runs concurrently. Work without a lane key is a
+ * barrier: it waits for everything queued before it to complete, runs alone, and everything
+ * queued after it waits for it. A wake lock is held while any work is queued or running. Work
+ * queued from a JobIntentService must be waited for with the returned latch, so that the job
+ * isn't considered done before its work is. Work queued in-process outside of any job is kept
+ * alive by the owner: it is told when the executor gets busy, and runs a job that waits with
+ * {@link #awaitIdle} until everything queued has run, so that the process isn't frozen or
+ * killed in the middle of it.
+ *
+ * Coalescable work for an action that declares a coalesce key (see {@link Action#getCoalesceKey})
+ * is folded into queued work for an action of the same class and key.
+ *
+ * Work is handed over through a lock-free queue: the thread queueing it, often the main thread,
+ * never waits for the executor lock. Whichever thread finds the hand-off queue not being drained
+ * moves its work into the lanes under the lock, the others return right away.
+ */
+class ActionExecutor {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+    // Log the queueing delay percentiles every this many tasks
+    private static final int DELAY_SAMPLE_COUNT = 128;
+    // Warn about tasks that waited longer than this to start
+    private static final long SLOW_QUEUEING_DELAY_MS = 1000;
+
+    private final String mName;
+    private final int mMaxConcurrent;
+    private final ThreadPoolExecutor mExecutor;
+
+    // Tasks handed over and not yet moved into mQueue, in queueing order
+    private final ConcurrentLinkedQueue<Task> mIncoming = new ConcurrentLinkedQueue<>();
+    // Set while a thread moves the incoming tasks into mQueue
+    private final AtomicBoolean mDraining = new AtomicBoolean();
+    // Tasks not yet dispatched, in queueing order
+    private final ArrayDeque<Task> mQueue = new ArrayDeque<>();
+    // Lanes with a task running
+    private final Set<String> mActiveLanes = new HashSet<>();
+    private int mRunningCount;
+    private boolean mBarrierRunning;
+
+    private PowerManager.WakeLock mWakeLock;
+    // Called when work is queued while idle, unless a keep alive job is already pending
+    private final Runnable mKeepAlive;
+    private boolean mKeepAlivePending;
+
+    // Queueing delays of the last tasks dispatched
+    private final long[] mDelaySamples = new long[DELAY_SAMPLE_COUNT];
+    private int mDelaySampleCount;
+
+    private long mExecutedCount;
+    private long mCoalescedCount;
+
+    /**
+     * @param name name used for threads, the wake lock and logging
+     * @param maxConcurrent the max number of tasks running at the same time
+     */
+    ActionExecutor(final String name, final int maxConcurrent) {
+        this(name, maxConcurrent, null /* keepAlive */);
+    }
+
+    /**
+     * @param name name used for threads, the wake lock and logging
+     * @param maxConcurrent the max number of tasks running at the same time
+     * @param keepAlive called when the executor gets busy, to start a job that keeps the process
+     *        running until {@link #awaitIdle} returns; may be null
+     */
+    ActionExecutor(final String name, final int maxConcurrent, final Runnable keepAlive) {
+        mName = name;
+        mMaxConcurrent = maxConcurrent;
+        mKeepAlive = keepAlive;
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            }
+        };
+        mExecutor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent,
+                THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                threadFactory);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue work for the given action
+     *
+     * @param action the action the work is for, which provides the lane key
+     * @param work the work to run
+     * @return a latch released once the work has run
+     */
+    CountDownLatch execute(final Action action, final Runnable work) {
+        return execute(action, work, false /* coalescable */);
+    }
+
+    /**
+     * Queue work for the given action
+     *
+     * @param action the action the work is for, which provides the lane and coalesce keys
+     * @param work the work to run
+     * @param coalescable true if the work may be folded into queued work of a similar action
+     * @return a latch released once the work has run, or once the work it was folded into has
+     */
+    CountDownLatch execute(final Action action, final Runnable work, final boolean coalescable) {
+        final String coalesceKey = coalescable && !ActionMonitor.isMonitored(action.actionKey)
+                ? action.getCoalesceKey() : null;
+        final Task task = new Task(action, coalesceKey, work);
+        mIncoming.offer(task);
+        drainIncoming();
+        return task.mDone;
+    }
+
+    /**
+     * Move the incoming tasks into the lanes, unless another thread is already doing it. The
+     * queue is checked again once done, so that tasks handed over meanwhile are not left behind.
+     */
+    private void drainIncoming() {
+        while (!mIncoming.isEmpty() && mDraining.compareAndSet(false, true)) {
+            boolean keepAlive = false;
+            try {
+                synchronized (this) {
+                    Task task;
+                    while ((task = mIncoming.poll()) != null) {
+                        if (task.mCoalesceKey != null) {
+                            final Task folded = coalesceLocked(task);
+                            if (folded != null) {
+                                folded.addFolded(task);
+                                continue;
+                            }
+                        }
+                        if (mQueue.isEmpty() && mRunningCount == 0) {
+                            acquireWakeLockLocked();
+                            if (mKeepAlive != null && !mKeepAlivePending) {
+                                mKeepAlivePending = true;
+                                keepAlive = true;
+                            }
+                        }
+                        mQueue.add(task);
+                    }
+                    dispatchLocked();
+                }
+            } finally {
+                mDraining.set(false);
+            }
+            if (keepAlive) {
+                mKeepAlive.run();
+            }
+        }
+    }
+
+    /**
+     * Wait until no work is queued or running, from the job started by the keep alive callback
+     */
+    void awaitIdle() {
+        boolean interrupted = false;
+        synchronized (this) {
+            // Work queued from now on while idle needs a new job
+            mKeepAlivePending = false;
+            while (!mQueue.isEmpty() || mRunningCount > 0) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for work queued with {@link #execute}, e.g. from JobIntentService.onHandleWork
+     *
+     * @param done the latch returned when queueing the work
+     */
+    static void awaitDone(final CountDownLatch done) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fold the work into queued work of an action of the same class and coalesce key. Only the
+     * latest queued work that would run in the same order is considered: the search stops at
+     * any other work of the same lane or barrier.
+     * @return the queued task the work was folded into, or null if it must be queued
+     */
+    private Task coalesceLocked(final Task task) {
+        final Iterator<Task> iterator = mQueue.descendingIterator();
+        while (iterator.hasNext()) {
+            final Task queued = iterator.next();
+            if (task.mCoalesceKey.equals(queued.mCoalesceKey)
+                    && task.mAction.getClass() == queued.mAction.getClass()
+                    && !ActionMonitor.isMonitored(queued.mAction.actionKey)) {
+                queued.mAction.coalesce(task.mAction);
+                mCoalescedCount++;
+                return queued;
+            }
+            if (queued.mLaneKey == null || task.mLaneKey == null
+                    || queued.mLaneKey.equals(task.mLaneKey)) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of tasks executed
+     */
+    synchronized long getExecutedCount() {
+        return mExecutedCount;
+    }
+
+    /**
+     * @return the number of tasks folded into other queued tasks instead of being executed
+     */
+    synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    private void dispatchLocked() {
+        if (mBarrierRunning) {
+            return;
+        }
+        // Lanes that have a task waiting ahead in the queue, so later tasks of the same lane
+        // must keep waiting too
+        final Set<String> blockedLanes = new HashSet<>();
+        boolean first = true;
+        final Iterator<Task> iterator = mQueue.iterator();
+        while (iterator.hasNext() && mRunningCount < mMaxConcurrent) {
+            final Task task = iterator.next();
+            if (task.mLaneKey == null) {
+                // Barrier: only starts once it is at the head of the queue and nothing runs,
+                // and nothing behind it may start before it
+                if (first && mRunningCount == 0) {
+                    iterator.remove();
+                    mBarrierRunning = true;
+                    startLocked(task);
+                }
+                return;
+            }
+            first = false;
+            if (mActiveLanes.contains(task.mLaneKey) || blockedLanes.contains(task.mLaneKey)) {
+                blockedLanes.add(task.mLaneKey);
+                continue;
+            }
+            iterator.remove();
+            mActiveLanes.add(task.mLaneKey);
+            startLocked(task);
+        }
+    }
+
+    private void startLocked(final Task task) {
+        mRunningCount++;
+        mExecutedCount++;
+        recordQueueingDelayLocked(SystemClock.elapsedRealtime() - task.mQueuedMs);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runTask(task);
+            }
+        });
+    }
+
+    private void runTask(final Task task) {
+        try {
+            task.mWork.run();
+        } finally {
+            task.countDown();
+            synchronized (this) {
+                mRunningCount--;
+                if (task.mLaneKey == null) {
+                    mBarrierRunning = false;
+                } else {
+                    mActiveLanes.remove(task.mLaneKey);
+                }
+                dispatchLocked();
+                if (mQueue.isEmpty() && mRunningCount == 0) {
+                    releaseWakeLockLocked();
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private void acquireWakeLockLocked() {
+        if (mWakeLock == null) {
+            final Context context = Factory.get().getApplicationContext();
+            final PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, mName);
+            mWakeLock.setReferenceCounted(false);
+        }
+        mWakeLock.acquire();
+    }
+
+    private void releaseWakeLockLocked() {
+        if (mWakeLock != null && mWakeLock.isHeld()) {
+            mWakeLock.release();
+        }
+    }
+
+    private void recordQueueingDelayLocked(final long delayMs) {
+        if (delayMs > SLOW_QUEUEING_DELAY_MS) {
+            LogUtil.w(TAG, mName + ": task waited " + delayMs + "ms to start");
+        }
+        mDelaySamples[mDelaySampleCount++] = delayMs;
+        if (mDelaySampleCount == DELAY_SAMPLE_COUNT) {
+            mDelaySampleCount = 0;
+            if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+                final long[] sorted = mDelaySamples.clone();
+                Arrays.sort(sorted);
+                LogUtil.d(TAG, mName + " queueing delay over " + DELAY_SAMPLE_COUNT
+                        + " tasks: p50=" + getPercentile(sorted, 50)
+                        + "ms, p90=" + getPercentile(sorted, 90)
+                        + "ms, p99=" + getPercentile(sorted, 99)
+                        + "ms, max=" + sorted[sorted.length - 1] + "ms; executed="
+                        + mExecutedCount + ", coalesced=" + mCoalescedCount);
+            }
+        }
+    }
+
+    private static long getPercentile(final long[] sorted, final int percentile) {
+        final int index = Math.min(sorted.length - 1, sorted.length * percentile / 100);
+        return sorted[index];
+    }
+
+    private static class Task {
+        final Action mAction;
+        final String mLaneKey;
+        // Null unless the work may be folded with similar queued work
+        final String mCoalesceKey;
+        final Runnable mWork;
+        final long mQueuedMs;
+        final CountDownLatch mDone = new CountDownLatch(1);
+        // Tasks folded into this one, only added to while it is queued
+        private List<Task> mFolded;
+
+        Task(final Action action, final String coalesceKey, final Runnable work) {
+            mAction = action;
+            mLaneKey = action.getLaneKey();
+            mCoalesceKey = coalesceKey;
+            mWork = work;
+            mQueuedMs = SystemClock.elapsedRealtime();
+        }
+
+        void addFolded(final Task task) {
+            if (mFolded == null) {
+                mFolded = new ArrayList<>();
+            }
+            mFolded.add(task);
+        }
+
+        /**
+         * Release the latches of this task and of the tasks folded into it
+         */
+        void countDown() {
+            mDone.countDown();
+            if (mFolded != null) {
+                for (final Task folded : mFolded) {
+                    folded.mDone.countDown();
+                }
+            }
+        }
+    }
+}
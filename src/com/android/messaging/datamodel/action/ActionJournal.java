@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+
+import com.android.messaging.Factory;
+import com.android.messaging.datamodel.DataModel;
+import com.android.messaging.datamodel.DatabaseHelper;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
+import com.android.messaging.datamodel.DatabaseWrapper;
+import com.android.messaging.datamodel.data.MessageData;
+import com.android.messaging.util.LogUtil;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Append-only journal of the messages put in an in-flight (sending or downloading) state.
+ *
+ * A message id is appended, and synced to disk, before the message is marked as sending or
+ * downloading in the database. On startup the journal tells which messages may have been left
+ * in flight by the previous process, so that only those need fixing up instead of scanning the
+ * whole messages table. Messages leave the in-flight states in many places, so completions are
+ * not journaled: replay simply rechecks the status of each journaled message. The journal is
+ * compacted to the messages still in flight when it grows, and checkpointed (emptied) once the
+ * startup fixup is done.
+ *
+ * A missing journal means it can't be trusted (first run, or a failed write) and callers fall
+ * back to a full scan.
+ */
+class ActionJournal {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    private static final String JOURNAL_FILE_NAME = "inflight_messages.journal";
+    // Compact the journal once it has this many records
+    private static final int COMPACT_RECORD_COUNT = 256;
+    // Max number of message ids in a single IN (...) clause
+    static final int MAX_IDS_PER_QUERY = 500;
+
+    private static ActionJournal sInstance;
+
+    private final AtomicFile mFile;
+    private int mRecordCount = -1;
+
+    static synchronized ActionJournal get() {
+        if (sInstance == null) {
+            sInstance = new ActionJournal(new File(
+                    Factory.get().getApplicationContext().getFilesDir(), JOURNAL_FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    private ActionJournal(final File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Record a message that is about to be marked as sending or downloading
+     */
+    synchronized void recordInFlight(final String messageId) {
+        if (TextUtils.isEmpty(messageId) || !mFile.getBaseFile().exists()) {
+            // Journal not trusted until the next checkpoint
+            return;
+        }
+        if (mRecordCount < 0) {
+            final Set<String> messageIds = read();
+            mRecordCount = messageIds != null ? messageIds.size() : 0;
+        }
+        if (mRecordCount >= COMPACT_RECORD_COUNT) {
+            compact();
+        }
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mFile.getBaseFile(), true /* append */);
+            out.write((messageId + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.getFD().sync();
+            mRecordCount++;
+        } catch (final IOException e) {
+            LogUtil.e(TAG, "ActionJournal: failed to record message " + messageId, e);
+            invalidate();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * @return the ids of the messages that may have been left in flight, or null if the journal
+     *         can't be trusted and all messages need checking
+     */
+    synchronized Set<String> readInFlightMessageIds() {
+        if (!mFile.getBaseFile().exists()) {
+            return null;
+        }
+        return read();
+    }
+
+    /**
+     * Empty the journal once all the messages it recorded have been fixed up
+     */
+    synchronized void checkpoint() {
+        write(new LinkedHashSet<String>());
+    }
+
+    /**
+     * Rewrite the journal with only the messages still in flight
+     */
+    private void compact() {
+        final Set<String> messageIds = read();
+        if (messageIds == null) {
+            return;
+        }
+        final Set<String> inFlight = new LinkedHashSet<>();
+        final DatabaseWrapper db = DataModel.get().getDatabase();
+        final List<String> ids = new ArrayList<>(messageIds);
+        for (int start = 0; start < ids.size(); start += MAX_IDS_PER_QUERY) {
+            final List<String> chunk =
+                    ids.subList(start, Math.min(ids.size(), start + MAX_IDS_PER_QUERY));
+            final List<String> args = new ArrayList<>(getInFlightStatusArgs());
+            args.addAll(chunk);
+            Cursor cursor = null;
+            try {
+                cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
+                        new String[] { MessageColumns._ID },
+                        getInFlightSelection(chunk.size()), args.toArray(new String[0]),
+                        null, null, null);
+                while (cursor.moveToNext()) {
+                    inFlight.add(cursor.getString(0));
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+            LogUtil.d(TAG, "ActionJournal: compacted " + messageIds.size() + " records to "
+                    + inFlight.size());
+        }
+        write(inFlight);
+    }
+
+    private Set<String> read() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(mFile.openRead(),
+                    StandardCharsets.US_ASCII));
+            final Set<String> messageIds = new LinkedHashSet<>();
+            final StringBuilder record = new StringBuilder();
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c == '\n') {
+                    if (record.length() > 0) {
+                        messageIds.add(record.toString());
+                    }
+                    record.setLength(0);
+                } else {
+                    record.append((char) c);
+                }
+            }
+            // A record without its newline was torn by a crash before the message was marked
+            // in flight, so it can be ignored
+            return messageIds;
+        } catch (final IOException e) {
+            LogUtil.e(TAG, "ActionJournal: failed to read journal", e);
+            return null;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private void write(final Set<String> messageIds) {
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            final StringBuilder records = new StringBuilder();
+            for (final String messageId : messageIds) {
+                records.append(messageId).append('\n');
+            }
+            out.write(records.toString().getBytes(StandardCharsets.US_ASCII));
+            mFile.finishWrite(out);
+            mRecordCount = messageIds.size();
+        } catch (final IOException e) {
+            LogUtil.e(TAG, "ActionJournal: failed to write journal", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+            invalidate();
+        }
+    }
+
+    private void invalidate() {
+        mFile.delete();
+        mRecordCount = -1;
+    }
+
+    /**
+     * @return the selection of in-flight messages among the given number of message ids, whose
+     *         arguments are {@link #getInFlightStatusArgs} followed by the message ids
+     */
+    private static String getInFlightSelection(final int messageIdCount) {
+        final StringBuilder selection = new StringBuilder(MessageColumns.STATUS)
+                .append(" IN (?, ?, ?, ?) AND ").append(MessageColumns._ID).append(" IN (");
+        for (int i = 0; i < messageIdCount; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+        }
+        return selection.append(")").toString();
+    }
+
+    private static List<String> getInFlightStatusArgs() {
+        final List<String> args = new ArrayList<>(4);
+        args.add(Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_SENDING));
+        args.add(Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_RESENDING));
+        args.add(Integer.toString(MessageData.BUGLE_STATUS_INCOMING_AUTO_DOWNLOADING));
+        args.add(Integer.toString(MessageData.BUGLE_STATUS_INCOMING_MANUAL_DOWNLOADING));
+        return args;
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (final IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+}
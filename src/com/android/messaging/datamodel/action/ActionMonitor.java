@@ -442,6 +442,13 @@ public class ActionMonitor {
         return monitor;
     }
 
+    /**
+     * Check if a monitor is waiting on the result of a particular action
+     */
+    static boolean isMonitored(final String actionKey) {
+        return lookupActionMonitor(actionKey) != null;
+    }
+
     /**
      * Remove monitor from map
      */
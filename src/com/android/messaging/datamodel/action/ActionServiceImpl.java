@@ -31,8 +31,13 @@ import com.android.messaging.Factory;
 import com.android.messaging.datamodel.DataModel;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.LoggingTimer;
+import com.android.messaging.util.Trace;
 import com.google.common.annotations.VisibleForTesting;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+
 /**
  * ActionService used to perform background processing for data model
  */
@@ -50,16 +55,13 @@ public class ActionServiceImpl extends JobIntentService {
     }
 
     /**
-     * Start action by sending intent to the service
+     * Start action by handing it over to the action executor. The caller is in the same process
+     * so the action is passed by reference rather than parceled in an intent to the service.
      * @param action - action to start
      */
     protected static void startAction(final Action action) {
-        final Intent intent = makeIntent(OP_START_ACTION);
-        final Bundle actionBundle = new Bundle();
-        actionBundle.putParcelable(BUNDLE_ACTION, action);
-        intent.putExtra(EXTRA_ACTION_BUNDLE, actionBundle);
         action.markStart();
-        startServiceWithIntent(intent);
+        dispatch(OP_START_ACTION, action, null /* response */);
     }
 
     /**
@@ -84,14 +86,7 @@ public class ActionServiceImpl extends JobIntentService {
      */
     protected static void handleResponseFromBackgroundWorker(final Action action,
             final Bundle response) {
-        final Intent intent = makeIntent(OP_RECEIVE_BACKGROUND_RESPONSE);
-
-        final Bundle actionBundle = new Bundle();
-        actionBundle.putParcelable(BUNDLE_ACTION, action);
-        intent.putExtra(EXTRA_ACTION_BUNDLE, actionBundle);
-        intent.putExtra(EXTRA_WORKER_RESPONSE, response);
-
-        startServiceWithIntent(intent);
+        dispatch(OP_RECEIVE_BACKGROUND_RESPONSE, action, response);
     }
 
     /**
@@ -99,14 +94,7 @@ public class ActionServiceImpl extends JobIntentService {
      */
     protected static void handleFailureFromBackgroundWorker(final Action action,
             final Exception exception) {
-        final Intent intent = makeIntent(OP_RECEIVE_BACKGROUND_FAILURE);
-
-        final Bundle actionBundle = new Bundle();
-        actionBundle.putParcelable(BUNDLE_ACTION, action);
-        intent.putExtra(EXTRA_ACTION_BUNDLE, actionBundle);
-        intent.putExtra(EXTRA_WORKER_EXCEPTION, exception);
-
-        startServiceWithIntent(intent);
+        dispatch(OP_RECEIVE_BACKGROUND_FAILURE, action, null /* response */);
     }
 
     // ops
@@ -116,6 +104,8 @@ public class ActionServiceImpl extends JobIntentService {
     protected static final int OP_RECEIVE_BACKGROUND_RESPONSE = 201;
     @VisibleForTesting
     protected static final int OP_RECEIVE_BACKGROUND_FAILURE = 202;
+    // Keeps the service running while actions handed over in-process are queued or running
+    private static final int OP_KEEP_ALIVE = 203;
 
     // extras
     @VisibleForTesting
@@ -131,17 +121,18 @@ public class ActionServiceImpl extends JobIntentService {
     @VisibleForTesting
     protected static final String BUNDLE_ACTION = "bundle_action";
 
-    private BackgroundWorker mBackgroundWorker;
-
-    /**
-     * Allocate an intent with a specific opcode.
-     */
-    private static Intent makeIntent(final int opcode) {
-        final Intent intent = new Intent(Factory.get().getApplicationContext(),
-                ActionServiceImpl.class);
-        intent.putExtra(EXTRA_OP_CODE, opcode);
-        return intent;
-    }
+    // Actions on different conversations run concurrently, see Action#getLaneKey
+    private static final int MAX_CONCURRENT_ACTIONS = 4;
+    private static final ActionExecutor sExecutor =
+            new ActionExecutor("ActionService", MAX_CONCURRENT_ACTIONS, new Runnable() {
+                @Override
+                public void run() {
+                    final Context context = Factory.get().getApplicationContext();
+                    final Intent intent = new Intent(context, ActionServiceImpl.class);
+                    intent.putExtra(EXTRA_OP_CODE, OP_KEEP_ALIVE);
+                    enqueueWork(context, intent);
+                }
+            });
 
     /**
      * Broadcast receiver for alarms scheduled through ActionService.
@@ -205,25 +196,11 @@ public class ActionServiceImpl extends JobIntentService {
     }
 
     /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void onCreate() {
-        super.onCreate();
-        mBackgroundWorker = DataModel.get().getBackgroundWorkerForActionService();
-    }
-
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-    }
-
-    /**
-     * Queue intent to the ActionService.
+     * Queue intent to the ActionService. Only used for actions that were parceled to survive
+     * outside of the process (alarms and pending intents).
      */
     private static void startServiceWithIntent(final Intent intent) {
         final Context context = Factory.get().getApplicationContext();
-        final int opcode = intent.getIntExtra(EXTRA_OP_CODE, 0);
         intent.setClass(context, ActionServiceImpl.class);
         enqueueWork(context, intent);
     }
@@ -232,6 +209,26 @@ public class ActionServiceImpl extends JobIntentService {
         enqueueWork(context, ActionServiceImpl.class, JOB_ID, work);
     }
 
+    /**
+     * Dump the action latency histograms and executor stats, e.g. with
+     * adb shell dumpsys activity service com.android.messaging/.datamodel.action.ActionServiceImpl
+     */
+    @Override
+    protected void dump(final FileDescriptor fd, final PrintWriter writer, final String[] args) {
+        dumpStats(writer);
+    }
+
+    /**
+     * Print the action latency histograms and executor stats
+     */
+    public static void dumpStats(final PrintWriter writer) {
+        ActionTracer.dump(writer);
+        writer.println("ActionService executor: executed=" + sExecutor.getExecutedCount()
+                + " coalesced=" + sExecutor.getCoalescedCount());
+        BackgroundWorkerService.dumpStats(writer);
+        DatabaseMaintenanceAction.dump(writer);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -243,48 +240,77 @@ public class ActionServiceImpl extends JobIntentService {
             return;
         }
         final int opcode = intent.getIntExtra(EXTRA_OP_CODE, 0);
+        if (opcode == OP_KEEP_ALIVE) {
+            sExecutor.awaitIdle();
+            return;
+        }
+        if (opcode != OP_START_ACTION && opcode != OP_RECEIVE_BACKGROUND_RESPONSE
+                && opcode != OP_RECEIVE_BACKGROUND_FAILURE) {
+            throw new RuntimeException("Unrecognized opcode in ActionServiceImpl");
+        }
 
-        Action action;
         final Bundle actionBundle = intent.getBundleExtra(EXTRA_ACTION_BUNDLE);
         actionBundle.setClassLoader(getClassLoader());
+        final Action action = (Action) actionBundle.getParcelable(BUNDLE_ACTION);
+        final Bundle response = intent.getBundleExtra(EXTRA_WORKER_RESPONSE);
+        // The job must not finish before the action has run
+        ActionExecutor.awaitDone(dispatch(opcode, action, response));
+    }
+
+    /**
+     * Hand an action over to the action executor
+     * @return a latch released once the action has been handled
+     */
+    private static CountDownLatch dispatch(final int opcode, final Action action,
+            final Bundle response) {
+        return sExecutor.execute(action, new Runnable() {
+            @Override
+            public void run() {
+                // Looked up here so that actions can be queued before the data model is created
+                handleAction(opcode, action, response,
+                        DataModel.get().getBackgroundWorkerForActionService());
+            }
+        }, opcode == OP_START_ACTION /* coalescable */);
+    }
+
+    /**
+     * Process an action on an action executor thread
+     */
+    private static void handleAction(final int opcode, final Action action,
+            final Bundle response, final BackgroundWorker backgroundWorker) {
         switch(opcode) {
-            case OP_START_ACTION: {
-                action = (Action) actionBundle.getParcelable(BUNDLE_ACTION);
+            case OP_START_ACTION:
                 executeAction(action);
                 break;
-            }
 
-            case OP_RECEIVE_BACKGROUND_RESPONSE: {
-                action = (Action) actionBundle.getParcelable(BUNDLE_ACTION);
-                final Bundle response = intent.getBundleExtra(EXTRA_WORKER_RESPONSE);
+            case OP_RECEIVE_BACKGROUND_RESPONSE:
                 processBackgroundResponse(action, response);
                 break;
-            }
 
-            case OP_RECEIVE_BACKGROUND_FAILURE: {
-                action = (Action) actionBundle.getParcelable(BUNDLE_ACTION);
+            case OP_RECEIVE_BACKGROUND_FAILURE:
                 processBackgroundFailure(action);
                 break;
-            }
-
-            default:
-                throw new RuntimeException("Unrecognized opcode in ActionServiceImpl");
         }
 
-        action.sendBackgroundActions(mBackgroundWorker);
+        action.sendBackgroundActions(backgroundWorker);
     }
 
     private static final long EXECUTION_TIME_WARN_LIMIT_MS = 1000; // 1 second
     /**
      * Local execution of action on ActionService thread
      */
-    private void executeAction(final Action action) {
+    private static void executeAction(final Action action) {
         action.markBeginExecute();
 
         final LoggingTimer timer = createLoggingTimer(action, "#executeAction");
         timer.start();
-
-        final Object result = action.executeAction();
+        Trace.beginSection(action.getClass().getSimpleName() + "#executeAction");
+        final Object result;
+        try {
+            result = action.executeAction();
+        } finally {
+            Trace.endSection();
+        }
 
         timer.stopAndLog();
 
@@ -294,11 +320,15 @@ public class ActionServiceImpl extends JobIntentService {
     /**
      * Process response on ActionService thread
      */
-    private void processBackgroundResponse(final Action action, final Bundle response) {
+    private static void processBackgroundResponse(final Action action, final Bundle response) {
         final LoggingTimer timer = createLoggingTimer(action, "#processBackgroundResponse");
         timer.start();
-
-        action.processBackgroundWorkResponse(response);
+        Trace.beginSection(action.getClass().getSimpleName() + "#processBackgroundResponse");
+        try {
+            action.processBackgroundWorkResponse(response);
+        } finally {
+            Trace.endSection();
+        }
 
         timer.stopAndLog();
     }
@@ -306,11 +336,15 @@ public class ActionServiceImpl extends JobIntentService {
     /**
      * Process failure on ActionService thread
      */
-    private void processBackgroundFailure(final Action action) {
+    private static void processBackgroundFailure(final Action action) {
         final LoggingTimer timer = createLoggingTimer(action, "#processBackgroundFailure");
         timer.start();
-
-        action.processBackgroundWorkFailure();
+        Trace.beginSection(action.getClass().getSimpleName() + "#processBackgroundFailure");
+        try {
+            action.processBackgroundWorkFailure();
+        } finally {
+            Trace.endSection();
+        }
 
         timer.stopAndLog();
     }
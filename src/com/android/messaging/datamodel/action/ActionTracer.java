@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import com.android.messaging.util.LatencyHistogram;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects per action class latency histograms of the action stages:
+ * <ul>
+ * <li>queue wait: from {@link Action#start} to the beginning of {@link Action#executeAction}</li>
+ * <li>execute: {@link Action#executeAction}</li>
+ * <li>background: {@link Action#doBackgroundWork}</li>
+ * <li>completion: from {@link Action#start} to the action completing</li>
+ * </ul>
+ * Dumped by {@link ActionServiceImpl#dump} and shown by the action stats debug activity.
+ */
+public final class ActionTracer {
+    static final int STAGE_QUEUE_WAIT = 0;
+    static final int STAGE_EXECUTE = 1;
+    static final int STAGE_BACKGROUND = 2;
+    static final int STAGE_COMPLETION = 3;
+    private static final String[] STAGE_NAMES = {
+            "queue wait", "execute", "background", "completion" };
+
+    // Histograms of each stage, by action class name
+    private static final Map<String, LatencyHistogram[]> sHistograms = new TreeMap<>();
+
+    private ActionTracer() {
+    }
+
+    /**
+     * Record the duration of an action stage
+     */
+    static void record(final Action action, final int stage, final long durationMs) {
+        final String name = action.getClass().getSimpleName();
+        LatencyHistogram[] histograms;
+        synchronized (sHistograms) {
+            histograms = sHistograms.get(name);
+            if (histograms == null) {
+                histograms = new LatencyHistogram[STAGE_NAMES.length];
+                for (int i = 0; i < histograms.length; i++) {
+                    histograms[i] = new LatencyHistogram();
+                }
+                sHistograms.put(name, histograms);
+            }
+        }
+        histograms[stage].record(durationMs);
+    }
+
+    /**
+     * Print the histograms of all the actions executed by this process (in ms)
+     */
+    public static void dump(final PrintWriter writer) {
+        writer.println("Action latencies (ms):");
+        synchronized (sHistograms) {
+            if (sHistograms.isEmpty()) {
+                writer.println("  none");
+            }
+            for (final Map.Entry<String, LatencyHistogram[]> entry : sHistograms.entrySet()) {
+                writer.println("  " + entry.getKey());
+                final LatencyHistogram[] histograms = entry.getValue();
+                for (int i = 0; i < histograms.length; i++) {
+                    if (histograms[i].getTotalCount() > 0) {
+                        writer.println("    " + STAGE_NAMES[i] + ": "
+                                + histograms[i].getSummary());
+                    }
+                }
+            }
+        }
+    }
+}
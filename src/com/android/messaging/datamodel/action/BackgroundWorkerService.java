@@ -25,12 +25,16 @@ import androidx.core.app.JobIntentService;
 
 import com.android.messaging.Factory;
 import com.android.messaging.datamodel.DataModel;
+import com.android.messaging.sms.MmsUtils;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.LoggingTimer;
+import com.android.messaging.util.Trace;
 import com.google.common.annotations.VisibleForTesting;
 
+import java.io.PrintWriter;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Background worker service is an initial example of a background work queue handler
@@ -46,25 +50,40 @@ public class BackgroundWorkerService extends JobIntentService {
      */
     public static final int JOB_ID = 1001;
 
-    private final ActionService mHost;
+    // Background work on different conversations runs concurrently, see Action#getLaneKey
+    private static final int MAX_CONCURRENT_WORK = 3;
+    private static final ActionExecutor sExecutor =
+            new ActionExecutor("BackgroundWorker", MAX_CONCURRENT_WORK, new Runnable() {
+                @Override
+                public void run() {
+                    final Context context = Factory.get().getApplicationContext();
+                    final Intent intent = new Intent(context, BackgroundWorkerService.class);
+                    intent.putExtra(EXTRA_OP_CODE, OP_KEEP_ALIVE);
+                    enqueueWork(context, intent);
+                }
+            });
 
     public BackgroundWorkerService() {
         super();
-        mHost = DataModel.get().getActionService();
     }
 
     /**
-     * Queue a list of requests from action service to this worker
+     * Queue a list of requests from action service to this worker. The action service is in the
+     * same process so the actions are handed over by reference rather than parceled.
      */
     public static void queueBackgroundWork(final List<Action> actions) {
         for (final Action action : actions) {
-            startServiceWithAction(action, 0);
+            execute(action, 0);
         }
     }
 
     // ops
     @VisibleForTesting
     protected static final int OP_PROCESS_REQUEST = 400;
+    // Keeps the service running while work handed over in-process is queued or running
+    private static final int OP_KEEP_ALIVE = 401;
+    // Keeps the service running while SMS queued by SendMessageAction are being sent
+    private static final int OP_KEEP_SMS_SENDS_ALIVE = 402;
 
     // extras
     @VisibleForTesting
@@ -75,25 +94,20 @@ public class BackgroundWorkerService extends JobIntentService {
     protected static final String EXTRA_ATTEMPT = "retry_attempt";
 
     /**
-     * Queue action intent to the BackgroundWorkerService.
+     * Print the background executor stats
      */
-    private static void startServiceWithAction(final Action action,
-            final int retryCount) {
-        final Intent intent = new Intent();
-        intent.putExtra(EXTRA_ACTION, action);
-        intent.putExtra(EXTRA_ATTEMPT, retryCount);
-        startServiceWithIntent(OP_PROCESS_REQUEST, intent);
+    static void dumpStats(final PrintWriter writer) {
+        writer.println("BackgroundWorker executor: executed=" + sExecutor.getExecutedCount()
+                + " coalesced=" + sExecutor.getCoalescedCount());
     }
 
     /**
-     * Queue intent to the BackgroundWorkerService.
+     * Start a job that keeps the process running until the queued SMS have been sent, see
+     * {@link MmsUtils#awaitSmsSendsIdle}
      */
-    private static void startServiceWithIntent(final int opcode, final Intent intent) {
-        final Context context = Factory.get().getApplicationContext();
-
-        intent.setClass(context, BackgroundWorkerService.class);
-        intent.putExtra(EXTRA_OP_CODE, opcode);
-
+    public static void keepSmsSendsAlive(final Context context) {
+        final Intent intent = new Intent(context, BackgroundWorkerService.class);
+        intent.putExtra(EXTRA_OP_CODE, OP_KEEP_SMS_SENDS_ALIVE);
         enqueueWork(context, intent);
     }
 
@@ -105,38 +119,58 @@ public class BackgroundWorkerService extends JobIntentService {
     protected void onHandleWork(@NonNull final Intent intent) {
         final int opcode = intent.getIntExtra(EXTRA_OP_CODE, 0);
 
-        if (opcode == OP_PROCESS_REQUEST) {
+        if (opcode == OP_KEEP_ALIVE) {
+            sExecutor.awaitIdle();
+        } else if (opcode == OP_KEEP_SMS_SENDS_ALIVE) {
+            MmsUtils.awaitSmsSendsIdle();
+        } else if (opcode == OP_PROCESS_REQUEST) {
             final Action action = intent.getParcelableExtra(EXTRA_ACTION);
             final int attempt = intent.getIntExtra(EXTRA_ATTEMPT, -1);
-            doBackgroundWork(action, attempt);
+            // The job must not finish before the work has run
+            ActionExecutor.awaitDone(execute(action, attempt));
         } else {
             LogUtil.w(TAG, "Unrecognized opcode in BackgroundWorkerService " + opcode);
             throw new RuntimeException("Unrecognized opcode in BackgroundWorkerService");
         }
     }
 
+    private static CountDownLatch execute(final Action action, final int attempt) {
+        return sExecutor.execute(action, new Runnable() {
+            @Override
+            public void run() {
+                doBackgroundWork(action, attempt);
+            }
+        });
+    }
+
     /**
-     * Local execution of background work for action on ActionService thread
+     * Local execution of background work for action on a background executor thread
      */
-    private void doBackgroundWork(final Action action, final int attempt) {
+    private static void doBackgroundWork(final Action action, final int attempt) {
         action.markBackgroundWorkStarting();
         Bundle response = null;
         try {
-            final LoggingTimer timer = new LoggingTimer(
-                    TAG, action.getClass().getSimpleName() + "#doBackgroundWork");
+            final String name = action.getClass().getSimpleName() + "#doBackgroundWork";
+            final LoggingTimer timer = new LoggingTimer(TAG, name);
             timer.start();
-
-            response = action.doBackgroundWork();
+            Trace.beginSection(name);
+            try {
+                response = action.doBackgroundWork();
+            } finally {
+                Trace.endSection();
+            }
 
             timer.stopAndLog();
             action.markBackgroundCompletionQueued();
-            mHost.handleResponseFromBackgroundWorker(action, response);
+            DataModel.get().getActionService()
+                    .handleResponseFromBackgroundWorker(action, response);
         } catch (final Exception exception) {
             final boolean retry = false;
             LogUtil.e(TAG, "Error in background worker", exception);
             Assert.fail("Unexpected error in background worker - abort");
             action.markBackgroundCompletionQueued();
-            mHost.handleFailureFromBackgroundWorker(action, exception);
+            DataModel.get().getActionService()
+                    .handleFailureFromBackgroundWorker(action, exception);
         }
     }
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.android.messaging.datamodel.BulkDeleter;
+import com.android.messaging.datamodel.DataModel;
+import com.android.messaging.datamodel.DatabaseWrapper;
+import com.android.messaging.util.BugleGservicesKeys;
+import com.android.messaging.util.LogUtil;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Action used to keep the database compact and its query plans up to date: releases free pages
+ * with an incremental vacuum, refreshes the ANALYZE statistics and checks the integrity of the
+ * tables and indexes. Run by {@link DatabaseMaintenanceJobService} when the device is idle and
+ * charging. The size and fragmentation of the database before and after each run are logged.
+ */
+public class DatabaseMaintenanceAction extends Action implements Parcelable {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    // PRAGMA auto_vacuum value tracking the free pages for incremental vacuums
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    // Free pages released by each incremental vacuum step, between which the run can be stopped
+    private static final int VACUUM_PAGES_PER_STEP = 256;
+
+    // Summary of the last run in this process, for dumpsys
+    private static String sLastRunSummary;
+
+    // Called once the pending run is done, stopped or failed. Guarded by the class.
+    private static final List<Runnable> sPendingCallbacks = new ArrayList<>();
+    // Set to stop the pending run after its current step
+    private static volatile boolean sStopRequested;
+
+    /**
+     * Start a maintenance run
+     *
+     * @param onComplete called on a background thread once the run is done, stopped or failed,
+     *        including when this run is folded into one already pending
+     */
+    public static void runMaintenance(final Runnable onComplete) {
+        synchronized (DatabaseMaintenanceAction.class) {
+            sPendingCallbacks.add(onComplete);
+        }
+        sStopRequested = false;
+        final DatabaseMaintenanceAction action = new DatabaseMaintenanceAction();
+        action.start();
+    }
+
+    /**
+     * Stop the pending run after its current step. A full vacuum converting the database to
+     * incremental vacuum can't be stopped, and completes first.
+     */
+    public static void stopMaintenance() {
+        sStopRequested = true;
+    }
+
+    private DatabaseMaintenanceAction() {
+    }
+
+    /**
+     * Page usage of the database
+     */
+    private static class PageStats {
+        final long mPageSize;
+        final long mPageCount;
+        final long mFreePageCount;
+
+        PageStats(final DatabaseWrapper db) {
+            mPageSize = queryPragma(db, "page_size");
+            mPageCount = queryPragma(db, "page_count");
+            mFreePageCount = queryPragma(db, "freelist_count");
+        }
+
+        @Override
+        public String toString() {
+            return "size=" + (mPageSize * mPageCount / 1024) + "KB pages=" + mPageCount
+                    + " free=" + mFreePageCount + " ("
+                    + (mFreePageCount * 100 / Math.max(1, mPageCount)) + "%)";
+        }
+    }
+
+    @Override
+    protected String getCoalesceKey() {
+        // Only one pending run is useful
+        return "maintenance";
+    }
+
+    @Override
+    protected Object executeAction() {
+        requestBackgroundWork();
+        return null;
+    }
+
+    // As a barrier (null lane key) the maintenance runs alone on the background worker. Bulk
+    // deletes started elsewhere are paused meanwhile, so that the vacuum doesn't compete with
+    // them for the database.
+    @Override
+    protected Bundle doBackgroundWork() {
+        final DatabaseWrapper db = DataModel.get().getDatabase();
+        // Runs requested from now on are queued after this one and complete with it
+        final List<Runnable> callbacks;
+        synchronized (DatabaseMaintenanceAction.class) {
+            callbacks = new ArrayList<>(sPendingCallbacks);
+            sPendingCallbacks.clear();
+        }
+        BulkDeleter.get().pause();
+        try {
+            final PageStats before = new PageStats(db);
+            long startMs = SystemClock.elapsedRealtime();
+            vacuum(db);
+            final long vacuumMs = SystemClock.elapsedRealtime() - startMs;
+            if (sStopRequested) {
+                LogUtil.i(TAG, "DatabaseMaintenanceAction: stopped after vacuum of " + vacuumMs
+                        + "ms, " + new PageStats(db));
+                return null;
+            }
+
+            startMs = SystemClock.elapsedRealtime();
+            db.execSQL("ANALYZE");
+            final long analyzeMs = SystemClock.elapsedRealtime() - startMs;
+            if (sStopRequested) {
+                LogUtil.i(TAG, "DatabaseMaintenanceAction: stopped before integrity check");
+                return null;
+            }
+
+            startMs = SystemClock.elapsedRealtime();
+            final boolean integrityOk = db.getDatabase().isDatabaseIntegrityOk();
+            final long checkMs = SystemClock.elapsedRealtime() - startMs;
+            if (!integrityOk) {
+                LogUtil.e(TAG, "DatabaseMaintenanceAction: integrity check failed");
+            }
+
+            final PageStats after = new PageStats(db);
+            final String summary = "before: " + before + ", after: " + after
+                    + ", vacuum " + vacuumMs + "ms, analyze " + analyzeMs + "ms, integrity "
+                    + (integrityOk ? "ok" : "FAILED") + " in " + checkMs + "ms";
+            LogUtil.i(TAG, "DatabaseMaintenanceAction: " + summary);
+            synchronized (DatabaseMaintenanceAction.class) {
+                sLastRunSummary = summary;
+            }
+        } catch (final SQLiteException e) {
+            LogUtil.e(TAG, "DatabaseMaintenanceAction: maintenance failed", e);
+        } finally {
+            BulkDeleter.get().resume();
+            for (final Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Release up to {@link BugleGservicesKeys#DATABASE_MAINTENANCE_VACUUM_PAGES_DEFAULT} free
+     * pages, {@link #VACUUM_PAGES_PER_STEP} at a time so that the run can be stopped between
+     * steps. Databases created without incremental auto vacuum are converted first, which needs
+     * a full vacuum once.
+     */
+    private static void vacuum(final DatabaseWrapper db) {
+        if (queryPragma(db, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            LogUtil.i(TAG, "DatabaseMaintenanceAction: enabling incremental vacuum");
+            db.execSQL("PRAGMA auto_vacuum=" + AUTO_VACUUM_INCREMENTAL);
+            db.execSQL("VACUUM");
+            return;
+        }
+        int pagesLeft = BugleGservicesKeys.DATABASE_MAINTENANCE_VACUUM_PAGES_DEFAULT;
+        while (pagesLeft > 0 && !sStopRequested && queryPragma(db, "freelist_count") > 0) {
+            final int pages = Math.min(pagesLeft, VACUUM_PAGES_PER_STEP);
+            // The whole step runs as the cursor fills its window, so it can't be stopped midway
+            try (Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null)) {
+                while (cursor.moveToNext()) {
+                }
+            }
+            pagesLeft -= pages;
+        }
+    }
+
+    private static long queryPragma(final DatabaseWrapper db, final String pragma) {
+        try (Cursor cursor = db.rawQuery("PRAGMA " + pragma, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * Print the outcome of the last maintenance run of this process
+     */
+    static synchronized void dump(final PrintWriter writer) {
+        writer.println("Database maintenance: "
+                + (sLastRunSummary == null ? "not run" : sLastRunSummary));
+    }
+
+    private DatabaseMaintenanceAction(final Parcel in) {
+        super(in);
+    }
+
+    public static final Parcelable.Creator<DatabaseMaintenanceAction> CREATOR
+            = new Parcelable.Creator<>() {
+        @Override
+        public DatabaseMaintenanceAction createFromParcel(final Parcel in) {
+            return new DatabaseMaintenanceAction(in);
+        }
+
+        @Override
+        public DatabaseMaintenanceAction[] newArray(final int size) {
+            return new DatabaseMaintenanceAction[size];
+        }
+    };
+
+    @Override
+    public void writeToParcel(@NonNull final Parcel parcel, final int flags) {
+        writeActionToParcel(parcel, flags);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+
+import com.android.messaging.util.BugleGservicesKeys;
+import com.android.messaging.util.LogUtil;
+
+/**
+ * Periodically runs {@link DatabaseMaintenanceAction} while the device is idle and charging.
+ * The maintenance itself runs on the background worker. The job is kept running until the
+ * action completes, and stops the action when the device is no longer idle or charging.
+ */
+public class DatabaseMaintenanceJobService extends JobService {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    /**
+     * Unique job ID for this service.
+     */
+    public static final int JOB_ID = 1002;
+
+    /**
+     * Schedule the periodic maintenance, unless already scheduled
+     */
+    public static void schedule(final Context context) {
+        final JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        final JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, DatabaseMaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(BugleGservicesKeys.DATABASE_MAINTENANCE_INTERVAL_MILLIS_DEFAULT)
+                .setPersisted(true)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            LogUtil.w(TAG, "DatabaseMaintenanceJobService: failed to schedule maintenance");
+        }
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        DatabaseMaintenanceAction.runMaintenance(new Runnable() {
+            @Override
+            public void run() {
+                jobFinished(params, false /* wantsReschedule */);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(final JobParameters params) {
+        DatabaseMaintenanceAction.stopMaintenance();
+        // Run again in the next period
+        return false;
+    }
+}
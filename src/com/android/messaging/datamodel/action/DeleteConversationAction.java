@@ -173,6 +173,11 @@ public class DeleteConversationAction extends Action implements Parcelable {
         }
     }
 
+    @Override
+    protected String getLaneKey() {
+        return getConversationLaneKey(actionParameters.getString(KEY_CONVERSATION_ID));
+    }
+
     @Override
     protected Object executeAction() {
         requestBackgroundWork();
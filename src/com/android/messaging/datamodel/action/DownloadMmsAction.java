@@ -106,6 +106,11 @@ public class DownloadMmsAction extends Action implements Parcelable {
         super();
     }
 
+    @Override
+    protected String getLaneKey() {
+        return getConversationLaneKey(actionParameters.getString(KEY_CONVERSATION_ID));
+    }
+
     @Override
     protected Object executeAction() {
         Assert.fail("DownloadMmsAction must be queued rather than started");
@@ -310,6 +315,8 @@ public class DownloadMmsAction extends Action implements Parcelable {
         // Downloading status just kept in local DB but need to fix up telephony DB first
         if (status == MessageData.BUGLE_STATUS_INCOMING_AUTO_DOWNLOADING ||
                 status == MessageData.BUGLE_STATUS_INCOMING_MANUAL_DOWNLOADING) {
+            // Journal the message so that it can be fixed up if we crash while downloading it
+            ActionJournal.get().recordInFlight(messageId);
             MmsUtils.clearMmsStatus(context, messageUri);
         }
         // Then mark downloading status in our local DB
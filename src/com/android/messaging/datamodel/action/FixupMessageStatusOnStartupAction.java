@@ -28,6 +28,10 @@ import com.android.messaging.datamodel.DatabaseWrapper;
 import com.android.messaging.datamodel.data.MessageData;
 import com.android.messaging.util.LogUtil;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Action used to fixup actively downloading or sending status at startup - just in case we
  * crash - never run this when a message might actually be sending or downloading.
@@ -35,9 +39,13 @@ import com.android.messaging.util.LogUtil;
 public class FixupMessageStatusOnStartupAction extends Action implements Parcelable {
     private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
 
+    /**
+     * Queue the fixup when the application is created, before any other action, so that messages
+     * can't start sending or downloading before it. It is handed to the action service directly
+     * so that the data model is only created once the action runs, off the main thread.
+     */
     public static void fixupMessageStatus() {
-        final FixupMessageStatusOnStartupAction action = new FixupMessageStatusOnStartupAction();
-        action.start();
+        ActionServiceImpl.startAction(new FixupMessageStatusOnStartupAction());
     }
 
     private FixupMessageStatusOnStartupAction() {
@@ -45,6 +53,11 @@ public class FixupMessageStatusOnStartupAction extends Action implements Parcela
 
     @Override
     protected Object executeAction() {
+        // Only the messages recorded in the journal by the previous process may have been left
+        // in flight, fall back to scanning all messages if the journal can't be trusted
+        final ActionJournal journal = ActionJournal.get();
+        final Set<String> inFlightMessageIds = journal.readInFlightMessageIds();
+
         // Now mark any messages in active sending or downloading state as inactive
         final DatabaseWrapper db = DataModel.get().getDatabase();
         db.beginTransaction();
@@ -59,38 +72,72 @@ public class FixupMessageStatusOnStartupAction extends Action implements Parcela
             // while the pending intent is still in the fly. Alternatively, we could
             // keep the status for platform sent/downloaded MMS and timeout these messages.
             // But that is much more complex.
-            final ContentValues values = new ContentValues();
-            values.put(DatabaseHelper.MessageColumns.STATUS,
-                    MessageData.BUGLE_STATUS_INCOMING_DOWNLOAD_FAILED);
-            downloadFailedCnt = db.update(DatabaseHelper.MESSAGES_TABLE, values,
-                    DatabaseHelper.MessageColumns.STATUS + " IN (?, ?)",
-                    new String[]{
-                            Integer.toString(MessageData.BUGLE_STATUS_INCOMING_AUTO_DOWNLOADING),
-                            Integer.toString(MessageData.BUGLE_STATUS_INCOMING_MANUAL_DOWNLOADING)
-                    });
-
-            values.clear();
-            values.put(DatabaseHelper.MessageColumns.STATUS,
-                    MessageData.BUGLE_STATUS_OUTGOING_FAILED);
-            sendFailedCnt = db.update(DatabaseHelper.MESSAGES_TABLE, values,
-                    DatabaseHelper.MessageColumns.STATUS + " IN (?, ?)",
-                    new String[]{
-                            Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_SENDING),
-                            Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_RESENDING)
-                    });
+            if (inFlightMessageIds == null) {
+                downloadFailedCnt = fixupStatus(db, null /* messageIds */, true /* download */);
+                sendFailedCnt = fixupStatus(db, null /* messageIds */, false /* download */);
+            } else {
+                final List<String> ids = new ArrayList<>(inFlightMessageIds);
+                for (int start = 0; start < ids.size();
+                        start += ActionJournal.MAX_IDS_PER_QUERY) {
+                    final List<String> chunk = ids.subList(start,
+                            Math.min(ids.size(), start + ActionJournal.MAX_IDS_PER_QUERY));
+                    downloadFailedCnt += fixupStatus(db, chunk, true /* download */);
+                    sendFailedCnt += fixupStatus(db, chunk, false /* download */);
+                }
+            }
 
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
+        journal.checkpoint();
 
         LogUtil.i(TAG, "Fixup: Send failed - " + sendFailedCnt
-                + " Download failed - " + downloadFailedCnt);
+                + " Download failed - " + downloadFailedCnt
+                + (inFlightMessageIds == null ? " (full scan)"
+                        : " (" + inFlightMessageIds.size() + " journaled)"));
 
         // Don't send contentObserver notifications as displayed text should not change
         return null;
     }
 
+    /**
+     * Mark messages in the downloading (or sending) states as failed
+     * @param messageIds the messages to fix up, or null for all messages
+     * @return the number of messages marked as failed
+     */
+    private static int fixupStatus(final DatabaseWrapper db, final List<String> messageIds,
+            final boolean download) {
+        final ContentValues values = new ContentValues();
+        final List<String> args = new ArrayList<>();
+        if (download) {
+            values.put(DatabaseHelper.MessageColumns.STATUS,
+                    MessageData.BUGLE_STATUS_INCOMING_DOWNLOAD_FAILED);
+            args.add(Integer.toString(MessageData.BUGLE_STATUS_INCOMING_AUTO_DOWNLOADING));
+            args.add(Integer.toString(MessageData.BUGLE_STATUS_INCOMING_MANUAL_DOWNLOADING));
+        } else {
+            values.put(DatabaseHelper.MessageColumns.STATUS,
+                    MessageData.BUGLE_STATUS_OUTGOING_FAILED);
+            args.add(Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_SENDING));
+            args.add(Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_RESENDING));
+        }
+        final StringBuilder selection =
+                new StringBuilder(DatabaseHelper.MessageColumns.STATUS + " IN (?, ?)");
+        if (messageIds != null) {
+            if (messageIds.isEmpty()) {
+                return 0;
+            }
+            selection.append(" AND ").append(DatabaseHelper.MessageColumns._ID).append(" IN (");
+            for (int i = 0; i < messageIds.size(); i++) {
+                selection.append(i == 0 ? "?" : ", ?");
+            }
+            selection.append(")");
+            args.addAll(messageIds);
+        }
+        return db.update(DatabaseHelper.MESSAGES_TABLE, values, selection.toString(),
+                args.toArray(new String[args.size()]));
+    }
+
     private FixupMessageStatusOnStartupAction(final Parcel in) {
         super(in);
     }
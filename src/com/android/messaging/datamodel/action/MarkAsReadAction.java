@@ -52,6 +52,11 @@ public class MarkAsReadAction extends Action implements Parcelable {
         actionParameters.putString(KEY_CONVERSATION_ID, conversationId);
     }
 
+    @Override
+    protected String getLaneKey() {
+        return getConversationLaneKey(actionParameters.getString(KEY_CONVERSATION_ID));
+    }
+
     @Override
     protected Object executeAction() {
         final String conversationId = actionParameters.getString(KEY_CONVERSATION_ID);
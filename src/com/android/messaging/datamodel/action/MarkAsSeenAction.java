@@ -63,6 +63,18 @@ public class MarkAsSeenAction extends Action implements Parcelable {
         actionParameters.putString(KEY_CONVERSATION_ID, conversationId);
     }
 
+    @Override
+    protected String getLaneKey() {
+        return getConversationLaneKey(actionParameters.getString(KEY_CONVERSATION_ID));
+    }
+
+    @Override
+    protected String getCoalesceKey() {
+        // Marking the same conversation (or everything) as seen twice in a row is a no-op
+        final String conversationId = actionParameters.getString(KEY_CONVERSATION_ID);
+        return TextUtils.isEmpty(conversationId) ? "" : conversationId;
+    }
+
     @Override
     protected Object executeAction() {
         final String conversationId =
@@ -201,6 +201,11 @@ public class ProcessDownloadedMmsAction extends Action {
         // Callers must use one of the static methods above
     }
 
+    @Override
+    protected String getLaneKey() {
+        return getConversationLaneKey(actionParameters.getString(KEY_CONVERSATION_ID));
+    }
+
     @Override
     protected Object executeAction() {
         // Fire up the background worker
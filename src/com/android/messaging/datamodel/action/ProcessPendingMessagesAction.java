@@ -41,11 +41,18 @@ import com.android.messaging.util.ConnectivityUtil.ConnectivityListener;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.PhoneUtils;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Action used to lookup any messages in the pending send/download state and either fail them or
- * retry their action based on subscriptions. This action only initiates one retry at a time for
- * both sending/downloading. Further retries should be triggered by successful sending/downloading
- * of a message, network status change or exponential backoff timer.
+ * retry their action based on subscriptions. This action only initiates one download at a time,
+ * and keeps up to {@link BugleGservicesKeys#SMS_MAX_OUTSTANDING_SENDS_DEFAULT} messages sending
+ * (one per conversation, and one MMS at a time). Further retries should be triggered by
+ * successful sending/downloading of a message, network status change or exponential backoff
+ * timer.
  */
 public class ProcessPendingMessagesAction extends Action implements Parcelable {
     private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
@@ -54,6 +61,15 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
 
     private static final String KEY_SUB_ID = "sub_id";
 
+    /**
+     * Look for the next messages to send or download on each subscription, e.g. at startup.
+     *
+     * This is deliberately left to query the messages table rather than the in-flight journal
+     * of {@link ActionJournal}: it looks for messages waiting to be sent or downloaded, which
+     * the journal doesn't record, and its status lookups use the messages status index rather
+     * than scanning the table. Queueing one download and one send per conversation at a time is
+     * what keeps messages in order, not a cost of the lookup.
+     */
     public static void processFirstPendingMessage() {
         PhoneUtils.forEachActiveSubscription(subId -> {
             // Clear any pending alarms or connectivity events
@@ -212,8 +228,8 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
             return false;
         }
 
-        final String toSendMessageId = findNextMessageToSend(db, now, selfId);
-        if (toSendMessageId != null) {
+        final List<String> toSendMessageIds = findNextMessagesToSend(db, now, selfId);
+        if (!toSendMessageIds.isEmpty()) {
             return true;
         } else {
             final String toDownloadMessageId = findNextMessageToDownload(db, now, selfId);
@@ -247,12 +263,13 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
             return false;
         }
 
-        // Will queue no more than one message to send plus one message to download
-        // This keeps outgoing messages "in order" but allow downloads to happen even if sending
-        // gets blocked until messages time out. Manual resend bumps messages to head of queue.
-        final String toSendMessageId = findNextMessageToSend(db, now, selfId);
+        // Will queue no more than one message to send per conversation plus one message to
+        // download. This keeps outgoing messages "in order" but allow downloads to happen even if
+        // sending gets blocked until messages time out. Manual resend bumps messages to head of
+        // queue.
+        final List<String> toSendMessageIds = findNextMessagesToSend(db, now, selfId);
         final String toDownloadMessageId = findNextMessageToDownload(db, now, selfId);
-        if (toSendMessageId != null) {
+        for (final String toSendMessageId : toSendMessageIds) {
             LogUtil.i(TAG, "ProcessPendingMessagesAction: Queueing message " + toSendMessageId
                     + " for sending");
             // This could queue nothing
@@ -273,7 +290,7 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                 succeeded = false;
             }
         }
-        if (toSendMessageId == null && toDownloadMessageId == null) {
+        if (toSendMessageIds.isEmpty() && toDownloadMessageId == null) {
             LogUtil.i(TAG, "ProcessPendingMessagesAction: No messages to send or download");
         }
         return succeeded;
@@ -301,24 +318,45 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
         return null;
     }
 
-    private static String findNextMessageToSend(final DatabaseWrapper db, final long now,
+    /**
+     * @return the ids of the next messages to send, oldest first: the oldest message of each
+     *         conversation without a message already sending, while fewer than
+     *         {@link BugleGservicesKeys#SMS_MAX_OUTSTANDING_SENDS_DEFAULT} messages are sending,
+     *         and with no more than one MMS sending
+     */
+    private static List<String> findNextMessagesToSend(final DatabaseWrapper db, final long now,
             final String selfId) {
-        String toSendMessageId = null;
+        final List<String> toSendMessageIds = new ArrayList<>();
         Cursor cursor = null;
         int sendingCnt = 0;
         int pendingCnt = 0;
         int failedCnt = 0;
+        // Conversations with a message already sending or picked to send
+        final Set<String> busyConversationIds = new HashSet<>();
+        boolean mmsBusy = false;
         db.beginTransaction();
         try {
-            // First check to see if we have any messages already sending
-            sendingCnt = (int) db.queryNumEntries(DatabaseHelper.MESSAGES_TABLE,
+            // First check to see which messages are already sending
+            cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
+                    new String[] { DatabaseHelper.MessageColumns.CONVERSATION_ID,
+                            DatabaseHelper.MessageColumns.PROTOCOL },
                     DatabaseHelper.MessageColumns.STATUS + " IN (?, ?) AND "
                     + DatabaseHelper.MessageColumns.SELF_PARTICIPANT_ID + " =? ",
                     new String[] {
                         Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_SENDING),
                         Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_RESENDING),
-                        selfId}
-                    );
+                        selfId},
+                    null,
+                    null,
+                    null);
+            while (cursor.moveToNext()) {
+                sendingCnt++;
+                busyConversationIds.add(cursor.getString(0));
+                if (cursor.getInt(1) != MessageData.PROTOCOL_SMS) {
+                    mmsBusy = true;
+                }
+            }
+            cursor.close();
 
             // Look for messages we could send
             cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
@@ -359,12 +397,18 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                     BugleDatabaseOperations.updateMessageRow(db, message.getMessageId(), values);
                     MessagingContentProvider.notifyMessagesChanged(message.getConversationId());
                 } else {
-                    // If no messages currently sending
-                    if (sendingCnt == 0) {
+                    if (sendingCnt + toSendMessageIds.size()
+                            >= BugleGservicesKeys.SMS_MAX_OUTSTANDING_SENDS_DEFAULT) {
+                        break;
+                    }
+                    // Only the oldest message of a conversation may be sent, and only if none
+                    // of its messages is sending
+                    if (busyConversationIds.add(message.getConversationId())
+                            && (message.getIsSms() || !mmsBusy)) {
                         // Send this message
-                        toSendMessageId = message.getMessageId();
+                        toSendMessageIds.add(message.getMessageId());
+                        mmsBusy |= !message.getIsSms();
                     }
-                    break;
                 }
             }
             db.setTransactionSuccessful();
@@ -382,7 +426,7 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                     + failedCnt + " failed messages");
         }
 
-        return toSendMessageId;
+        return toSendMessageIds;
     }
 
     private static String findNextMessageToDownload(final DatabaseWrapper db, final long now,
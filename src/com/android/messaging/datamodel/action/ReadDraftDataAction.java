@@ -81,6 +81,11 @@ public class ReadDraftDataAction extends Action implements Parcelable {
         }
     }
 
+    @Override
+    protected String getLaneKey() {
+        return getConversationLaneKey(actionParameters.getString(KEY_CONVERSATION_ID));
+    }
+
     @Override
     protected Object executeAction() {
         final DatabaseWrapper db = DataModel.get().getDatabase();
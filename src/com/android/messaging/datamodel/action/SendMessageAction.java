@@ -68,6 +68,7 @@ public class SendMessageAction extends Action implements Parcelable {
     // Core parameters needed for all types of message
     private static final String KEY_MESSAGE_ID = "message_id";
     private static final String KEY_MESSAGE = "message";
+    private static final String KEY_CONVERSATION_ID = "conversation_id";
     private static final String KEY_MESSAGE_URI = "message_uri";
     private static final String KEY_SUB_PHONE_NUMBER = "sub_phone_number";
 
@@ -102,6 +103,8 @@ public class SendMessageAction extends Action implements Parcelable {
         final MessageData message = BugleDatabaseOperations.readMessage(db, messageId);
         // Check message can be resent
         if (message != null && message.canSendMessage()) {
+            // Set before the action is queued, so that all its stages run in the same lane
+            actionParameters.putString(KEY_CONVERSATION_ID, message.getConversationId());
             final boolean isSms = message.getIsSms();
             long timestamp = System.currentTimeMillis();
             if (!isSms) {
@@ -127,6 +130,9 @@ public class SendMessageAction extends Action implements Parcelable {
                 // Automatic resend of message
                 message.markMessageResending(timestamp);
             }
+            // Journal the message before it is marked in flight so that it can be fixed up if
+            // we crash while sending it
+            ActionJournal.get().recordInFlight(messageId);
             if (!updateMessageAndStatus(isSms, message, null /* messageUri */, false /*notify*/)) {
                 // If message is missing in the telephony database we don't need to send it
                 return false;
@@ -178,6 +184,11 @@ public class SendMessageAction extends Action implements Parcelable {
     }
 
 
+    @Override
+    protected String getLaneKey() {
+        return getConversationLaneKey(actionParameters.getString(KEY_CONVERSATION_ID));
+    }
+
     /**
      * Never called
      */
@@ -212,9 +223,22 @@ public class SendMessageAction extends Action implements Parcelable {
             final String messageText = message.getMessageText();
             final String smsServiceCenter = actionParameters.getString(KEY_SMS_SERVICE_CENTER);
             final boolean deliveryReportRequired = MmsUtils.isDeliveryReportRequired(subId);
-
-            status = MmsUtils.sendSmsMessage(recipient, messageText, messageUri, subId,
-                    smsServiceCenter, deliveryReportRequired);
+            final Uri smsMessageUri = messageUri;
+
+            // Sent asynchronously, alongside other sends of the subscription, so the sent result
+            // is processed once all parts have been sent
+            MmsUtils.sendSmsMessage(recipient, messageText, messageUri, subId,
+                    smsServiceCenter, deliveryReportRequired, new MmsUtils.SmsSendListener() {
+                        @Override
+                        public void onSmsSendComplete(final int status) {
+                            ProcessSentMessageAction.processMessageSentFastFailed(messageId,
+                                    smsMessageUri, null /* updatedMessageUri */, subId,
+                                    true /* isSms */, status,
+                                    MessageData.RAW_TELEPHONY_STATUS_UNDEFINED,
+                                    MessageData.UNKNOWN_RESULT_CODE);
+                        }
+                    });
+            return null;
         } else {
             final Context context = Factory.get().getApplicationContext();
             final ArrayList<String> recipients =
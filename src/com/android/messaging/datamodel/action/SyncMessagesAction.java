@@ -132,6 +132,27 @@ public class SyncMessagesAction extends Action implements Parcelable {
         actionParameters.putLong(KEY_START_TIMESTAMP, startTimestamp);
     }
 
+    @Override
+    protected String getCoalesceKey() {
+        // Only started actions coalesce, and sync batches are always queued as background work
+        return "";
+    }
+
+    @Override
+    protected void coalesce(final Action later) {
+        // Sync the union of the time ranges of the queued syncs
+        final Bundle laterParameters = later.actionParameters;
+        actionParameters.putLong(KEY_LOWER_BOUND, Math.min(
+                actionParameters.getLong(KEY_LOWER_BOUND),
+                laterParameters.getLong(KEY_LOWER_BOUND)));
+        actionParameters.putLong(KEY_UPPER_BOUND, Math.max(
+                actionParameters.getLong(KEY_UPPER_BOUND),
+                laterParameters.getLong(KEY_UPPER_BOUND)));
+        actionParameters.putLong(KEY_START_TIMESTAMP, Math.max(
+                actionParameters.getLong(KEY_START_TIMESTAMP),
+                laterParameters.getLong(KEY_START_TIMESTAMP)));
+    }
+
     @Override
     protected Object executeAction() {
         final DatabaseWrapper db = DataModel.get().getDatabase();
@@ -35,6 +35,12 @@ public class UpdateMessageNotificationAction extends Action {
     private UpdateMessageNotificationAction() {
     }
 
+    @Override
+    protected String getCoalesceKey() {
+        // Queued updates all do the same thing
+        return "";
+    }
+
     @Override
     protected Object executeAction() {
         BugleNotifications.update(true /* silent */, BugleNotifications.UPDATE_MESSAGES);
@@ -48,6 +48,11 @@ public class WriteDraftMessageAction extends Action implements Parcelable {
         actionParameters.putParcelable(KEY_MESSAGE, message);
     }
 
+    @Override
+    protected String getLaneKey() {
+        return getConversationLaneKey(actionParameters.getString(KEY_CONVERSATION_ID));
+    }
+
     @Override
     protected Object executeAction() {
         final DatabaseWrapper db = DataModel.get().getDatabase();
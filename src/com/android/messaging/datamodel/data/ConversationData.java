@@ -136,6 +136,33 @@ public class ConversationData extends BindableData {
         }
     }
 
+    /**
+     * Loader of one of the queries of the conversation, which takes over the cursor prewarmed by
+     * {@link ConversationPrewarmCache} if there is one
+     */
+    private static class ConversationCursorLoader extends BoundCursorLoader {
+        private final String mConversationId;
+        private final int mPrewarmedCursor;
+        // Created here as it needs the main thread looper
+        private final ForceLoadContentObserver mPrewarmedCursorObserver;
+
+        ConversationCursorLoader(final String bindingId, final Context context, final Uri uri,
+                final String[] projection, final String conversationId,
+                final int prewarmedCursor) {
+            super(bindingId, context, uri, projection, null, null, null);
+            mConversationId = conversationId;
+            mPrewarmedCursor = prewarmedCursor;
+            mPrewarmedCursorObserver = new ForceLoadContentObserver();
+        }
+
+        @Override
+        protected Cursor queryInBackground() {
+            final Cursor cursor = ConversationPrewarmCache.get().take(mConversationId,
+                    mPrewarmedCursor, mPrewarmedCursorObserver);
+            return cursor != null ? cursor : super.queryInBackground();
+        }
+    }
+
     /**
      * A trampoline class so that we can inherit from LoaderManager.LoaderCallbacks multiple times.
      */
@@ -151,8 +178,9 @@ public class ConversationData extends BindableData {
             if (isBound(bindingId)) {
                 final Uri uri =
                         MessagingContentProvider.buildConversationMetadataUri(mConversationId);
-                loader = new BoundCursorLoader(bindingId, mContext, uri,
-                        ConversationListItemData.PROJECTION, null, null, null);
+                loader = new ConversationCursorLoader(bindingId, mContext, uri,
+                        ConversationListItemData.PROJECTION, mConversationId,
+                        ConversationPrewarmCache.METADATA_CURSOR);
             } else {
                 LogUtil.w(TAG, "Creating messages loader after unbinding mConversationId = " +
                         mConversationId);
@@ -218,8 +246,22 @@ public class ConversationData extends BindableData {
             if (isBound(bindingId)) {
                 final Uri uri =
                         MessagingContentProvider.buildConversationMessagesUri(mConversationId);
-                loader = new BoundCursorLoader(bindingId, mContext, uri,
-                        ConversationMessageData.getProjection(), null, null, null);
+                final BoundCursorLoader messagesLoader = new ConversationCursorLoader(bindingId,
+                        mContext, uri, ConversationMessageData.getProjection(), mConversationId,
+                        ConversationPrewarmCache.MESSAGES_CURSOR) {
+                    @Override
+                    public Cursor loadInBackground() {
+                        final Cursor cursor = super.loadInBackground();
+                        // The cursor is sorted DESC, so these are the messages shown first
+                        MessageTextCache.get().prepareMessages(cursor);
+                        return cursor;
+                    }
+                };
+                // Messages are shown in reverse (see ReversedCursor), and clustered with their
+                // neighbors
+                messagesLoader.enableDiffUpdates(true /* reversed */,
+                        true /* neighborsAffectRows */);
+                loader = messagesLoader;
                 mLastMessageTimestamp = LAST_MESSAGE_TIMESTAMP_NaN;
                 mMessageCount = MESSAGE_COUNT_NaN;
             } else {
@@ -322,8 +364,9 @@ public class ConversationData extends BindableData {
             if (isBound(bindingId)) {
                 final Uri uri =
                         MessagingContentProvider.buildConversationParticipantsUri(mConversationId);
-                loader = new BoundCursorLoader(bindingId, mContext, uri,
-                        ParticipantData.ParticipantsQuery.PROJECTION, null, null, null);
+                loader = new ConversationCursorLoader(bindingId, mContext, uri,
+                        ParticipantData.ParticipantsQuery.PROJECTION, mConversationId,
+                        ConversationPrewarmCache.PARTICIPANTS_CURSOR);
             } else {
                 LogUtil.w(TAG, "Creating participant loader after unbinding mConversationId = " +
                         mConversationId);
@@ -18,6 +18,7 @@ package com.android.messaging.datamodel.data;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
@@ -52,6 +53,15 @@ public class ConversationListData extends BindableData
     public static final String WHERE_NOT_ARCHIVED =
             "(" + ConversationListViewColumns.ARCHIVE_STATUS + " = 0)";
 
+    // The conversations are loaded in pages: a first page small enough to draw the list fast,
+    // then larger pages ahead of the scroll position. Each load queries all the pages so far,
+    // which stays cheap as the query is an index scan, and the list is updated with the
+    // inserted rows only, so the scroll position is kept.
+    private static final int FIRST_PAGE_SIZE = 30;
+    private static final int PAGE_SIZE = 200;
+    // Next page is loaded when the list is scrolled within this many rows of the loaded ones
+    private static final int PREFETCH_DISTANCE = 100;
+
     public interface ConversationListDataListener {
         void onConversationListCursorUpdated(ConversationListData data, Cursor cursor);
         void setBlockedParticipantsAvailable(boolean blockedAvailable);
@@ -62,6 +72,12 @@ public class ConversationListData extends BindableData
     private final boolean mArchivedMode;
     private LoaderManager mLoaderManager;
 
+    // Max number of conversations loaded
+    private int mLoadLimit = FIRST_PAGE_SIZE;
+    // True if the last load was cut by the limit, so more conversations can be loaded
+    private boolean mHasMore;
+    private boolean mLoadingMore;
+
     public ConversationListData(final Context context, final ConversationListDataListener listener,
             final boolean archivedMode) {
         mListener = listener;
@@ -97,12 +113,16 @@ public class ConversationListData extends BindableData
                             ParticipantColumns.BLOCKED + "=1", null, null);
                     break;
                 case CONVERSATION_LIST_LOADER:
-                    loader = new BoundCursorLoader(bindingId, mContext,
-                            MessagingContentProvider.CONVERSATIONS_URI,
+                    final BoundCursorLoader listLoader = new BoundCursorLoader(bindingId,
+                            mContext,
+                            getConversationListUri(),
                             ConversationListItemData.PROJECTION,
                             mArchivedMode ? WHERE_ARCHIVED : WHERE_NOT_ARCHIVED,
                             null,       // selection args
                             SORT_ORDER);
+                    listLoader.enableDiffUpdates(false /* reversed */,
+                            false /* neighborsAffectRows */);
+                    loader = listLoader;
                     break;
                 default:
                     Assert.fail("Unknown loader id");
@@ -132,7 +152,18 @@ public class ConversationListData extends BindableData
                     mListener.setBlockedParticipantsAvailable(data != null && data.getCount() > 0);
                     break;
                 case CONVERSATION_LIST_LOADER:
+                    final int count = data == null ? 0 : data.getCount();
+                    mHasMore = count >= mLoadLimit;
+                    mLoadingMore = false;
+                    if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                        LogUtil.v(TAG, "ConversationListData: loaded " + count
+                                + " conversations, limit " + mLoadLimit);
+                    }
                     mListener.onConversationListCursorUpdated(this, data);
+                    if (mLoadLimit == FIRST_PAGE_SIZE) {
+                        // Following pages are likely to be needed, fetch the next one now
+                        loadMore();
+                    }
                     break;
                 default:
                     Assert.fail("Unknown loader id");
@@ -166,6 +197,58 @@ public class ConversationListData extends BindableData
         }
     }
 
+    private Uri getConversationListUri() {
+        return MessagingContentProvider.CONVERSATIONS_URI.buildUpon()
+                .appendQueryParameter(MessagingContentProvider.QUERY_PARAMETER_LIMIT,
+                        Integer.toString(mLoadLimit))
+                .build();
+    }
+
+    /**
+     * Load the next page of conversations, unless all are loaded or a page is already loading
+     */
+    private void loadMore() {
+        if (!mHasMore || mLoadingMore || mLoaderManager == null) {
+            return;
+        }
+        final Loader<Cursor> loader = mLoaderManager.getLoader(CONVERSATION_LIST_LOADER);
+        if (loader == null) {
+            return;
+        }
+        mLoadingMore = true;
+        mLoadLimit += PAGE_SIZE;
+        // Reload with the same loader, so that the new rows are diffed against the loaded ones
+        ((BoundCursorLoader) loader).setUri(getConversationListUri());
+        loader.onContentChanged();
+    }
+
+    /**
+     * Called when the conversation list is scrolled, to load the following conversations
+     * before they are reached
+     */
+    public void onListScrolled(final int lastVisiblePosition) {
+        if (lastVisiblePosition + PREFETCH_DISTANCE >= mLoadLimit) {
+            loadMore();
+        }
+    }
+
+    /**
+     * @return the max number of conversations loaded, to be restored by
+     *         {@link #setMinimumLoadLimit} when the list is recreated
+     */
+    public int getLoadLimit() {
+        return mLoadLimit;
+    }
+
+    /**
+     * Load at least this many conversations at once, e.g. to restore the scroll position of a
+     * recreated list. Must be called before {@link #init}.
+     */
+    public void setMinimumLoadLimit(final int limit) {
+        Assert.isNull(mLoaderManager);
+        mLoadLimit = Math.max(mLoadLimit, limit);
+    }
+
     private Bundle mArgs;
 
     public void init(final LoaderManager loaderManager,
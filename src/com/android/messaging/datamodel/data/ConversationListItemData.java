@@ -269,7 +269,27 @@ public class ConversationListItemData {
         return CONVERSATION_LIST_VIEW_SQL;
     }
 
+    /**
+     * Get the name of the table holding the rows of the view, kept up to date by triggers
+     */
+    public static String getConversationListTable() {
+        return CONVERSATION_LIST_TABLE;
+    }
+
+    /**
+     * Get the statements creating the conversation list table and its indices. The table is
+     * filled from the conversation list view, which must already exist.
+     */
+    public static String[] getConversationListTableSqls() {
+        return CONVERSATION_LIST_TABLE_SQLS;
+    }
+
+    public static String[] getConversationListTriggerSqls() {
+        return CONVERSATION_LIST_TRIGGER_SQLS;
+    }
+
     private static final String CONVERSATION_LIST_VIEW = "conversation_list_view";
+    private static final String CONVERSATION_LIST_TABLE = "conversation_list";
 
     private static final String CONVERSATION_LIST_VIEW_PROJECTION =
             DatabaseHelper.CONVERSATIONS_TABLE + '.' + ConversationColumns._ID
@@ -349,6 +369,115 @@ public class ConversationListItemData {
             + "ORDER BY " + DatabaseHelper.CONVERSATIONS_TABLE + '.'
             + ConversationColumns.SORT_TIMESTAMP + " DESC";
 
+    // The conversation list view joins the latest message and its sender for every
+    // conversation, which gets slow with thousands of conversations. Its rows are therefore
+    // materialized in the conversation list table, which the triggers below refresh whenever
+    // the conversation, its latest message or the sender of that message changes. The table
+    // takes its columns from the view, so it must be rebuilt by the upgrade that changes them.
+    private static final String CONVERSATION_LIST_TABLE_SQL = "CREATE TABLE "
+            + CONVERSATION_LIST_TABLE + " AS SELECT * FROM " + CONVERSATION_LIST_VIEW;
+
+    private static final String CONVERSATION_LIST_TABLE_ID_INDEX_SQL = "CREATE UNIQUE INDEX index_"
+            + CONVERSATION_LIST_TABLE + "_id ON " + CONVERSATION_LIST_TABLE + "("
+            + ConversationListViewColumns._ID + ")";
+
+    // The list queries filter by archive status and order by sort timestamp
+    private static final String CONVERSATION_LIST_TABLE_SORT_INDEX_SQL = "CREATE INDEX index_"
+            + CONVERSATION_LIST_TABLE + "_archive_status_sort_timestamp ON "
+            + CONVERSATION_LIST_TABLE + "(" + ConversationListViewColumns.ARCHIVE_STATUS + ", "
+            + ConversationListViewColumns.SORT_TIMESTAMP + ")";
+
+    private static final String[] CONVERSATION_LIST_TABLE_SQLS = new String[] {
+        CONVERSATION_LIST_TABLE_SQL,
+        CONVERSATION_LIST_TABLE_ID_INDEX_SQL,
+        CONVERSATION_LIST_TABLE_SORT_INDEX_SQL,
+    };
+
+    /**
+     * @return the statement replacing the rows of the conversations matching the condition by
+     *         the rows of the view
+     */
+    private static String getRefreshSql(final String condition) {
+        return "INSERT OR REPLACE INTO " + CONVERSATION_LIST_TABLE + " SELECT * FROM "
+                + CONVERSATION_LIST_VIEW + " WHERE " + condition + ";";
+    }
+
+    // Condition matching the messages that are the latest message of their conversation
+    private static String getIsLatestMessageCondition(final String message) {
+        return message + "." + MessageColumns._ID + " = (SELECT "
+                + ConversationColumns.LATEST_MESSAGE_ID + " FROM "
+                + DatabaseHelper.CONVERSATIONS_TABLE + " WHERE " + ConversationColumns._ID + " = "
+                + message + "." + MessageColumns.CONVERSATION_ID + ")";
+    }
+
+    private static final String CONVERSATION_LIST_TRIGGER_PREFIX =
+            "CREATE TRIGGER " + CONVERSATION_LIST_TABLE + "_";
+
+    private static final String CONVERSATION_LIST_CONVERSATION_INSERT_TRIGGER_SQL =
+            CONVERSATION_LIST_TRIGGER_PREFIX + "conversation_insert AFTER INSERT ON "
+            + DatabaseHelper.CONVERSATIONS_TABLE + " FOR EACH ROW BEGIN "
+            + getRefreshSql(ConversationListViewColumns._ID + " = NEW." + ConversationColumns._ID)
+            + " END;";
+
+    private static final String CONVERSATION_LIST_CONVERSATION_UPDATE_TRIGGER_SQL =
+            CONVERSATION_LIST_TRIGGER_PREFIX + "conversation_update AFTER UPDATE ON "
+            + DatabaseHelper.CONVERSATIONS_TABLE + " FOR EACH ROW BEGIN "
+            + getRefreshSql(ConversationListViewColumns._ID + " = NEW." + ConversationColumns._ID)
+            + " END;";
+
+    private static final String CONVERSATION_LIST_CONVERSATION_DELETE_TRIGGER_SQL =
+            CONVERSATION_LIST_TRIGGER_PREFIX + "conversation_delete AFTER DELETE ON "
+            + DatabaseHelper.CONVERSATIONS_TABLE + " FOR EACH ROW BEGIN DELETE FROM "
+            + CONVERSATION_LIST_TABLE + " WHERE " + ConversationListViewColumns._ID + " = OLD."
+            + ConversationColumns._ID + "; END;";
+
+    // Only the columns of the latest message shown by the view matter
+    private static final String CONVERSATION_LIST_MESSAGE_UPDATE_TRIGGER_SQL =
+            CONVERSATION_LIST_TRIGGER_PREFIX + "message_update AFTER UPDATE OF "
+            + MessageColumns.READ + ", " + MessageColumns.STATUS + ", "
+            + MessageColumns.RAW_TELEPHONY_STATUS + ", " + MessageColumns.SENDER_PARTICIPANT_ID
+            + " ON " + DatabaseHelper.MESSAGES_TABLE + " FOR EACH ROW WHEN "
+            + getIsLatestMessageCondition("NEW") + " BEGIN "
+            + getRefreshSql(ConversationListViewColumns._ID + " = NEW."
+                    + MessageColumns.CONVERSATION_ID)
+            + " END;";
+
+    private static final String CONVERSATION_LIST_MESSAGE_DELETE_TRIGGER_SQL =
+            CONVERSATION_LIST_TRIGGER_PREFIX + "message_delete AFTER DELETE ON "
+            + DatabaseHelper.MESSAGES_TABLE + " FOR EACH ROW WHEN "
+            + getIsLatestMessageCondition("OLD") + " BEGIN "
+            + getRefreshSql(ConversationListViewColumns._ID + " = OLD."
+                    + MessageColumns.CONVERSATION_ID)
+            + " END;";
+
+    // Refreshes the conversations whose latest message was sent by the participant
+    private static final String CONVERSATION_LIST_PARTICIPANT_UPDATE_TRIGGER_SQL =
+            CONVERSATION_LIST_TRIGGER_PREFIX + "participant_update AFTER UPDATE OF "
+            + ParticipantColumns.FIRST_NAME + ", " + ParticipantColumns.DISPLAY_DESTINATION
+            + " ON " + DatabaseHelper.PARTICIPANTS_TABLE + " FOR EACH ROW WHEN"
+            + " OLD." + ParticipantColumns.FIRST_NAME + " IS NOT NEW."
+            + ParticipantColumns.FIRST_NAME
+            + " OR OLD." + ParticipantColumns.DISPLAY_DESTINATION + " IS NOT NEW."
+            + ParticipantColumns.DISPLAY_DESTINATION + " BEGIN "
+            + getRefreshSql(ConversationListViewColumns._ID + " IN (SELECT "
+                    + DatabaseHelper.CONVERSATIONS_TABLE + '.' + ConversationColumns._ID
+                    + " FROM " + DatabaseHelper.CONVERSATIONS_TABLE + " JOIN "
+                    + DatabaseHelper.MESSAGES_TABLE + " ON ("
+                    + ConversationColumns.LATEST_MESSAGE_ID + " = "
+                    + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns._ID + ") WHERE "
+                    + MessageColumns.SENDER_PARTICIPANT_ID + " = NEW." + ParticipantColumns._ID
+                    + ")")
+            + " END;";
+
+    private static final String[] CONVERSATION_LIST_TRIGGER_SQLS = new String[] {
+        CONVERSATION_LIST_CONVERSATION_INSERT_TRIGGER_SQL,
+        CONVERSATION_LIST_CONVERSATION_UPDATE_TRIGGER_SQL,
+        CONVERSATION_LIST_CONVERSATION_DELETE_TRIGGER_SQL,
+        CONVERSATION_LIST_MESSAGE_UPDATE_TRIGGER_SQL,
+        CONVERSATION_LIST_MESSAGE_DELETE_TRIGGER_SQL,
+        CONVERSATION_LIST_PARTICIPANT_UPDATE_TRIGGER_SQL,
+    };
+
     public static class ConversationListViewColumns implements BaseColumns {
         public static final String _ID = ConversationColumns._ID;
         static final String NAME = ConversationColumns.NAME;
@@ -465,7 +594,7 @@ public class ConversationListItemData {
         ConversationListItemData conversation = null;
 
         // Look for an existing conversation in the db with this conversation id
-        try (Cursor cursor = dbWrapper.query(getConversationListView(),
+        try (Cursor cursor = dbWrapper.query(getConversationListTable(),
                 PROJECTION,
                 ConversationColumns._ID + "=?",
                 new String[]{conversationId},
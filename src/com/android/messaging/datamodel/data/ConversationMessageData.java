@@ -634,13 +634,36 @@ public class ConversationMessageData {
     public static String getNotificationQuerySql() {
         return CONVERSATION_MESSAGES_QUERY_SQL
                 + " AND "
-                + "(" + DatabaseHelper.MessageColumns.STATUS + " in ("
+                + getNotificationSelection()
+                + ")"
+                + NOTIFICATION_QUERY_SQL_GROUP_BY;
+    }
+
+    /**
+     * Same as {@link #getNotificationQuerySql()} but restricted to the given number of message
+     * ids, which are the query arguments.
+     */
+    public static String getNotificationQuerySql(final int messageIdCount) {
+        final StringBuilder sql = new StringBuilder(CONVERSATION_MESSAGES_QUERY_SQL)
+                .append(" AND ").append(getNotificationSelection())
+                .append(" AND ").append(DatabaseHelper.MESSAGES_TABLE).append('.')
+                .append(MessageColumns._ID).append(" IN (");
+        for (int i = 0; i < messageIdCount; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append("))").append(NOTIFICATION_QUERY_SQL_GROUP_BY).toString();
+    }
+
+    /**
+     * @return the selection of the messages to notify, which only uses columns of the messages
+     *         table
+     */
+    public static String getNotificationSelection() {
+        return "(" + DatabaseHelper.MessageColumns.STATUS + " in ("
                 + MessageData.BUGLE_STATUS_INCOMING_COMPLETE + ", "
                 + MessageData.BUGLE_STATUS_INCOMING_YET_TO_MANUAL_DOWNLOAD + ")"
                 + " AND "
-                + DatabaseHelper.MessageColumns.SEEN + " = 0)"
-                + ")"
-                + NOTIFICATION_QUERY_SQL_GROUP_BY;
+                + DatabaseHelper.MessageColumns.SEEN + " = 0)";
     }
 
     public static String getWearableQuerySql() {
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.data;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import com.android.messaging.Factory;
+import com.android.messaging.datamodel.MemoryCacheManager;
+import com.android.messaging.datamodel.MemoryCacheManager.MemoryCache;
+import com.android.messaging.datamodel.MessagingContentProvider;
+import com.android.messaging.util.Assert;
+import com.android.messaging.util.Assert.RunsOnMainThread;
+import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.SafeAsyncTask;
+import com.android.messaging.util.ThreadUtil;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Cache of the cursors of the conversations the user is likely to open next, loaded before the
+ * conversation is opened.
+ *
+ * The conversation list prewarms the most recent conversations when it is first loaded, and
+ * the touched conversation on touch down, ahead of the click. The metadata, messages and
+ * participants queries of {@link ConversationData} are run in the background with the same
+ * projections as its loaders, which then take the cursors over rather than querying again. A
+ * cursor is only handed over once, and only while it is fresh: any change to its rows drops
+ * the conversation from the cache.
+ */
+public class ConversationPrewarmCache implements MemoryCache {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    // Conversations cached at once, as the messages of each can take a whole cursor window
+    private static final int MAX_CONVERSATIONS = 3;
+    // Number of most recent conversations prewarmed when the conversation list is loaded
+    private static final int RECENT_CONVERSATIONS_TO_PREWARM = 2;
+    // Prewarmed conversations that are not opened by then are dropped
+    private static final long MAX_AGE_MS = 30 * 1000;
+
+    // The cursors of a conversation, in the order they are loaded
+    static final int METADATA_CURSOR = 0;
+    static final int MESSAGES_CURSOR = 1;
+    static final int PARTICIPANTS_CURSOR = 2;
+    private static final int CURSOR_COUNT = 3;
+
+    /**
+     * The prewarmed cursors of a conversation, which it watches for changes from before they are
+     * queried until they are handed over
+     */
+    private class PrewarmedConversation extends ContentObserver {
+        private final String mConversationId;
+        private final long mLoadTimeMs;
+        // Guarded by this. Cursors are set to null once handed over or closed.
+        private final Cursor[] mCursors = new Cursor[CURSOR_COUNT];
+        // Set as soon as a change is notified, while the cursors are queried or afterwards
+        private volatile boolean mChanged;
+        private boolean mClosed;
+
+        PrewarmedConversation(final String conversationId, final Uri[] uris) {
+            // Changes are seen on the notifying thread, so that a change notified before an
+            // observer takes over a cursor is never missed
+            super(null);
+            mConversationId = conversationId;
+            mLoadTimeMs = SystemClock.elapsedRealtime();
+            final ContentResolver resolver =
+                    Factory.get().getApplicationContext().getContentResolver();
+            for (final Uri uri : uris) {
+                resolver.registerContentObserver(uri, false /* notifyForDescendants */, this);
+            }
+        }
+
+        boolean isFresh() {
+            return !mChanged && SystemClock.elapsedRealtime() - mLoadTimeMs < MAX_AGE_MS;
+        }
+
+        synchronized boolean hasCursor(final int cursorIndex) {
+            return mCursors[cursorIndex] != null;
+        }
+
+        /**
+         * Watch the changes to the rows of the cursor, closing it if already closed
+         */
+        synchronized void setCursor(final int cursorIndex, final Cursor cursor) {
+            if (mClosed) {
+                cursor.close();
+                return;
+            }
+            mCursors[cursorIndex] = cursor;
+            cursor.registerContentObserver(this);
+        }
+
+        /**
+         * @return the cursor, with the observer registered instead of this one, or null if it
+         *         was already handed over or its rows may have changed
+         */
+        synchronized Cursor take(final int cursorIndex, final ContentObserver observer) {
+            final Cursor cursor = mCursors[cursorIndex];
+            if (cursor == null) {
+                return null;
+            }
+            mCursors[cursorIndex] = null;
+            // Registered first, so that a change is either seen by the observer or by this one
+            cursor.registerContentObserver(observer);
+            cursor.unregisterContentObserver(this);
+            if (mChanged) {
+                cursor.unregisterContentObserver(observer);
+                cursor.close();
+                return null;
+            }
+            return cursor;
+        }
+
+        synchronized boolean isEmpty() {
+            for (final Cursor cursor : mCursors) {
+                if (cursor != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        synchronized void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            Factory.get().getApplicationContext().getContentResolver()
+                    .unregisterContentObserver(this);
+            for (int i = 0; i < mCursors.length; i++) {
+                if (mCursors[i] != null) {
+                    mCursors[i].close();
+                    mCursors[i] = null;
+                }
+            }
+        }
+
+        @Override
+        public void onChange(final boolean selfChange) {
+            // Not synchronized, as the cursors notify with their observers locked
+            mChanged = true;
+            // Closed on the main thread, not while the cursor notifies
+            ThreadUtil.getMainThreadHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    remove(mConversationId, PrewarmedConversation.this);
+                }
+            });
+        }
+    }
+
+    private static final ConversationPrewarmCache sInstance = new ConversationPrewarmCache();
+
+    private final LruCache<String, PrewarmedConversation> mConversations =
+            new LruCache<String, PrewarmedConversation>(MAX_CONVERSATIONS) {
+        @Override
+        protected void entryRemoved(final boolean evicted, final String key,
+                final PrewarmedConversation oldValue, final PrewarmedConversation newValue) {
+            oldValue.close();
+        }
+    };
+    // Conversations being prewarmed, only accessed on the main thread
+    private final Set<String> mLoadingConversationIds = new HashSet<>();
+    private boolean mRegistered;
+
+    // Conversation being opened, to measure the time until its messages are drawn
+    private String mOpeningConversationId;
+    private long mOpeningStartMs;
+    private boolean mOpeningPrewarmed;
+
+    public static ConversationPrewarmCache get() {
+        return sInstance;
+    }
+
+    /**
+     * Load the cursors of the conversation in the background, unless they are already loaded
+     */
+    @RunsOnMainThread
+    public void prewarm(final String conversationId) {
+        Assert.isMainThread();
+        final PrewarmedConversation cached = mConversations.get(conversationId);
+        if ((cached != null && cached.isFresh())
+                || !mLoadingConversationIds.add(conversationId)) {
+            return;
+        }
+        if (!mRegistered) {
+            MemoryCacheManager.get().registerMemoryCache(this);
+            mRegistered = true;
+        }
+        SafeAsyncTask.executeOnThreadPool(new Runnable() {
+            @Override
+            public void run() {
+                final PrewarmedConversation conversation = load(conversationId);
+                ThreadUtil.getMainThreadHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLoadingConversationIds.remove(conversationId);
+                        if (conversation != null && !conversation.isFresh()) {
+                            // Changed while it was loaded
+                            conversation.close();
+                        } else if (conversation != null) {
+                            mConversations.put(conversationId, conversation);
+                            // Drop it once stale, rather than holding its cursors until evicted
+                            ThreadUtil.getMainThreadHandler().postDelayed(new Runnable() {
+                                @Override
+                                public void run() {
+                                    remove(conversationId, conversation);
+                                }
+                            }, MAX_AGE_MS);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Prewarm the first conversations of the conversation list cursor, whose position is left
+     * unchanged
+     */
+    @RunsOnMainThread
+    public void prewarmRecentConversations(final Cursor cursor) {
+        final int position = cursor.getPosition();
+        final ConversationListItemData item = new ConversationListItemData();
+        for (int i = 0; i < RECENT_CONVERSATIONS_TO_PREWARM && cursor.moveToPosition(i); i++) {
+            item.bind(cursor);
+            prewarm(item.getConversationId());
+        }
+        cursor.moveToPosition(position);
+    }
+
+    private PrewarmedConversation load(final String conversationId) {
+        final long startMs = SystemClock.elapsedRealtime();
+        final ContentResolver resolver = Factory.get().getApplicationContext().getContentResolver();
+        final Uri metadataUri =
+                MessagingContentProvider.buildConversationMetadataUri(conversationId);
+        final Uri messagesUri =
+                MessagingContentProvider.buildConversationMessagesUri(conversationId);
+        final Uri participantsUri =
+                MessagingContentProvider.buildConversationParticipantsUri(conversationId);
+        // Watching before querying, so that no change to the rows can be missed
+        final PrewarmedConversation conversation = new PrewarmedConversation(conversationId,
+                new Uri[] { metadataUri, messagesUri, participantsUri });
+        final Cursor messages;
+        try {
+            conversation.setCursor(METADATA_CURSOR,
+                    query(resolver, metadataUri, ConversationListItemData.PROJECTION));
+            messages = query(resolver, messagesUri, ConversationMessageData.getProjection());
+            conversation.setCursor(MESSAGES_CURSOR, messages);
+            conversation.setCursor(PARTICIPANTS_CURSOR, query(resolver, participantsUri,
+                    ParticipantData.ParticipantsQuery.PROJECTION));
+            // The messages shown first, as the messages loader would
+            MessageTextCache.get().prepareMessages(messages);
+        } catch (final RuntimeException e) {
+            LogUtil.w(TAG, "ConversationPrewarmCache: failed to load " + conversationId, e);
+            conversation.close();
+            return null;
+        }
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "ConversationPrewarmCache: loaded " + conversationId + " ("
+                    + messages.getCount() + " messages) in "
+                    + (SystemClock.elapsedRealtime() - startMs) + "ms");
+        }
+        return conversation;
+    }
+
+    private static Cursor query(final ContentResolver resolver, final Uri uri,
+            final String[] projection) {
+        final Cursor cursor = resolver.query(uri, projection, null, null, null);
+        if (cursor == null) {
+            throw new IllegalStateException("Null cursor for " + uri);
+        }
+        // Fill the cursor window here rather than on the loader thread
+        cursor.getCount();
+        return cursor;
+    }
+
+    /**
+     * Take over a prewarmed cursor of the conversation, called by the loaders of
+     * {@link ConversationData} from their thread
+     *
+     * @param cursorIndex one of {@link #METADATA_CURSOR}, {@link #MESSAGES_CURSOR} or
+     *        {@link #PARTICIPANTS_CURSOR}
+     * @param observer registered on the cursor, to be notified of the changes to its rows
+     * @return the cursor, or null if the conversation isn't prewarmed or is stale
+     */
+    Cursor take(final String conversationId, final int cursorIndex,
+            final ContentObserver observer) {
+        final PrewarmedConversation conversation = mConversations.get(conversationId);
+        if (conversation == null || !conversation.isFresh()) {
+            return null;
+        }
+        final Cursor cursor = conversation.take(cursorIndex, observer);
+        if (conversation.isEmpty()) {
+            remove(conversationId, conversation);
+        }
+        return cursor;
+    }
+
+    private void remove(final String conversationId, final PrewarmedConversation conversation) {
+        synchronized (mConversations) {
+            if (mConversations.get(conversationId) == conversation) {
+                mConversations.remove(conversationId);
+            }
+        }
+    }
+
+    /**
+     * Start measuring the time until the messages of the conversation are drawn
+     */
+    @RunsOnMainThread
+    public void onConversationOpening(final String conversationId) {
+        final PrewarmedConversation conversation = mConversations.get(conversationId);
+        mOpeningConversationId = conversationId;
+        mOpeningStartMs = SystemClock.uptimeMillis();
+        mOpeningPrewarmed = conversation != null && conversation.isFresh()
+                && conversation.hasCursor(MESSAGES_CURSOR);
+    }
+
+    /**
+     * Report the time since the conversation was opened, when its messages are first drawn
+     */
+    @RunsOnMainThread
+    public void onConversationMessagesDrawn(final String conversationId) {
+        if (!conversationId.equals(mOpeningConversationId)) {
+            return;
+        }
+        mOpeningConversationId = null;
+        if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+            LogUtil.d(TAG, "ConversationPrewarmCache: messages drawn "
+                    + (SystemClock.uptimeMillis() - mOpeningStartMs) + "ms after tap ("
+                    + (mOpeningPrewarmed ? "prewarmed" : "not prewarmed") + ")");
+        }
+    }
+
+    @Override
+    public void reclaim() {
+        mConversations.evictAll();
+    }
+}
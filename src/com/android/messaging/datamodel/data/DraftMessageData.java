@@ -268,6 +268,13 @@ public class DraftMessageData extends BindableData implements ReadDraftDataActio
         setMessageText(messageText, false);
     }
 
+    /**
+     * Called when the message text is edited in the compose box, before it is set
+     */
+    public void onMessageTextEdited(final int start, final int before, final int count) {
+        mMessageTextStats.onMessageTextEdited(start, before, count);
+    }
+
     public void setMessageSubject(final String subject) {
         setMessageSubject(subject, false);
     }
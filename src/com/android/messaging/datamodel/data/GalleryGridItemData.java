@@ -23,8 +23,8 @@ import android.provider.BaseColumns;
 import android.provider.MediaStore.MediaColumns;
 import android.text.TextUtils;
 
-import com.android.messaging.datamodel.media.FileImageRequestDescriptor;
 import com.android.messaging.datamodel.media.ImageRequest;
+import com.android.messaging.datamodel.media.MediaStoreImageRequestDescriptor;
 import com.android.messaging.datamodel.media.UriImageRequestDescriptor;
 import com.android.messaging.datamodel.media.VideoThumbnailRequestDescriptor;
 import com.android.messaging.util.Assert;
@@ -106,15 +106,13 @@ public class GalleryGridItemData {
                             sourceWidth,
                             sourceHeight);
                 } else {
-                    mImageData = new FileImageRequestDescriptor(
+                    mImageData = new MediaStoreImageRequestDescriptor(
+                            cursor.getLong(INDEX_ID),
                             filePath,
                             desiredWidth,
                             desiredHeight,
                             sourceWidth,
-                            sourceHeight,
-                            true /* canUseThumbnail */,
-                            true /* allowCompression */,
-                            true /* isStatic */);
+                            sourceHeight);
                 }
             }
         }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.data;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.text.PrecomputedText;
+import android.text.SpannableString;
+import android.text.SpannedString;
+import android.text.TextUtils;
+import android.text.util.Linkify;
+import android.util.LruCache;
+
+import com.android.messaging.util.LogUtil;
+
+/**
+ * Cache of message texts ready to be displayed in message bubbles, keyed by message id.
+ *
+ * Link detection and text measuring are too slow to run on the main thread every time a
+ * message is bound while scrolling, so the newest messages of a conversation are prepared on
+ * the loader thread each time the messages are loaded (see {@link ConversationData}): links
+ * are added as {@link android.text.style.URLSpan}s and the text is measured into a
+ * {@link PrecomputedText} with the text attributes of the last bound message view. Entries
+ * also hold a hash of the text they were prepared from, so edited texts are prepared again.
+ */
+public class MessageTextCache {
+    private static final String TAG = LogUtil.BUGLE_TAG;
+
+    // Number of newest messages prepared each time a conversation is loaded
+    private static final int MAX_MESSAGES_PREPARED_PER_LOAD = 50;
+    private static final int MAX_CACHED_MESSAGES = 256;
+
+    /**
+     * Text of a message with its links added
+     */
+    public static class PreparedText {
+        private final int mTextHash;
+        private final CharSequence mText;
+        private final boolean mHasLinks;
+
+        private PreparedText(final int textHash, final CharSequence text,
+                final boolean hasLinks) {
+            mTextHash = textHash;
+            mText = text;
+            mHasLinks = hasLinks;
+        }
+
+        /**
+         * @param params the text attributes of the view showing the text
+         * @return the text, precomputed if it was measured with the given attributes
+         */
+        public CharSequence getText(final PrecomputedText.Params params) {
+            if (mText instanceof PrecomputedText
+                    && !((PrecomputedText) mText).getParams().equals(params)) {
+                // Measured for other attributes, only keep the links
+                return new SpannedString(mText);
+            }
+            return mText;
+        }
+
+        public boolean hasLinks() {
+            return mHasLinks;
+        }
+
+        private boolean isPreparedFor(final int textHash, final PrecomputedText.Params params) {
+            return mTextHash == textHash && (params == null || (mText instanceof PrecomputedText
+                    && ((PrecomputedText) mText).getParams().equals(params)));
+        }
+    }
+
+    private static final MessageTextCache sInstance = new MessageTextCache();
+
+    private final LruCache<String, PreparedText> mCache = new LruCache<>(MAX_CACHED_MESSAGES);
+    // Text attributes of the message views, null until a message has been bound
+    private volatile PrecomputedText.Params mTextMetricsParams;
+
+    public static MessageTextCache get() {
+        return sInstance;
+    }
+
+    /**
+     * Set the text attributes the texts are measured with in the background
+     */
+    public void setTextMetricsParams(final PrecomputedText.Params params) {
+        mTextMetricsParams = params;
+    }
+
+    /**
+     * @return the prepared text of the message, prepared on the calling thread (without
+     *         measuring it) if it was not prepared in the background
+     */
+    public PreparedText getPreparedText(final String messageId, final String text) {
+        final PreparedText cached = mCache.get(messageId);
+        if (cached != null && cached.isPreparedFor(text.hashCode(), null /* params */)) {
+            return cached;
+        }
+        final PreparedText prepared = prepare(text, null /* params */);
+        mCache.put(messageId, prepared);
+        return prepared;
+    }
+
+    /**
+     * Prepare the texts of the first messages of the cursor, which must not be used by another
+     * thread meanwhile. The cursor position is left unchanged.
+     */
+    void prepareMessages(final Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        final PrecomputedText.Params params = mTextMetricsParams;
+        final long startMs = SystemClock.elapsedRealtime();
+        final int position = cursor.getPosition();
+        final ConversationMessageData message = new ConversationMessageData();
+        int preparedCount = 0;
+        cursor.moveToPosition(-1);
+        for (int i = 0; i < MAX_MESSAGES_PREPARED_PER_LOAD && cursor.moveToNext(); i++) {
+            message.bind(cursor);
+            final String text = message.getText();
+            if (TextUtils.isEmpty(text)) {
+                continue;
+            }
+            final String messageId = message.getMessageId();
+            final PreparedText cached = mCache.get(messageId);
+            if (cached == null || !cached.isPreparedFor(text.hashCode(), params)) {
+                mCache.put(messageId, prepare(text, params));
+                preparedCount++;
+            }
+        }
+        cursor.moveToPosition(position);
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "MessageTextCache: prepared " + preparedCount + " texts in "
+                    + (SystemClock.elapsedRealtime() - startMs) + "ms"
+                    + (params == null ? " (not measured)" : ""));
+        }
+    }
+
+    private static PreparedText prepare(final String text, final PrecomputedText.Params params) {
+        final SpannableString spannable = new SpannableString(text);
+        // Linkify phone numbers, web urls, emails, and map addresses to allow users to
+        // click on them and take the default intent.
+        final boolean hasLinks = Linkify.addLinks(spannable, Linkify.ALL);
+        final CharSequence prepared;
+        if (params != null) {
+            prepared = PrecomputedText.create(spannable, params);
+        } else {
+            // Immutable, as the text may be shown by several views over time
+            prepared = hasLinks ? new SpannedString(spannable) : text;
+        }
+        return new PreparedText(text.hashCode(), prepared, hasLinks);
+    }
+}
@@ -42,6 +42,15 @@ class AsyncMediaRequestWrapper<T extends RefCountedMediaResource> extends Bindab
         mWrappedRequest = wrappedRequest;
     }
 
+    @Override
+    protected void unregisterListeners() {
+        super.unregisterListeners();
+        // Nobody is waiting for the media any more, so stop loading it if possible
+        if (mWrappedRequest instanceof ImageRequest<?>) {
+            ((ImageRequest<?>) mWrappedRequest).cancel();
+        }
+    }
+
     @Override
     public String getKey() {
         return mWrappedRequest.getKey();
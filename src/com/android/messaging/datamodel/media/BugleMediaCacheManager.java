@@ -28,10 +28,14 @@ public class BugleMediaCacheManager extends MediaCacheManager {
     public static final int DEFAULT_IMAGE_CACHE = 1;
     public static final int AVATAR_IMAGE_CACHE = 2;
     public static final int VCARD_CACHE = 3;
+    public static final int GALLERY_IMAGE_CACHE = 4;
 
     // VCard cache size - we compute the size by count, not by bytes.
     private static final int VCARD_CACHE_SIZE = 5;
     private static final int SHARED_IMAGE_CACHE_SIZE = 1024 * 10;   // 10MB
+    // Kept apart from the shared cache so that browsing the gallery picker doesn't evict the
+    // images of the conversations
+    private static final int GALLERY_IMAGE_CACHE_SIZE = 1024 * 4;   // 4MB
 
     @Override
     protected MediaCache<?> createMediaCacheById(final int id) {
@@ -42,6 +46,9 @@ public class BugleMediaCacheManager extends MediaCacheManager {
             case AVATAR_IMAGE_CACHE:
                 return new PoolableImageCache(id, "AvatarImageCache");
 
+            case GALLERY_IMAGE_CACHE:
+                return new PoolableImageCache(GALLERY_IMAGE_CACHE_SIZE, id, "GalleryImageCache");
+
             case VCARD_CACHE:
                 return new MediaCache<VCardResource>(VCARD_CACHE_SIZE, id, "VCardCache");
 
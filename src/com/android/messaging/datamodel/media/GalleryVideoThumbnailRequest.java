@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.media;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Serves thumbnail requests of the videos of the gallery picker. The thumbnail MediaStore keeps
+ * of the video is used if there is one, otherwise a representative frame is decoded.
+ *
+ * The thumbnails are compressed like those of the images, and kept with them in the gallery
+ * cache.
+ */
+public class GalleryVideoThumbnailRequest
+        extends VideoThumbnailRequest<VideoThumbnailRequestDescriptor> {
+
+    public GalleryVideoThumbnailRequest(final Context context,
+            final VideoThumbnailRequestDescriptor descriptor) {
+        super(context, descriptor);
+    }
+
+    @Override
+    protected Bitmap getBitmapForResource() throws IOException {
+        final Bitmap thumbnail = loadMediaStoreThumbnail(mDescriptor.mediaStoreUri);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+        throwIfCanceled();
+        return super.getBitmapForResource();
+    }
+
+    @Override
+    protected ImageResource loadMediaInternal(final List<MediaRequest<ImageResource>> chainedTasks)
+            throws IOException {
+        final ImageResource resource = super.loadMediaInternal(chainedTasks);
+        // Chain an encoding task if possible, as UriImageRequest does
+        if (mDescriptor.allowCompression && chainedTasks != null) {
+            @SuppressWarnings("unchecked")
+            final MediaRequest<ImageResource> chainedTask = (MediaRequest<ImageResource>)
+                    resource.getMediaEncodingRequest(this);
+            if (chainedTask != null) {
+                chainedTasks.add(chainedTask);
+                // The compressed resource is cached instead
+                if (resource instanceof DecodedImageResource) {
+                    ((DecodedImageResource) resource).setCacheable(false);
+                }
+            }
+        }
+        return resource;
+    }
+
+    @Override
+    public int getCacheId() {
+        return BugleMediaCacheManager.GALLERY_IMAGE_CACHE;
+    }
+}
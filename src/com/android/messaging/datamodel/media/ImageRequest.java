@@ -20,6 +20,9 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.RectF;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.util.Size;
 
 import com.android.messaging.datamodel.data.MessagePartData;
 import com.android.messaging.datamodel.media.PoolableImageCache.ReusableImageResourcePool;
@@ -45,6 +48,8 @@ public abstract class ImageRequest<D extends ImageRequestDescriptor>
     protected final Context mContext;
     protected final D mDescriptor;
     protected int mOrientation;
+    // Cancelled once nobody is waiting for the image any more
+    private final CancellationSignal mCancellationSignal = new CancellationSignal();
 
     /**
      * Creates a new image request with the given descriptor.
@@ -93,6 +98,40 @@ public abstract class ImageRequest<D extends ImageRequestDescriptor>
      */
     protected abstract InputStream getInputStreamForResource() throws FileNotFoundException;
 
+    /**
+     * Cancels the loading of the image where it can be interrupted, e.g. when the view it was
+     * requested for has been recycled. The request then fails with an OperationCanceledException.
+     */
+    public void cancel() {
+        mCancellationSignal.cancel();
+    }
+
+    protected void throwIfCanceled() {
+        mCancellationSignal.throwIfCanceled();
+    }
+
+    /**
+     * Loads the thumbnail of a media item that MediaStore keeps cached, scaled to fit the desired
+     * size and already rotated upright.
+     * @param mediaStoreUri the MediaStore images or video Uri of the item
+     * @return the thumbnail, or null if the desired size isn't specified or MediaStore couldn't
+     * provide one
+     */
+    protected Bitmap loadMediaStoreThumbnail(final Uri mediaStoreUri) {
+        if (mDescriptor.desiredWidth == UNSPECIFIED_SIZE
+                || mDescriptor.desiredHeight == UNSPECIFIED_SIZE) {
+            return null;
+        }
+        try {
+            return mContext.getContentResolver().loadThumbnail(mediaStoreUri,
+                    new Size(mDescriptor.desiredWidth, mDescriptor.desiredHeight),
+                    mCancellationSignal);
+        } catch (final IOException e) {
+            // No thumbnail cached, and none could be made
+            return null;
+        }
+    }
+
     /**
      * Loads the image resource. This method is final; to override the media loading behavior
      * the subclass should override {@link #loadMediaInternal(List)}
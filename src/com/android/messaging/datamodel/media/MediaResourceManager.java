@@ -241,6 +241,10 @@ public class MediaResourceManager {
                 try {
                     return processMediaRequestInternal(mediaRequest);
                 } catch (Exception e) {
+                    if (bindableRequest != null && !bindableRequest.isBound()) {
+                        // Cancelled, or failed once obsolete; either way nobody is notified
+                        return null;
+                    }
                     mException = e;
                     return null;
                 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.media;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.io.IOException;
+
+/**
+ * Serves thumbnail requests of MediaStore images. The thumbnail MediaStore keeps of the image is
+ * used if there is one, which saves reading and decoding the file; otherwise this falls back to
+ * the Exif thumbnail, then to decoding the file downsampled to the desired size.
+ *
+ * The thumbnails are kept in their own cache, so that browsing many of them doesn't evict the
+ * other images.
+ */
+public class MediaStoreImageRequest extends FileImageRequest {
+    private final Uri mMediaStoreUri;
+
+    public MediaStoreImageRequest(final Context context,
+            final MediaStoreImageRequestDescriptor descriptor) {
+        super(context, descriptor);
+        mMediaStoreUri = descriptor.mediaStoreUri;
+    }
+
+    @Override
+    protected Bitmap loadBitmapInternal() throws IOException {
+        final Bitmap thumbnail = loadMediaStoreThumbnail(mMediaStoreUri);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+        throwIfCanceled();
+        return super.loadBitmapInternal();
+    }
+
+    @Override
+    public int getCacheId() {
+        return BugleMediaCacheManager.GALLERY_IMAGE_CACHE;
+    }
+}
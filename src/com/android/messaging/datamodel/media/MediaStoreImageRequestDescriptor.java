@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.media;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+/**
+ * Holds image request info about an image of MediaStore shown as a thumbnail, such as in the
+ * gallery picker. The image is identified by its file, like a file based image request, and
+ * loaded from the thumbnail MediaStore keeps of it where possible.
+ */
+public class MediaStoreImageRequestDescriptor extends FileImageRequestDescriptor {
+    public final Uri mediaStoreUri;
+
+    public MediaStoreImageRequestDescriptor(final long mediaStoreId, final String path,
+            final int desiredWidth, final int desiredHeight, final int sourceWidth,
+            final int sourceHeight) {
+        super(path, desiredWidth, desiredHeight, sourceWidth, sourceHeight,
+                true /* canUseThumbnail */, true /* canCompress */, true /* isStatic */);
+        mediaStoreUri = ContentUris.withAppendedId(
+                MediaStore.Images.Media.getContentUri(MediaStore.VOLUME_EXTERNAL), mediaStoreId);
+    }
+
+    @Override
+    public MediaRequest<ImageResource> buildSyncMediaRequest(final Context context) {
+        return new MediaStoreImageRequest(context, this);
+    }
+}
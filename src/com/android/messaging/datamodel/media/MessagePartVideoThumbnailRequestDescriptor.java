@@ -33,6 +33,6 @@ public class MessagePartVideoThumbnailRequestDescriptor extends MessagePartImage
 
     @Override
     public MediaRequest<ImageResource> buildSyncMediaRequest(final Context context) {
-        return new VideoThumbnailRequest(context, this);
+        return new VideoThumbnailRequest<>(context, this);
     }
 }
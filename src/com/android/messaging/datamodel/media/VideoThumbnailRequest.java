@@ -26,12 +26,13 @@ import java.io.IOException;
 import java.io.InputStream;
 
 /**
- * Class to request a video thumbnail.
+ * Class to request a video thumbnail. A representative frame is decoded at the desired size if
+ * there is one, otherwise at full size.
  */
-public class VideoThumbnailRequest extends ImageRequest<UriImageRequestDescriptor> {
+public class VideoThumbnailRequest<D extends UriImageRequestDescriptor>
+        extends ImageRequest<D> {
 
-    public VideoThumbnailRequest(final Context context,
-            final UriImageRequestDescriptor descriptor) {
+    public VideoThumbnailRequest(final Context context, final D descriptor) {
         super(context, descriptor);
     }
 
@@ -48,16 +49,25 @@ public class VideoThumbnailRequest extends ImageRequest<UriImageRequestDescripto
     @Override
     protected Bitmap getBitmapForResource() throws IOException {
         Bitmap bitmap = null;
+        boolean scaled = false;
         // Get a thumbnail through MediaMetadataRetriever to get a representative frame at any time
         // position instead.
         final MediaMetadataRetrieverWrapper retriever = new MediaMetadataRetrieverWrapper();
         try {
             retriever.setDataSource(mDescriptor.uri);
-            bitmap = retriever.getFrameAtTime();
+            if (mDescriptor.desiredWidth != UNSPECIFIED_SIZE
+                    && mDescriptor.desiredHeight != UNSPECIFIED_SIZE) {
+                // Decode the frame at the size it is shown rather than at full resolution
+                bitmap = retriever.getScaledFrameAtTime(-1 /* any representative frame */,
+                        mDescriptor.desiredWidth, mDescriptor.desiredHeight);
+                scaled = true;
+            } else {
+                bitmap = retriever.getFrameAtTime();
+            }
         } finally {
             retriever.release();
         }
-        if (bitmap != null) {
+        if (bitmap != null && !scaled) {
             mDescriptor.updateSourceDimensions(bitmap.getWidth(), bitmap.getHeight());
         }
         return bitmap;
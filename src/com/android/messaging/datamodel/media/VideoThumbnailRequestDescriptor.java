@@ -15,23 +15,31 @@
  */
 package com.android.messaging.datamodel.media;
 
+import android.content.ContentUris;
 import android.content.Context;
+import android.net.Uri;
+import android.provider.MediaStore;
 
 import com.android.messaging.util.ImageUtils;
 import com.android.messaging.util.UriUtil;
 
 public class VideoThumbnailRequestDescriptor extends UriImageRequestDescriptor {
+    // The video in MediaStore's video table, which serves its cached thumbnail
+    public final Uri mediaStoreUri;
+
     public VideoThumbnailRequestDescriptor(final long id, int desiredWidth, int desiredHeight,
             int sourceWidth, int sourceHeight) {
         super(UriUtil.getContentUriForMediaStoreId(id), desiredWidth, desiredHeight, sourceWidth,
-                sourceHeight, false /* canCompress */, false /* isStatic */,
+                sourceHeight, true /* canCompress */, false /* isStatic */,
                 false /* cropToCircle */,
                 ImageUtils.DEFAULT_CIRCLE_BACKGROUND_COLOR /* circleBackgroundColor */,
                 ImageUtils.DEFAULT_CIRCLE_STROKE_COLOR /* circleStrokeColor */);
+        mediaStoreUri = ContentUris.withAppendedId(
+                MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL), id);
     }
 
     @Override
     public MediaRequest<ImageResource> buildSyncMediaRequest(Context context) {
-        return new VideoThumbnailRequest(context, this);
+        return new GalleryVideoThumbnailRequest(context, this);
     }
 }
@@ -21,6 +21,8 @@ import androidx.collection.SimpleArrayMap;
 import android.util.SparseArray;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 public class CharacterSets {
     /**
@@ -400,15 +402,29 @@ public class CharacterSets {
 
     private static final SimpleArrayMap<String, Integer> NAME_TO_MIBENUM_MAP;
 
+    /**
+     * Charsets resolved once up front, so that decoding does not look them up by name each time.
+     * Names not supported by the platform are left out.
+     */
+    private static final SparseArray<Charset> MIBENUM_TO_CHARSET_MAP;
+
     static {
         // Create the HashMaps.
         MIBENUM_TO_NAME_MAP = new SparseArray<>();
         NAME_TO_MIBENUM_MAP = new SimpleArrayMap<>();
+        MIBENUM_TO_CHARSET_MAP = new SparseArray<>();
         assert (MIBENUM_NUMBERS.length == MIME_NAMES.length);
         final int count = MIBENUM_NUMBERS.length - 1;
         for (int i = 0; i <= count; i++) {
             MIBENUM_TO_NAME_MAP.put(MIBENUM_NUMBERS[i], MIME_NAMES[i]);
             NAME_TO_MIBENUM_MAP.put(MIME_NAMES[i], MIBENUM_NUMBERS[i]);
+            if (MIBENUM_NUMBERS[i] != ANY_CHARSET) {
+                try {
+                    MIBENUM_TO_CHARSET_MAP.put(MIBENUM_NUMBERS[i], Charset.forName(MIME_NAMES[i]));
+                } catch (final IllegalArgumentException e) {
+                    // Unsupported on this platform, getCharset will report it
+                }
+            }
         }
     }
 
@@ -449,4 +465,48 @@ public class CharacterSets {
         }
         return mibEnumValue;
     }
+
+    /**
+     * Map an MIBEnum number to the pre-resolved charset which this number is assigned to.
+     *
+     * @param mibEnumValue An IANA assigned MIBEnum number.
+     * @return The charset.
+     * @throws UnsupportedEncodingException if the number is unknown or the charset is not
+     *     supported, including for {@link #ANY_CHARSET}.
+     */
+    public static Charset getCharset(final int mibEnumValue)
+            throws UnsupportedEncodingException {
+        final Charset charset = MIBENUM_TO_CHARSET_MAP.get(mibEnumValue);
+        if (charset == null) {
+            throw new UnsupportedEncodingException();
+        }
+        return charset;
+    }
+
+    /**
+     * Decode text in the charset assigned to an MIBEnum number. Pure ASCII text in an ASCII
+     * compatible charset (US-ASCII, ISO-8859-1 or UTF-8) skips the charset decoder.
+     *
+     * @param mibEnumValue An IANA assigned MIBEnum number.
+     * @param data The encoded text.
+     * @return The decoded text.
+     * @throws UnsupportedEncodingException if the charset is unknown or not supported.
+     */
+    public static String decode(final int mibEnumValue, final byte[] data)
+            throws UnsupportedEncodingException {
+        if ((mibEnumValue == US_ASCII || mibEnumValue == ISO_8859_1 || mibEnumValue == UTF_8)
+                && isAscii(data)) {
+            return new String(data, StandardCharsets.ISO_8859_1);
+        }
+        return new String(data, getCharset(mibEnumValue));
+    }
+
+    private static boolean isAscii(final byte[] data) {
+        for (final byte b : data) {
+            if (b < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -44,6 +44,12 @@ public class EncodedStringValue implements Cloneable {
      */
     private byte[] mData;
 
+    /**
+     * The decoded Text-string value, computed on first use and dropped whenever
+     * the Char-set or Text-string values change.
+     */
+    private String mDecodedString;
+
     /**
      * Constructor.
      *
@@ -88,7 +94,7 @@ public class EncodedStringValue implements Cloneable {
         }
         mCharacterSet = charset;
         try {
-            mData = data.getBytes(CharacterSets.getMimeName(charset));
+            mData = data.getBytes(CharacterSets.getCharset(charset));
         } catch (UnsupportedEncodingException e) {
             Log.e(TAG, "Input encoding " + charset + " must be supported.", e);
             mData = data.getBytes();
@@ -112,6 +118,7 @@ public class EncodedStringValue implements Cloneable {
     public void setCharacterSet(int charset) {
         // TODO: CharSet needs to be validated against MIBEnum.
         mCharacterSet = charset;
+        mDecodedString = null;
     }
 
     /**
@@ -139,6 +146,7 @@ public class EncodedStringValue implements Cloneable {
 
         mData = new byte[textString.length];
         System.arraycopy(textString, 0, mData, 0, textString.length);
+        mDecodedString = null;
     }
 
     /**
@@ -149,17 +157,25 @@ public class EncodedStringValue implements Cloneable {
      * @return The decoded String.
      */
     public String getString() {
-        if (CharacterSets.ANY_CHARSET == mCharacterSet) {
-            return new String(mData); // system default encoding.
+        String decodedString = mDecodedString;
+        if (decodedString == null) {
+            decodedString = decode(mCharacterSet, mData);
+            mDecodedString = decodedString;
+        }
+        return decodedString;
+    }
+
+    private static String decode(int charset, byte[] data) {
+        if (CharacterSets.ANY_CHARSET == charset) {
+            return new String(data); // system default encoding.
         } else {
             try {
-                String name = CharacterSets.getMimeName(mCharacterSet);
-                return new String(mData, name);
+                return CharacterSets.decode(charset, data);
             } catch (UnsupportedEncodingException e) {
                 if (LOCAL_LOGV) {
                     Log.v(TAG, e.getMessage(), e);
                 }
-                return new String(mData, StandardCharsets.ISO_8859_1);
+                return new String(data, StandardCharsets.ISO_8859_1);
             }
         }
     }
@@ -192,6 +208,7 @@ public class EncodedStringValue implements Cloneable {
 
             mData = newTextString.toByteArray();
         }
+        mDecodedString = null;
     }
 
     /*
@@ -17,13 +17,18 @@
 
 package com.android.messaging.mmslib.pdu;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.provider.Telephony.Mms;
 import android.provider.Telephony.Mms.Addr;
@@ -59,7 +64,14 @@ import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class is the high-level manager of PDU storage.
@@ -76,6 +88,19 @@ public class PduPersister {
 
     public static final String BEGIN_VCARD = "BEGIN:VCARD";
 
+    // Max number of part files written at the same time when persisting a PDU
+    private static final int PART_WRITE_THREAD_COUNT = 4;
+    private static final long PART_WRITE_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor PART_WRITE_EXECUTOR = new ThreadPoolExecutor(
+            PART_WRITE_THREAD_COUNT, PART_WRITE_THREAD_COUNT,
+            PART_WRITE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    static {
+        PART_WRITE_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     private static PduPersister sPersister;
 
     private static final PduCache PDU_CACHE_INSTANCE;
@@ -546,29 +571,16 @@ public class PduPersister {
         PduCacheEntry cacheEntry = null;
         int msgBox = 0;
         final long threadId = -1;
+        boolean updating = false;
         try {
-            synchronized (PDU_CACHE_INSTANCE) {
-                if (PDU_CACHE_INSTANCE.isUpdating(uri)) {
-                    if (LOCAL_LOGV) {
-                        LogUtil.v(TAG, "load: " + uri + " blocked by isUpdating()");
-                    }
-                    try {
-                        PDU_CACHE_INSTANCE.wait();
-                    } catch (final InterruptedException e) {
-                        Log.e(TAG, "load: ", e);
-                    }
-                }
-
-                // Check if the pdu is already loaded
-                cacheEntry = PDU_CACHE_INSTANCE.get(uri);
-                if (cacheEntry != null) {
-                    return cacheEntry.getPdu();
-                }
-
-                // Tell the cache to indicate to other callers that this item
-                // is currently being updated.
-                PDU_CACHE_INSTANCE.setUpdating(uri, true);
+            // Check if the pdu is already loaded. If not, tell the cache to indicate to other
+            // callers that this item is currently being updated. This only waits for other
+            // callers loading or persisting the same uri.
+            cacheEntry = PDU_CACHE_INSTANCE.getOrStartUpdating(uri);
+            if (cacheEntry != null) {
+                return cacheEntry.getPdu();
             }
+            updating = true;
 
             final Cursor c = SqliteWrapper.query(mContext, mContentResolver, uri,
                     PDU_PROJECTION, null, null, null);
@@ -601,15 +613,15 @@ public class PduPersister {
             final PduBody body = loadBody(msgId, msgType);
             pdu = createPdu(msgType, headers, body);
         } finally {
-            synchronized (PDU_CACHE_INSTANCE) {
+            if (updating) {
                 if (pdu != null) {
                     Assert.isNull(PDU_CACHE_INSTANCE.get(uri), "Pdu exists for " + uri);
                     // Update the cache entry with the real info
                     cacheEntry = new PduCacheEntry(pdu, msgBox, threadId);
                     PDU_CACHE_INSTANCE.put(uri, cacheEntry);
                 }
+                // Tell anybody waiting on this entry to go ahead
                 PDU_CACHE_INSTANCE.setUpdating(uri, false);
-                PDU_CACHE_INSTANCE.notifyAll(); // tell anybody waiting on this entry to go ahead
             }
         }
         return pdu;
@@ -751,7 +763,40 @@ public class PduPersister {
             final Map<Uri, InputStream> preOpenedFiles) throws MmsException {
         final Uri uri = Uri.parse("content://mms/" + msgId + "/part");
         final ContentValues values = new ContentValues(8);
+        final String contentType = getPartValues(part, uri, values);
 
+        Uri res = null;
+
+        try {
+            res = SqliteWrapper.insert(mContext, mContentResolver, uri, values);
+        } catch (IllegalStateException e) {
+            // Currently the MMS provider throws an IllegalStateException when it's out of space
+            LogUtil.e(TAG, "SqliteWrapper.insert threw: ", e);
+        }
+
+        if (res == null) {
+            throw new MmsException("Failed to persist part, return null.");
+        }
+
+        persistData(part, res, contentType, preOpenedFiles);
+        // After successfully store the data, we should update
+        // the dataUri of the part.
+        part.setDataUri(res);
+
+        return res;
+    }
+
+    /**
+     * Fill in the part row values of a part, fixing up its content type if needed.
+     *
+     * @param part   The PDU part to persist.
+     * @param uri    The URI the part row is inserted into.
+     * @param values The values to fill in.
+     * @return The content type of the part.
+     * @throws MmsException The part has no content type.
+     */
+    private static String getPartValues(final PduPart part, final Uri uri,
+            final ContentValues values) throws MmsException {
         final int charset = part.getCharset();
         if (charset != 0) {
             values.put(Part.CHARSET, charset);
@@ -800,26 +845,134 @@ public class PduPersister {
         }
 
         getValues(part, values);
+        return contentType;
+    }
 
-        Uri res = null;
+    /**
+     * @return true if the part data is stored as text in the part row rather than in a file
+     */
+    private static boolean isTextPart(final String contentType) {
+        return ContentType.TEXT_PLAIN.equals(contentType)
+                || ContentType.APP_SMIL.equals(contentType)
+                || ContentType.TEXT_HTML.equals(contentType);
+    }
+
+    /**
+     * Persist all the parts of a PDU body. Unlike calling {@link #persistPart} for each part,
+     * the part rows are inserted with a single batch of provider operations, with the text of
+     * text parts inlined in their rows, and the part files are then written in parallel.
+     *
+     * @param body           The PDU body whose parts are persisted.
+     * @param msgId          The ID of the message the parts belong to.
+     * @param preOpenedFiles if not null, a map of preopened InputStreams for the parts.
+     * @throws MmsException Failed to insert a part row or to write a part file.
+     */
+    private void persistParts(final PduBody body, final long msgId,
+            final Map<Uri, InputStream> preOpenedFiles) throws MmsException {
+        final int partsNum = body.getPartsNum();
+        if (partsNum == 0) {
+            return;
+        }
+        final long startMs = SystemClock.elapsedRealtime();
+        final Uri uri = Uri.parse("content://mms/" + msgId + "/part");
+        final String[] contentTypes = new String[partsNum];
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>(partsNum);
+        for (int i = 0; i < partsNum; i++) {
+            final PduPart part = body.getPart(i);
+            final ContentValues values = new ContentValues(9);
+            contentTypes[i] = getPartValues(part, uri, values);
+            // Some phone could send MMS with a text part having empty data
+            // Let's just skip those parts.
+            // EncodedStringValue() throws NPE if data is empty
+            if (isTextPart(contentTypes[i]) && part.getData() != null) {
+                values.put(Part.TEXT,
+                        new EncodedStringValue(part.getCharset(), part.getData()).getString());
+            }
+            operations.add(ContentProviderOperation.newInsert(uri).withValues(values).build());
+        }
+        final long valuesDoneMs = SystemClock.elapsedRealtime();
 
+        final ContentProviderResult[] results;
         try {
-            res = SqliteWrapper.insert(mContext, mContentResolver, uri, values);
-        } catch (IllegalStateException e) {
+            results = mContentResolver.applyBatch(uri.getAuthority(), operations);
+        } catch (final RemoteException | OperationApplicationException e) {
+            LogUtil.e(TAG, "PduPersister.persistParts: applyBatch threw: ", e);
+            throw new MmsException(e);
+        } catch (final IllegalStateException e) {
             // Currently the MMS provider throws an IllegalStateException when it's out of space
-            LogUtil.e(TAG, "SqliteWrapper.insert threw: ", e);
+            LogUtil.e(TAG, "PduPersister.persistParts: applyBatch threw: ", e);
+            throw new MmsException(e);
         }
-
-        if (res == null) {
-            throw new MmsException("Failed to persist part, return null.");
+        if (results == null || results.length != partsNum) {
+            throw new MmsException("Failed to persist parts, unexpected batch result.");
+        }
+        for (final ContentProviderResult result : results) {
+            if (result.uri == null) {
+                throw new MmsException("Failed to persist part, return null.");
+            }
+        }
+        final long insertDoneMs = SystemClock.elapsedRealtime();
+
+        final ArrayList<Callable<Void>> writes = new ArrayList<>(partsNum);
+        for (int i = 0; i < partsNum; i++) {
+            if (!isTextPart(contentTypes[i])) {
+                final PduPart part = body.getPart(i);
+                final Uri partUri = results[i].uri;
+                final String contentType = contentTypes[i];
+                writes.add(() -> {
+                    persistData(part, partUri, contentType, preOpenedFiles);
+                    return null;
+                });
+            }
+        }
+        if (writes.size() == 1) {
+            // Not worth a thread hop
+            try {
+                writes.get(0).call();
+            } catch (final MmsException e) {
+                throw e;
+            } catch (final Exception e) {
+                throw new MmsException(e);
+            }
+        } else if (writes.size() > 1) {
+            final List<Future<Void>> futures;
+            try {
+                futures = PART_WRITE_EXECUTOR.invokeAll(writes);
+            } catch (final InterruptedException e) {
+                throw new MmsException(e);
+            }
+            MmsException failure = null;
+            for (final Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (final ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof MmsException
+                                ? (MmsException) e.getCause() : new MmsException(e.getCause());
+                    }
+                } catch (final InterruptedException e) {
+                    if (failure == null) {
+                        failure = new MmsException(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
         }
-
-        persistData(part, res, contentType, preOpenedFiles);
         // After successfully store the data, we should update
-        // the dataUri of the part.
-        part.setDataUri(res);
+        // the dataUri of the parts.
+        for (int i = 0; i < partsNum; i++) {
+            body.getPart(i).setDataUri(results[i].uri);
+        }
 
-        return res;
+        if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+            final long endMs = SystemClock.elapsedRealtime();
+            LogUtil.d(TAG, "PduPersister.persistParts: " + partsNum + " parts, "
+                    + writes.size() + " files; values " + (valuesDoneMs - startMs)
+                    + "ms, batch insert " + (insertDoneMs - valuesDoneMs)
+                    + "ms, file writes " + (endMs - insertDoneMs) + "ms");
+        }
     }
 
     /**
@@ -1059,20 +1212,9 @@ public class PduPersister {
                             + "content://mms/temp."
             );
         }
-        synchronized (PDU_CACHE_INSTANCE) {
-            // If the cache item is getting updated, wait until it's done updating before
-            // purging it.
-            if (PDU_CACHE_INSTANCE.isUpdating(uri)) {
-                if (LOCAL_LOGV) {
-                    LogUtil.v(TAG, "persist: " + uri + " blocked by isUpdating()");
-                }
-                try {
-                    PDU_CACHE_INSTANCE.wait();
-                } catch (final InterruptedException e) {
-                    Log.e(TAG, "persist1: ", e);
-                }
-            }
-        }
+        // If the cache item is getting updated, wait until it's done updating before
+        // purging it.
+        PDU_CACHE_INSTANCE.waitForUpdate(uri);
         PDU_CACHE_INSTANCE.purge(uri);
 
         final PduHeaders header = pdu.getPduHeaders();
@@ -1197,9 +1339,9 @@ public class PduPersister {
                     // Otherwise, a slideshow with two text slides would be marked as textOnly.
                     textOnly = false;
                 }
+                persistParts(body, placeholderId, preOpenedFiles);
                 for (int i = 0; i < partsNum; i++) {
                     final PduPart part = body.getPart(i);
-                    persistPart(part, placeholderId, preOpenedFiles);
 
                     // If we've got anything besides text/plain or SMIL part, then we've got
                     // an mms message with some other type of attachment.
@@ -21,16 +21,34 @@ import android.content.ContentUris;
 import android.content.UriMatcher;
 import android.net.Uri;
 import android.provider.Telephony.Mms;
-import androidx.collection.SimpleArrayMap;
 import android.util.Log;
 import android.util.SparseArray;
 
-import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
-public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
+/**
+ * Cache of loaded PDUs keyed by their normalized message Uri.
+ *
+ * Entries live in a {@link ConcurrentHashMap} so that lookups and inserts do not contend on
+ * the cache as a whole, and the cache is bounded by the estimated byte size of its PDUs: when
+ * the bound is exceeded, the least recently accessed entries are evicted. Each Uri may also be
+ * flagged as updating while a PDU is being loaded or persisted for it; waiting on that flag only
+ * blocks callers interested in the same Uri.
+ */
+public final class PduCache {
     private static final String TAG = "PduCache";
     private static final boolean LOCAL_LOGV = false;
 
+    // Max estimated size of all cached PDUs
+    private static final long MAX_CACHE_BYTES = 4 * 1024 * 1024;
+    // When trimming, evict down to this fraction of the max so that trims are not repeated on
+    // every insert once the cache is full
+    private static final float TRIM_TARGET_RATIO = 0.75f;
+
     private static final int MMS_ALL             = 0;
     private static final int MMS_ALL_ID          = 1;
     private static final int MMS_INBOX           = 2;
@@ -71,14 +89,25 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
         MATCH_TO_MSGBOX_ID_MAP.put(MMS_OUTBOX, Mms.MESSAGE_BOX_OUTBOX);
     }
 
-    private final SparseArray<HashSet<Uri>> mMessageBoxes;
-    private final SimpleArrayMap<Long, HashSet<Uri>> mThreads;
-    private final HashSet<Uri> mUpdating;
+    private final ConcurrentHashMap<Uri, PduCacheEntry> mCacheMap;
+    private final ConcurrentHashMap<Integer, Set<Uri>> mMessageBoxes;
+    private final ConcurrentHashMap<Long, Set<Uri>> mThreads;
+    // Uris being updated, each with the latch released when the update is done
+    private final ConcurrentHashMap<Uri, CountDownLatch> mUpdating;
+    // Estimated size of all cached PDUs
+    private final AtomicLong mSizeBytes;
+    // Logical clock for access ordering
+    private final AtomicLong mAccessClock;
+    // Serializes eviction passes
+    private final Object mTrimLock = new Object();
 
     private PduCache() {
-        mMessageBoxes = new SparseArray<>();
-        mThreads = new SimpleArrayMap<>();
-        mUpdating = new HashSet<>();
+        mCacheMap = new ConcurrentHashMap<>();
+        mMessageBoxes = new ConcurrentHashMap<>();
+        mThreads = new ConcurrentHashMap<>();
+        mUpdating = new ConcurrentHashMap<>();
+        mSizeBytes = new AtomicLong();
+        mAccessClock = new AtomicLong();
     }
 
     public static synchronized PduCache getInstance() {
@@ -91,46 +120,104 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
         return sInstance;
     }
 
-    @Override
-    public synchronized boolean put(Uri uri, PduCacheEntry entry) {
-        int msgBoxId = entry.getMessageBox();
-        HashSet<Uri> msgBox = mMessageBoxes.get(msgBoxId);
-        if (msgBox == null) {
-            msgBox = new HashSet<>();
-            mMessageBoxes.put(msgBoxId, msgBox);
+    public boolean put(Uri uri, PduCacheEntry entry) {
+        final Uri finalKey = normalizeKey(uri);
+        boolean result = false;
+        if (finalKey != null) {
+            entry.setLastAccess(mAccessClock.incrementAndGet());
+            final PduCacheEntry previous = mCacheMap.put(finalKey, entry);
+            if (previous != null) {
+                onEntryRemoved(finalKey, previous);
+            }
+            mSizeBytes.addAndGet(entry.getSizeBytes());
+            getOrCreateKeySet(mMessageBoxes, entry.getMessageBox()).add(finalKey);
+            getOrCreateKeySet(mThreads, entry.getThreadId()).add(finalKey);
+            if (LOCAL_LOGV) {
+                Log.v(TAG, finalKey + " cached, " + mCacheMap.size() + " items total, "
+                        + mSizeBytes.get() + " bytes.");
+            }
+            trimToSize();
+            result = true;
         }
+        setUpdating(uri, false);
+        return result;
+    }
 
-        long threadId = entry.getThreadId();
-        HashSet<Uri> thread = mThreads.get(threadId);
-        if (thread == null) {
-            thread = new HashSet<>();
-            mThreads.put(threadId, thread);
+    public PduCacheEntry get(Uri uri) {
+        final Uri key = normalizeKey(uri);
+        if (key == null) {
+            return null;
         }
-
-        Uri finalKey = normalizeKey(uri);
-        boolean result = super.put(finalKey, entry);
-        if (result) {
-            msgBox.add(finalKey);
-            thread.add(finalKey);
+        final PduCacheEntry entry = mCacheMap.get(key);
+        if (entry != null) {
+            entry.setLastAccess(mAccessClock.incrementAndGet());
         }
-        setUpdating(uri, false);
-        return result;
+        return entry;
     }
 
-    public synchronized void setUpdating(Uri uri, boolean updating) {
+    public void setUpdating(Uri uri, boolean updating) {
         if (updating) {
-            mUpdating.add(uri);
+            mUpdating.putIfAbsent(uri, new CountDownLatch(1));
         } else {
-            mUpdating.remove(uri);
+            final CountDownLatch latch = mUpdating.remove(uri);
+            if (latch != null) {
+                latch.countDown();
+            }
         }
     }
 
-    public synchronized boolean isUpdating(Uri uri) {
-        return mUpdating.contains(uri);
+    public boolean isUpdating(Uri uri) {
+        return mUpdating.containsKey(uri);
     }
 
-    @Override
-    public synchronized PduCacheEntry purge(Uri uri) {
+    /**
+     * Block until no update is in progress for the given Uri. Updates of other Uris do not
+     * block the caller.
+     */
+    public void waitForUpdate(Uri uri) {
+        final CountDownLatch latch = mUpdating.get(uri);
+        if (latch != null) {
+            if (LOCAL_LOGV) {
+                Log.v(TAG, uri + " blocked by isUpdating()");
+            }
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "waitForUpdate: ", e);
+            }
+        }
+    }
+
+    /**
+     * Look up the entry for a Uri, waiting for any update in progress for it. If there is no
+     * entry, the Uri is atomically flagged as updating on behalf of the caller, who must then
+     * clear the flag with {@link #setUpdating} or {@link #put} once done.
+     *
+     * @return the cached entry, or null if the caller now owns the update of the Uri
+     */
+    public PduCacheEntry getOrStartUpdating(Uri uri) {
+        while (true) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final CountDownLatch existing = mUpdating.putIfAbsent(uri, latch);
+            if (existing == null) {
+                final PduCacheEntry entry = get(uri);
+                if (entry != null) {
+                    // Nothing to update after all
+                    mUpdating.remove(uri, latch);
+                    latch.countDown();
+                }
+                return entry;
+            }
+            try {
+                existing.await();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "getOrStartUpdating: ", e);
+                return get(uri);
+            }
+        }
+    }
+
+    public PduCacheEntry purge(Uri uri) {
         int match = URI_MATCHER.match(uri);
         switch (match) {
             case MMS_ALL_ID:
@@ -160,24 +247,30 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
         }
     }
 
+    // Purging leaves the updating flags alone: they belong to the loaders and persisters
+    // that set them, which always clear them when done.
     private PduCacheEntry purgeSingleEntry(Uri key) {
-        mUpdating.remove(key);
-        PduCacheEntry entry = super.purge(key);
-        if (entry != null) {
-            removeFromThreads(key, entry);
-            removeFromMessageBoxes(key, entry);
-            return entry;
+        return removeEntry(key);
+    }
+
+    public void purgeAll() {
+        if (LOCAL_LOGV) {
+            Log.v(TAG, "Purging cache, " + mCacheMap.size() + " items dropped.");
+        }
+        for (Uri key : mCacheMap.keySet()) {
+            removeEntry(key);
         }
-        return null;
     }
 
-    @Override
-    public synchronized void purgeAll() {
-        super.purgeAll();
+    public int size() {
+        return mCacheMap.size();
+    }
 
-        mMessageBoxes.clear();
-        mThreads.clear();
-        mUpdating.clear();
+    /**
+     * @return the estimated size in bytes of all cached PDUs
+     */
+    public long sizeBytes() {
+        return mSizeBytes.get();
     }
 
     /**
@@ -215,48 +308,88 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
         }
 
         if (msgBoxId != null) {
-            HashSet<Uri> msgBox = mMessageBoxes.get(msgBoxId);
-            mMessageBoxes.remove(msgBoxId);
+            final Set<Uri> msgBox = mMessageBoxes.remove(msgBoxId);
             if (msgBox != null) {
                 for (Uri key : msgBox) {
-                    mUpdating.remove(key);
-                    PduCacheEntry entry = super.purge(key);
-                    if (entry != null) {
-                        removeFromThreads(key, entry);
-                    }
+                    removeEntry(key);
                 }
             }
         }
     }
 
-    private void removeFromThreads(Uri key, PduCacheEntry entry) {
-        HashSet<Uri> thread = mThreads.get(entry.getThreadId());
-        if (thread != null) {
-            thread.remove(key);
-        }
-    }
-
     private void purgeByThreadId(long threadId) {
         if (LOCAL_LOGV) {
             Log.v(TAG, "Purge cache in thread: " + threadId);
         }
 
-        HashSet<Uri> thread = mThreads.remove(threadId);
+        final Set<Uri> thread = mThreads.remove(threadId);
         if (thread != null) {
             for (Uri key : thread) {
-                mUpdating.remove(key);
-                PduCacheEntry entry = super.purge(key);
-                if (entry != null) {
-                    removeFromMessageBoxes(key, entry);
+                removeEntry(key);
+            }
+        }
+    }
+
+    private PduCacheEntry removeEntry(Uri key) {
+        final PduCacheEntry entry = mCacheMap.remove(key);
+        if (entry != null) {
+            onEntryRemoved(key, entry);
+        }
+        return entry;
+    }
+
+    private void onEntryRemoved(Uri key, PduCacheEntry entry) {
+        mSizeBytes.addAndGet(-entry.getSizeBytes());
+        removeFromKeySet(mMessageBoxes, entry.getMessageBox(), key);
+        removeFromKeySet(mThreads, entry.getThreadId(), key);
+    }
+
+    /**
+     * Evict the least recently accessed entries until the cache fits in its byte budget
+     */
+    private void trimToSize() {
+        if (mSizeBytes.get() <= MAX_CACHE_BYTES) {
+            return;
+        }
+        synchronized (mTrimLock) {
+            final long targetBytes = (long) (MAX_CACHE_BYTES * TRIM_TARGET_RATIO);
+            while (mSizeBytes.get() > targetBytes) {
+                Uri oldestKey = null;
+                long oldestAccess = Long.MAX_VALUE;
+                for (Map.Entry<Uri, PduCacheEntry> e : mCacheMap.entrySet()) {
+                    final long lastAccess = e.getValue().getLastAccess();
+                    if (lastAccess < oldestAccess) {
+                        oldestAccess = lastAccess;
+                        oldestKey = e.getKey();
+                    }
+                }
+                if (oldestKey == null) {
+                    break;
+                }
+                if (LOCAL_LOGV) {
+                    Log.v(TAG, "Evicting " + oldestKey);
                 }
+                removeEntry(oldestKey);
+            }
+        }
+    }
+
+    private static <T> Set<Uri> getOrCreateKeySet(ConcurrentHashMap<T, Set<Uri>> map, T id) {
+        Set<Uri> keys = map.get(id);
+        if (keys == null) {
+            final Set<Uri> newKeys = ConcurrentHashMap.newKeySet();
+            keys = map.putIfAbsent(id, newKeys);
+            if (keys == null) {
+                keys = newKeys;
             }
         }
+        return keys;
     }
 
-    private void removeFromMessageBoxes(Uri key, PduCacheEntry entry) {
-        HashSet<Uri> msgBox = mThreads.get(Long.valueOf(entry.getMessageBox()));
-        if (msgBox != null) {
-            msgBox.remove(key);
+    private static <T> void removeFromKeySet(ConcurrentHashMap<T, Set<Uri>> map, T id, Uri key) {
+        final Set<Uri> keys = map.get(id);
+        if (keys != null) {
+            keys.remove(key);
         }
     }
 }
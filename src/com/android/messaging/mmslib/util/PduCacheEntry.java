@@ -18,16 +18,58 @@
 package com.android.messaging.mmslib.util;
 
 import com.android.messaging.mmslib.pdu.GenericPdu;
+import com.android.messaging.mmslib.pdu.MultimediaMessagePdu;
+import com.android.messaging.mmslib.pdu.PduBody;
+import com.android.messaging.mmslib.pdu.PduPart;
 
 public final class PduCacheEntry {
+    // Rough fixed cost of the PDU object, its headers and each of its parts
+    private static final int PDU_OVERHEAD_BYTES = 1024;
+    private static final int PART_OVERHEAD_BYTES = 256;
+
     private final GenericPdu mPdu;
     private final int mMessageBox;
     private final long mThreadId;
+    private final int mSizeBytes;
+    // Logical time of the last access, used to pick eviction victims
+    private volatile long mLastAccess;
 
     public PduCacheEntry(GenericPdu pdu, int msgBox, long threadId) {
         mPdu = pdu;
         mMessageBox = msgBox;
         mThreadId = threadId;
+        mSizeBytes = estimateSize(pdu);
+    }
+
+    /**
+     * Estimate the memory held by a PDU. Part data is only counted when it is held in memory;
+     * parts backed by a data Uri only cost their fixed overhead.
+     */
+    private static int estimateSize(GenericPdu pdu) {
+        int size = PDU_OVERHEAD_BYTES;
+        if (pdu instanceof MultimediaMessagePdu) {
+            final PduBody body = ((MultimediaMessagePdu) pdu).getBody();
+            if (body != null) {
+                for (int i = 0; i < body.getPartsNum(); i++) {
+                    final PduPart part = body.getPart(i);
+                    final byte[] data = part.getData();
+                    size += PART_OVERHEAD_BYTES + (data != null ? data.length : 0);
+                }
+            }
+        }
+        return size;
+    }
+
+    int getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    long getLastAccess() {
+        return mLastAccess;
+    }
+
+    void setLastAccess(long lastAccess) {
+        mLastAccess = lastAccess;
     }
 
     public GenericPdu getPdu() {
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.sms;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.android.messaging.datamodel.data.MessagePartData;
+import com.android.messaging.mmslib.pdu.PduPart;
+import com.android.messaging.util.ContentType;
+import com.android.messaging.util.ImageUtils;
+import com.android.messaging.util.LogUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fits the images of an outgoing MMS into the message size budget.
+ *
+ * Rather than giving every image the same share of the budget and shrinking images one at a
+ * time, the planner:
+ * <ol>
+ * <li>keeps images that already fit their share as they are, and charges GIFs (which are
+ *     transcoded rather than compressed to a target) at their current size,</li>
+ * <li>splits what is left of the budget between the other images in proportion to the number
+ *     of pixels they will have once scaled to the carrier dimension limits,</li>
+ * <li>resizes those images in parallel on a small bounded pool,</li>
+ * <li>and if the result still overshoots the budget, lowers the targets and only resizes
+ *     again the images that are above their new target.</li>
+ * </ol>
+ */
+class AttachmentBudgetPlanner {
+    private static final String TAG = LogUtil.BUGLE_TAG;
+
+    // Max number of images resized at the same time. Each resize may decode a large bitmap, so
+    // keep this small; each resize is given its share of the working memory.
+    private static final int MAX_CONCURRENT_RESIZES = 2;
+    private static final long RESIZE_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor RESIZE_EXECUTOR = new ThreadPoolExecutor(
+            MAX_CONCURRENT_RESIZES, MAX_CONCURRENT_RESIZES,
+            RESIZE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    static {
+        RESIZE_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * An image of the message and its plan
+     */
+    static class PlannedImage {
+        final MessagePartData mMessagePart;
+        final String mContentType;
+        final boolean mIsGif;
+        int mWidthLimit;
+        int mHeightLimit;
+        int mOrientation;
+        int mOriginalSize;
+        // Estimated pixel count once scaled to fit the dimension limits
+        long mTargetPixels;
+        // True if the image fits the limits as is and is sent unchanged
+        boolean mKeepOriginal;
+        int mByteLimit;
+        PduPart mPart;
+        int mSize;
+
+        PlannedImage(final MessagePartData messagePart, final String contentType) {
+            mMessagePart = messagePart;
+            mContentType = contentType;
+            mIsGif = ContentType.IMAGE_GIF.equals(contentType);
+        }
+
+        /**
+         * @return the part to add to the PDU, or null if the image could not be read
+         */
+        PduPart getPart() {
+            return mPart;
+        }
+
+        /**
+         * @return the size in bytes of the image data sent
+         */
+        int getSize() {
+            return mSize;
+        }
+    }
+
+    private final Context mContext;
+    private final int mWidthLimit;
+    private final int mHeightLimit;
+    private final List<PlannedImage> mImages = new ArrayList<>();
+
+    AttachmentBudgetPlanner(final Context context, final int widthLimit, final int heightLimit) {
+        mContext = context;
+        mWidthLimit = widthLimit;
+        mHeightLimit = heightLimit;
+    }
+
+    /**
+     * Add an image of the message
+     *
+     * @param messagePart the image part
+     * @param contentType the content type of the image, with image/* already resolved to GIF
+     *                    where needed
+     * @return the planned image, populated by {@link #fit}
+     */
+    PlannedImage addImage(final MessagePartData messagePart, final String contentType) {
+        final PlannedImage image = new PlannedImage(messagePart, contentType);
+        mImages.add(image);
+        return image;
+    }
+
+    /**
+     * Plan and produce the data of all the images so that they fit in the given budget
+     *
+     * @param byteBudget the number of bytes available for all the images
+     */
+    void fit(final int byteBudget) {
+        if (mImages.isEmpty()) {
+            return;
+        }
+        final long startMs = SystemClock.elapsedRealtime();
+        plan(byteBudget);
+        final List<PlannedImage> toResize = new ArrayList<>();
+        for (final PlannedImage image : mImages) {
+            if (!image.mKeepOriginal && image.mOriginalSize > 0) {
+                toResize.add(image);
+            }
+        }
+        resizeAll(toResize);
+        final int resizedCount = toResize.size();
+
+        // Refine: if we still overshoot, lower the targets of the compressible images and
+        // only resize again the ones that are above their new target
+        int refinedCount = 0;
+        final int total = getTotalSize();
+        if (total > byteBudget) {
+            final int compressibleTotal = getCompressibleSize();
+            final int overshoot = total - byteBudget;
+            if (compressibleTotal > overshoot) {
+                final double ratio = (compressibleTotal - overshoot) / (double) compressibleTotal;
+                toResize.clear();
+                for (final PlannedImage image : mImages) {
+                    if (!image.mIsGif && image.mSize > 0) {
+                        final int newLimit = Math.max(MmsUtils.MIN_IMAGE_BYTE_SIZE,
+                                (int) (image.mSize * ratio));
+                        if (image.mSize > newLimit) {
+                            image.mByteLimit = newLimit;
+                            image.mKeepOriginal = false;
+                            toResize.add(image);
+                        }
+                    }
+                }
+                resizeAll(toResize);
+                refinedCount = toResize.size();
+            }
+        }
+
+        if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+            LogUtil.d(TAG, "AttachmentBudgetPlanner: " + mImages.size() + " images, "
+                    + resizedCount + " resized, " + refinedCount + " refined, "
+                    + getTotalSize() + "/" + byteBudget + " bytes in "
+                    + (SystemClock.elapsedRealtime() - startMs) + "ms");
+        }
+    }
+
+    /**
+     * Compute the byte limit of each image in one pass over the images
+     */
+    private void plan(final int byteBudget) {
+        int fixedBytes = 0;
+        long totalPixels = 0;
+        for (final PlannedImage image : mImages) {
+            final Uri imageUri = image.mMessagePart.getContentUri();
+            final int width = image.mMessagePart.getWidth();
+            final int height = image.mMessagePart.getHeight();
+            image.mWidthLimit = mWidthLimit;
+            image.mHeightLimit = mHeightLimit;
+            // Swap the width and height limits to match the orientation of the image so we scale
+            // the picture as little as possible.
+            if ((height > width) != (mHeightLimit > mWidthLimit)) {
+                image.mWidthLimit = mHeightLimit;
+                image.mHeightLimit = mWidthLimit;
+            }
+            image.mOrientation = ImageUtils.getOrientation(mContext, imageUri);
+            image.mOriginalSize = MmsUtils.getDataLength(mContext, imageUri);
+            image.mTargetPixels = getTargetPixels(width, height,
+                    image.mWidthLimit, image.mHeightLimit);
+            if (image.mOriginalSize <= 0) {
+                LogUtil.e(TAG, "Can't get image", new Exception());
+                continue;
+            }
+            if (image.mIsGif) {
+                // GIFs are transcoded, not compressed to a target: charge them as they are
+                fixedBytes += image.mOriginalSize;
+                image.mKeepOriginal = fitsAsIs(image)
+                        && image.mOriginalSize <= byteBudget / mImages.size();
+            } else {
+                totalPixels += image.mTargetPixels;
+            }
+        }
+
+        // Images that fit their proportional share as they are keep their data; what they do
+        // not use goes to the others
+        int available = byteBudget - fixedBytes;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final PlannedImage image : mImages) {
+                if (image.mIsGif || image.mKeepOriginal || image.mOriginalSize <= 0) {
+                    continue;
+                }
+                final int share = getShare(available, image.mTargetPixels, totalPixels);
+                if (image.mOriginalSize <= share && fitsAsIs(image)) {
+                    image.mKeepOriginal = true;
+                    available -= image.mOriginalSize;
+                    totalPixels -= image.mTargetPixels;
+                    changed = true;
+                }
+            }
+        }
+        for (final PlannedImage image : mImages) {
+            if (image.mIsGif) {
+                image.mByteLimit = image.mOriginalSize;
+            } else if (!image.mKeepOriginal) {
+                image.mByteLimit = getShare(available, image.mTargetPixels, totalPixels);
+            }
+        }
+    }
+
+    private static int getShare(final int available, final long pixels, final long totalPixels) {
+        final int share = totalPixels > 0 ? (int) (available * (pixels / (double) totalPixels))
+                : available;
+        return Math.max(MmsUtils.MIN_IMAGE_BYTE_SIZE, share);
+    }
+
+    /**
+     * Estimate the pixel count of an image once scaled down to the dimension limits
+     */
+    private static long getTargetPixels(final int width, final int height,
+            final int widthLimit, final int heightLimit) {
+        if (width <= 0 || height <= 0) {
+            // Unknown size: assume it fills the limits
+            return (long) widthLimit * heightLimit;
+        }
+        final double scale = Math.min(1.0, Math.min(
+                widthLimit > 0 ? widthLimit / (double) width : 1.0,
+                heightLimit > 0 ? heightLimit / (double) height : 1.0));
+        return Math.max(1, (long) (width * scale) * (long) (height * scale));
+    }
+
+    private static boolean fitsAsIs(final PlannedImage image) {
+        final int width = image.mMessagePart.getWidth();
+        final int height = image.mMessagePart.getHeight();
+        return width <= image.mWidthLimit && height <= image.mHeightLimit &&
+                (image.mOrientation ==
+                        androidx.exifinterface.media.ExifInterface.ORIENTATION_UNDEFINED ||
+                image.mOrientation ==
+                        androidx.exifinterface.media.ExifInterface.ORIENTATION_NORMAL);
+    }
+
+    private void resizeAll(final List<PlannedImage> images) {
+        for (final PlannedImage image : mImages) {
+            if (image.mKeepOriginal && image.mPart == null) {
+                final PduPart part = new PduPart();
+                part.setDataUri(image.mMessagePart.getContentUri());
+                part.setContentType(image.mContentType.getBytes());
+                image.mPart = part;
+                image.mSize = image.mOriginalSize;
+            }
+        }
+        if (images.isEmpty()) {
+            return;
+        }
+        if (images.size() == 1) {
+            // Not worth a thread hop, and the resize can use all the working memory
+            resize(images.get(0), 1);
+            return;
+        }
+        final List<Callable<Void>> resizes = new ArrayList<>(images.size());
+        for (final PlannedImage image : images) {
+            resizes.add(() -> {
+                resize(image, MAX_CONCURRENT_RESIZES);
+                return null;
+            });
+        }
+        try {
+            for (final Future<Void> future : RESIZE_EXECUTOR.invokeAll(resizes)) {
+                future.get();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void resize(final PlannedImage image, final int concurrentResizes) {
+        final MessagePartData messagePart = image.mMessagePart;
+        final PduPart part = MmsUtils.getResizedImageAsPart(image.mWidthLimit,
+                image.mHeightLimit, image.mByteLimit, messagePart.getWidth(),
+                messagePart.getHeight(), image.mOrientation, messagePart.getContentUri(),
+                mContext, image.mContentType, concurrentResizes);
+        if (part == null) {
+            final OutOfMemoryError e = new OutOfMemoryError();
+            LogUtil.e(TAG, "Can't resize image: not enough memory?", e);
+            throw e;
+        }
+        image.mPart = part;
+        image.mSize = part.getData().length;
+    }
+
+    private int getTotalSize() {
+        int total = 0;
+        for (final PlannedImage image : mImages) {
+            total += image.mSize;
+        }
+        return total;
+    }
+
+    private int getCompressibleSize() {
+        int total = 0;
+        for (final PlannedImage image : mImages) {
+            if (!image.mIsGif) {
+                total += image.mSize;
+            }
+        }
+        return total;
+    }
+}
@@ -28,6 +28,7 @@ import android.database.sqlite.SQLiteException;
 import android.media.MediaMetadataRetriever;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.Telephony;
 import android.provider.Telephony.Mms;
 import android.provider.Telephony.Sms;
@@ -37,6 +38,7 @@ import android.text.TextUtils;
 
 import com.android.messaging.Factory;
 import com.android.messaging.R;
+import com.android.messaging.datamodel.BulkDeleter;
 import com.android.messaging.datamodel.MediaScratchFileProvider;
 import com.android.messaging.datamodel.action.DownloadMmsAction;
 import com.android.messaging.datamodel.action.SendMessageAction;
@@ -68,6 +70,7 @@ import com.android.messaging.util.EmailAddress;
 import com.android.messaging.util.ImageUtils;
 import com.android.messaging.util.ImageUtils.ImageResizer;
 import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.LoggingTimer;
 import com.android.messaging.util.MediaMetadataRetrieverWrapper;
 import com.android.messaging.util.PhoneUtils;
 import com.google.common.base.Joiner;
@@ -139,6 +142,8 @@ public class MmsUtils {
 
     // amount of space to leave in a MMS for text and overhead.
     private static final int MMS_MAX_SIZE_SLOP = 1024;
+    // Warn when preparing the PDU body of an outgoing message takes longer than this
+    private static final long SLOW_MAKE_PDU_BODY_MS = 2000;
     public static final long INVALID_TIMESTAMP = 0L;
     private static String[] sNoSubjectStrings;
 
@@ -287,6 +292,9 @@ public class MmsUtils {
             final int subId) {
         final PduBody pb = new PduBody();
 
+        final LoggingTimer timer = new LoggingTimer(TAG, "makePduBody", SLOW_MAKE_PDU_BODY_MS);
+        timer.start();
+
         // Compute data size requirements for this message: count up images and total size of
         // non-image attachments.
         int totalLength = 0;
@@ -303,17 +311,25 @@ public class MmsUtils {
                 }
             }
         }
-        final long minSize = countImage * MIN_IMAGE_BYTE_SIZE;
         final int byteBudget = MmsConfig.get(subId).getMaxMessageSize() - totalLength
                 - MMS_MAX_SIZE_SLOP;
-        final double budgetFactor =
-                minSize > 0 ? Math.max(1.0, byteBudget / ((double) minSize)) : 1;
-        final int bytesPerImage = (int) (budgetFactor * MIN_IMAGE_BYTE_SIZE);
         final int widthLimit = MmsConfig.get(subId).getMaxImageWidth();
         final int heightLimit = MmsConfig.get(subId).getMaxImageHeight();
 
-        // Actually add the attachments, shrinking images appropriately.
+        // Plan and shrink all the images up front so that they can be resized in parallel.
+        final AttachmentBudgetPlanner planner =
+                new AttachmentBudgetPlanner(context, widthLimit, heightLimit);
+        final List<AttachmentBudgetPlanner.PlannedImage> images = new ArrayList<>(countImage);
+        for (final MessagePartData part : message.getParts()) {
+            if (part.isAttachment() && ContentType.isImageType(part.getContentType())) {
+                images.add(planner.addImage(part, getImageContentType(part)));
+            }
+        }
+        planner.fit(byteBudget);
+
+        // Actually add the attachments.
         int index = 0;
+        int imageIndex = 0;
         totalLength = 0;
         boolean hasVisualAttachment = false;
         boolean hasNonVisualAttachment = false;
@@ -325,20 +341,15 @@ public class MmsUtils {
                 String contentType = part.getContentType();
                 final String extension = ContentType.getExtensionFromMimeType(contentType);
                 if (ContentType.isImageType(contentType)) {
+                    final AttachmentBudgetPlanner.PlannedImage image = images.get(imageIndex++);
                     if (extension != null) {
                         srcName = String.format("image%06d.%s", index, extension);
                     } else {
-                        // There's a good chance that if we selected the image from our media picker
-                        // the content type is image/*. Fix the content type here for gifs so that
-                        // we only need to open the input stream once. All other gif vs static image
-                        // checks will only have to do a string comparison which is much cheaper.
-                        final boolean isGif = ImageUtils.isGif(contentType, part.getContentUri());
-                        contentType = isGif ? ContentType.IMAGE_GIF : contentType;
+                        final boolean isGif = ContentType.IMAGE_GIF.equals(image.mContentType);
                         srcName = String.format(isGif ? "image%06d.gif" : "image%06d.jpg", index);
                     }
                     smilBody.append(String.format(sSmilImagePart, srcName));
-                    totalLength += addPicturePart(context, pb, index, part,
-                            widthLimit, heightLimit, bytesPerImage, srcName, contentType);
+                    totalLength += addPicturePart(pb, index, image, srcName);
                     hasVisualAttachment = true;
                 } else if (ContentType.isVideoType(contentType)) {
                     srcName = String.format("video%06d.%s", index,
@@ -390,9 +401,25 @@ public class MmsUtils {
         mmsInfo.mPduBody = pb;
         mmsInfo.mMessageSize = totalLength;
 
+        timer.stopAndLog();
         return mmsInfo;
     }
 
+    /**
+     * Get the content type to send an image with. There's a good chance that if we selected the
+     * image from our media picker the content type is image/*. Fix the content type here for
+     * gifs so that we only need to open the input stream once. All other gif vs static image
+     * checks will only have to do a string comparison which is much cheaper.
+     */
+    private static String getImageContentType(final MessagePartData part) {
+        final String contentType = part.getContentType();
+        if (ContentType.getExtensionFromMimeType(contentType) != null) {
+            return contentType;
+        }
+        return ImageUtils.isGif(contentType, part.getContentUri())
+                ? ContentType.IMAGE_GIF : contentType;
+    }
+
     private static int getMediaDurationMs(final Context context, final MessagePartData part,
             final int defaultDurationMs) {
         Assert.notNull(context);
@@ -443,72 +470,23 @@ public class MmsUtils {
         return part.getData().length;
     }
 
-    private static int addPicturePart(final Context context, final PduBody pb, final int index,
-            final MessagePartData messagePart, int widthLimit, int heightLimit,
-            final int maxPartSize, final String srcName, final String contentType) {
-        final Uri imageUri = messagePart.getContentUri();
-        final int width = messagePart.getWidth();
-        final int height = messagePart.getHeight();
-
-        // Swap the width and height limits to match the orientation of the image so we scale the
-        // picture as little as possible.
-        if ((height > width) != (heightLimit > widthLimit)) {
-            final int temp = widthLimit;
-            widthLimit = heightLimit;
-            heightLimit = temp;
-        }
-
-        final int orientation = ImageUtils.getOrientation(context, imageUri);
-        int imageSize = getDataLength(context, imageUri);
-        if (imageSize <= 0) {
-            LogUtil.e(TAG, "Can't get image", new Exception());
+    private static int addPicturePart(final PduBody pb, final int index,
+            final AttachmentBudgetPlanner.PlannedImage image, final String srcName) {
+        final PduPart part = image.getPart();
+        if (part == null) {
+            // The image could not be read, see AttachmentBudgetPlanner
             return 0;
         }
 
-        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-            LogUtil.v(TAG, "addPicturePart size: " + imageSize + " width: "
-                    + width + " widthLimit: " + widthLimit
-                    + " height: " + height
-                    + " heightLimit: " + heightLimit);
-        }
-
-        PduPart part;
-        // Check if we're already within the limits - in which case we don't need to resize.
-        // The size can be zero here, even when the media has content. See the comment in
-        // MediaModel.initMediaSize. Sometimes it'll compute zero and it's costly to read the
-        // whole stream to compute the size. When we call getResizedImageAsPart(), we'll correctly
-        // set the size.
-        if (imageSize <= maxPartSize &&
-                width <= widthLimit &&
-                height <= heightLimit &&
-                (orientation == androidx.exifinterface.media.ExifInterface.ORIENTATION_UNDEFINED ||
-                orientation == androidx.exifinterface.media.ExifInterface.ORIENTATION_NORMAL)) {
-            if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                LogUtil.v(TAG, "addPicturePart - already sized");
-            }
-            part = new PduPart();
-            part.setDataUri(imageUri);
-            part.setContentType(contentType.getBytes());
-        } else {
-            part = getResizedImageAsPart(widthLimit, heightLimit, maxPartSize,
-                    width, height, orientation, imageUri, context, contentType);
-            if (part == null) {
-                final OutOfMemoryError e = new OutOfMemoryError();
-                LogUtil.e(TAG, "Can't resize image: not enough memory?", e);
-                throw e;
-            }
-            imageSize = part.getData().length;
-        }
-
         setPartContentLocationAndId(part, srcName);
 
         pb.addPart(index, part);
 
         if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-            LogUtil.v(TAG, "addPicturePart size: " + imageSize);
+            LogUtil.v(TAG, "addPicturePart size: " + image.getSize());
         }
 
-        return imageSize;
+        return image.getSize();
     }
 
     private static void addPartForUri(final Context context, final PduBody pb,
@@ -600,7 +578,7 @@ public class MmsUtils {
         return sSmilTextOnly;
     }
 
-    private static int getDataLength(final Context context, final Uri uri) {
+    static int getDataLength(final Context context, final Uri uri) {
         InputStream is = null;
         try {
             is = context.getContentResolver().openInputStream(uri);
@@ -657,15 +635,18 @@ public class MmsUtils {
      *                    image
      * @param imageUri Uri to the image data
      * @param context Needed to open the image
+     * @param concurrentResizes The number of images being resized at the same time
      * @return A new PduPart containing the resized image data
      */
-    private static PduPart getResizedImageAsPart(final int widthLimit,
+    static PduPart getResizedImageAsPart(final int widthLimit,
             final int heightLimit, final int byteLimit, final int width, final int height,
-            final int orientation, final Uri imageUri, final Context context, final String contentType) {
+            final int orientation, final Uri imageUri, final Context context,
+            final String contentType, final int concurrentResizes) {
         final PduPart part = new PduPart();
 
         final byte[] data = ImageResizer.getResizedImageData(width, height, orientation,
-                widthLimit, heightLimit, byteLimit, imageUri, context, contentType);
+                widthLimit, heightLimit, byteLimit, imageUri, context, contentType,
+                concurrentResizes);
         if (data == null) {
             if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
                 LogUtil.v(TAG, "Resize image failed.");
@@ -1295,6 +1276,7 @@ public class MmsUtils {
      * @return Total number of messages deleted.
      */
     public static int deleteMessagesOlderThan(final long cutOffTimestampInMillis) {
+        final long startMs = SystemClock.elapsedRealtime();
         int deleted = 0;
         final ContentResolver resolver = Factory.get().getApplicationContext().getContentResolver();
         // Delete old SMS
@@ -1304,7 +1286,7 @@ public class MmsUtils {
                 getSmsTypeSelectionSql(),
                 Sms.DATE,
                 cutOffTimestampInMillis);
-        deleted += resolver.delete(Sms.CONTENT_URI, smsSelection, null/*selectionArgs*/);
+        deleted += deleteInBatches(resolver, Sms.CONTENT_URI, Sms._ID, smsSelection);
         // Delete old MMS
         final String mmsSelection = String.format(
                 Locale.US,
@@ -1312,7 +1294,53 @@ public class MmsUtils {
                 getMmsTypeSelectionSql(),
                 Mms.DATE,
                 cutOffTimestampInMillis / 1000L);
-        deleted += resolver.delete(Mms.CONTENT_URI, mmsSelection, null/*selectionArgs*/);
+        deleted += deleteInBatches(resolver, Mms.CONTENT_URI, Mms._ID, mmsSelection);
+        final long elapsedMs = SystemClock.elapsedRealtime() - startMs;
+        LogUtil.i(TAG, "MmsUtils: deleted " + deleted + " messages older than "
+                + cutOffTimestampInMillis + " in " + elapsedMs + "ms ("
+                + (deleted * 1000L / Math.max(1, elapsedMs)) + " rows/sec)");
+        return deleted;
+    }
+
+    /**
+     * Delete the messages matching the selection, {@link #MAX_IDS_PER_QUERY} at a time, so that
+     * each call holds the telephony database for a bounded time. Waits between batches while
+     * the bulk deletes are paused.
+     *
+     * @return the number of messages deleted
+     */
+    private static int deleteInBatches(final ContentResolver resolver, final Uri uri,
+            final String idColumn, final String selection) {
+        int deleted = 0;
+        while (true) {
+            BulkDeleter.get().waitWhilePaused();
+            final long[] ids = new long[MAX_IDS_PER_QUERY];
+            int count = 0;
+            final Cursor cursor = SqliteWrapper.query(Factory.get().getApplicationContext(),
+                    resolver, uri, new String[] { idColumn }, selection, null /*selectionArgs*/,
+                    idColumn + " ASC LIMIT " + MAX_IDS_PER_QUERY);
+            if (cursor == null) {
+                break;
+            }
+            try {
+                while (cursor.moveToNext() && count < ids.length) {
+                    ids[count++] = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (count == 0) {
+                break;
+            }
+            final int deletedForBatch = resolver.delete(uri,
+                    idColumn + " IN " + getSqlInOperand(count),
+                    getSqlInOperandArgs(ids, 0, count));
+            if (deletedForBatch == 0) {
+                // Nothing deletable left, don't loop on the same rows
+                break;
+            }
+            deleted += deletedForBatch;
+        }
         return deleted;
     }
 
@@ -2185,42 +2213,69 @@ public class MmsUtils {
         return prefs.getBoolean(deliveryReportKey, defaultValue);
     }
 
-    public static int sendSmsMessage(final String recipient, final String messageText,
+    /**
+     * Listener for the completion of {@link #sendSmsMessage}
+     */
+    public interface SmsSendListener {
+        /**
+         * @param status one of the MMS_REQUEST_* status
+         */
+        void onSmsSendComplete(int status);
+    }
+
+    /**
+     * Queue an SMS for sending on its subscription, the listener is called once it is sent,
+     * failed or timed out
+     */
+    public static void sendSmsMessage(final String recipient, final String messageText,
             final Uri requestUri, final int subId,
-            final String smsServiceCenter, final boolean requireDeliveryReport) {
-        final Context context = Factory.get().getApplicationContext();
+            final String smsServiceCenter, final boolean requireDeliveryReport,
+            final SmsSendListener listener) {
+        SmsSendScheduler.get().send(subId, recipient, messageText, smsServiceCenter,
+                requireDeliveryReport, requestUri, new SmsSender.SendCallback() {
+                    @Override
+                    public void onSendComplete(final SendResult result) {
+                        listener.onSmsSendComplete(getSmsSendStatus(result));
+                    }
+                });
+    }
+
+    /**
+     * Wait until all queued SMS have been sent, failed or timed out, from the job keeping the
+     * process alive meanwhile
+     */
+    public static void awaitSmsSendsIdle() {
+        SmsSendScheduler.get().awaitIdle();
+    }
+
+    /**
+     * @param result the result of the sending, null if it failed to start
+     * @return the MMS_REQUEST_* status of the sending
+     */
+    private static int getSmsSendStatus(final SendResult result) {
+        if (result == null) {
+            // Failed to start sending, already logged
+            return MMS_REQUEST_MANUAL_RETRY;
+        }
         int status = MMS_REQUEST_MANUAL_RETRY;
-        try {
-            // Send a single message
-            final SendResult result = SmsSender.sendMessage(
-                    context,
-                    subId,
-                    recipient,
-                    messageText,
-                    smsServiceCenter,
-                    requireDeliveryReport,
-                    requestUri);
-            if (!result.hasPending()) {
-                // not timed out, check failures
-                final int failureLevel = result.getHighestFailureLevel();
-                switch (failureLevel) {
-                    case SendResult.FAILURE_LEVEL_NONE:
-                        status = MMS_REQUEST_SUCCEEDED;
-                        break;
-                    case SendResult.FAILURE_LEVEL_TEMPORARY:
-                        status = MMS_REQUEST_AUTO_RETRY;
-                        LogUtil.e(TAG, "MmsUtils: SMS temporary failure");
-                        break;
-                    case SendResult.FAILURE_LEVEL_PERMANENT:
-                        LogUtil.e(TAG, "MmsUtils: SMS permanent failure");
-                        break;
-                }
-            } else {
-                // Timed out
-                LogUtil.e(TAG, "MmsUtils: sending SMS timed out");
+        if (!result.hasPending()) {
+            // not timed out, check failures
+            final int failureLevel = result.getHighestFailureLevel();
+            switch (failureLevel) {
+                case SendResult.FAILURE_LEVEL_NONE:
+                    status = MMS_REQUEST_SUCCEEDED;
+                    break;
+                case SendResult.FAILURE_LEVEL_TEMPORARY:
+                    status = MMS_REQUEST_AUTO_RETRY;
+                    LogUtil.e(TAG, "MmsUtils: SMS temporary failure");
+                    break;
+                case SendResult.FAILURE_LEVEL_PERMANENT:
+                    LogUtil.e(TAG, "MmsUtils: SMS permanent failure");
+                    break;
             }
-        } catch (final Exception e) {
-            LogUtil.e(TAG, "MmsUtils: failed to send SMS " + e, e);
+        } else {
+            // Timed out
+            LogUtil.e(TAG, "MmsUtils: sending SMS timed out");
         }
         return status;
     }
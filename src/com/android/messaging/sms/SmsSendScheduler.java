@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.sms;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.android.messaging.Factory;
+import com.android.messaging.datamodel.action.BackgroundWorkerService;
+import com.android.messaging.sms.SmsSender.SendCallback;
+import com.android.messaging.sms.SmsSender.SendResult;
+import com.android.messaging.util.BugleGservicesKeys;
+import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.ThreadUtil;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pipelines SMS sends per subscription.
+ *
+ * Up to {@link BugleGservicesKeys#SMS_MAX_OUTSTANDING_SENDS_DEFAULT} messages per subscription
+ * are handed to the platform before their sent results come back, and no more than
+ * {@link BugleGservicesKeys#SMS_MAX_SENDS_PER_MINUTE_DEFAULT} per minute. Further sends are
+ * queued in order. The results of the parts are tracked asynchronously by {@link SmsSender}, so
+ * no thread waits on them. The send rate and the time taken to drain the queue are logged each
+ * time the queue of a subscription empties.
+ *
+ * The action queueing a send completes before it is sent, so a wake lock is held while any
+ * send is queued or outstanding, and a job is started with
+ * {@link BackgroundWorkerService#keepSmsSendsAlive} that waits with {@link #awaitIdle} until all
+ * sends have completed or timed out, so that the process isn't frozen or killed meanwhile.
+ */
+class SmsSendScheduler {
+    private static final String TAG = LogUtil.BUGLE_TAG;
+
+    private static final long RATE_WINDOW_MS = 60 * 1000L;
+
+    private static SmsSendScheduler sInstance;
+
+    private static class Request {
+        final int mSubId;
+        final String mDest;
+        final String mMessage;
+        final String mServiceCenter;
+        final boolean mRequireDeliveryReport;
+        final Uri mMessageUri;
+        final SendCallback mCallback;
+
+        Request(final int subId, final String dest, final String message,
+                final String serviceCenter, final boolean requireDeliveryReport,
+                final Uri messageUri, final SendCallback callback) {
+            mSubId = subId;
+            mDest = dest;
+            mMessage = message;
+            mServiceCenter = serviceCenter;
+            mRequireDeliveryReport = requireDeliveryReport;
+            mMessageUri = messageUri;
+            mCallback = callback;
+        }
+    }
+
+    /**
+     * Sends of a single subscription
+     */
+    private static class SubscriptionQueue {
+        final ArrayDeque<Request> mPending = new ArrayDeque<>();
+        // Start times of the sends within the last rate window
+        final ArrayDeque<Long> mSendTimes = new ArrayDeque<>();
+        int mOutstanding;
+        boolean mPumpScheduled;
+        // When the queue last went from idle to busy, and sends completed since then
+        long mBusySinceMs;
+        int mCompletedSinceBusy;
+
+        boolean isIdle() {
+            return mPending.isEmpty() && mOutstanding == 0;
+        }
+    }
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final SparseArray<SubscriptionQueue> mQueues = new SparseArray<>();
+    private final PowerManager.WakeLock mWakeLock;
+    private int mBusyCount;
+    // Whether a keep alive job was requested and hasn't started waiting yet
+    private boolean mKeepAlivePending;
+
+    static synchronized SmsSendScheduler get() {
+        if (sInstance == null) {
+            sInstance = new SmsSendScheduler(Factory.get().getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SmsSendScheduler(final Context context) {
+        mContext = context;
+        final HandlerThread thread = new HandlerThread("SmsSendScheduler");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        final PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "SmsSendScheduler");
+        mWakeLock.setReferenceCounted(false);
+    }
+
+    /**
+     * Queue a message for sending, see {@link SmsSender#sendMessage}. The callback is invoked
+     * on the main thread, with a null result if the message could not be handed to the platform.
+     */
+    void send(final int subId, final String dest, final String message,
+            final String serviceCenter, final boolean requireDeliveryReport,
+            final Uri messageUri, final SendCallback callback) {
+        final Request request = new Request(subId, dest, message, serviceCenter,
+                requireDeliveryReport, messageUri, callback);
+        boolean startKeepAlive = false;
+        synchronized (this) {
+            SubscriptionQueue queue = mQueues.get(subId);
+            if (queue == null) {
+                queue = new SubscriptionQueue();
+                mQueues.put(subId, queue);
+            }
+            if (queue.isIdle()) {
+                queue.mBusySinceMs = SystemClock.elapsedRealtime();
+                queue.mCompletedSinceBusy = 0;
+                if (mBusyCount++ == 0) {
+                    mWakeLock.acquire();
+                    if (!mKeepAlivePending) {
+                        mKeepAlivePending = true;
+                        startKeepAlive = true;
+                    }
+                }
+            }
+            queue.mPending.add(request);
+            schedulePumpLocked(subId, queue, 0);
+        }
+        if (startKeepAlive) {
+            BackgroundWorkerService.keepSmsSendsAlive(mContext);
+        }
+    }
+
+    /**
+     * Wait until no send is queued or outstanding, from the job started when sends get queued
+     */
+    void awaitIdle() {
+        boolean interrupted = false;
+        synchronized (this) {
+            // Sends queued from now on while idle need a new job
+            mKeepAlivePending = false;
+            while (mBusyCount > 0) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void schedulePumpLocked(final int subId, final SubscriptionQueue queue,
+            final long delayMs) {
+        if (queue.mPumpScheduled) {
+            return;
+        }
+        queue.mPumpScheduled = true;
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                pump(subId);
+            }
+        }, delayMs);
+    }
+
+    /**
+     * Start as many queued sends of the subscription as the limits allow
+     */
+    private void pump(final int subId) {
+        while (true) {
+            final Request request;
+            synchronized (this) {
+                final SubscriptionQueue queue = mQueues.get(subId);
+                queue.mPumpScheduled = false;
+                if (queue.mPending.isEmpty() || queue.mOutstanding
+                        >= BugleGservicesKeys.SMS_MAX_OUTSTANDING_SENDS_DEFAULT) {
+                    // Pumped again as sends complete
+                    return;
+                }
+                final long now = SystemClock.elapsedRealtime();
+                while (!queue.mSendTimes.isEmpty()
+                        && queue.mSendTimes.peekFirst() <= now - RATE_WINDOW_MS) {
+                    queue.mSendTimes.removeFirst();
+                }
+                if (queue.mSendTimes.size()
+                        >= BugleGservicesKeys.SMS_MAX_SENDS_PER_MINUTE_DEFAULT) {
+                    final long delayMs = queue.mSendTimes.peekFirst() + RATE_WINDOW_MS - now;
+                    LogUtil.i(TAG, "SmsSendScheduler: rate limit reached for subId " + subId
+                            + ", " + queue.mPending.size() + " sends delayed by " + delayMs + "ms");
+                    schedulePumpLocked(subId, queue, delayMs);
+                    return;
+                }
+                request = queue.mPending.removeFirst();
+                queue.mSendTimes.addLast(now);
+                queue.mOutstanding++;
+            }
+            start(request);
+        }
+    }
+
+    private void start(final Request request) {
+        try {
+            SmsSender.sendMessage(mContext, request.mSubId, request.mDest, request.mMessage,
+                    request.mServiceCenter, request.mRequireDeliveryReport, request.mMessageUri,
+                    new SendCallback() {
+                        @Override
+                        public void onSendComplete(final SendResult result) {
+                            onComplete(request, result);
+                        }
+                    });
+        } catch (final Exception e) {
+            LogUtil.e(TAG, "SmsSendScheduler: failed to send SMS " + e, e);
+            // Callbacks are invoked on the main thread, like the sent results
+            ThreadUtil.getMainThreadHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    onComplete(request, null);
+                }
+            });
+        }
+    }
+
+    private void onComplete(final Request request, final SendResult result) {
+        final int subId = request.mSubId;
+        synchronized (this) {
+            final SubscriptionQueue queue = mQueues.get(subId);
+            queue.mOutstanding--;
+            queue.mCompletedSinceBusy++;
+            if (queue.isIdle()) {
+                final long drainMs = SystemClock.elapsedRealtime() - queue.mBusySinceMs;
+                LogUtil.i(TAG, "SmsSendScheduler: drained " + queue.mCompletedSinceBusy
+                        + " sends for subId " + subId + " in " + drainMs + "ms ("
+                        + (queue.mCompletedSinceBusy * RATE_WINDOW_MS / Math.max(1, drainMs))
+                        + " sends/min)");
+                if (--mBusyCount == 0) {
+                    mWakeLock.release();
+                    notifyAll();
+                }
+            } else {
+                schedulePumpLocked(subId, queue, 0);
+            }
+        }
+        request.mCallback.onSendComplete(result);
+    }
+}
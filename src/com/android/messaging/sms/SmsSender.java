@@ -21,7 +21,6 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
-import android.os.SystemClock;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.SmsManager;
 import android.text.TextUtils;
@@ -35,6 +34,7 @@ import com.android.messaging.util.Assert;
 import com.android.messaging.util.BugleGservicesKeys;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.PhoneUtils;
+import com.android.messaging.util.ThreadUtil;
 import com.android.messaging.util.UiUtils;
 
 import java.util.ArrayList;
@@ -44,10 +44,10 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * Class that sends chat message via SMS.
  *
- * The interface emulates a blocking sending similar to making an HTTP request.
- * It calls the SmsManager to send a (potentially multipart) message and waits
- * on the sent status on each part. The waiting has a timeout so it won't wait
- * forever. Once the sent status of all parts received, the call returns.
+ * It calls the SmsManager to send a (potentially multipart) message and tracks
+ * the sent status of each part as it comes back, without blocking the caller.
+ * The tracking has a timeout so it won't wait forever. Once the sent status of
+ * all parts is received (or the timeout expires), the callback is invoked.
  * A successful sending requires success status for all parts. Otherwise, we
  * pick the highest level of failure as the error for the whole message, which
  * is used to determine if we need to retry the sending.
@@ -65,6 +65,17 @@ public class SmsSender {
 
     private static final Random RANDOM = new Random();
 
+    /**
+     * Callback for the completion of a message sending
+     */
+    public interface SendCallback {
+        /**
+         * Called on the main thread once the sent status of all parts is received, or the
+         * sending timed out, in which case the result still has pending parts
+         */
+        void onSendComplete(SendResult result);
+    }
+
     /**
      * Class that holds the sent status for all parts of a multipart message sending
      */
@@ -80,6 +91,8 @@ public class SmsSender {
         private int mPendingParts;
         // Tracking the highest level of failure among all parts
         private int mHighestFailureLevel;
+        // Notified once, when all parts completed or on timeout
+        private SendCallback mCallback;
 
         public SendResult(final int numOfParts) {
             Assert.isTrue(numOfParts > 0);
@@ -155,11 +168,13 @@ public class SmsSender {
         if (requestId != null) {
             final SendResult result = sPendingMessageMap.get(requestId);
             if (result != null) {
+                final boolean completed;
                 synchronized (result) {
                     result.setPartResult(resultCode);
-                    if (!result.hasPending()) {
-                        result.notifyAll();
-                    }
+                    completed = !result.hasPending();
+                }
+                if (completed) {
+                    complete(requestId, result);
                 }
             } else {
                 LogUtil.e(TAG, "SmsSender: ignoring sent result. " + " requestId=" + requestId
@@ -178,10 +193,12 @@ public class SmsSender {
         }
     }
 
-    // This should be called from a RequestWriter queue thread
-    public static SendResult sendMessage(final Context context, final int subId, String dest,
+    /**
+     * Send a message, the callback is invoked once the sent status of all its parts is known
+     */
+    public static void sendMessage(final Context context, final int subId, String dest,
             String message, final String serviceCenter, final boolean requireDeliveryReport,
-            final Uri messageUri) throws Exception {
+            final Uri messageUri, final SendCallback callback) throws Exception {
         if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
             LogUtil.v(TAG, "SmsSender: sending message. " +
                     "dest=" + dest + " message=" + message +
@@ -217,35 +234,45 @@ public class SmsSender {
         }
         // Prepare the send result, which collects the send status for each part
         final SendResult pendingResult = new SendResult(messages.size());
+        pendingResult.mCallback = callback;
         sPendingMessageMap.put(messageUri, pendingResult);
         // Actually send the sms
-        sendInternal(
-                context, subId, dest, messages, serviceCenter, requireDeliveryReport, messageUri);
-        // Wait for pending intent to come back
-        synchronized (pendingResult) {
-            final long smsSendTimeoutInMillis =
-                    BugleGservicesKeys.SMS_SEND_TIMEOUT_IN_MILLIS_DEFAULT;
-            final long beginTime = SystemClock.elapsedRealtime();
-            long waitTime = smsSendTimeoutInMillis;
-            // We could possibly be woken up while still pending
-            // so make sure we wait the full timeout period unless
-            // we have the send results of all parts.
-            while (pendingResult.hasPending() && waitTime > 0) {
-                try {
-                    pendingResult.wait(waitTime);
-                } catch (final InterruptedException e) {
-                    LogUtil.e(TAG, "SmsSender: sending wait interrupted");
+        try {
+            sendInternal(context, subId, dest, messages, serviceCenter, requireDeliveryReport,
+                    messageUri);
+        } catch (final Exception e) {
+            sPendingMessageMap.remove(messageUri, pendingResult);
+            throw e;
+        }
+        // Give up on the parts whose sent status doesn't come back in time
+        ThreadUtil.getMainThreadHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (complete(messageUri, pendingResult)) {
+                    LogUtil.e(TAG, "SmsSender: sending timed out. requestId=" + messageUri
+                            + " result=" + pendingResult);
                 }
-                waitTime = smsSendTimeoutInMillis - (SystemClock.elapsedRealtime() - beginTime);
             }
-        }
+        }, BugleGservicesKeys.SMS_SEND_TIMEOUT_IN_MILLIS_DEFAULT);
+    }
+
+    /**
+     * Stop tracking a sending and notify its callback, unless already done
+     * @return true if the sending was still tracked
+     */
+    private static boolean complete(final Uri requestId, final SendResult result) {
         // Either we timed out or have all the results (success or failure)
-        sPendingMessageMap.remove(messageUri);
+        if (!sPendingMessageMap.remove(requestId, result)) {
+            return false;
+        }
         if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-            LogUtil.v(TAG, "SmsSender: sending completed. " +
-                    "dest=" + dest + " message=" + message + " result=" + pendingResult);
+            LogUtil.v(TAG, "SmsSender: sending completed. requestId=" + requestId
+                    + " result=" + result);
+        }
+        if (result.mCallback != null) {
+            result.mCallback.onSendComplete(result);
         }
-        return pendingResult;
+        return true;
     }
 
     // Actually sending the message using SmsManager
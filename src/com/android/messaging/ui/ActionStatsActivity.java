@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.ui;
+
+import android.app.Activity;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import com.android.messaging.datamodel.action.ActionServiceImpl;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Debug activity showing the action latency histograms, e.g. with
+ * adb shell am start -n com.android.messaging/.ui.ActionStatsActivity
+ */
+public class ActionStatsActivity extends Activity {
+    private static final int PADDING_DP = 16;
+
+    @Override
+    public void onCreate(final Bundle bundle) {
+        super.onCreate(bundle);
+        final TextView textView = new TextView(this);
+        textView.setTypeface(Typeface.MONOSPACE);
+        textView.setTextIsSelectable(true);
+        final int padding = (int) (PADDING_DP * getResources().getDisplayMetrics().density);
+        textView.setPadding(padding, padding, padding, padding);
+        final ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(textView);
+        setContentView(scrollView);
+
+        final StringWriter stats = new StringWriter();
+        final PrintWriter writer = new PrintWriter(stats);
+        ActionServiceImpl.dumpStats(writer);
+        writer.flush();
+        textView.setText(stats.toString());
+    }
+}
@@ -435,8 +435,8 @@ public class AsyncImageView extends ImageView implements MediaResourceLoadListen
          * Called by the consumer of this view to delay loading images
          */
         public void onDelayLoading() {
-            // Don't need to explicitly tell the AsyncImageView to stop loading since
-            // ImageRequests are not cancellable.
+            // Don't need to explicitly tell the AsyncImageView to stop loading since requests
+            // already started are cancelled when their view is unbound.
             mShouldDelayLoad = true;
         }
 
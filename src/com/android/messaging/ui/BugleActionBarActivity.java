@@ -25,6 +25,7 @@ import android.view.MenuItem;
 import android.view.View;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
 
@@ -34,7 +35,12 @@ import com.android.messaging.util.ImeUtil;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.UiUtils;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -106,6 +112,25 @@ public class BugleActionBarActivity extends AppCompatActivity implements ImeUtil
         }
     }
 
+    /**
+     * Dump the activity along with the frame timings of the process, or only the frame timings
+     * as CSV (see {@link FrameMetricsTracker})
+     */
+    @Override
+    public void dump(@NonNull final String prefix, @Nullable final FileDescriptor fd,
+            @NonNull final PrintWriter writer, @Nullable final String[] args) {
+        final List<String> argList = args == null ? Collections.emptyList() : Arrays.asList(args);
+        if (argList.contains(FrameMetricsTracker.ARG_CSV)) {
+            FrameMetricsTracker.dump(prefix, writer, true /* csv */);
+        } else {
+            super.dump(prefix, fd, writer, args);
+            FrameMetricsTracker.dump(prefix, writer, false /* csv */);
+        }
+        if (argList.contains(FrameMetricsTracker.ARG_RESET)) {
+            FrameMetricsTracker.reset();
+        }
+    }
+
     @Override
     protected void onStop() {
         super.onStop();
@@ -23,15 +23,25 @@ import android.database.DataSetObserver;
 import android.os.Handler;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import android.util.Log;
 import android.view.ViewGroup;
 import android.widget.FilterQueryProvider;
 
+import com.android.messaging.datamodel.DiffingCursor;
+import com.android.messaging.util.LogUtil;
+
 /**
  * Copy of CursorAdapter suited for RecyclerView.
  *
+ * When the swapped in cursor is a {@link DiffingCursor} computed against the current one, only
+ * the rows it reports as inserted, removed, moved or changed are notified, so that unchanged
+ * rows are not rebound and item animations run. Other cursor changes notify the whole data set.
+ *
  * TODO: BUG 16327984. Replace this with a framework supported CursorAdapter for
  * RecyclerView when one is available.
  */
@@ -78,6 +88,45 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
      */
     protected FilterQueryProvider mFilterQueryProvider;
 
+    private static final String TAG = LogUtil.BUGLE_TAG;
+
+    // Rows bound since the last cursor swap, and the notifications of that swap, logged on the
+    // next swap to measure the cost of each update
+    private int mBindCount;
+    private String mLastUpdate = "none";
+    private int mInsertedCount;
+    private int mRemovedCount;
+    private int mMovedCount;
+    private int mChangedCount;
+    private final ListUpdateCallback mUpdateCallback = new ListUpdateCallback() {
+        private final AdapterListUpdateCallback mAdapterCallback =
+                new AdapterListUpdateCallback(CursorRecyclerAdapter.this);
+
+        @Override
+        public void onInserted(final int position, final int count) {
+            mInsertedCount += count;
+            mAdapterCallback.onInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(final int position, final int count) {
+            mRemovedCount += count;
+            mAdapterCallback.onRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(final int fromPosition, final int toPosition) {
+            mMovedCount++;
+            mAdapterCallback.onMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(final int position, final int count, final Object payload) {
+            mChangedCount += count;
+            mAdapterCallback.onChanged(position, count, payload);
+        }
+    };
+
     /**
      * If set the adapter will call requery() on the cursor whenever a content change
      * notification is delivered. Implies {@link #FLAG_REGISTER_CONTENT_OBSERVER}.
@@ -203,6 +252,7 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
         if (!mCursor.moveToPosition(position)) {
             throw new IllegalStateException("couldn't move cursor to position " + position);
         }
+        mBindCount++;
         bindViewHolder(holder, mContext, mCursor);
     }
     /**
@@ -263,18 +313,47 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
                 newCursor.registerDataSetObserver(mDataSetObserver);
             }
             mRowIDColumn = newCursor.getColumnIndexOrThrow("_id");
+            final DiffingCursor newDiffingCursor = DiffingCursor.find(newCursor);
+            final DiffUtil.DiffResult diff = mDataValid && newDiffingCursor != null
+                    ? newDiffingCursor.getDiffFrom(DiffingCursor.find(oldCursor)) : null;
             mDataValid = true;
-            // notify the observers about the new cursor
-            notifyDataSetChanged();
+            logUpdate();
+            if (diff != null) {
+                // notify the observers about the changed rows only
+                diff.dispatchUpdatesTo(mUpdateCallback);
+                mLastUpdate = "inserted=" + mInsertedCount + " removed=" + mRemovedCount
+                        + " moved=" + mMovedCount + " changed=" + mChangedCount;
+            } else {
+                mLastUpdate = "data set changed";
+                // notify the observers about the new cursor
+                notifyDataSetChanged();
+            }
         } else {
             mRowIDColumn = -1;
             mDataValid = false;
+            logUpdate();
+            mLastUpdate = "data set changed";
             // notify the observers about the lack of a data set
             notifyDataSetChanged();
         }
         return oldCursor;
     }
 
+    /**
+     * Log the rows bound after the previous update, and reset the counts for the next one
+     */
+    private void logUpdate() {
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, getClass().getSimpleName() + ": " + mBindCount
+                    + " binds after update (" + mLastUpdate + ")");
+        }
+        mBindCount = 0;
+        mInsertedCount = 0;
+        mRemovedCount = 0;
+        mMovedCount = 0;
+        mChangedCount = 0;
+    }
+
     /**
      * <p>Converts the cursor into a CharSequence. Subclasses should override this
      * method to convert their results. The default implementation returns an
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.ui;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import com.android.messaging.util.LatencyHistogram;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects the frame timings of the window of a screen while it is resumed, from
+ * {@link Window#addOnFrameMetricsAvailableListener}: the number of frames, the share of janky
+ * frames (which missed their deadline) and the frame time percentiles, within 1/8.
+ *
+ * Frames are counted separately for each interaction: scrolling, composing (frames within a
+ * second of a change to the compose text) and anything else. The stats of the process are
+ * printed when dumping its activities, e.g. with
+ *  adb shell dumpsys activity com.android.messaging/.ui.conversationlist.ConversationListActivity
+ * which also takes {@link #ARG_CSV} and {@link #ARG_RESET} (see tools/scrollbench).
+ */
+public class FrameMetricsTracker implements Window.OnFrameMetricsAvailableListener {
+    /** Dump argument to print the stats as CSV, without the rest of the activity dump */
+    public static final String ARG_CSV = "--frames-csv";
+    /** Dump argument to clear the stats once printed */
+    public static final String ARG_RESET = "--frames-reset";
+
+    private static final String SECTION_SCROLL = "scroll";
+    private static final String SECTION_COMPOSE = "compose";
+    private static final String SECTION_OTHER = "other";
+    private static final long COMPOSE_FRAMES_NS = 1000 * 1000 * 1000L;
+
+    /**
+     * Frame stats of a screen and interaction
+     */
+    private static class FrameStats {
+        // Frame durations in microseconds
+        private final LatencyHistogram mFrameTimes = new LatencyHistogram();
+        private long mJankyFrameCount;
+
+        synchronized void record(final long durationNs, final boolean janky) {
+            mFrameTimes.record(durationNs / 1000);
+            if (janky) {
+                mJankyFrameCount++;
+            }
+        }
+
+        synchronized long getJankyFrameCount() {
+            return mJankyFrameCount;
+        }
+    }
+
+    // Keyed by screen and interaction, in the order of their first frame
+    private static final Map<String, FrameStats> sStats = new LinkedHashMap<>();
+    private static long sDroppedReportCount;
+    private static Handler sHandler;
+
+    private final String mScreenName;
+    private Window mWindow;
+    // Bounds of the last scroll, in System.nanoTime() like the frame timestamps
+    private volatile long mScrollStartNs = Long.MAX_VALUE;
+    private volatile long mScrollEndNs = Long.MAX_VALUE;
+    // 0 until the compose text changes
+    private volatile long mLastComposeInputNs;
+
+    /**
+     * @param screenName the name the frames of the screen are reported under
+     */
+    public FrameMetricsTracker(final String screenName) {
+        mScreenName = screenName;
+    }
+
+    /**
+     * Start collecting the frames of the window, e.g. when the screen is resumed
+     */
+    public void start(final Window window) {
+        if (mWindow == null) {
+            mWindow = window;
+            mWindow.addOnFrameMetricsAvailableListener(this, getHandler());
+        }
+    }
+
+    public void stop() {
+        if (mWindow != null) {
+            mWindow.removeOnFrameMetricsAvailableListener(this);
+            mWindow = null;
+        }
+    }
+
+    /**
+     * Report a change of the scroll state of the screen's main list
+     */
+    public void setScrolling(final boolean scrolling) {
+        if (scrolling) {
+            mScrollEndNs = Long.MAX_VALUE;
+            mScrollStartNs = System.nanoTime();
+        } else {
+            mScrollEndNs = System.nanoTime();
+        }
+    }
+
+    /**
+     * Report a change to the compose text
+     */
+    public void onComposeInput() {
+        mLastComposeInputNs = System.nanoTime();
+    }
+
+    @Override
+    public void onFrameMetricsAvailable(final Window window, final FrameMetrics frameMetrics,
+            final int dropCountSinceLastInvocation) {
+        if (frameMetrics.getMetric(FrameMetrics.FIRST_DRAW_FRAME) != 0) {
+            // Part of starting the screen rather than of an interaction
+            return;
+        }
+        final long vsyncNs = frameMetrics.getMetric(FrameMetrics.INTENDED_VSYNC_TIMESTAMP);
+        final long durationNs = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        final boolean janky = durationNs > frameMetrics.getMetric(FrameMetrics.DEADLINE);
+        final String section;
+        if (vsyncNs >= mScrollStartNs && vsyncNs <= mScrollEndNs) {
+            section = SECTION_SCROLL;
+        } else if (mLastComposeInputNs != 0
+                && vsyncNs - mLastComposeInputNs < COMPOSE_FRAMES_NS) {
+            section = SECTION_COMPOSE;
+        } else {
+            section = SECTION_OTHER;
+        }
+        getStats(mScreenName + "," + section).record(durationNs, janky);
+        if (dropCountSinceLastInvocation > 0) {
+            synchronized (sStats) {
+                sDroppedReportCount += dropCountSinceLastInvocation;
+            }
+        }
+    }
+
+    private static FrameStats getStats(final String key) {
+        synchronized (sStats) {
+            FrameStats stats = sStats.get(key);
+            if (stats == null) {
+                stats = new FrameStats();
+                sStats.put(key, stats);
+            }
+            return stats;
+        }
+    }
+
+    private static synchronized Handler getHandler() {
+        if (sHandler == null) {
+            final HandlerThread thread =
+                    new HandlerThread("FrameMetrics", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+
+    /**
+     * Print the frame stats of the process, as text or as CSV with a header line
+     */
+    public static void dump(final String prefix, final PrintWriter writer, final boolean csv) {
+        synchronized (sStats) {
+            if (csv) {
+                writer.println("screen,interaction,frames,janky_frames,jank_percent,"
+                        + "p50_ms,p95_ms,p99_ms,max_ms");
+            } else {
+                writer.println(prefix + "Frame timings (dropped reports: " + sDroppedReportCount
+                        + "):");
+                if (sStats.isEmpty()) {
+                    writer.println(prefix + "  none");
+                }
+            }
+            for (final Map.Entry<String, FrameStats> entry : sStats.entrySet()) {
+                final FrameStats stats = entry.getValue();
+                final LatencyHistogram frameTimes = stats.mFrameTimes;
+                final long frameCount = frameTimes.getTotalCount();
+                final long jankyFrameCount = stats.getJankyFrameCount();
+                final Object[] values = new Object[] {
+                    frameCount, jankyFrameCount,
+                    frameCount > 0 ? 100.0 * jankyFrameCount / frameCount : 0.0,
+                    frameTimes.getPercentile(50) / 1000.0,
+                    frameTimes.getPercentile(95) / 1000.0,
+                    frameTimes.getPercentile(99) / 1000.0,
+                    frameTimes.getMax() / 1000.0
+                };
+                if (csv) {
+                    writer.println(entry.getKey() + String.format(Locale.US,
+                            ",%d,%d,%.2f,%.2f,%.2f,%.2f,%.2f", values));
+                } else {
+                    writer.println(prefix + "  " + entry.getKey().replace(',', ' ')
+                            + String.format(Locale.US, ": frames=%d janky=%d (%.2f%%) p50=%.2fms"
+                                    + " p95=%.2fms p99=%.2fms max=%.2fms", values));
+                }
+            }
+        }
+    }
+
+    public static void reset() {
+        synchronized (sStats) {
+            sStats.clear();
+            sDroppedReportCount = 0;
+        }
+    }
+}
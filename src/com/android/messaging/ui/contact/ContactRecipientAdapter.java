@@ -31,6 +31,7 @@ import com.android.ex.chips.RecipientAlternatesAdapter;
 import com.android.ex.chips.RecipientAlternatesAdapter.RecipientMatchCallback;
 import com.android.ex.chips.RecipientEntry;
 import com.android.messaging.R;
+import com.android.messaging.datamodel.ContactSearchIndex;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
 import com.android.messaging.util.ContactRecipientEntryUtils;
@@ -60,6 +61,9 @@ public final class ContactRecipientAdapter extends BaseRecipientAdapter {
      */
     private int mWorkDirectoryHeaderPos = WORD_DIRECTORY_HEADER_POS_NONE;
     private final LayoutInflater mInflater;
+    // Work contacts are only searched if there is a managed profile, checked on the first
+    // filtering as it queries the contacts provider
+    private Boolean mHasWorkProfile;
 
     /**
      * Type of directory entry.
@@ -75,6 +79,8 @@ public final class ContactRecipientAdapter extends BaseRecipientAdapter {
         super(context, preferredMaxResultCount, queryMode);
         setPhotoManager(new ContactRecipientPhotoManager(context));
         mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        // Build the search index while the user starts typing
+        ContactSearchIndex.get().ensureBuilt();
     }
 
     @Override
@@ -107,19 +113,31 @@ public final class ContactRecipientAdapter extends BaseRecipientAdapter {
          * Some locales (e.g. JPN) expect email addresses to be auto-completed for MMS.
          * If this is the case, perform two queries on phone number followed by email and
          * return the merged results.
+         *
+         * Personal contacts are searched in the {@link ContactSearchIndex} once it is built,
+         * and in the contacts provider until then.
          */
         @DoesNotRunOnMainThread
         private CursorResult getFilteredResultsCursor(final String searchText) {
             Assert.isNotMainThread();
-            final Cursor personalFilterDestinationCursor = ContactUtil
-                    .filterDestination(getContext(), searchText).performSynchronousQuery();
+            Cursor personalFilterDestinationCursor =
+                    ContactSearchIndex.get().filterDestination(searchText);
+            if (personalFilterDestinationCursor == null) {
+                personalFilterDestinationCursor = ContactUtil
+                        .filterDestination(getContext(), searchText).performSynchronousQuery();
+            }
             final CursorResult cursorResult = new CursorResult(personalFilterDestinationCursor,
                     true);
             // Including enterprise result starting from N.
-            final Cursor enterpriseFilterDestinationCursor = ContactUtil
-                    .filterDestinationEnterprise(getContext(), searchText)
-                    .performSynchronousQuery();
-            cursorResult.enterpriseCursor = enterpriseFilterDestinationCursor;
+            if (mHasWorkProfile == null) {
+                mHasWorkProfile = ContactUtil.hasWorkProfileContacts(getContext());
+            }
+            if (mHasWorkProfile) {
+                final Cursor enterpriseFilterDestinationCursor = ContactUtil
+                        .filterDestinationEnterprise(getContext(), searchText)
+                        .performSynchronousQuery();
+                cursorResult.enterpriseCursor = enterpriseFilterDestinationCursor;
+            }
             return cursorResult;
         }
 
@@ -877,6 +877,10 @@ public class ComposeMessageView extends LinearLayout
         }
 
         mBinding.ensureBound();
+        if (s == mComposeEditText.getText()) {
+            // Lets the SMS length be counted from the edited characters only
+            mBinding.getData().onMessageTextEdited(start, before, count);
+        }
         updateVisualsOnDraftChanged();
     }
 
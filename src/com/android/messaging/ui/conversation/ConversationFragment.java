@@ -36,7 +36,9 @@ import android.os.Environment;
 import android.os.Handler;
 import android.os.Parcelable;
 import android.telephony.PhoneNumberUtils;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.ActionMode;
 import android.view.Display;
 import android.view.LayoutInflater;
@@ -46,6 +48,7 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
@@ -74,6 +77,7 @@ import com.android.messaging.datamodel.data.ConversationData;
 import com.android.messaging.datamodel.data.ConversationData.ConversationDataListener;
 import com.android.messaging.datamodel.data.ConversationMessageData;
 import com.android.messaging.datamodel.data.ConversationParticipantsData;
+import com.android.messaging.datamodel.data.ConversationPrewarmCache;
 import com.android.messaging.datamodel.data.DraftMessageData;
 import com.android.messaging.datamodel.data.DraftMessageData.DraftMessageDataListener;
 import com.android.messaging.datamodel.data.MessageData;
@@ -83,6 +87,7 @@ import com.android.messaging.datamodel.data.SubscriptionListData.SubscriptionLis
 import com.android.messaging.ui.AttachmentPreview;
 import com.android.messaging.ui.BugleActionBarActivity;
 import com.android.messaging.ui.ConversationDrawables;
+import com.android.messaging.ui.FrameMetricsTracker;
 import com.android.messaging.ui.SnackBar;
 import com.android.messaging.ui.UIIntents;
 import com.android.messaging.ui.animation.PopupTransitionAnimation;
@@ -246,6 +251,7 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
                     mRecyclerView.getItemAnimator().endAnimations();
                 }
                 mScrollState = newState;
+                mFrameMetricsTracker.setScrolling(newState != RecyclerView.SCROLL_STATE_IDLE);
             }
 
             @Override
@@ -483,6 +489,8 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
     }
 
     private final Handler mHandler = new Handler();
+    private final FrameMetricsTracker mFrameMetricsTracker =
+            new FrameMetricsTracker("Conversation");
 
     /**
      * {@inheritDoc} from Fragment
@@ -593,6 +601,22 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
         // Bind the compose message view to the DraftMessageData
         mComposeMessageView.bind(DataModel.get().createDraftMessageData(
                 mBinding.getData().getConversationId()), this);
+        mComposeMessageView.getComposeEditText().addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(final CharSequence s, final int start, final int count,
+                    final int after) {
+            }
+
+            @Override
+            public void onTextChanged(final CharSequence s, final int start, final int before,
+                    final int count) {
+                mFrameMetricsTracker.onComposeInput();
+            }
+
+            @Override
+            public void afterTextChanged(final Editable s) {
+            }
+        });
 
         return view;
     }
@@ -695,6 +719,7 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
         if (mHost.shouldResumeComposeMessage()) {
             mComposeMessageView.resumeComposeMessage();
         }
+        mFrameMetricsTracker.start(getActivity().getWindow());
 
         setConversationFocus();
 
@@ -838,6 +863,16 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
         final Cursor oldCursor = mAdapter.swapCursor(cursor);
 
         if (cursor != null && oldCursor == null) {
+            final String conversationId = data.getConversationId();
+            mRecyclerView.getViewTreeObserver().addOnPreDrawListener(
+                    new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    ConversationPrewarmCache.get().onConversationMessagesDrawn(conversationId);
+                    return true;
+                }
+            });
             if (mListState != null) {
                 mRecyclerView.getLayoutManager().onRestoreInstanceState(mListState);
                 // RecyclerView restores scroll states without triggering scroll change events, so
@@ -964,6 +999,7 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
         }
         mSuppressWriteDraft = false;
         mBinding.getData().unsetFocus();
+        mFrameMetricsTracker.stop();
         mListState = mRecyclerView.getLayoutManager().onSaveInstanceState();
 
         LocalBroadcastManager.getInstance(getActivity())
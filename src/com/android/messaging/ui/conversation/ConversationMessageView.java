@@ -23,12 +23,13 @@ import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import androidx.annotation.Nullable;
+import android.text.PrecomputedText;
 import android.text.Spanned;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.text.format.Formatter;
+import android.text.method.LinkMovementMethod;
 import android.text.style.URLSpan;
-import android.text.util.Linkify;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.view.Gravity;
@@ -46,6 +47,7 @@ import com.android.messaging.R;
 import com.android.messaging.datamodel.DataModel;
 import com.android.messaging.datamodel.data.ConversationMessageData;
 import com.android.messaging.datamodel.data.MessageData;
+import com.android.messaging.datamodel.data.MessageTextCache;
 import com.android.messaging.datamodel.data.MessagePartData;
 import com.android.messaging.datamodel.data.SubscriptionListData.SubscriptionListEntry;
 import com.android.messaging.datamodel.media.ImageRequestDescriptor;
@@ -639,10 +641,20 @@ public class ConversationMessageView extends FrameLayout implements View.OnClick
     private void updateMessageText() {
         final String text = mData.getText();
         if (!TextUtils.isEmpty(text)) {
-            mMessageTextView.setText(text);
-            // Linkify phone numbers, web urls, emails, and map addresses to allow users to
-            // click on them and take the default intent.
-            mMessageTextHasLinks = Linkify.addLinks(mMessageTextView, Linkify.ALL);
+            // Links are usually detected and the text measured in the background when the
+            // messages are loaded
+            final PrecomputedText.Params params = mMessageTextView.getTextMetricsParams();
+            final MessageTextCache cache = MessageTextCache.get();
+            cache.setTextMetricsParams(params);
+            final MessageTextCache.PreparedText prepared =
+                    cache.getPreparedText(mData.getMessageId(), text);
+            mMessageTextView.setText(prepared.getText(params));
+            mMessageTextHasLinks = prepared.hasLinks();
+            if (mMessageTextHasLinks && mMessageTextView.getLinksClickable()
+                    && !(mMessageTextView.getMovementMethod() instanceof LinkMovementMethod)) {
+                // As Linkify.addLinks(TextView, int) does
+                mMessageTextView.setMovementMethod(LinkMovementMethod.getInstance());
+            }
             mMessageTextView.setVisibility(View.VISIBLE);
         } else {
             mMessageTextView.setVisibility(View.GONE);
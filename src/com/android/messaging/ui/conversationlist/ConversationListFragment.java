@@ -26,6 +26,7 @@ import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewGroup.MarginLayoutParams;
@@ -49,6 +50,8 @@ import com.android.messaging.datamodel.binding.BindingBase;
 import com.android.messaging.datamodel.data.ConversationListData;
 import com.android.messaging.datamodel.data.ConversationListData.ConversationListDataListener;
 import com.android.messaging.datamodel.data.ConversationListItemData;
+import com.android.messaging.datamodel.data.ConversationPrewarmCache;
+import com.android.messaging.ui.FrameMetricsTracker;
 import com.android.messaging.ui.ListEmptyView;
 import com.android.messaging.ui.SnackBarInteraction;
 import com.android.messaging.ui.UIIntents;
@@ -98,10 +101,13 @@ public class ConversationListFragment extends Fragment implements ConversationLi
     // critical for correctness.
     private static final String SAVED_INSTANCE_STATE_LIST_VIEW_STATE_KEY =
             "conversationListViewState";
+    private static final String SAVED_INSTANCE_STATE_LOAD_LIMIT_KEY = "conversationListLoadLimit";
     private Parcelable mListState;
 
     @VisibleForTesting
     final Binding<ConversationListData> mListBinding = BindingBase.createBinding(this);
+    private final FrameMetricsTracker mFrameMetricsTracker =
+            new FrameMetricsTracker("ConversationList");
 
     public static ConversationListFragment createArchivedConversationListFragment() {
         return createConversationListFragment(BUNDLE_ARCHIVED_MODE);
@@ -125,6 +131,11 @@ public class ConversationListFragment extends Fragment implements ConversationLi
     @Override
     public void onCreate(final Bundle bundle) {
         super.onCreate(bundle);
+        if (bundle != null) {
+            // Load enough conversations to restore the scroll position
+            mListBinding.getData().setMinimumLoadLimit(
+                    bundle.getInt(SAVED_INSTANCE_STATE_LOAD_LIMIT_KEY));
+        }
         mListBinding.getData().init(LoaderManager.getInstance(this), mListBinding);
         mAdapter = new ConversationListAdapter(getActivity(), null, this);
     }
@@ -137,6 +148,7 @@ public class ConversationListFragment extends Fragment implements ConversationLi
         setScrolledToNewestConversationIfNeeded();
 
         updateUi();
+        mFrameMetricsTracker.start(getActivity().getWindow());
     }
 
     public void setScrolledToNewestConversationIfNeeded() {
@@ -206,15 +218,34 @@ public class ConversationListFragment extends Fragment implements ConversationLi
                 } else {
                     mListBinding.getData().setScrolledToNewestConversation(false);
                 }
+                mListBinding.getData().onListScrolled(((LinearLayoutManager)
+                        recyclerView.getLayoutManager()).findLastVisibleItemPosition());
             }
 
             @Override
             public void onScrollStateChanged(@NonNull final RecyclerView recyclerView,
                                              final int newState) {
                 mCurrentState = newState;
+                mFrameMetricsTracker.setScrolling(newState != RecyclerView.SCROLL_STATE_IDLE);
             }
         });
         mRecyclerView.addOnItemTouchListener(new ConversationListSwipeHelper(mRecyclerView));
+        mRecyclerView.addOnItemTouchListener(new RecyclerView.SimpleOnItemTouchListener() {
+            @Override
+            public boolean onInterceptTouchEvent(@NonNull final RecyclerView recyclerView,
+                    @NonNull final MotionEvent event) {
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN
+                        && recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE) {
+                    // Load the conversation while the finger is down, ahead of the click
+                    final View view = recyclerView.findChildViewUnder(event.getX(), event.getY());
+                    if (view instanceof ConversationListItemView) {
+                        ConversationPrewarmCache.get().prewarm(
+                                ((ConversationListItemView) view).getConversationId());
+                    }
+                }
+                return false;
+            }
+        });
 
         if (savedInstanceState != null) {
             mListState = savedInstanceState.getParcelable(SAVED_INSTANCE_STATE_LIST_VIEW_STATE_KEY);
@@ -261,6 +292,10 @@ public class ConversationListFragment extends Fragment implements ConversationLi
         if (mListState != null) {
             outState.putParcelable(SAVED_INSTANCE_STATE_LIST_VIEW_STATE_KEY, mListState);
         }
+        if (mListBinding.isBound()) {
+            outState.putInt(SAVED_INSTANCE_STATE_LOAD_LIMIT_KEY,
+                    mListBinding.getData().getLoadLimit());
+        }
     }
 
     @Override
@@ -268,6 +303,7 @@ public class ConversationListFragment extends Fragment implements ConversationLi
         super.onPause();
         mListState = mRecyclerView.getLayoutManager().onSaveInstanceState();
         mListBinding.getData().setScrolledToNewestConversation(false);
+        mFrameMetricsTracker.stop();
     }
 
     /**
@@ -287,6 +323,13 @@ public class ConversationListFragment extends Fragment implements ConversationLi
         if (mListState != null && cursor != null && oldCursor == null) {
             mRecyclerView.getLayoutManager().onRestoreInstanceState(mListState);
         }
+        if (cursor != null && oldCursor == null) {
+            ConversationPrewarmCache.get().prewarmRecentConversations(cursor);
+            if (getActivity() != null) {
+                // Marks the end of the cold start for tools/coldstart
+                getActivity().reportFullyDrawn();
+            }
+        }
     }
 
     @Override
@@ -342,6 +385,10 @@ public class ConversationListFragment extends Fragment implements ConversationLi
     public void onConversationClicked(final ConversationListItemData conversationListItemData,
             final boolean isLongClick, final ConversationListItemView conversationView) {
         final ConversationListData listData = mListBinding.getData();
+        if (!isLongClick) {
+            ConversationPrewarmCache.get().onConversationOpening(
+                    conversationListItemData.getConversationId());
+        }
         mHost.onConversationClick(listData, conversationListItemData, isLongClick,
                 conversationView);
     }
@@ -632,6 +632,10 @@ public class ConversationListItemView extends FrameLayout implements OnClickList
         return false;
     }
 
+    public String getConversationId() {
+        return mData.getConversationId();
+    }
+
     public View getSwipeableContent() {
         return mSwipeableContent;
     }
@@ -89,6 +89,13 @@ public class ShareIntentFragment extends DialogFragment implements ConversationL
         mRecyclerView.setLayoutManager(manager);
         mRecyclerView.setHasFixedSize(true);
         mRecyclerView.setAdapter(mAdapter);
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull final RecyclerView recyclerView, final int dx,
+                    final int dy) {
+                mListBinding.getData().onListScrolled(manager.findLastVisibleItemPosition());
+            }
+        });
         final Builder dialogBuilder = new AlertDialog.Builder(activity)
                 .setView(view)
                 .setTitle(R.string.share_intent_activity_label);
@@ -24,6 +24,11 @@ import android.view.ViewGroup;
 import android.widget.CursorAdapter;
 
 import com.android.messaging.R;
+import com.android.messaging.datamodel.DataModel;
+import com.android.messaging.datamodel.data.GalleryGridItemData;
+import com.android.messaging.datamodel.media.ImageRequestDescriptor;
+import com.android.messaging.datamodel.media.MediaResourceManager;
+import com.android.messaging.ui.AsyncImageView.AsyncImageViewDelayLoader;
 import com.android.messaging.ui.mediapicker.GalleryGridItemView.HostInterface;
 import com.android.messaging.util.Assert;
 
@@ -32,15 +37,46 @@ import com.android.messaging.util.Assert;
  */
 public class GalleryGridAdapter extends CursorAdapter {
     private GalleryGridItemView.HostInterface mGgivHostInterface;
+    private AsyncImageViewDelayLoader mImageViewDelayLoader;
+    // Bound to the items whose thumbnails are prefetched
+    private final GalleryGridItemData mPrefetchData;
 
     public GalleryGridAdapter(final Context context, final Cursor cursor) {
         super(context, cursor, 0);
+        mPrefetchData = DataModel.get().createGalleryGridItemData();
     }
 
     public void setHostInterface(final HostInterface ggivHostInterface) {
         mGgivHostInterface = ggivHostInterface;
     }
 
+    /**
+     * Sets the delay loader shared by the thumbnails of the views created from now on.
+     */
+    public void setImageViewDelayLoader(final AsyncImageViewDelayLoader delayLoader) {
+        mImageViewDelayLoader = delayLoader;
+    }
+
+    /**
+     * Starts loading the thumbnail of the item at the given position into the cache, so that it
+     * is ready by the time the item is shown.
+     */
+    public void prefetchThumbnail(final int position) {
+        final Cursor cursor = getCursor();
+        if (cursor == null || !cursor.moveToPosition(position)) {
+            return;
+        }
+        final int desiredSize = mContext.getResources()
+                .getDimensionPixelSize(R.dimen.gallery_image_cell_size);
+        mPrefetchData.bind(cursor, desiredSize, desiredSize);
+        final ImageRequestDescriptor descriptor = mPrefetchData.getImageRequestDescriptor();
+        if (descriptor != null) {
+            // Fire and forget, the thumbnail is taken from the cache once its item is bound
+            MediaResourceManager.get().requestMediaResourceAsync(
+                    descriptor.buildSyncMediaRequest(mContext));
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -57,6 +93,11 @@ public class GalleryGridAdapter extends CursorAdapter {
     @Override
     public View newView(final Context context, final Cursor cursor, final ViewGroup parent) {
         final LayoutInflater layoutInflater = LayoutInflater.from(context);
-        return layoutInflater.inflate(R.layout.gallery_grid_item_view, parent, false);
+        final GalleryGridItemView view = (GalleryGridItemView)
+                layoutInflater.inflate(R.layout.gallery_grid_item_view, parent, false);
+        if (mImageViewDelayLoader != null) {
+            view.setImageViewDelayLoader(mImageViewDelayLoader);
+        }
+        return view;
     }
 }
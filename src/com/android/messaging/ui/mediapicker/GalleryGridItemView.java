@@ -37,6 +37,7 @@ import com.android.messaging.R;
 import com.android.messaging.datamodel.DataModel;
 import com.android.messaging.datamodel.data.GalleryGridItemData;
 import com.android.messaging.ui.AsyncImageView;
+import com.android.messaging.ui.AsyncImageView.AsyncImageViewDelayLoader;
 import com.android.messaging.ui.ConversationDrawables;
 import com.android.messaging.util.ContentType;
 import com.google.common.annotations.VisibleForTesting;
@@ -130,6 +131,13 @@ public class GalleryGridItemView extends FrameLayout {
         super.onMeasure(widthMeasureSpec, widthMeasureSpec);
     }
 
+    /**
+     * Sets a delay loader instance to manage loading / resuming of the thumbnail.
+     */
+    public void setImageViewDelayLoader(final AsyncImageViewDelayLoader delayLoader) {
+        mImageView.setDelayLoader(delayLoader);
+    }
+
     public void bind(final Cursor cursor, final HostInterface hostInterface) {
         final int desiredSize = getResources()
                 .getDimensionPixelSize(R.dimen.gallery_image_cell_size);
@@ -26,6 +26,8 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
+import android.widget.ListAdapter;
 
 import com.android.messaging.R;
 import com.android.messaging.datamodel.binding.BindingBase;
@@ -34,6 +36,7 @@ import com.android.messaging.datamodel.data.DraftMessageData;
 import com.android.messaging.datamodel.data.GalleryGridItemData;
 import com.android.messaging.datamodel.data.MessagePartData;
 import com.android.messaging.datamodel.data.DraftMessageData.DraftMessageDataListener;
+import com.android.messaging.ui.AsyncImageView.AsyncImageViewDelayLoader;
 import com.android.messaging.ui.PersistentInstanceState;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.ContentType;
@@ -62,6 +65,9 @@ public class GalleryGridView extends MediaPickerGridView implements
         void onUpdate();
     }
 
+    // Rows of thumbnails loaded ahead of the scroll
+    private static final int PREFETCH_ROWS = 2;
+
     private GalleryGridViewListener mListener;
 
     // TODO: Consider putting this into the data model object if we add more states.
@@ -69,9 +75,68 @@ public class GalleryGridView extends MediaPickerGridView implements
     private boolean mIsMultiSelectMode = false;
     private ImmutableBindingRef<DraftMessageData> mDraftMessageDataModel;
 
+    // Holds back the thumbnails while flinging, as the cells scroll past before they'd be shown
+    private final AsyncImageViewDelayLoader mImageViewDelayLoader;
+    private int mLastFirstVisiblePosition;
+    private boolean mScrollingForward = true;
+    // Positions last prefetched, from start (inclusive) to end (exclusive)
+    private int mPrefetchStart;
+    private int mPrefetchEnd;
+
     public GalleryGridView(final Context context, final AttributeSet attrs) {
         super(context, attrs);
         mSelectedImages = new ArrayMap<>();
+        mImageViewDelayLoader = new AsyncImageViewDelayLoader();
+        setOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(final AbsListView view, final int scrollState) {
+                if (scrollState == SCROLL_STATE_FLING) {
+                    mImageViewDelayLoader.onDelayLoading();
+                } else {
+                    mImageViewDelayLoader.onResumeLoading();
+                    prefetchThumbnails();
+                }
+            }
+
+            @Override
+            public void onScroll(final AbsListView view, final int firstVisibleItem,
+                    final int visibleItemCount, final int totalItemCount) {
+                if (firstVisibleItem != mLastFirstVisiblePosition) {
+                    mScrollingForward = firstVisibleItem > mLastFirstVisiblePosition;
+                    mLastFirstVisiblePosition = firstVisibleItem;
+                    if (!mImageViewDelayLoader.isDelayLoadingImage()) {
+                        prefetchThumbnails();
+                    }
+                }
+            }
+        });
+    }
+
+    AsyncImageViewDelayLoader getImageViewDelayLoader() {
+        return mImageViewDelayLoader;
+    }
+
+    /**
+     * Loads the thumbnails of the next rows in the direction of the scroll into the cache,
+     * except those already requested by the last prefetch.
+     */
+    private void prefetchThumbnails() {
+        final ListAdapter adapter = getAdapter();
+        if (!(adapter instanceof GalleryGridAdapter) || getChildCount() == 0) {
+            return;
+        }
+        final int count = Math.max(getNumColumns(), 1) * PREFETCH_ROWS;
+        final int start = mScrollingForward ? getLastVisiblePosition() + 1
+                : getFirstVisiblePosition() - count;
+        final int end = start + count;
+        for (int position = Math.max(start, 0); position < Math.min(end, adapter.getCount());
+                position++) {
+            if (position < mPrefetchStart || position >= mPrefetchEnd) {
+                ((GalleryGridAdapter) adapter).prefetchThumbnail(position);
+            }
+        }
+        mPrefetchStart = start;
+        mPrefetchEnd = end;
     }
 
     public void setHostInterface(final GalleryGridViewListener hostInterface) {
@@ -140,6 +140,7 @@ class GalleryMediaChooser extends MediaChooser implements
 
         mGalleryGridView = (GalleryGridView) view.findViewById(R.id.gallery_grid_view);
         mAdapter.setHostInterface(mGalleryGridView);
+        mAdapter.setImageViewDelayLoader(mGalleryGridView.getImageViewDelayLoader());
         mGalleryGridView.setAdapter(mAdapter);
         mGalleryGridView.setHostInterface(this);
         mGalleryGridView.setDraftMessageDataModel(mMediaPicker.getDraftMessageDataModel());
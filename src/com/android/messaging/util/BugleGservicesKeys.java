@@ -48,6 +48,29 @@ public final class BugleGservicesKeys {
      */
     public static final long SMS_SEND_TIMEOUT_IN_MILLIS_DEFAULT = 5 * 60 * 1000L;
 
+    /**
+     * Max number of messages of a subscription being sent at the same time. Messages of the
+     * same conversation are still sent one at a time, in order, and MMS one at a time.
+     */
+    public static final int SMS_MAX_OUTSTANDING_SENDS_DEFAULT = 4;
+
+    /**
+     * Max number of SMS handed to the platform per subscription in any one minute window, to
+     * stay below carrier flood limits when draining a backlog
+     */
+    public static final int SMS_MAX_SENDS_PER_MINUTE_DEFAULT = 30;
+
+    /**
+     * Interval between the database maintenance runs, which only happen while the device is
+     * idle and charging
+     */
+    public static final long DATABASE_MAINTENANCE_INTERVAL_MILLIS_DEFAULT = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Max number of free database pages released by each maintenance run
+     */
+    public static final int DATABASE_MAINTENANCE_VACUUM_PAGES_DEFAULT = 4096;
+
     /**
      * Keys to control the SMS sync batch size. The batch size is defined by the number
      * of messages that incur local database change, e.g. importing messages and
@@ -304,6 +304,27 @@ public class ContactUtil {
                 Directory.ENTERPRISE_DEFAULT);
     }
 
+    /**
+     * @return true if there is a managed (work) profile whose contacts can be searched with the
+     *         enterprise uris. The contacts provider only lists the enterprise directories of a
+     *         managed profile, unlike the user profiles which also include clone and private
+     *         space profiles.
+     */
+    public static boolean hasWorkProfileContacts(final Context context) {
+        if (!ContactUtil.hasReadContactsPermission()) {
+            return false;
+        }
+        try (Cursor cursor = context.getContentResolver().query(Directory.ENTERPRISE_CONTENT_URI,
+                new String[] { Directory._ID }, null, null, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                if (Directory.isEnterpriseDirectoryId(cursor.getLong(0))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private static CursorQueryData filterPhonesInternal(final Context context,
             final Uri phoneFilterBaseUri, final String query, final long directoryId) {
         if (!ContactUtil.hasReadContactsPermission()) {
@@ -402,8 +402,24 @@ public class ImageUtils {
                 final int orientation, final int widthLimit, final int heightLimit,
                 final int byteLimit, final Uri uri, final Context context,
                 final String contentType) {
+            return getResizedImageData(width, height, orientation, widthLimit, heightLimit,
+                    byteLimit, uri, context, contentType, 1 /* concurrentResizes */);
+        }
+
+        /**
+         * Return resized (compressed) image (else null), when several images are being resized
+         * at the same time. Each resize only uses its share of the working memory to decode.
+         *
+         * @param concurrentResizes The number of resizes running at the same time
+         * @see #getResizedImageData(int, int, int, int, int, int, Uri, Context, String)
+         */
+        public static byte[] getResizedImageData(final int width, final int height,
+                final int orientation, final int widthLimit, final int heightLimit,
+                final int byteLimit, final Uri uri, final Context context,
+                final String contentType, final int concurrentResizes) {
             final ImageResizer resizer = new ImageResizer(width, height, orientation,
-                    widthLimit, heightLimit, byteLimit, uri, context, contentType);
+                    widthLimit, heightLimit, byteLimit, uri, context, contentType,
+                    concurrentResizes);
             return resizer.resize();
         }
 
@@ -412,7 +428,7 @@ public class ImageUtils {
          */
         private ImageResizer(final int width, final int height, final int orientation,
                 final int widthLimit, final int heightLimit, final int byteLimit, final Uri uri,
-                final Context context, final String contentType) {
+                final Context context, final String contentType, final int concurrentResizes) {
             mWidth = width;
             mHeight = height;
             mOrientationParams = ExifInterface.getOrientationParams(orientation);
@@ -435,7 +451,7 @@ public class ImageUtils {
             mOptions.inMutable = false;
             final ActivityManager am =
                     (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-            mMemoryClass = Math.max(16, am.getMemoryClass());
+            mMemoryClass = Math.max(16, am.getMemoryClass() / Math.max(1, concurrentResizes));
             mContentType = contentType;
         }
 
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.util;
+
+/**
+ * Fixed memory histogram of latencies in milliseconds.
+ *
+ * Values are counted in log-linear buckets, like HdrHistogram: each power of two range is split
+ * into {@link #SUB_BUCKET_COUNT} equal buckets, so percentiles are reported with at most 1/8
+ * relative error whatever the magnitude, from 0ms up to about 18 hours. Larger values are
+ * counted in the last bucket.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Power of two ranges tracked above the exact [0, SUB_BUCKET_COUNT) range
+    private static final int MAGNITUDE_COUNT = 24;
+    private static final int BUCKET_COUNT = (MAGNITUDE_COUNT + 1) * SUB_BUCKET_COUNT;
+
+    private final int[] mCounts = new int[BUCKET_COUNT];
+    private long mTotalCount;
+    private long mSum;
+    private long mMax;
+
+    /**
+     * Record a latency
+     * @param valueMs the latency in milliseconds, negative values are ignored
+     */
+    public synchronized void record(final long valueMs) {
+        if (valueMs < 0) {
+            return;
+        }
+        mCounts[getBucketIndex(valueMs)]++;
+        mTotalCount++;
+        mSum += valueMs;
+        mMax = Math.max(mMax, valueMs);
+    }
+
+    public synchronized long getTotalCount() {
+        return mTotalCount;
+    }
+
+    public synchronized long getMax() {
+        return mMax;
+    }
+
+    public synchronized long getMean() {
+        return mTotalCount > 0 ? mSum / mTotalCount : 0;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the highest value of the bucket holding the given percentile, 0 if empty
+     */
+    public synchronized long getPercentile(final double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(mTotalCount * percentile / 100));
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mCounts[i];
+            if (count >= target) {
+                return Math.min(getBucketHighestValue(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * @return a one line summary: count, mean, p50, p90, p99 and max
+     */
+    public synchronized String getSummary() {
+        return "n=" + mTotalCount + " mean=" + getMean() + " p50=" + getPercentile(50)
+                + " p90=" + getPercentile(90) + " p99=" + getPercentile(99) + " max=" + mMax;
+    }
+
+    private static int getBucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return Math.min(BUCKET_COUNT - 1, (shift + 1) * SUB_BUCKET_COUNT + subBucket);
+    }
+
+    private static long getBucketHighestValue(final int index) {
+        final int magnitude = index / SUB_BUCKET_COUNT;
+        final int subBucket = index % SUB_BUCKET_COUNT;
+        if (magnitude == 0) {
+            return subBucket;
+        }
+        return ((SUB_BUCKET_COUNT + subBucket + 1L) << (magnitude - 1)) - 1;
+    }
+}
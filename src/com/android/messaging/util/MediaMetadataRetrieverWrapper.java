@@ -69,6 +69,15 @@ public class MediaMetadataRetrieverWrapper {
         return mRetriever.getFrameAtTime(timeUs);
     }
 
+    /**
+     * @return a frame scaled down to fit within the given size, decoded at that size
+     */
+    public Bitmap getScaledFrameAtTime(final long timeUs, final int dstWidth,
+            final int dstHeight) {
+        return mRetriever.getScaledFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                dstWidth, dstHeight);
+    }
+
     public void release() {
         try {
             mRetriever.release();
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.messaging.util.ContactUtil;
+import com.android.messaging.util.LatencyHistogram;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the time to build the {@link ContactSearchIndex} of 20k contacts, and the latency of
+ * the recipient auto-complete queries against it, e.g. with
+ *  atest MessagingTests:ContactSearchIndexBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContactSearchIndexBenchmark {
+    private static final String TAG = "ContactSearchIndexBench";
+
+    private static final int CONTACT_COUNT = 20000;
+    private static final int QUERY_COUNT = 500;
+
+    private static final String[] SYLLABLES = new String[] {
+        "an", "be", "ca", "da", "el", "fi", "go", "ha", "is", "jo", "ka", "li", "ma", "no",
+        "ol", "pa", "ra", "sa", "ta", "ul", "vi", "wa", "yo", "ze",
+    };
+
+    @Test
+    public void testBuildAndFilter() {
+        final Random random = new Random(42);
+        final MatrixCursor phones = new MatrixCursor(ContactUtil.PhoneQuery.PROJECTION);
+        final MatrixCursor emails = new MatrixCursor(ContactUtil.EmailQuery.PROJECTION);
+        final String[] names = new String[CONTACT_COUNT];
+        long dataId = 0;
+        for (int contactId = 0; contactId < CONTACT_COUNT; contactId++) {
+            final String name = getWord(random) + " " + getWord(random);
+            names[contactId] = name;
+            // Most contacts have a phone number, some two, some an email address
+            final int phoneCount = random.nextInt(10) == 0 ? 2 : 1;
+            for (int i = 0; i < phoneCount; i++) {
+                phones.addRow(getRow(contactId, name,
+                        String.format(Locale.US, "+1650%07d", random.nextInt(10000000)),
+                        ++dataId));
+            }
+            if (random.nextInt(3) == 0) {
+                emails.addRow(getRow(contactId, name,
+                        name.replace(' ', '.') + "@example.com", ++dataId));
+            }
+        }
+
+        final long buildStartMs = SystemClock.elapsedRealtime();
+        final ContactSearchIndex index = ContactSearchIndex.createForTesting(phones, emails);
+        final long buildMs = SystemClock.elapsedRealtime() - buildStartMs;
+        Log.i(TAG, "Indexed " + phones.getCount() + " phones and " + emails.getCount()
+                + " emails of " + CONTACT_COUNT + " contacts in " + buildMs + "ms");
+
+        final LatencyHistogram singleLetter = new LatencyHistogram();
+        final LatencyHistogram namePrefix = new LatencyHistogram();
+        final LatencyHistogram fullName = new LatencyHistogram();
+        final LatencyHistogram digits = new LatencyHistogram();
+        final LatencyHistogram email = new LatencyHistogram();
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            final String name = names[random.nextInt(CONTACT_COUNT)];
+            filter(index, name.substring(0, 1), singleLetter, true /* mustMatch */);
+            filter(index, name.substring(0, 3), namePrefix, true /* mustMatch */);
+            filter(index, name, fullName, true /* mustMatch */);
+            filter(index, "650" + random.nextInt(1000), digits, false /* mustMatch */);
+            filter(index, name.substring(0, 4).trim() + "@", email, false /* mustMatch */);
+        }
+
+        Log.i(TAG, "Filter latency of " + QUERY_COUNT + " queries of each kind, in us");
+        Log.i(TAG, "  single letter: " + summarize(singleLetter));
+        Log.i(TAG, "  name prefix: " + summarize(namePrefix));
+        Log.i(TAG, "  full name: " + summarize(fullName));
+        Log.i(TAG, "  digits: " + summarize(digits));
+        Log.i(TAG, "  email: " + summarize(email));
+    }
+
+    private static void filter(final ContactSearchIndex index, final String query,
+            final LatencyHistogram latencies, final boolean mustMatch) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        try (Cursor cursor = index.filterDestination(query)) {
+            latencies.record((SystemClock.elapsedRealtimeNanos() - startNanos) / 1000);
+            if (mustMatch) {
+                assertTrue("no match for " + query, cursor.getCount() > 0);
+            }
+        }
+    }
+
+    private static Object[] getRow(final long contactId, final String name,
+            final String destination, final long dataId) {
+        return new Object[] {
+            contactId, name, null, destination, Phone.TYPE_MOBILE, null,
+            "lookup" + contactId, dataId, name,
+        };
+    }
+
+    private static String getWord(final Random random) {
+        final StringBuilder word = new StringBuilder();
+        final int syllableCount = random.nextInt(3) + 2;
+        for (int i = 0; i < syllableCount; i++) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+        return word.toString();
+    }
+
+    private static String summarize(final LatencyHistogram latencies) {
+        return "p50=" + latencies.getPercentile(50) + " p90=" + latencies.getPercentile(90)
+                + " p99=" + latencies.getPercentile(99) + " max=" + latencies.getMax();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.messaging.datamodel.DatabaseHelper.ConversationColumns;
+import com.android.messaging.datamodel.DatabaseHelper.ConversationParticipantsColumns;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
+import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
+import com.android.messaging.datamodel.data.ConversationListData;
+import com.android.messaging.datamodel.data.ConversationListItemData;
+import com.android.messaging.datamodel.data.MessageData;
+import com.android.messaging.datamodel.data.ParticipantData;
+import com.android.messaging.util.LatencyHistogram;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the conversation list query over 5k conversations, reading the rows from the
+ * denormalized conversation list table rather than computing them with the conversation list
+ * view, e.g. with
+ *  atest MessagingTests:ConversationListQueryBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConversationListQueryBenchmark {
+    private static final String TAG = "ConversationListBench";
+
+    private static final int CONVERSATION_COUNT = 5000;
+    private static final int MESSAGES_PER_CONVERSATION = 5;
+    private static final int ROUND_COUNT = 20;
+
+    // Same conditions as the conversation list loader and the provider
+    private static final String SELECTION = ConversationListData.WHERE_NOT_ARCHIVED + " AND "
+            + ConversationColumns.SORT_TIMESTAMP + " > 0";
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = SQLiteDatabase.create(null);
+        DatabaseHelper.createSchema(mDatabase);
+        mDatabase.beginTransaction();
+        try {
+            seed(new Random(42));
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void testTableAgainstView() {
+        final String table = ConversationListItemData.getConversationListTable();
+        final String view = ConversationListItemData.getConversationListView();
+        // Warm up the statement caches and the database pages
+        final int rowCount = query(table, new LatencyHistogram());
+        assertEquals(rowCount, query(view, new LatencyHistogram()));
+
+        final LatencyHistogram tableLatencies = new LatencyHistogram();
+        final LatencyHistogram viewLatencies = new LatencyHistogram();
+        for (int i = 0; i < ROUND_COUNT; i++) {
+            assertEquals(rowCount, query(table, tableLatencies));
+            assertEquals(rowCount, query(view, viewLatencies));
+        }
+
+        Log.i(TAG, "Conversation list query of " + rowCount + " rows out of "
+                + CONVERSATION_COUNT + " conversations, over " + ROUND_COUNT + " rounds, in us");
+        Log.i(TAG, "  " + table + ": " + summarize(tableLatencies));
+        Log.i(TAG, "  " + view + ": " + summarize(viewLatencies));
+    }
+
+    /**
+     * Add the conversations the way the actions do: the conversation first, then its
+     * participants and messages, then the latest message and timestamps, so the triggers keep the
+     * conversation list table up to date along the way
+     */
+    private void seed(final Random random) {
+        long timestamp = System.currentTimeMillis() - CONVERSATION_COUNT * 60000L;
+        for (int i = 0; i < CONVERSATION_COUNT; i++) {
+            final String destination = String.format(Locale.US, "+1650%07d", i);
+            final ContentValues participant = new ContentValues();
+            participant.put(ParticipantColumns.SUB_ID, ParticipantData.OTHER_THAN_SELF_SUB_ID);
+            participant.put(ParticipantColumns.NORMALIZED_DESTINATION, destination);
+            participant.put(ParticipantColumns.SEND_DESTINATION, destination);
+            participant.put(ParticipantColumns.DISPLAY_DESTINATION, destination);
+            participant.put(ParticipantColumns.FULL_NAME, "Contact " + i);
+            participant.put(ParticipantColumns.FIRST_NAME, "Contact");
+            final long participantId =
+                    mDatabase.insert(DatabaseHelper.PARTICIPANTS_TABLE, null, participant);
+
+            final ContentValues conversation = new ContentValues();
+            conversation.put(ConversationColumns.SMS_THREAD_ID, i + 1);
+            conversation.put(ConversationColumns.NAME, "Contact " + i);
+            conversation.put(ConversationColumns.PARTICIPANT_COUNT, 1);
+            conversation.put(ConversationColumns.OTHER_PARTICIPANT_NORMALIZED_DESTINATION,
+                    destination);
+            final long conversationId =
+                    mDatabase.insert(DatabaseHelper.CONVERSATIONS_TABLE, null, conversation);
+
+            final ContentValues member = new ContentValues();
+            member.put(ConversationParticipantsColumns.CONVERSATION_ID, conversationId);
+            member.put(ConversationParticipantsColumns.PARTICIPANT_ID, participantId);
+            mDatabase.insert(DatabaseHelper.CONVERSATION_PARTICIPANTS_TABLE, null, member);
+
+            long latestMessageId = -1;
+            for (int j = 0; j < MESSAGES_PER_CONVERSATION; j++) {
+                timestamp += random.nextInt(10000);
+                final boolean incoming = random.nextBoolean();
+                final ContentValues message = new ContentValues();
+                message.put(MessageColumns.CONVERSATION_ID, conversationId);
+                message.put(MessageColumns.SENDER_PARTICIPANT_ID,
+                        incoming ? participantId : 1 /* default self */);
+                message.put(MessageColumns.SELF_PARTICIPANT_ID, 1);
+                message.put(MessageColumns.SENT_TIMESTAMP, timestamp);
+                message.put(MessageColumns.RECEIVED_TIMESTAMP, timestamp);
+                message.put(MessageColumns.PROTOCOL, MessageData.PROTOCOL_SMS);
+                message.put(MessageColumns.STATUS, incoming
+                        ? MessageData.BUGLE_STATUS_INCOMING_COMPLETE
+                        : MessageData.BUGLE_STATUS_OUTGOING_COMPLETE);
+                message.put(MessageColumns.SEEN, 1);
+                message.put(MessageColumns.READ, random.nextInt(10) == 0 ? 0 : 1);
+                latestMessageId = mDatabase.insert(DatabaseHelper.MESSAGES_TABLE, null, message);
+            }
+
+            final ContentValues latest = new ContentValues();
+            latest.put(ConversationColumns.LATEST_MESSAGE_ID, latestMessageId);
+            latest.put(ConversationColumns.SNIPPET_TEXT, "Message " + latestMessageId);
+            latest.put(ConversationColumns.SORT_TIMESTAMP, timestamp);
+            // Some conversations are archived and left out of the list
+            latest.put(ConversationColumns.ARCHIVE_STATUS, random.nextInt(20) == 0 ? 1 : 0);
+            mDatabase.update(DatabaseHelper.CONVERSATIONS_TABLE, latest,
+                    ConversationColumns._ID + "=?",
+                    new String[] { String.valueOf(conversationId) });
+        }
+    }
+
+    /**
+     * Run the conversation list query against the given table or view, reading every row
+     *
+     * @return the number of rows
+     */
+    private int query(final String tableOrView, final LatencyHistogram latencies) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        int rowCount = 0;
+        try (Cursor cursor = mDatabase.query(tableOrView, ConversationListItemData.PROJECTION,
+                SELECTION, null, null, null, ConversationListData.SORT_ORDER)) {
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    cursor.getString(i);
+                }
+                rowCount++;
+            }
+        }
+        latencies.record((SystemClock.elapsedRealtimeNanos() - startNanos) / 1000);
+        return rowCount;
+    }
+
+    private static String summarize(final LatencyHistogram latencies) {
+        return "p50=" + latencies.getPercentile(50) + " p90=" + latencies.getPercentile(90)
+                + " max=" + latencies.getMax();
+    }
+}
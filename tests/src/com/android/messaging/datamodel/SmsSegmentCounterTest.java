@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import android.telephony.SmsMessage;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/**
+ * Checks {@link SmsSegmentCounter} against {@link SmsMessage#calculateLength} with random edits
+ * of texts mixing GSM, extension table, non GSM and multi character (surrogate pairs, combining
+ * marks, flags) characters, e.g. with
+ *  atest MessagingTests:SmsSegmentCounterTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class SmsSegmentCounterTest {
+    private static final int EDIT_COUNT = 3000;
+    // Long enough for several UCS-2 and GSM segments
+    private static final int MAX_TEXT_LENGTH = 500;
+    private static final int MAX_EDIT_LENGTH = 20;
+
+    private static final String[] FRAGMENTS = new String[] {
+        "a", "Z", "0", " ", "\n", "@", "\u00e9", "\u00c5",
+        "\u20ac", "[", "^", "|",
+        "\u0436", "\u4f60", "\u00e7", "\u0915",
+        "\ud83d\ude00", "\u0301", "\u200d", "\ud83c\uddeb\ud83c\uddf7",
+        "\ud83d\udc68\u200d\ud83d\udc69\u200d\ud83d\udc67",
+    };
+
+    @Test
+    public void testRandomEdits() {
+        final Random random = new Random(42);
+        final SmsSegmentCounter counter = new SmsSegmentCounter();
+        String text = "";
+        for (int i = 0; i < EDIT_COUNT; i++) {
+            // Mostly typing at the end, some edits anywhere, pastes and deletions
+            final int start = random.nextInt(4) == 0
+                    ? random.nextInt(text.length() + 1) : text.length();
+            final int before = random.nextInt(5) == 0
+                    ? random.nextInt(Math.min(MAX_EDIT_LENGTH, text.length() - start) + 1) : 0;
+            final StringBuilder inserted = new StringBuilder();
+            final int insertedCount = random.nextInt(MAX_EDIT_LENGTH / 4) + 1;
+            // Keep the texts mostly GSM or mostly not, so that both encodings are seen
+            final boolean gsmOnly = (i / 200) % 2 == 0;
+            for (int j = 0; j < insertedCount; j++) {
+                inserted.append(FRAGMENTS[random.nextInt(gsmOnly ? 12 : FRAGMENTS.length)]);
+            }
+            String edited = text.substring(0, start) + inserted + text.substring(start + before);
+            if (edited.length() > MAX_TEXT_LENGTH) {
+                // Start over with the inserted characters
+                edited = inserted.toString();
+                counter.setEdit(0, text.length(), edited.length());
+            } else {
+                counter.setEdit(start, before, inserted.length());
+            }
+            text = edited;
+            assertLength(text, counter.calculateLength(text));
+            if (random.nextInt(10) == 0) {
+                // Not edited, e.g. when the subject is
+                assertLength(text, counter.calculateLength(text));
+            }
+        }
+    }
+
+    @Test
+    public void testUnreportedEdit() {
+        final SmsSegmentCounter counter = new SmsSegmentCounter();
+        final String text = repeat("\u0436", 200);
+        assertLength(text, counter.calculateLength(text));
+        final String edited = text.substring(0, 100) + "\ud83d\ude00" + text.substring(100);
+        assertLength(edited, counter.calculateLength(edited));
+    }
+
+    private static void assertLength(final String text, final int[] length) {
+        assertArrayEquals("length of \"" + text + "\"", SmsMessage.calculateLength(text, false),
+                length);
+    }
+
+    private static String repeat(final String s, final int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.messaging.Factory;
+import com.android.messaging.util.LatencyHistogram;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency from starting an action to its execution, when handed over to the action
+ * executor by reference (the in-process path of ActionServiceImpl.startAction) and when parceled
+ * in an intent to the ActionService job (the path all actions took before, and the one alarms
+ * and pending intents still take), e.g. with
+ *  atest MessagingTests:ActionDispatchBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class ActionDispatchBenchmark {
+    private static final String TAG = "ActionDispatchBenchmark";
+
+    private static final int ACTION_COUNT = 500;
+    // Size of the parameters of a typical action, e.g. a message being sent
+    private static final int PARAMETER_COUNT = 16;
+    private static final String KEY_START_NS = "start_ns";
+
+    private static LatencyHistogram sLatencies;
+    private static CountDownLatch sExecuted;
+
+    /**
+     * Records the time from its start to its execution
+     */
+    public static class BenchmarkAction extends Action {
+        BenchmarkAction() {
+            for (int i = 0; i < PARAMETER_COUNT; i++) {
+                actionParameters.putString("parameter" + i, "value of parameter " + i);
+            }
+        }
+
+        void markStartTime() {
+            actionParameters.putLong(KEY_START_NS, SystemClock.elapsedRealtimeNanos());
+        }
+
+        @Override
+        protected Object executeAction() {
+            final long latencyNs =
+                    SystemClock.elapsedRealtimeNanos() - actionParameters.getLong(KEY_START_NS);
+            sLatencies.record(latencyNs / 1000);
+            sExecuted.countDown();
+            return null;
+        }
+
+        private BenchmarkAction(final Parcel in) {
+            super(in);
+        }
+
+        public static final Parcelable.Creator<BenchmarkAction> CREATOR =
+                new Parcelable.Creator<BenchmarkAction>() {
+            @Override
+            public BenchmarkAction createFromParcel(final Parcel in) {
+                return new BenchmarkAction(in);
+            }
+
+            @Override
+            public BenchmarkAction[] newArray(final int size) {
+                return new BenchmarkAction[size];
+            }
+        };
+
+        @Override
+        public void writeToParcel(final Parcel parcel, final int flags) {
+            writeActionToParcel(parcel, flags);
+        }
+    }
+
+    @Test
+    public void testStartToExecuteLatency() throws InterruptedException {
+        final Context context = Factory.get().getApplicationContext();
+
+        final LatencyHistogram inProcess = run(new Starter() {
+            @Override
+            public void start(final BenchmarkAction action) {
+                ActionServiceImpl.startAction(action);
+            }
+        });
+        final LatencyHistogram parceled = run(new Starter() {
+            @Override
+            public void start(final BenchmarkAction action) {
+                final Intent intent = ActionServiceImpl.PendingActionReceiver.makeIntent(
+                        ActionServiceImpl.OP_START_ACTION);
+                final Bundle actionBundle = new Bundle();
+                actionBundle.putParcelable(ActionServiceImpl.BUNDLE_ACTION, action);
+                intent.putExtra(ActionServiceImpl.EXTRA_ACTION_BUNDLE, actionBundle);
+                intent.setClass(context, ActionServiceImpl.class);
+                ActionServiceImpl.enqueueWork(context, intent);
+            }
+        });
+
+        Log.i(TAG, "Start to execute latency of " + ACTION_COUNT + " actions, in µs");
+        Log.i(TAG, "  parceled (before): " + summarize(parceled));
+        Log.i(TAG, "  in-process (after): " + summarize(inProcess));
+    }
+
+    private interface Starter {
+        void start(BenchmarkAction action);
+    }
+
+    private static LatencyHistogram run(final Starter starter) throws InterruptedException {
+        sLatencies = new LatencyHistogram();
+        sExecuted = new CountDownLatch(ACTION_COUNT);
+        for (int i = 0; i < ACTION_COUNT; i++) {
+            final BenchmarkAction action = new BenchmarkAction();
+            action.markStartTime();
+            starter.start(action);
+            // Actions are started one at a time by the app, not in a tight loop
+            SystemClock.sleep(2);
+        }
+        assertTrue(sExecuted.await(60, TimeUnit.SECONDS));
+        return sLatencies;
+    }
+
+    private static String summarize(final LatencyHistogram latencies) {
+        return "p50=" + latencies.getPercentile(50) + " p90=" + latencies.getPercentile(90)
+                + " p99=" + latencies.getPercentile(99) + " max=" + latencies.getMax();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stress test of the lanes and barriers of {@link ActionExecutor} with a mix of short, slow and
+ * global actions, which reports the queueing delay percentiles, e.g. with
+ *  atest MessagingTests:ActionExecutorStressTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class ActionExecutorStressTest {
+    private static final String TAG = "ActionExecutorStress";
+
+    private static final int ACTION_COUNT = 2000;
+    private static final int CONVERSATION_COUNT = 16;
+    private static final int MAX_CONCURRENT = 4;
+    // One action in this many is global (sync, participant refresh...) and runs as a barrier
+    private static final int BARRIER_INTERVAL = 100;
+
+    /**
+     * An action of a conversation lane, or a barrier if the lane key is null
+     */
+    private static class TestAction extends Action {
+        final String mLaneKey;
+        final int mIndex;
+        // How long the action runs for
+        final long mDurationMs;
+
+        TestAction(final String laneKey, final int index, final long durationMs) {
+            mLaneKey = laneKey;
+            mIndex = index;
+            mDurationMs = durationMs;
+        }
+
+        @Override
+        protected String getLaneKey() {
+            return mLaneKey;
+        }
+
+        @Override
+        public void writeToParcel(final Parcel parcel, final int flags) {
+            writeActionToParcel(parcel, flags);
+        }
+    }
+
+    /**
+     * Checks the ordering guarantees as the actions start and end
+     */
+    private static class OrderChecker {
+        private final List<String> mViolations = new ArrayList<>();
+        private final Set<String> mActiveLanes = new HashSet<>();
+        private final Map<String, Integer> mLastIndexOfLane = new HashMap<>();
+        private int mRunningCount;
+        private int mCompletedCount;
+        private int mLastBarrierIndex = -1;
+        private boolean mLastBarrierDone = true;
+
+        synchronized void onStart(final TestAction action) {
+            if (action.mIndex > mLastBarrierIndex && !mLastBarrierDone) {
+                mViolations.add(action.mIndex + " started before barrier " + mLastBarrierIndex
+                        + " was done");
+            }
+            if (action.mLaneKey == null) {
+                if (mRunningCount != 0) {
+                    mViolations.add("barrier " + action.mIndex + " started with " + mRunningCount
+                            + " actions running");
+                }
+                if (mCompletedCount != action.mIndex) {
+                    mViolations.add("barrier " + action.mIndex + " started after only "
+                            + mCompletedCount + " actions completed");
+                }
+                mLastBarrierIndex = action.mIndex;
+                mLastBarrierDone = false;
+            } else {
+                if (!mActiveLanes.add(action.mLaneKey)) {
+                    mViolations.add(action.mIndex + " ran concurrently in " + action.mLaneKey);
+                }
+                final Integer last = mLastIndexOfLane.put(action.mLaneKey, action.mIndex);
+                if (last != null && last > action.mIndex) {
+                    mViolations.add(action.mIndex + " ran after " + last + " in "
+                            + action.mLaneKey);
+                }
+            }
+            mRunningCount++;
+        }
+
+        synchronized void onEnd(final TestAction action) {
+            mRunningCount--;
+            mCompletedCount++;
+            if (action.mLaneKey == null) {
+                mLastBarrierDone = true;
+            } else {
+                mActiveLanes.remove(action.mLaneKey);
+            }
+        }
+
+        synchronized List<String> getViolations() {
+            return new ArrayList<>(mViolations);
+        }
+    }
+
+    @Test
+    public void testMixedActions() throws InterruptedException {
+        final ActionExecutor executor = new ActionExecutor(TAG, MAX_CONCURRENT);
+        final OrderChecker checker = new OrderChecker();
+        final Random random = new Random(42);
+        final long[] delaysMs = new long[ACTION_COUNT];
+        final List<CountDownLatch> latches = new ArrayList<>();
+
+        for (int i = 0; i < ACTION_COUNT; i++) {
+            final TestAction action;
+            if (i % BARRIER_INTERVAL == BARRIER_INTERVAL - 1) {
+                action = new TestAction(null, i, 5);
+            } else {
+                final String laneKey = Action.getConversationLaneKey(
+                        String.valueOf(random.nextInt(CONVERSATION_COUNT)));
+                // Mostly quick actions (mark as read, drafts), some slow ones (downloads)
+                final int kind = random.nextInt(10);
+                action = new TestAction(laneKey, i, kind == 0 ? 20 : kind < 3 ? 2 : 0);
+            }
+            final long queuedMs = SystemClock.elapsedRealtime();
+            latches.add(executor.execute(action, new Runnable() {
+                @Override
+                public void run() {
+                    delaysMs[action.mIndex] = SystemClock.elapsedRealtime() - queuedMs;
+                    checker.onStart(action);
+                    SystemClock.sleep(action.mDurationMs);
+                    checker.onEnd(action);
+                }
+            }));
+            if (random.nextInt(4) == 0) {
+                // Let the executor catch up now and then, as actions are started in bursts
+                SystemClock.sleep(1);
+            }
+        }
+        for (final CountDownLatch latch : latches) {
+            assertTrue(latch.await(60, TimeUnit.SECONDS));
+        }
+
+        assertEquals(ACTION_COUNT, executor.getExecutedCount());
+        assertEquals(new ArrayList<String>(), checker.getViolations());
+
+        Arrays.sort(delaysMs);
+        Log.i(TAG, "Queueing delay of " + ACTION_COUNT + " actions: p50="
+                + getPercentile(delaysMs, 50) + "ms, p90=" + getPercentile(delaysMs, 90)
+                + "ms, p99=" + getPercentile(delaysMs, 99) + "ms, max="
+                + delaysMs[delaysMs.length - 1] + "ms");
+    }
+
+    private static long getPercentile(final long[] sorted, final int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+}
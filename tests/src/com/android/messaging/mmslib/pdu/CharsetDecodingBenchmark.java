@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.mmslib.pdu;
+
+import static org.junit.Assert.assertEquals;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Measures the time to decode mixed-charset MMS headers (subjects and addresses in ASCII, UTF-8,
+ * ISO-8859-1, Shift_JIS, Big5 and UTF-16) by charset name as before, through the pre-resolved
+ * charsets of {@link CharacterSets}, and through the decoded strings cached by
+ * {@link EncodedStringValue}, e.g. with
+ *  atest MessagingTests:CharsetDecodingBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class CharsetDecodingBenchmark {
+    private static final String TAG = "CharsetDecodingBench";
+
+    // Each header is decoded this many times, as notifications and sync decode them repeatedly
+    private static final int DECODES_PER_HEADER = 2000;
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int[] CHARSETS = new int[] {
+        CharacterSets.UTF_8, CharacterSets.UTF_8, CharacterSets.US_ASCII,
+        CharacterSets.ISO_8859_1, CharacterSets.UTF_8, CharacterSets.SHIFT_JIS,
+        CharacterSets.BIG5, CharacterSets.UTF_16,
+    };
+    private static final String[] TEXTS = new String[] {
+        "Photos from the weekend", "+16505550100/TYPE=PLMN", "alice@example.com",
+        "Caf\u00e9 cr\u00e8me br\u00fbl\u00e9e",
+        "\u041f\u0440\u0438\u0432\u0435\u0442 \ud83d\ude00",
+        "\u65e5\u672c\u8a9e\u306e\u4ef6\u540d", "\u7e41\u9ad4\u4e2d\u6587\u4e3b\u65e8",
+        "\u0645\u0631\u062d\u0628\u0627",
+    };
+
+    @Test
+    public void testDecode() throws UnsupportedEncodingException {
+        final byte[][] data = new byte[TEXTS.length][];
+        for (int i = 0; i < TEXTS.length; i++) {
+            data[i] = TEXTS[i].getBytes(CharacterSets.getMimeName(CHARSETS[i]));
+        }
+
+        long byNameNs = 0;
+        long preResolvedNs = 0;
+        long cachedNs = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long startNs = System.nanoTime();
+            for (int i = 0; i < TEXTS.length; i++) {
+                final String name = CharacterSets.getMimeName(CHARSETS[i]);
+                for (int j = 0; j < DECODES_PER_HEADER; j++) {
+                    assertEquals(TEXTS[i], new String(data[i], name));
+                }
+            }
+            byNameNs = System.nanoTime() - startNs;
+
+            startNs = System.nanoTime();
+            for (int i = 0; i < TEXTS.length; i++) {
+                for (int j = 0; j < DECODES_PER_HEADER; j++) {
+                    assertEquals(TEXTS[i], CharacterSets.decode(CHARSETS[i], data[i]));
+                }
+            }
+            preResolvedNs = System.nanoTime() - startNs;
+
+            startNs = System.nanoTime();
+            for (int i = 0; i < TEXTS.length; i++) {
+                final EncodedStringValue value = new EncodedStringValue(CHARSETS[i], data[i]);
+                for (int j = 0; j < DECODES_PER_HEADER; j++) {
+                    assertEquals(TEXTS[i], value.getString());
+                }
+            }
+            cachedNs = System.nanoTime() - startNs;
+        }
+
+        final int decodeCount = TEXTS.length * DECODES_PER_HEADER;
+        Log.i(TAG, "Average time of " + decodeCount + " decodes of " + TEXTS.length
+                + " headers, in ns");
+        Log.i(TAG, "  by charset name (before): " + byNameNs / decodeCount);
+        Log.i(TAG, "  pre-resolved charset: " + preResolvedNs / decodeCount);
+        Log.i(TAG, "  cached in EncodedStringValue: " + cachedNs / decodeCount);
+    }
+}
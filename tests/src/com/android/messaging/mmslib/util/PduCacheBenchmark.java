@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.mmslib.util;
+
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+import android.provider.Telephony.Mms;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.messaging.mmslib.pdu.MultimediaMessagePdu;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link PduCache} against the AbstractCache based cache it replaced
+ * (one lock on the whole cache, and updating flags waking every waiter), with threads loading
+ * and purging PDUs the way PduPersister does during sync and download bursts, e.g. with
+ *  atest MessagingTests:PduCacheBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class PduCacheBenchmark {
+    private static final String TAG = "PduCacheBenchmark";
+
+    private static final int[] THREAD_COUNTS = new int[] { 1, 4, 8 };
+    private static final int OPERATIONS_PER_THREAD = 20000;
+    // Messages loaded by the threads, so that some of them load the same message at once
+    private static final int MESSAGE_COUNT = 2000;
+    // One in this many operations purges a message instead of loading it
+    private static final int PURGE_RATIO = 10;
+    // Time spent querying the provider for a PDU that isn't cached
+    private static final long LOAD_NS = 20 * 1000;
+
+    /**
+     * The operations of PduPersister on the cache
+     */
+    private interface Cache {
+        /**
+         * Return the cached PDU of the message, or load it and cache it
+         */
+        void load(Uri uri);
+
+        void purge(Uri uri);
+    }
+
+    /**
+     * The cache before, with the locking PduPersister did around it
+     */
+    private static class LegacyCache implements Cache {
+        // AbstractCache refused new entries past this count
+        private static final int MAX_CACHED_ITEMS = 500;
+
+        private final HashMap<Uri, PduCacheEntry> mEntries = new HashMap<>();
+        private final HashMap<Uri, Integer> mHits = new HashMap<>();
+        private final HashSet<Uri> mUpdating = new HashSet<>();
+
+        @Override
+        public void load(final Uri uri) {
+            synchronized (this) {
+                if (mUpdating.contains(uri)) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (mEntries.get(uri) != null) {
+                    final Integer hits = mHits.get(uri);
+                    mHits.put(uri, hits == null ? 1 : hits + 1);
+                    return;
+                }
+                mUpdating.add(uri);
+            }
+            final PduCacheEntry entry = loadEntry();
+            synchronized (this) {
+                if (mEntries.size() < MAX_CACHED_ITEMS) {
+                    mEntries.put(uri, entry);
+                }
+                mUpdating.remove(uri);
+                notifyAll();
+            }
+        }
+
+        @Override
+        public synchronized void purge(final Uri uri) {
+            mUpdating.remove(uri);
+            mEntries.remove(uri);
+            mHits.remove(uri);
+        }
+    }
+
+    /**
+     * The cache now, used as PduPersister.load does
+     */
+    private static class ConcurrentCache implements Cache {
+        private final PduCache mCache = PduCache.getInstance();
+
+        @Override
+        public void load(final Uri uri) {
+            if (mCache.getOrStartUpdating(uri) == null) {
+                mCache.put(uri, loadEntry());
+            }
+        }
+
+        @Override
+        public void purge(final Uri uri) {
+            mCache.purge(uri);
+        }
+    }
+
+    @Test
+    public void testThroughput() throws InterruptedException {
+        final Uri[] uris = new Uri[MESSAGE_COUNT];
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            uris[i] = Uri.withAppendedPath(Mms.CONTENT_URI, String.valueOf(i + 1));
+        }
+        Log.i(TAG, "Throughput of " + OPERATIONS_PER_THREAD + " operations per thread, in ops/s");
+        for (final int threadCount : THREAD_COUNTS) {
+            final long legacy = run(new LegacyCache(), uris, threadCount);
+            PduCache.getInstance().purgeAll();
+            final long concurrent = run(new ConcurrentCache(), uris, threadCount);
+            PduCache.getInstance().purgeAll();
+            Log.i(TAG, "  " + threadCount + " threads: AbstractCache (before)=" + legacy
+                    + " PduCache (after)=" + concurrent);
+        }
+    }
+
+    private static long run(final Cache cache, final Uri[] uris, final int threadCount)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            final Random random = new Random(i);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                            final Uri uri = uris[random.nextInt(uris.length)];
+                            if (random.nextInt(PURGE_RATIO) == 0) {
+                                cache.purge(uri);
+                            } else {
+                                cache.load(uri);
+                            }
+                        }
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, TAG + i).start();
+        }
+        final long startNs = System.nanoTime();
+        start.countDown();
+        assertTrue(done.await(120, TimeUnit.SECONDS));
+        final long elapsedNs = System.nanoTime() - startNs;
+        return (long) threadCount * OPERATIONS_PER_THREAD * TimeUnit.SECONDS.toNanos(1)
+                / elapsedNs;
+    }
+
+    private static PduCacheEntry loadEntry() {
+        final long endNs = System.nanoTime() + LOAD_NS;
+        while (System.nanoTime() < endNs) {
+            // Querying the provider
+        }
+        return new PduCacheEntry(new MultimediaMessagePdu(), Mms.MESSAGE_BOX_INBOX, 1);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.sms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.messaging.Factory;
+import com.android.messaging.datamodel.data.MessageData;
+import com.android.messaging.datamodel.data.MessagePartData;
+import com.android.messaging.datamodel.data.ParticipantData;
+import com.android.messaging.mmslib.pdu.PduPart;
+import com.android.messaging.util.ContentType;
+import com.android.messaging.util.ImageUtils;
+import com.android.messaging.util.LatencyHistogram;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the time to prepare the body of an MMS with 10 camera photos: fitting the photos in
+ * the message size one at a time with equal shares of the budget as before, and end to end
+ * through {@link MmsUtils#makePduBody} with {@link AttachmentBudgetPlanner}, e.g. with
+ *  atest MessagingTests:MmsSendPreparationBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class MmsSendPreparationBenchmark {
+    private static final String TAG = "MmsSendPreparationBench";
+
+    private static final int PHOTO_COUNT = 10;
+    // A 12 megapixel camera photo
+    private static final int PHOTO_WIDTH = 4032;
+    private static final int PHOTO_HEIGHT = 3024;
+    private static final int PHOTO_QUALITY = 90;
+    private static final int ROUNDS = 3;
+    // As MmsUtils leaves for the headers
+    private static final int MMS_MAX_SIZE_SLOP = 1024;
+
+    private Context mContext;
+    private final List<File> mPhotos = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = Factory.get().getApplicationContext();
+        final Random random = new Random(42);
+        final Bitmap bitmap =
+                Bitmap.createBitmap(PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.ARGB_8888);
+        final int[] row = new int[PHOTO_WIDTH];
+        for (int i = 0; i < PHOTO_COUNT; i++) {
+            // Gradients with noise, so that the photos compress about as well as real ones
+            final int base = random.nextInt(0x1000000);
+            for (int y = 0; y < PHOTO_HEIGHT; y++) {
+                for (int x = 0; x < PHOTO_WIDTH; x++) {
+                    final int shade = (x + y) * 0x40 / (PHOTO_WIDTH + PHOTO_HEIGHT);
+                    row[x] = 0xff000000 | ((base + shade * 0x10101 + random.nextInt(0x101010))
+                            & 0xffffff);
+                }
+                bitmap.setPixels(row, 0, PHOTO_WIDTH, 0, y, PHOTO_WIDTH, 1);
+            }
+            final File photo = new File(mContext.getCacheDir(), TAG + i + ".jpg");
+            try (OutputStream out = new FileOutputStream(photo)) {
+                assertTrue(bitmap.compress(Bitmap.CompressFormat.JPEG, PHOTO_QUALITY, out));
+            }
+            mPhotos.add(photo);
+        }
+        bitmap.recycle();
+    }
+
+    @After
+    public void tearDown() {
+        for (final File photo : mPhotos) {
+            photo.delete();
+        }
+    }
+
+    @Test
+    public void testMakePduBody() {
+        final int subId = ParticipantData.DEFAULT_SELF_SUB_ID;
+        final MessageData message = MessageData.createDraftMmsMessage(null /* conversationId */,
+                null /* selfId */, "Photos", null /* subjectText */);
+        long photosBytes = 0;
+        for (final File photo : mPhotos) {
+            message.addPart(MessagePartData.createMediaMessagePart(ContentType.IMAGE_JPEG,
+                    Uri.fromFile(photo), PHOTO_WIDTH, PHOTO_HEIGHT));
+            photosBytes += photo.length();
+        }
+
+        final LatencyHistogram sequential = new LatencyHistogram();
+        final LatencyHistogram planned = new LatencyHistogram();
+        for (int i = 0; i < ROUNDS; i++) {
+            long startMs = SystemClock.elapsedRealtime();
+            fitSequentially(message, subId);
+            sequential.record(SystemClock.elapsedRealtime() - startMs);
+
+            startMs = SystemClock.elapsedRealtime();
+            final MmsUtils.MmsInfo info = MmsUtils.makePduBody(mContext, message, subId);
+            planned.record(SystemClock.elapsedRealtime() - startMs);
+            assertTrue(info.mMessageSize <= MmsConfig.get(subId).getMaxMessageSize());
+        }
+
+        Log.i(TAG, "Preparation time of " + PHOTO_COUNT + " photos (" + photosBytes / 1024
+                + "KB), in ms over " + ROUNDS + " rounds");
+        Log.i(TAG, "  sequential (before): " + summarize(sequential));
+        Log.i(TAG, "  planned, in parallel (after): " + summarize(planned));
+    }
+
+    /**
+     * Fit the photos the way makePduBody did before, giving each the same share of the budget
+     * and resizing them one at a time
+     */
+    private void fitSequentially(final MessageData message, final int subId) {
+        final MmsConfig config = MmsConfig.get(subId);
+        final int bytesPerImage =
+                Math.max(MmsUtils.MIN_IMAGE_BYTE_SIZE,
+                        (config.getMaxMessageSize() - MMS_MAX_SIZE_SLOP) / PHOTO_COUNT);
+        int count = 0;
+        for (final MessagePartData part : message.getParts()) {
+            if (!part.isAttachment()) {
+                continue;
+            }
+            int widthLimit = config.getMaxImageWidth();
+            int heightLimit = config.getMaxImageHeight();
+            if ((part.getHeight() > part.getWidth()) != (heightLimit > widthLimit)) {
+                final int temp = widthLimit;
+                widthLimit = heightLimit;
+                heightLimit = temp;
+            }
+            final Uri uri = part.getContentUri();
+            final int orientation = ImageUtils.getOrientation(mContext, uri);
+            assertTrue(MmsUtils.getDataLength(mContext, uri) > 0);
+            final PduPart resized = MmsUtils.getResizedImageAsPart(widthLimit, heightLimit,
+                    bytesPerImage, part.getWidth(), part.getHeight(), orientation, uri,
+                    mContext, part.getContentType(), 1 /* concurrentResizes */);
+            assertNotNull(resized);
+            count++;
+        }
+        assertEquals(PHOTO_COUNT, count);
+    }
+
+    private static String summarize(final LatencyHistogram latencies) {
+        return "p50=" + latencies.getPercentile(50) + " max=" + latencies.getMax();
+    }
+}